@@ -0,0 +1,151 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks cache lookups and stores by several request threads at once, for each eviction policy.
+ * <p>
+ * The cache is filled with small entries, more than it can hold, so stores also evict. Keys are picked at random
+ * from a fixed set, so about half of lookups hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SSCacheBenchmark {
+    private static final int KEYS = 16 * 1024;
+    private static final int BODY_SIZE = 2 * 1024;
+    private static final long CACHE_SIZE = KEYS / 2 * (BODY_SIZE + 256);
+
+    @Param({"LRU", "TINY_LFU"})
+    public SSCache.Eviction eviction;
+
+    private SSCache mCache;
+    private String[] mKeys;
+    private byte[] mHead;
+    private byte[][] mBodies;
+
+    /**
+     * Fill cache.
+     *
+     * @throws IOException Not thrown, cache has no disk tier.
+     */
+    @Setup
+    public void setup() throws IOException {
+        mCache = new SSCache(CACHE_SIZE, null, eviction);
+        mKeys = new String[KEYS];
+        mHead = new byte[128];
+
+        // distinct bodies, a store hashes body and shares it with equal ones
+        mBodies = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            mKeys[i] = "GET http://localhost:8080/assets/file-" + i + ".js";
+            mBodies[i] = new byte[BODY_SIZE];
+            ThreadLocalRandom.current().nextBytes(mBodies[i]);
+            mCache.put(mKeys[i], mHead, mBodies[i]);
+        }
+    }
+
+    /**
+     * Release cache.
+     *
+     * @throws IOException Not thrown, cache has no disk tier.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        mCache.close();
+    }
+
+    /**
+     * Look up a random key.
+     *
+     * @return True if found.
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean get() {
+        return lookup();
+    }
+
+    /**
+     * Store a random key.
+     *
+     * @return True if stored.
+     * @throws IOException Not thrown, cache has no disk tier.
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean put() throws IOException {
+        return store();
+    }
+
+    /**
+     * Look up a random key, while another thread stores.
+     *
+     * @return True if found.
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public boolean mixedGet() {
+        return lookup();
+    }
+
+    /**
+     * Store a random key, while other threads look up.
+     *
+     * @return True if stored.
+     * @throws IOException Not thrown, cache has no disk tier.
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public boolean mixedPut() throws IOException {
+        return store();
+    }
+
+    /**
+     * Look up a random key, releasing the value.
+     *
+     * @return True if found.
+     */
+    private boolean lookup() {
+        final SSCache.Value value = mCache.get(mKeys[ThreadLocalRandom.current().nextInt(KEYS)]);
+        if (value == null) {
+            return false;
+        }
+        value.close();
+        return true;
+    }
+
+    /**
+     * Store a random key with its body.
+     *
+     * @return True if stored.
+     * @throws IOException Not thrown, cache has no disk tier.
+     */
+    private boolean store() throws IOException {
+        final int i = ThreadLocalRandom.current().nextInt(KEYS);
+        return mCache.put(mKeys[i], mHead, mBodies[i]);
+    }
+}
@@ -0,0 +1,147 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Trace driven simulation of cache eviction policies, reporting hit ratio of each policy at a few cache sizes.
+ * <p>
+ * The trace is either read from a file, with a "key size" pair on each line, or generated. The generated trace mimics
+ * a development web server: a set of popular small assets accessed with a Zipf distribution, mixed with bursts of
+ * one time accesses from a crawler, and a few large downloads.
+ */
+public class SSCacheSimulation {
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long[] CACHE_SIZES = {8 * MB, 32 * MB, 128 * MB};
+
+    /**
+     * Run simulation.
+     *
+     * @param args Optional trace file path.
+     * @throws IOException Trace read error.
+     */
+    public static void main(String[] args) throws IOException {
+        final List<Request> trace = args.length > 0 ? readTrace(args[0]) : generateTrace(new Random(42));
+        System.out.printf("Requests: %d%n%n", trace.size());
+        System.out.printf("%-10s %-10s %10s %10s%n", "Size", "Policy", "Hit %", "Byte hit %");
+
+        // compare policies at each size
+        final Map<Integer, byte[]> bodies = new HashMap<>();
+        for (long cacheSize : CACHE_SIZES) {
+            for (SSCache.Eviction eviction : SSCache.Eviction.values()) {
+                final SSCache cache = new SSCache(cacheSize, null, eviction);
+                long hits = 0;
+                long hitBytes = 0;
+                long totalBytes = 0;
+                for (Request request : trace) {
+                    totalBytes += request.size;
+                    if (cache.get(request.key) != null) {
+                        hits++;
+                        hitBytes += request.size;
+                    } else {
+                        final byte[] body = bodies.computeIfAbsent(request.size, byte[]::new);
+                        cache.put(request.key, new byte[0], body);
+                    }
+                }
+                System.out.printf("%-10s %-10s %10.2f %10.2f%n", (cacheSize / MB) + " MB", eviction,
+                        100.0 * hits / trace.size(), 100.0 * hitBytes / totalBytes);
+            }
+        }
+    }
+
+    /**
+     * Read trace file.
+     *
+     * @param path Trace file path.
+     * @return Trace requests.
+     * @throws IOException Read error.
+     */
+    private static List<Request> readTrace(String path) throws IOException {
+        final List<Request> trace = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2) {
+                    trace.add(new Request(parts[0], Integer.parseInt(parts[1])));
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Generate a synthetic trace.
+     *
+     * @param random Random source.
+     * @return Trace requests.
+     */
+    private static List<Request> generateTrace(Random random) {
+        final int assets = 5000;
+        final int requests = 300_000;
+
+        // popular assets, 2 KB to 64 KB
+        final int[] assetSizes = new int[assets];
+        for (int i = 0; i < assets; i++) {
+            assetSizes[i] = (int) ((2 + random.nextInt(63)) * KB);
+        }
+
+        // cumulative Zipf weights
+        final double[] cumulative = new double[assets];
+        double sum = 0;
+        for (int i = 0; i < assets; i++) {
+            sum += 1.0 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+
+        final List<Request> trace = new ArrayList<>(requests);
+        int unique = 0;
+        while (trace.size() < requests) {
+            final double r = random.nextDouble();
+            if (r < 0.0005) {
+                // crawler burst, pages accessed once
+                for (int i = 0; i < 400; i++) {
+                    trace.add(new Request("/crawl/" + unique++, (int) ((16 + random.nextInt(112)) * KB)));
+                }
+            } else if (r < 0.0006) {
+                // large download
+                trace.add(new Request("/download/" + unique++, (int) (90 * MB)));
+            } else {
+                // popular asset
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                index = index < 0 ? -index - 1 : index;
+                trace.add(new Request("/assets/" + index, assetSizes[index]));
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * A traced request.
+     */
+    private static class Request {
+        private final String key;
+        private final int size;
+
+        /**
+         * Constructor
+         *
+         * @param key  Cache key.
+         * @param size Response size.
+         */
+        private Request(String key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
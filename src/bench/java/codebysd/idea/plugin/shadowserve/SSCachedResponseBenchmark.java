@@ -0,0 +1,94 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks serialization of cached response heads, done on every cache store and hit.
+ * <p>
+ * The response has headers typical of a static asset served by a development server, with a Vary header.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSCachedResponseBenchmark {
+    private SSCachedResponse mResponse;
+    private byte[] mBytes;
+
+    /**
+     * Create response and its bytes.
+     *
+     * @throws IOException Serialization error.
+     */
+    @Setup
+    public void setup() throws IOException {
+        final Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", Collections.singletonList("application/javascript; charset=utf-8"));
+        headers.put("Content-Length", Collections.singletonList("48213"));
+        headers.put("Cache-Control", Collections.singletonList("public, max-age=3600"));
+        headers.put("ETag", Collections.singletonList("\"5e1b2c3d-bc55\""));
+        headers.put("Last-Modified", Collections.singletonList("Sun, 12 Jan 2020 10:15:30 GMT"));
+        headers.put("Date", Collections.singletonList("Mon, 13 Jan 2020 08:00:00 GMT"));
+        headers.put("Vary", Collections.singletonList("Accept-Encoding"));
+        headers.put("Access-Control-Allow-Origin", Collections.singletonList("*"));
+        headers.put("Set-Cookie", List.of("session=abc123; Path=/; HttpOnly", "theme=dark; Path=/"));
+
+        final Map<String, List<String>> requestHeaders = new LinkedHashMap<>();
+        requestHeaders.put("Accept-Encoding", Collections.singletonList("gzip, deflate, br"));
+
+        final long now = System.currentTimeMillis();
+        mResponse = new SSCachedResponse(200, headers, requestHeaders, now - 20, now);
+        mBytes = mResponse.toBytes();
+    }
+
+    /**
+     * Serialize response.
+     *
+     * @return Bytes.
+     * @throws IOException Serialization error.
+     */
+    @Benchmark
+    public byte[] toBytes() throws IOException {
+        return mResponse.toBytes();
+    }
+
+    /**
+     * De-serialize response.
+     *
+     * @return Response.
+     * @throws IOException De-serialization error.
+     */
+    @Benchmark
+    public SSCachedResponse fromBytes() throws IOException {
+        return SSCachedResponse.fromBytes(mBytes);
+    }
+
+    /**
+     * Serialize response and read it back.
+     *
+     * @return Response.
+     * @throws IOException Serialization error.
+     */
+    @Benchmark
+    public SSCachedResponse roundTrip() throws IOException {
+        return SSCachedResponse.fromBytes(mResponse.toBytes());
+    }
+}
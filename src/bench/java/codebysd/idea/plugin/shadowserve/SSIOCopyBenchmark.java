@@ -0,0 +1,116 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks stream copy throughput of {@link SSUtils#IOCopy(InputStream, OutputStream, long)}, used for every
+ * response body, at a few body sizes.
+ * <p>
+ * Data available at once is copied with the length unknown, through the default pooled buffer, and with the length
+ * known, through a buffer sized for it.
+ * <p>
+ * Input is either all available at once, like a file, or trickles in small reads, like a response arriving from the
+ * network, which makes the copy flush after every read. Score is copies per second, multiply by size for bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSIOCopyBenchmark {
+    private static final int TRICKLE_READ = 1460;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] mData;
+    private OutputStream mOut;
+
+    /**
+     * Create data.
+     */
+    @Setup
+    public void setup() {
+        mData = new byte[size];
+        ThreadLocalRandom.current().nextBytes(mData);
+        mOut = OutputStream.nullOutputStream();
+    }
+
+    /**
+     * Copy data available at once.
+     *
+     * @throws IOException Not thrown.
+     */
+    @Benchmark
+    public void whole() throws IOException {
+        SSUtils.IOCopy(new ByteArrayInputStream(mData), mOut);
+    }
+
+    /**
+     * Copy data available at once, with its length known.
+     *
+     * @throws IOException Not thrown.
+     */
+    @Benchmark
+    public void sized() throws IOException {
+        SSUtils.IOCopy(new ByteArrayInputStream(mData), mOut, mData.length);
+    }
+
+    /**
+     * Copy data arriving in small reads.
+     *
+     * @throws IOException Not thrown.
+     */
+    @Benchmark
+    public void trickle() throws IOException {
+        SSUtils.IOCopy(new TrickleInputStream(mData), mOut);
+    }
+
+    /**
+     * Input stream returning at most a network packet of data per read, with nothing more available after a read.
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        /**
+         * Constructor
+         *
+         * @param data Data to read.
+         */
+        private TrickleInputStream(byte[] data) {
+            super(data);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, TRICKLE_READ));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized int available() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,804 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.execution.ui.ExecutionConsole;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileSystem;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * End to end load test of the local server, its filters and web handler, outside the IDE.
+ * <p>
+ * Each scenario starts a local server as a run configuration does, in front of a stub origin server and over a
+ * temporary shadow directory, and drives it with a load generator for a while after a warm-up:
+ * <ul>
+ * <li>cache-off: all requests go to the origin.</li>
+ * <li>cache-on: same requests, with the response cache in the chain.</li>
+ * <li>shadow-heavy: most requests are served from the shadow directory, the rest go to the origin.</li>
+ * </ul>
+ * Origin responses come in three kinds, with Content-Length, chunked, and streamed in parts with a pause between
+ * them, after a configurable latency. Load is closed loop, a number of clients each sending a request after the last
+ * one completed, or open loop, requests sent at a fixed rate whether or not earlier ones completed. Open loop latency
+ * is measured from the time a request was due, so a server falling behind shows in latency, not lower load.
+ * <p>
+ * Reported for each scenario: throughput, latency percentiles, cache hit ratio, copy buffer pool hit ratio, and
+ * heap allocated per request and garbage collections while measuring. Allocation is counted for server threads only, excluding load clients and
+ * origin handlers; threads ending while measuring are missed.
+ * <p>
+ * Options, as --name=value: mode (closed, open), clients, rate (requests per second, open loop), duration and warmup
+ * (seconds), latency (origin latency, ms), stream-pause (ms between streamed parts), sizes (body sizes, comma
+ * separated), keys (distinct paths), shadow-ratio (shadow-heavy share of shadowed requests), scenarios (comma
+ * separated), executor (work-stealing, fixed) and threads (request thread pool), nodelay (true, false, for server
+ * and origin), network (network emulation preset: off, slow-3g, fast-3g, slow-4g).
+ */
+public class SSLoadTest {
+    private static final String SHADOW_PATH = "/static/";
+    private static final String CLIENT_THREAD = "load-client-";
+    private static final String ORIGIN_THREAD = "stub-origin-";
+    private static final int STREAM_PARTS = 4;
+
+    /**
+     * Run load test.
+     *
+     * @param args Options.
+     * @throws Exception Setup error.
+     */
+    public static void main(String[] args) throws Exception {
+        final Options options = Options.parse(args);
+
+        // keep a connection per client alive
+        System.setProperty("http.maxConnections", Integer.toString(options.clients));
+
+        // read once by the JDK server, so set before the origin starts
+        System.setProperty("sun.net.httpserver.nodelay", Boolean.toString(options.noDelay));
+
+        System.out.printf("Mode: %s, clients: %d%s, %d s after %d s warm-up%n", options.mode, options.clients,
+                "open".equals(options.mode) ? ", rate: " + options.rate + "/s" : "", options.duration,
+                options.warmup);
+        System.out.printf("Origin latency: %d ms, stream pause: %d ms, body sizes: %s, keys: %d%n",
+                options.latency, options.streamPause, Arrays.toString(options.sizes), options.keys);
+        System.out.printf("Server: %d threads (%s), TCP no delay: %b, network: %s%n%n", options.threads,
+                options.executor.name().toLowerCase(Locale.ROOT), options.noDelay, options.network);
+        System.out.printf("%-13s %9s %7s %9s %8s %8s %8s %8s %8s %6s %6s %10s %5s %7s%n", "Scenario",
+                "Requests", "Errors", "Req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "Hit %", "Pool %",
+                "Alloc/req", "GCs", "GC ms");
+
+        final Path shadowRoot = createShadowDirectory(options);
+        try (StubOrigin origin = new StubOrigin(options)) {
+            for (String scenario : options.scenarios) {
+                run(scenario, options, origin.getURI(), shadowRoot.toFile());
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(shadowRoot)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Run a scenario and print its results.
+     *
+     * @param scenario   Scenario name.
+     * @param options    Options.
+     * @param originURI  Origin server URI.
+     * @param shadowRoot Shadow directory.
+     * @throws Exception Setup error.
+     */
+    private static void run(String scenario, Options options, URI originURI, File shadowRoot) throws Exception {
+        final boolean cached = "cache-on".equals(scenario);
+        final double shadowRatio;
+        if ("shadow-heavy".equals(scenario)) {
+            shadowRatio = options.shadowRatio;
+        } else if (cached || "cache-off".equals(scenario)) {
+            shadowRatio = 0;
+        } else {
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+
+        // server as a run configuration starts it
+        final SSUILogger uiLogger = new QuietLogger();
+        final SSMetrics metrics = new SSMetrics();
+        final HttpHandler handler = new SSWebHandler(originURI, metrics, uiLogger);
+        final List<Filter> filters = new ArrayList<>();
+        final SSNetworkFilter network = new SSNetworkFilter(options.network, SSConstants.Defaults.NETWORK_THREADS,
+                SSConstants.Defaults.NETWORK_BUFFER);
+        filters.add(network);
+        filters.add(new SSMetricsFilter(metrics, false));
+        filters.add(new SSShadowFilter(SHADOW_PATH, new LocalFile(shadowRoot), SSConstants.Defaults.INDEX_FILE,
+                metrics, uiLogger));
+        SSCache cache = null;
+        SSCacheRefresher refresher = null;
+        if (cached) {
+            final SSCachePolicy policy = SSCachePolicy.defaults();
+            cache = new SSCache(policy.getBudgetBytes(), null, SSCache.Eviction.TINY_LFU,
+                    new SSBodyStore(SSBodyStore.capacityFor(policy.getBudgetBytes())));
+            refresher = new SSCacheRefresher(SSConstants.Defaults.CACHE_REFRESH_THREADS,
+                    SSConstants.Defaults.CACHE_REFRESH_QUEUE);
+            filters.add(new SSCacheFilter(cache, handler, refresher, SSConstants.Defaults.CACHE_STALE, policy,
+                    false, null, metrics, uiLogger));
+        }
+        final SSLocalServer server = new SSLocalServer(SSConstants.Defaults.LOCAL_HOST, 0, filters, handler);
+        server.setExecutor(options.executor, options.threads);
+        server.setConnectionOptions(SSConstants.Defaults.SERVER_BACKLOG, SSConstants.Defaults.IDLE_TIMEOUT,
+                options.noDelay);
+        server.start();
+
+        try {
+            final String base = server.getAddress();
+            final Load load = new Load(options, base, shadowRatio);
+
+            // warm up, then measure
+            load.drive(options.warmup, new SSHistogram());
+            metrics.reset();
+            final SSHistogram latency = new SSHistogram();
+            final long allocated = serverAllocatedBytes();
+            final long[] gc = gcCountAndTime();
+            final SSBufferPool pool = SSBufferPool.shared();
+            final long acquires = pool.getAcquireCount();
+            final long poolHits = pool.getHitCount();
+            final long elapsed = load.drive(options.duration, latency);
+            final long allocatedDelta = serverAllocatedBytes() - allocated;
+            final long[] gcDelta = gcCountAndTime();
+
+            // report
+            final SSHistogram.Snapshot s = latency.snapshot();
+            final long requests = s.getCount();
+            final double hitRatio = metrics.snapshot().getCacheHitRatio();
+            final long poolAcquires = pool.getAcquireCount() - acquires;
+            System.out.printf("%-13s %9d %7d %9.0f %8.2f %8.2f %8.2f %8.2f %8.2f %6s %6s %10s %5d %7d%n", scenario,
+                    requests, load.errors.get(), requests / (elapsed / 1e9), s.getValueAt(50) / 1e3,
+                    s.getValueAt(90) / 1e3, s.getValueAt(99) / 1e3, s.getValueAt(99.9) / 1e3, s.getMax() / 1e3,
+                    cached ? String.format(Locale.ROOT, "%.1f", 100 * hitRatio) : "-",
+                    poolAcquires > 0 ? String.format(Locale.ROOT, "%.1f",
+                            100.0 * (pool.getHitCount() - poolHits) / poolAcquires) : "-",
+                    requests > 0 ? formatBytes(allocatedDelta / requests) : "-",
+                    gcDelta[0] - gc[0], gcDelta[1] - gc[1]);
+        } finally {
+            server.destroyProcess();
+            network.close();
+            if (refresher != null) {
+                refresher.close();
+            }
+            if (cache != null) {
+                cache.close();
+            }
+        }
+    }
+
+    /**
+     * Create a temporary shadow directory, with a file for each key.
+     *
+     * @param options Options.
+     * @return Directory path.
+     * @throws IOException Write error.
+     */
+    private static Path createShadowDirectory(Options options) throws IOException {
+        final Path root = Files.createTempDirectory("ss-load");
+        final Random random = new Random(42);
+        for (int i = 0; i < options.keys; i++) {
+            final byte[] data = new byte[options.sizeOf(i)];
+            random.nextBytes(data);
+            Files.write(root.resolve("file-" + i + ".js"), data);
+        }
+        return root;
+    }
+
+    /**
+     * Get heap bytes allocated by live server threads so far, excluding load clients and origin handlers.
+     *
+     * @return Allocated bytes.
+     */
+    private static long serverAllocatedBytes() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long[] ids = threads.getAllThreadIds();
+        final ThreadInfo[] infos = threads.getThreadInfo(ids);
+        final long[] allocated = threads.getThreadAllocatedBytes(ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] != null && allocated[i] > 0 && !infos[i].getThreadName().startsWith(CLIENT_THREAD)
+                    && !infos[i].getThreadName().startsWith(ORIGIN_THREAD)) {
+                total += allocated[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Get total garbage collection count and time so far.
+     *
+     * @return Count and time in millis.
+     */
+    private static long[] gcCountAndTime() {
+        final long[] result = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result[0] += Math.max(0, gc.getCollectionCount());
+            result[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /**
+     * Format a byte count for display.
+     *
+     * @param bytes Byte count.
+     * @return Bytes, KB or MB.
+     */
+    private static String formatBytes(long bytes) {
+        if (bytes < 10 * 1024) {
+            return bytes + " B";
+        } else if (bytes < 10 * 1024 * 1024) {
+            return (bytes / 1024) + " KB";
+        }
+        return (bytes / (1024 * 1024)) + " MB";
+    }
+
+    /**
+     * Load test options.
+     */
+    private static class Options {
+        private String mode = "closed";
+        private int clients = 16;
+        private int rate = 2000;
+        private int duration = 10;
+        private int warmup = 3;
+        private int latency = 5;
+        private int streamPause = 2;
+        private int[] sizes = {1024, 16 * 1024, 256 * 1024};
+        private int keys = 300;
+        private double shadowRatio = 0.8;
+        private String[] scenarios = {"cache-off", "cache-on", "shadow-heavy"};
+        private SSLocalServer.ExecutorType executor = SSLocalServer.ExecutorType.valueOf(
+                SSConstants.Defaults.SERVER_EXECUTOR);
+        private int threads = SSConstants.Defaults.SERVER_THREADS;
+        private boolean noDelay = SSConstants.Defaults.TCP_NODELAY;
+        private SSNetworkProfile network = SSNetworkProfile.OFF;
+
+        /**
+         * Parse options.
+         *
+         * @param args Options as --name=value.
+         * @return Options.
+         * @throws IllegalArgumentException If an option is unknown or invalid.
+         */
+        private static Options parse(String[] args) {
+            final Options options = new Options();
+            for (String arg : args) {
+                final int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("Expected --name=value: " + arg);
+                }
+                final String value = arg.substring(eq + 1);
+                switch (arg.substring(2, eq)) {
+                    case "mode":
+                        if (!"closed".equals(value) && !"open".equals(value)) {
+                            throw new IllegalArgumentException("Mode must be closed or open: " + value);
+                        }
+                        options.mode = value;
+                        break;
+                    case "clients":
+                        options.clients = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        options.rate = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        options.duration = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        options.warmup = Integer.parseInt(value);
+                        break;
+                    case "latency":
+                        options.latency = Integer.parseInt(value);
+                        break;
+                    case "stream-pause":
+                        options.streamPause = Integer.parseInt(value);
+                        break;
+                    case "sizes":
+                        options.sizes = Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim()))
+                                .toArray();
+                        break;
+                    case "keys":
+                        options.keys = Integer.parseInt(value);
+                        break;
+                    case "shadow-ratio":
+                        options.shadowRatio = Double.parseDouble(value);
+                        break;
+                    case "scenarios":
+                        options.scenarios = value.split(",");
+                        break;
+                    case "executor":
+                        options.executor = SSLocalServer.ExecutorType.valueOf(
+                                value.replace('-', '_').toUpperCase(Locale.ROOT));
+                        break;
+                    case "threads":
+                        options.threads = Integer.parseInt(value);
+                        break;
+                    case "nodelay":
+                        options.noDelay = Boolean.parseBoolean(value);
+                        break;
+                    case "network":
+                        options.network = SSNetworkProfile.of(SSNetworkProfile.Preset.valueOf(
+                                value.replace('-', '_').toUpperCase(Locale.ROOT)), 0, 0, 0, 0, 0);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            return options;
+        }
+
+        /**
+         * Get body size of a key, cycling through sizes independently of response kind.
+         *
+         * @param key Key number.
+         * @return Body size.
+         */
+        private int sizeOf(int key) {
+            return sizes[(key / 3) % sizes.length];
+        }
+    }
+
+    /**
+     * Load generator, sending requests for random keys from client threads.
+     */
+    private static class Load {
+        private final Options options;
+        private final String base;
+        private final double shadowRatio;
+        private final AtomicLong errors = new AtomicLong();
+
+        /**
+         * Constructor
+         *
+         * @param options     Options.
+         * @param base        Local server address.
+         * @param shadowRatio Share of requests to shadowed paths.
+         */
+        private Load(Options options, String base, double shadowRatio) {
+            this.options = options;
+            this.base = base;
+            this.shadowRatio = shadowRatio;
+        }
+
+        /**
+         * Drive load for a while, recording latency of completed requests.
+         *
+         * @param seconds Duration.
+         * @param latency Latency histogram, in microseconds.
+         * @return Elapsed nanoseconds.
+         * @throws InterruptedException If interrupted while waiting for clients.
+         */
+        private long drive(int seconds, SSHistogram latency) throws InterruptedException {
+            errors.set(0);
+            final boolean open = "open".equals(options.mode);
+            final long interval = open ? TimeUnit.SECONDS.toNanos(1) / Math.max(1, options.rate) : 0;
+            final long start = System.nanoTime();
+            final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            final AtomicLong slot = new AtomicLong();
+
+            final Thread[] clients = new Thread[options.clients];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new Thread(() -> {
+                    final byte[] buffer = new byte[16 * 1024];
+                    while (true) {
+                        // open loop takes the next due time, closed loop sends now
+                        long due = System.nanoTime();
+                        if (open) {
+                            due = start + slot.getAndIncrement() * interval;
+                            while (System.nanoTime() < due) {
+                                LockSupport.parkNanos(due - System.nanoTime());
+                            }
+                        }
+                        if (due >= end) {
+                            return;
+                        }
+                        request(buffer);
+                        latency.record((System.nanoTime() - due) / 1000);
+                    }
+                }, CLIENT_THREAD + i);
+                clients[i].start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * Send a request for a random key and read the response, counting failures.
+         *
+         * @param buffer Read buffer.
+         */
+        private void request(byte[] buffer) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int key = random.nextInt(options.keys);
+            final String path = random.nextDouble() < shadowRatio
+                    ? SHADOW_PATH + "file-" + key + ".js"
+                    : "/api/" + StubOrigin.KINDS[key % StubOrigin.KINDS.length] + "/" + key;
+            try {
+                final HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+                final int status = connection.getResponseCode();
+                try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                    // drain so the connection is reused
+                    while (in != null && in.read(buffer) >= 0) {
+                        continue;
+                    }
+                }
+                if (status != 200) {
+                    errors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Origin server stub. Responds to /api/{kind}/{key} after a latency, with a body of the key's size, cacheable
+     * for an hour. Kind "fixed" sends Content-Length, "chunked" sends the body chunked at once, "stream" sends it
+     * chunked in parts with a pause between them.
+     */
+    private static class StubOrigin implements Closeable {
+        private static final String[] KINDS = {"fixed", "chunked", "stream"};
+
+        private final Options options;
+        private final Map<Integer, byte[]> bodies = new HashMap<>();
+        private final HttpServer server;
+        private final ExecutorService executor;
+
+        /**
+         * Constructor, starts server.
+         *
+         * @param options Options.
+         * @throws IOException Startup error.
+         */
+        private StubOrigin(Options options) throws IOException {
+            this.options = options;
+            final Random random = new Random(7);
+            for (int size : options.sizes) {
+                final byte[] body = new byte[size];
+                random.nextBytes(body);
+                bodies.put(size, body);
+            }
+
+            // a thread per request, pauses must not hold up other requests
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r, ORIGIN_THREAD + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            server = HttpServer.create(new InetSocketAddress(SSConstants.Defaults.LOCAL_HOST, 0), 0);
+            server.createContext("/api/", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        /**
+         * Get origin URI.
+         *
+         * @return URI.
+         */
+        private URI getURI() {
+            return URI.create("http://" + SSConstants.Defaults.LOCAL_HOST + ":" + server.getAddress().getPort() + "/");
+        }
+
+        /**
+         * Handle a request.
+         *
+         * @param exchange Exchange.
+         * @throws IOException Write error.
+         */
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                final String[] parts = exchange.getRequestURI().getPath().split("/");
+                final String kind = parts.length > 3 ? parts[2] : "";
+                final byte[] body = bodies.get(options.sizeOf(parts.length > 3 ? Integer.parseInt(parts[3]) : 0));
+                pause(options.latency);
+
+                exchange.getResponseHeaders().set("Content-Type", "application/javascript");
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=3600");
+                final OutputStream out = exchange.getResponseBody();
+                switch (kind) {
+                    case "fixed":
+                        exchange.sendResponseHeaders(200, body.length);
+                        out.write(body);
+                        break;
+                    case "chunked":
+                        exchange.sendResponseHeaders(200, 0);
+                        out.write(body);
+                        break;
+                    case "stream":
+                        exchange.sendResponseHeaders(200, 0);
+                        final int part = (body.length + STREAM_PARTS - 1) / STREAM_PARTS;
+                        for (int off = 0; off < body.length; off += part) {
+                            if (off > 0) {
+                                pause(options.streamPause);
+                            }
+                            out.write(body, off, Math.min(part, body.length - off));
+                            out.flush();
+                        }
+                        break;
+                    default:
+                        exchange.sendResponseHeaders(404, -1);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Sleep for a while.
+         *
+         * @param millis Milliseconds, nothing if 0.
+         */
+        private static void pause(int millis) {
+            if (millis > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Local file as a virtual file, enough for the shadow filter to resolve and read files without the IDE file
+     * system. Paths resolve within the root directory only.
+     */
+    private static class LocalFile extends VirtualFile {
+        private final File file;
+
+        /**
+         * Constructor
+         *
+         * @param file Local file.
+         */
+        private LocalFile(File file) {
+            this.file = file;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Nullable
+        @Override
+        public VirtualFile findFileByRelativePath(String relPath) {
+            final Path root = file.toPath().normalize();
+            final Path resolved = root.resolve(relPath.replaceFirst("^/+", "")).normalize();
+            return resolved.startsWith(root) && Files.exists(resolved) ? new LocalFile(resolved.toFile()) : null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Nullable
+        @Override
+        public VirtualFile findChild(String name) {
+            final File child = new File(file, name);
+            return child.exists() ? new LocalFile(child) : null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean exists() {
+            return file.exists();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getCanonicalPath() {
+            return file.getAbsolutePath();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return file.getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         * Not available outside the IDE.
+         */
+        @Override
+        public VirtualFileSystem getFileSystem() {
+            throw new UnsupportedOperationException("No IDE file system");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getPath() {
+            return file.getAbsolutePath();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isWritable() {
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isDirectory() {
+            return file.isDirectory();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isValid() {
+            return file.exists();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Nullable
+        @Override
+        public VirtualFile getParent() {
+            final File parent = file.getParentFile();
+            return parent != null ? new LocalFile(parent) : null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public VirtualFile[] getChildren() {
+            final File[] children = file.listFiles();
+            return children == null ? new VirtualFile[0]
+                    : Arrays.stream(children).map(LocalFile::new).toArray(VirtualFile[]::new);
+        }
+
+        /**
+         * {@inheritDoc}
+         * Files are read only.
+         */
+        @Override
+        public OutputStream getOutputStream(Object requestor, long newModificationStamp, long newTimeStamp)
+                throws IOException {
+            throw new IOException("Read only");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public byte[] contentsToByteArray() throws IOException {
+            return Files.readAllBytes(file.toPath());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getTimeStamp() {
+            return file.lastModified();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getLength() {
+            return file.length();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void refresh(boolean asynchronous, boolean recursive, @Nullable Runnable postRunnable) {
+            if (postRunnable != null) {
+                postRunnable.run();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    /**
+     * Logger that prints crashes only, request logging is off as in a busy run.
+     */
+    private static class QuietLogger implements SSUILogger {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isRequestLogged() {
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ExecutionConsole getExecutionConsole() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void logSystem(String msg, Object... args) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void logStdOut(String msg, Object... args) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void logCrash(Exception e, String msg, Object... args) {
+            System.err.println(formatSafe(msg, args) + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks utilities called on every proxied request: path joining and URI rewriting to the origin server, and
+ * copying of request and response headers.
+ * <p>
+ * URI rewriting is measured both with the prepared target template used by the web handler, and with the general
+ * {@link SSUtils#editURI} it replaced, for comparison. Run with the GC profiler to see allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSUtilsBenchmark {
+    private URI mRequestURI;
+    private URI mWebURI;
+    private SSTargetURI mTargetURI;
+    private Map<String, List<String>> mRequestHeaders;
+    private Map<String, List<String>> mResponseHeaders;
+
+    /**
+     * Create request URI and headers, like those of a browser request.
+     */
+    @Setup
+    public void setup() {
+        mRequestURI = URI.create("/app/assets/js/vendor.bundle.js?v=1.2.3&lang=en");
+        mWebURI = URI.create("http://localhost:3000/base/");
+        mTargetURI = new SSTargetURI(mWebURI);
+
+        mRequestHeaders = new LinkedHashMap<>();
+        mRequestHeaders.put("Host", Collections.singletonList("localhost:8080"));
+        mRequestHeaders.put("User-Agent", Collections.singletonList(
+                "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/79.0 Safari/537.36"));
+        mRequestHeaders.put("Accept", Collections.singletonList("*/*"));
+        mRequestHeaders.put("Accept-Encoding", Collections.singletonList("gzip, deflate, br"));
+        mRequestHeaders.put("Accept-Language", Collections.singletonList("en-US,en;q=0.9"));
+        mRequestHeaders.put("Cookie", Collections.singletonList("session=abc123; theme=dark"));
+        mRequestHeaders.put("Referer", Collections.singletonList("http://localhost:8080/app/"));
+        mRequestHeaders.put("Connection", Collections.singletonList("keep-alive"));
+
+        mResponseHeaders = new LinkedHashMap<>();
+        mResponseHeaders.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        mResponseHeaders.put("Content-Type", Collections.singletonList("application/javascript; charset=utf-8"));
+        mResponseHeaders.put("Content-Length", Collections.singletonList("48213"));
+        mResponseHeaders.put("Cache-Control", Collections.singletonList("public, max-age=3600"));
+        mResponseHeaders.put("ETag", Collections.singletonList("\"5e1b2c3d-bc55\""));
+        mResponseHeaders.put("Date", Collections.singletonList("Mon, 13 Jan 2020 08:00:00 GMT"));
+        mResponseHeaders.put("Set-Cookie", List.of("session=abc123; Path=/; HttpOnly", "theme=dark; Path=/"));
+    }
+
+    /**
+     * Join origin base path with request path.
+     *
+     * @return Joined path.
+     */
+    @Benchmark
+    public String pathJoin() {
+        return SSUtils.pathJoin(mWebURI.getPath(), mRequestURI.getPath());
+    }
+
+    /**
+     * Rewrite request URI to the origin server, as the web handler does.
+     *
+     * @return Origin URI.
+     */
+    @Benchmark
+    public String targetURI() {
+        return mTargetURI.rewrite(mRequestURI);
+    }
+
+    /**
+     * Rewrite request URI to the origin server with a URI builder, as the web handler did before.
+     *
+     * @return Origin URI.
+     * @throws IOException URI building error.
+     */
+    @Benchmark
+    public URI editURI() throws IOException {
+        return SSUtils.editURI(mRequestURI, b -> {
+            b.setScheme(mWebURI.getScheme());
+            b.setHost(mWebURI.getHost());
+            b.setPort(mWebURI.getPort());
+            b.setPath(SSUtils.pathJoin(mWebURI.getPath(), mRequestURI.getPath()));
+        });
+    }
+
+    /**
+     * Copy request headers to a consumer.
+     *
+     * @param blackhole Consumer of copied headers.
+     */
+    @Benchmark
+    public void copyRequestHeaders(Blackhole blackhole) {
+        SSUtils.copyRequestHeaders(mRequestHeaders, (k, v) -> {
+            blackhole.consume(k);
+            blackhole.consume(v);
+        });
+    }
+
+    /**
+     * Copy response headers to a consumer.
+     *
+     * @param blackhole Consumer of copied headers.
+     */
+    @Benchmark
+    public void copyResponseHeaders(Blackhole blackhole) {
+        SSUtils.copyResponseHeaders(mResponseHeaders, (k, v) -> {
+            blackhole.consume(k);
+            blackhole.consume(v);
+        });
+    }
+}
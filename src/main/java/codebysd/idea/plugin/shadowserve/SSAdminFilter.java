@@ -0,0 +1,302 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Serves the cache admin path, to inspect and purge cache entries without restarting the server.
+ * <p>
+ * A GET request lists matching entries with size, age and hit count. A DELETE request purges them. The server may be
+ * bound to all interfaces, so admin requests are served to clients on this machine only: from a loopback address,
+ * or from the address the server is reached at. Other clients get status 403.
+ * Entries are matched by query parameters, all given ones must match:
+ * <ul>
+ * <li>key: exact request path and query, like "/app/main.js?v=1" (all methods and variants).</li>
+ * <li>prefix: request path prefix, like "/app/".</li>
+ * <li>glob: request path glob, with the syntax of cache rules, like "/app/**.js" or "*.css".</li>
+ * <li>type: response media type, or a glob of it, like "text/css" or "image/*".</li>
+ * </ul>
+ * Without parameters, all entries match. Candidates are found with the path index of the cache, from the key, prefix
+ * or literal start of the glob, so a purge costs the entries under that path rather than a scan of the cache.
+ * A type alone has no path to narrow by, and inspects every entry.
+ */
+public class SSAdminFilter extends Filter {
+    private final String mAdminPath;
+    private final SSCache mCache;
+    private final SSUILogger mUILogger;
+
+    /**
+     * Constructor
+     *
+     * @param adminPath Reserved request path of the admin endpoint.
+     * @param cache     Optional response cache. Requests fail with status 404 without a cache.
+     * @param uiLogger  UI logger.
+     */
+    public SSAdminFilter(String adminPath, @Nullable SSCache cache, SSUILogger uiLogger) {
+        mAdminPath = adminPath;
+        mCache = cache;
+        mUILogger = uiLogger;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Serves admin requests, passes other requests on.
+     */
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        // skip if not admin path
+        if (!exchange.getRequestURI().getPath().equals(mAdminPath)) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        try {
+            final String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+            if (!isLocalClient(exchange)) {
+                send(exchange, 403, error("Admin requests are served to local clients only"));
+            } else if (mCache == null) {
+                send(exchange, 404, error("Caching is off"));
+            } else if ("GET".equals(method)) {
+                send(exchange, 200, list(select(parseQuery(exchange.getRequestURI().getRawQuery()))));
+            } else if ("DELETE".equals(method)) {
+                send(exchange, 200, purge(select(parseQuery(exchange.getRequestURI().getRawQuery()))));
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, DELETE");
+                send(exchange, 405, error("Method not allowed"));
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String description() {
+        return "Inspects and purges cache entries";
+    }
+
+    /**
+     * Find entries matching query parameters.
+     *
+     * @param params Query parameters.
+     * @return Matching entries, in path order.
+     * @throws IllegalArgumentException If a glob is invalid.
+     */
+    private List<SSCache.Info> select(Map<String, String> params) {
+        final String key = params.get("key");
+        final String prefix = params.get("prefix");
+        final String glob = params.get("glob");
+        final String type = params.get("type");
+        final Predicate<String> globMatcher = glob != null ? SSCachePolicy.compileGlob(glob) : null;
+        final Predicate<String> typeMatcher = type != null
+                ? SSCachePolicy.compileGlob(type.trim().toLowerCase(Locale.ROOT)) : null;
+
+        // candidates under the longest known path prefix
+        String scan = glob != null && glob.startsWith("/") ? SSCachePolicy.globPrefix(glob) : "";
+        if (prefix != null && prefix.length() > scan.length()) {
+            scan = prefix;
+        }
+        if (key != null) {
+            scan = key;
+        }
+
+        final List<SSCache.Info> selected = new ArrayList<>();
+        for (String k : mCache.keys(scan)) {
+            // path, without variant values and query
+            final String path = SSKeyIndex.path(k);
+            final String primaryPath = path.split("\n", 2)[0];
+            final String pathOnly = primaryPath.split("\\?", 2)[0];
+            if ((key != null && !primaryPath.equals(key))
+                    || (prefix != null && !path.startsWith(prefix))
+                    || (globMatcher != null && !globMatcher.test(glob.indexOf('/') < 0
+                    ? pathOnly.substring(pathOnly.lastIndexOf('/') + 1) : pathOnly))) {
+                continue;
+            }
+
+            // entry may have been dropped meanwhile
+            final SSCache.Info info = mCache.inspect(k);
+            if (info == null) {
+                continue;
+            }
+
+            // response type, variants markers have none
+            if (typeMatcher != null) {
+                final SSCachedResponse response = decode(info);
+                final String contentType = response != null ? response.getHeaders().getFirst("Content-Type") : null;
+                if (contentType == null || !typeMatcher.test(
+                        contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT))) {
+                    continue;
+                }
+            }
+            selected.add(info);
+        }
+        return selected;
+    }
+
+    /**
+     * Describe entries.
+     *
+     * @param entries Entries.
+     * @return JSON document.
+     */
+    private JsonObject list(List<SSCache.Info> entries) {
+        final long now = System.currentTimeMillis();
+        final JsonArray array = new JsonArray();
+        long bytes = 0;
+        for (SSCache.Info info : entries) {
+            final JsonObject entry = new JsonObject();
+            entry.addProperty("key", info.getKey());
+            entry.addProperty("size", info.getSize());
+            entry.addProperty("hits", info.getHits());
+            entry.addProperty("memory", info.isInMemory());
+
+            // response details, or variants marker
+            final SSCachedResponse response = decode(info);
+            if (response != null) {
+                entry.addProperty("status", response.getStatusCode());
+                entry.addProperty("type", response.getHeaders().getFirst("Content-Type"));
+                entry.addProperty("age", response.getCurrentAge(now) / 1000);
+                entry.addProperty("fresh", response.getFreshnessLifetime() > response.getCurrentAge(now));
+            } else {
+                entry.addProperty("variants", true);
+            }
+            array.add(entry);
+            bytes += info.getSize();
+        }
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("count", entries.size());
+        result.addProperty("bytes", bytes);
+        result.add("entries", array);
+        return result;
+    }
+
+    /**
+     * Remove entries.
+     *
+     * @param entries Entries.
+     * @return JSON document.
+     * @throws IOException Disk tier write error.
+     */
+    private JsonObject purge(List<SSCache.Info> entries) throws IOException {
+        int purged = 0;
+        for (SSCache.Info info : entries) {
+            if (mCache.remove(info.getKey())) {
+                purged++;
+            }
+        }
+        mUILogger.logSystem("Cache purge:\t%d entries", purged);
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("purged", purged);
+        return result;
+    }
+
+    /**
+     * Decode cached response of an entry.
+     *
+     * @param info Entry
+     * @return Cached response, or null if entry is a variants marker or unreadable.
+     */
+    @Nullable
+    private static SSCachedResponse decode(SSCache.Info info) {
+        if (SSCacheKey.Variants.fromBytes(info.getHead()) != null) {
+            return null;
+        }
+        try {
+            return SSCachedResponse.fromBytes(info.getHead());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the client of an exchange is on this machine. A client connecting to an interface address of this
+     * machine, from this machine, has that address as its own.
+     *
+     * @param exchange HTTP exchange.
+     * @return True if the client address is a loopback address, or the local address of the connection.
+     */
+    private static boolean isLocalClient(HttpExchange exchange) {
+        final InetSocketAddress remote = exchange.getRemoteAddress();
+        if (remote == null || remote.getAddress() == null) {
+            return false;
+        }
+        if (remote.getAddress().isLoopbackAddress()) {
+            return true;
+        }
+        final InetSocketAddress local = exchange.getLocalAddress();
+        return local != null && remote.getAddress().equals(local.getAddress());
+    }
+
+    /**
+     * Parse URL query parameters. Empty values are dropped.
+     *
+     * @param query Raw query.
+     * @return Parameters, the first value of each name.
+     * @throws UnsupportedEncodingException Never, UTF-8 is always supported.
+     */
+    private static Map<String, String> parseQuery(@Nullable String query) throws UnsupportedEncodingException {
+        final Map<String, String> params = new HashMap<>();
+        if (SSUtils.isNil(query)) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            final String[] pair = param.split("=", 2);
+            final String value = pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "";
+            if (!value.isEmpty()) {
+                params.putIfAbsent(URLDecoder.decode(pair[0], "UTF-8"), value);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Build an error document.
+     *
+     * @param message Error message.
+     * @return JSON document.
+     */
+    private static JsonObject error(String message) {
+        final JsonObject result = new JsonObject();
+        result.addProperty("error", message);
+        return result;
+    }
+
+    /**
+     * Send a JSON response. The cache admin responses are never cached by browsers.
+     *
+     * @param exchange HTTP exchange.
+     * @param status   Status code.
+     * @param document JSON document.
+     * @throws IOException Write error.
+     */
+    private static void send(HttpExchange exchange, int status, JsonObject document) throws IOException {
+        final byte[] body = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create()
+                .toJson(document).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
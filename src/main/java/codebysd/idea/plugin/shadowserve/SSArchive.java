@@ -0,0 +1,916 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.Headers;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Archive of recorded web exchanges, for replay without origin server.
+ * <p>
+ * Exchanges are appended as checksummed records to a data file. An index file holds the key hash and record
+ * offset of every exchange, sorted by hash, and is memory mapped with the data file, so a replayed request is found
+ * with a binary search and its body is sent straight from the mapping. Exchanges recorded since the archive was
+ * opened are indexed in memory, and the index file is rewritten on close. If the index file is missing or behind
+ * the data file, the records are scanned and indexed again, stopping at the first torn or corrupt record.
+ * <p>
+ * Exchanges are keyed by request method, URI with sorted query, and a hash of the request body if any. A later
+ * recording of the same key replaces the earlier one. Archives can be imported from and exported to HAR files. HAR
+ * bodies are decoded, so gzip and deflate bodies are exported decoded, and content encoding headers are dropped on
+ * import. Bodies of other encodings are exported as recorded, marked with an {@code _encoded} content field, which
+ * keeps their encoding header on import.
+ * <p>
+ * Appending and closing are synchronized. Lookups can run concurrently.
+ */
+public class SSArchive implements Closeable {
+    private static final int FILE_MAGIC = 0x53534152;
+    private static final int RECORD_MAGIC = 0x53535245;
+    private static final int INDEX_MAGIC = 0x53534149;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int INDEX_HEADER_SIZE = 20;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final List<String> UNSTORED_HEADERS = Arrays.asList(
+            "connection", "keep-alive", "transfer-encoding", "content-length");
+
+    private final Path mFile;
+    private final Path mIndexFile;
+    private final FileChannel mChannel;
+    private MappedByteBuffer mData;
+    private final MappedByteBuffer mIndex;
+    private final int mIndexCount;
+    private final Map<String, Long> mRecent = new HashMap<>();
+    private long mSize;
+
+    /**
+     * Constructor. Opens (or creates) an archive file, with its index file next to it.
+     *
+     * @param file Archive data file.
+     * @throws IOException File access error, or file is not an archive.
+     */
+    public SSArchive(Path file) throws IOException {
+        mFile = file;
+        mIndexFile = file.resolveSibling(file.getFileName() + ".idx");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        mChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // file header
+        if (mChannel.size() < FILE_HEADER_SIZE) {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(FILE_MAGIC).putInt(VERSION);
+            mChannel.truncate(0);
+            mChannel.write(header.flip(), 0);
+        } else {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            mChannel.read(header, 0);
+            if (header.getInt(0) != FILE_MAGIC || header.getInt(4) != VERSION) {
+                mChannel.close();
+                throw new IOException("Not a recording archive: " + file);
+            }
+        }
+        mSize = mChannel.size();
+        if (mSize > Integer.MAX_VALUE) {
+            mChannel.close();
+            throw new IOException("Recording archive is too large: " + file);
+        }
+
+        // mapped index, and records after it
+        final MappedByteBuffer index = mapIndex();
+        final long indexed = index != null ? index.getLong(8) : FILE_HEADER_SIZE;
+        mIndex = index;
+        mIndexCount = index != null ? index.getInt(16) : 0;
+        mSize = scan(indexed);
+
+        // drop torn record, before mapping data
+        mChannel.truncate(mSize);
+        mData = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+    }
+
+    /**
+     * Build archive key of a request.
+     *
+     * @param method Request method.
+     * @param uri    Request URI.
+     * @param body   Request body, may be empty.
+     * @return Archive key.
+     */
+    public static String key(String method, URI uri, byte[] body) {
+        final String primary = SSCacheKey.primary(method, uri);
+        if (body.length == 0) {
+            return primary;
+        }
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            final StringBuilder key = new StringBuilder(primary).append('\n');
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get archive data file.
+     *
+     * @return File path.
+     */
+    public Path getFile() {
+        return mFile;
+    }
+
+    /**
+     * Get number of recorded exchanges, including replaced ones.
+     *
+     * @return Exchange count.
+     */
+    public synchronized int getRecordCount() {
+        return mIndexCount + mRecent.size();
+    }
+
+    /**
+     * Find a recorded exchange.
+     *
+     * @param key Archive key.
+     * @return Recorded exchange, or null if not recorded.
+     * @throws IOException Read error.
+     */
+    @Nullable
+    public Exchange find(String key) throws IOException {
+        // recent records first, they replace indexed ones
+        final Long recent;
+        synchronized (this) {
+            recent = mRecent.get(key);
+        }
+        if (recent != null) {
+            return read(recent);
+        }
+        if (mIndex == null) {
+            return null;
+        }
+
+        // binary search first index entry of hash
+        final long hash = hash(key);
+        int low = 0;
+        int high = mIndexCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mIndex.getLong(INDEX_HEADER_SIZE + mid * INDEX_ENTRY_SIZE) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        // latest record with the key, among entries of same hash
+        Exchange found = null;
+        for (int i = low; i < mIndexCount && mIndex.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE) == hash; i++) {
+            final Exchange exchange = read(mIndex.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8));
+            if (exchange != null && exchange.key.equals(key)) {
+                found = exchange;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Append a recorded exchange.
+     *
+     * @param exchange Exchange to record.
+     * @throws IOException Write error, or archive is full.
+     */
+    public synchronized void append(Exchange exchange) throws IOException {
+        final byte[] payload = exchange.toBytes();
+        if (mSize + RECORD_HEADER_SIZE + payload.length > Integer.MAX_VALUE) {
+            throw new IOException("Recording archive is full: " + mFile);
+        }
+
+        // checksummed record
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(RECORD_MAGIC).putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        long position = mSize;
+        while (record.hasRemaining()) {
+            position += mChannel.write(record, position);
+        }
+
+        mRecent.put(exchange.key, mSize);
+        mSize = position;
+    }
+
+    /**
+     * Import exchanges from a HAR file. Entries without response content, or not valid, are skipped.
+     *
+     * @param har HAR file.
+     * @return Number of imported exchanges.
+     * @throws IOException Read or write error, or not a HAR file.
+     */
+    public int importHar(Path har) throws IOException {
+        final JsonArray entries;
+        try (Reader reader = Files.newBufferedReader(har, StandardCharsets.UTF_8)) {
+            entries = new Gson().fromJson(reader, JsonObject.class).getAsJsonObject("log").getAsJsonArray("entries");
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid HAR file: " + har, e);
+        }
+        if (entries == null) {
+            throw new IOException("Invalid HAR file, no entries: " + har);
+        }
+
+        int count = 0;
+        for (JsonElement element : entries) {
+            final Exchange exchange = Exchange.fromHar(element);
+            if (exchange != null) {
+                append(exchange);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Export latest recording of every key to a HAR file.
+     *
+     * @param har HAR file, replaced if it exists.
+     * @return Number of exported exchanges.
+     * @throws IOException Read or write error.
+     */
+    public synchronized int exportHar(Path har) throws IOException {
+        // latest record per key
+        final Map<String, Exchange> latest = new LinkedHashMap<>();
+        long position = FILE_HEADER_SIZE;
+        while (position < mSize) {
+            final Exchange exchange = read(position);
+            if (exchange == null) {
+                break;
+            }
+            latest.remove(exchange.key);
+            latest.put(exchange.key, exchange);
+            position += RECORD_HEADER_SIZE + exchange.recordLength;
+        }
+
+        // HAR document
+        final JsonArray entries = new JsonArray();
+        for (Exchange exchange : latest.values()) {
+            entries.add(exchange.toHar());
+        }
+        final JsonObject creator = new JsonObject();
+        creator.addProperty("name", SSConstants.Plugin.ID);
+        creator.addProperty("version", "1.0");
+        final JsonObject log = new JsonObject();
+        log.addProperty("version", "1.2");
+        log.add("creator", creator);
+        log.add("entries", entries);
+        final JsonObject root = new JsonObject();
+        root.add("log", log);
+
+        // write through temporary file, so a failed export keeps the old file
+        final Path tmp = har.resolveSibling(har.getFileName() + ".tmp");
+        final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(root, writer);
+        }
+        Files.move(tmp, har, StandardCopyOption.REPLACE_EXISTING);
+        return latest.size();
+    }
+
+    /**
+     * Close archive, writing index of recent exchanges.
+     *
+     * @throws IOException Write error.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (!mRecent.isEmpty()) {
+                writeIndex();
+            }
+        } finally {
+            mChannel.close();
+        }
+    }
+
+    /**
+     * Map index file, if it is valid for the data file.
+     *
+     * @return Mapped index, or null if missing or invalid.
+     * @throws IOException Read error.
+     */
+    @Nullable
+    private MappedByteBuffer mapIndex() throws IOException {
+        if (!Files.isRegularFile(mIndexFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(mIndexFile, StandardOpenOption.READ)) {
+            if (channel.size() < INDEX_HEADER_SIZE) {
+                return null;
+            }
+            final MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final long indexed = index.getLong(8);
+            final int count = index.getInt(16);
+            if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION || indexed > mSize
+                    || indexed < FILE_HEADER_SIZE || count < 0
+                    || channel.size() != INDEX_HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE) {
+                return null;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Index records not in index file, scanning from a position.
+     *
+     * @param position First record position.
+     * @return End of last valid record.
+     * @throws IOException Read error.
+     */
+    private long scan(long position) throws IOException {
+        while (position < mSize) {
+            final Exchange exchange = read(position);
+            if (exchange == null) {
+                break;
+            }
+            mRecent.put(exchange.key, position);
+            position += RECORD_HEADER_SIZE + exchange.recordLength;
+        }
+        return position;
+    }
+
+    /**
+     * Rewrite index file with mapped and recent entries, sorted by key hash and then position.
+     *
+     * @throws IOException Write error.
+     */
+    private void writeIndex() throws IOException {
+        final long[][] entries = new long[mIndexCount + mRecent.size()][];
+        for (int i = 0; i < mIndexCount; i++) {
+            entries[i] = new long[]{mIndex.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE),
+                    mIndex.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8)};
+        }
+        int n = mIndexCount;
+        for (Map.Entry<String, Long> e : mRecent.entrySet()) {
+            entries[n++] = new long[]{hash(e.getKey()), e.getValue()};
+        }
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        final ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + entries.length * INDEX_ENTRY_SIZE);
+        buffer.putInt(INDEX_MAGIC).putInt(VERSION).putLong(mSize).putInt(entries.length);
+        for (long[] entry : entries) {
+            buffer.putLong(entry[0]).putLong(entry[1]);
+        }
+
+        // replace through temporary file
+        final Path tmp = mIndexFile.resolveSibling(mIndexFile.getFileName() + ".tmp");
+        Files.write(tmp, buffer.array());
+        Files.move(tmp, mIndexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read a record.
+     *
+     * @param position Record position.
+     * @return Exchange, or null if record is torn or corrupt.
+     * @throws IOException Read error.
+     */
+    @Nullable
+    private Exchange read(long position) throws IOException {
+        // record bytes, mapped if possible
+        final ByteBuffer header = slice(position, RECORD_HEADER_SIZE);
+        if (header == null || header.getInt(0) != RECORD_MAGIC) {
+            return null;
+        }
+        final int length = header.getInt(4);
+        final ByteBuffer payload = length >= 0 ? slice(position + RECORD_HEADER_SIZE, length) : null;
+        if (payload == null) {
+            return null;
+        }
+
+        // checksum
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != header.getInt(8)) {
+            return null;
+        }
+        return Exchange.fromBytes(payload, length);
+    }
+
+    /**
+     * Get bytes of the data file, from mapping, or read if appended after mapping or not yet mapped.
+     *
+     * @param position Start position.
+     * @param length   Number of bytes.
+     * @return Buffer of bytes, or null if beyond end of file.
+     * @throws IOException Read error.
+     */
+    @Nullable
+    private ByteBuffer slice(long position, int length) throws IOException {
+        if (mData != null && position + length <= mData.capacity()) {
+            return mData.duplicate().position((int) position).limit((int) position + length).slice();
+        }
+        if (position + length > mChannel.size()) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Hash a key for the index.
+     *
+     * @param key Archive key.
+     * @return 64 bit hash.
+     */
+    private static long hash(String key) {
+        // FNV-1a over UTF-16 units
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * A recorded web exchange.
+     */
+    public static class Exchange {
+        private final String key;
+        private final String method;
+        private final String uri;
+        private final long time;
+        private final long duration;
+        private final Headers requestHeaders;
+        private final byte[] requestBody;
+        private final int status;
+        private final Headers responseHeaders;
+        private final ByteBuffer responseBody;
+        private final int recordLength;
+
+        /**
+         * Constructor
+         *
+         * @param method          Request method.
+         * @param uri             Request URI, path and query.
+         * @param time            Request time, epoch millis.
+         * @param duration        Time until response was complete, millis.
+         * @param requestHeaders  Request headers.
+         * @param requestBody     Request body, may be empty.
+         * @param status          Response status code.
+         * @param responseHeaders Response headers. Hop-by-hop and length headers are not kept.
+         * @param responseBody    Response body.
+         */
+        public Exchange(String method, URI uri, long time, long duration, Map<String, List<String>> requestHeaders,
+                        byte[] requestBody, int status, Map<String, List<String>> responseHeaders,
+                        ByteBuffer responseBody) {
+            this(key(method, uri, requestBody), method, uri.toString(), time, duration, copy(requestHeaders),
+                    requestBody, status, copy(responseHeaders), responseBody, 0);
+        }
+
+        /**
+         * Constructor
+         *
+         * @param key             Archive key.
+         * @param method          Request method.
+         * @param uri             Request URI, path and query.
+         * @param time            Request time, epoch millis.
+         * @param duration        Time until response was complete, millis.
+         * @param requestHeaders  Request headers.
+         * @param requestBody     Request body.
+         * @param status          Response status code.
+         * @param responseHeaders Response headers.
+         * @param responseBody    Response body.
+         * @param recordLength    Length of record payload, when read from archive.
+         */
+        private Exchange(String key, String method, String uri, long time, long duration, Headers requestHeaders,
+                         byte[] requestBody, int status, Headers responseHeaders, ByteBuffer responseBody,
+                         int recordLength) {
+            this.key = key;
+            this.method = method;
+            this.uri = uri;
+            this.time = time;
+            this.duration = duration;
+            this.requestHeaders = requestHeaders;
+            this.requestBody = requestBody;
+            this.status = status;
+            this.responseHeaders = responseHeaders;
+            this.responseBody = responseBody;
+            this.recordLength = recordLength;
+        }
+
+        /**
+         * Get response status code.
+         *
+         * @return Status code.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Get response headers.
+         *
+         * @return Response headers, without length. Must not be modified.
+         */
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        /**
+         * Get response body length.
+         *
+         * @return Number of bytes.
+         */
+        public int getResponseLength() {
+            return responseBody.remaining();
+        }
+
+        /**
+         * Write response body to a stream.
+         *
+         * @param out Output stream.
+         * @throws IOException Write error.
+         */
+        public void writeResponseBody(OutputStream out) throws IOException {
+            final ByteBuffer body = responseBody.duplicate();
+            final byte[] buffer = new byte[Math.min(body.remaining(), 8 * 1024)];
+            while (body.hasRemaining()) {
+                final int size = Math.min(buffer.length, body.remaining());
+                body.get(buffer, 0, size);
+                out.write(buffer, 0, size);
+            }
+        }
+
+        /**
+         * Copy headers, without hop-by-hop and length headers.
+         *
+         * @param headers Headers.
+         * @return Copied headers.
+         */
+        private static Headers copy(Map<String, List<String>> headers) {
+            final Headers copy = new Headers();
+            SSUtils.copyResponseHeaders(headers, (k, v) -> {
+                if (!UNSTORED_HEADERS.contains(k.toLowerCase())) {
+                    copy.put(k, new ArrayList<>(v));
+                }
+            });
+            return copy;
+        }
+
+        /**
+         * Serialize to record payload.
+         *
+         * @return Payload bytes.
+         * @throws IOException Serialization error.
+         */
+        private byte[] toBytes() throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(responseBody.remaining() + 1024);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(key);
+            out.writeUTF(method);
+            out.writeUTF(uri);
+            out.writeLong(time);
+            out.writeLong(duration);
+            writeHeaders(out, requestHeaders);
+            out.writeInt(requestBody.length);
+            out.write(requestBody);
+            out.writeInt(status);
+            writeHeaders(out, responseHeaders);
+            out.writeInt(responseBody.remaining());
+            writeResponseBody(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * De-serialize from record payload. The response body is a view of the payload.
+         *
+         * @param payload Payload bytes.
+         * @param length  Payload length.
+         * @return Exchange, or null if payload is invalid.
+         */
+        @Nullable
+        private static Exchange fromBytes(ByteBuffer payload, int length) {
+            try {
+                final String key = readUTF(payload);
+                final String method = readUTF(payload);
+                final String uri = readUTF(payload);
+                final long time = payload.getLong();
+                final long duration = payload.getLong();
+                final Headers requestHeaders = readHeaders(payload);
+                final byte[] requestBody = new byte[payload.getInt()];
+                payload.get(requestBody);
+                final int status = payload.getInt();
+                final Headers responseHeaders = readHeaders(payload);
+                final int bodyLength = payload.getInt();
+                final ByteBuffer body = payload.slice().limit(bodyLength);
+                return new Exchange(key, method, uri, time, duration, requestHeaders, requestBody, status,
+                        responseHeaders, body, length);
+            } catch (RuntimeException e) {
+                // truncated or invalid payload
+                return null;
+            }
+        }
+
+        /**
+         * Create from a HAR entry. The response body is decoded in HAR, so its content encoding header is dropped,
+         * unless the body is marked as still encoded.
+         *
+         * @param element HAR entry.
+         * @return Exchange, or null if entry has no usable response or is not valid.
+         */
+        @Nullable
+        private static Exchange fromHar(JsonElement element) {
+            try {
+                return fromHar(element.getAsJsonObject());
+            } catch (RuntimeException e) {
+                // missing or malformed fields, like status, url, date or base64 text
+                return null;
+            }
+        }
+
+        /**
+         * Create from a HAR entry.
+         *
+         * @param entry HAR entry.
+         * @return Exchange, or null if entry has no usable response.
+         * @throws RuntimeException If a field is missing or malformed.
+         */
+        @Nullable
+        private static Exchange fromHar(JsonObject entry) {
+            final JsonObject request = entry.getAsJsonObject("request");
+            final JsonObject response = entry.getAsJsonObject("response");
+            final JsonObject content = response != null ? response.getAsJsonObject("content") : null;
+            if (request == null || content == null || response.get("status").getAsInt() <= 0) {
+                return null;
+            }
+
+            // request URI as path and query
+            final URI url = URI.create(request.get("url").getAsString());
+            final URI uri = URI.create(url.getRawPath() + (url.getRawQuery() != null ? "?" + url.getRawQuery() : ""));
+            final JsonObject postData = request.getAsJsonObject("postData");
+            final byte[] requestBody = postData != null && postData.has("text")
+                    ? postData.get("text").getAsString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+
+            // response body, text or base64
+            final String text = content.has("text") ? content.get("text").getAsString() : "";
+            final byte[] body = content.has("encoding") && "base64".equals(content.get("encoding").getAsString())
+                    ? Base64.getDecoder().decode(text) : text.getBytes(StandardCharsets.UTF_8);
+
+            final long time = entry.has("startedDateTime")
+                    ? parseTime(entry.get("startedDateTime").getAsString()) : 0;
+            final long duration = entry.has("time") ? entry.get("time").getAsLong() : 0;
+
+            // body is decoded, unless marked as exported encoded
+            final Headers responseHeaders = fromHarHeaders(response);
+            if (!content.has("_encoded") || !content.get("_encoded").getAsBoolean()) {
+                responseHeaders.remove("Content-Encoding");
+            }
+            return new Exchange(request.get("method").getAsString(), uri, time, duration,
+                    fromHarHeaders(request), requestBody, response.get("status").getAsInt(),
+                    responseHeaders, ByteBuffer.wrap(body));
+        }
+
+        /**
+         * Parse a HAR start time, an ISO 8601 date time with a zone offset, like "2019-11-26T10:15:05.620+01:00" or
+         * "2019-11-26T09:15:05.620Z".
+         *
+         * @param text Date time text.
+         * @return Epoch millis, or 0 if not valid.
+         */
+        private static long parseTime(String text) {
+            try {
+                return OffsetDateTime.parse(text, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // keep entry, time unknown
+                return 0;
+            }
+        }
+
+        /**
+         * Convert to a HAR entry. Bodies are written base64 encoded. A gzip or deflate body is decoded, as HAR
+         * content holds decoded bodies, other encodings are written as recorded and marked so.
+         *
+         * @return HAR entry.
+         * @throws IOException Body decoding error.
+         */
+        private JsonObject toHar() throws IOException {
+            final JsonObject request = new JsonObject();
+            request.addProperty("method", method);
+            request.addProperty("url", "http://localhost" + uri);
+            request.addProperty("httpVersion", "HTTP/1.1");
+            request.add("cookies", new JsonArray());
+            request.add("headers", toHarHeaders(requestHeaders));
+            request.add("queryString", new JsonArray());
+            if (requestBody.length > 0) {
+                final JsonObject postData = new JsonObject();
+                postData.addProperty("mimeType", String.valueOf(requestHeaders.getFirst("Content-Type")));
+                postData.addProperty("text", new String(requestBody, StandardCharsets.UTF_8));
+                request.add("postData", postData);
+            }
+            request.addProperty("headersSize", -1);
+            request.addProperty("bodySize", requestBody.length);
+
+            final byte[] recorded = new byte[responseBody.remaining()];
+            responseBody.duplicate().get(recorded);
+            final byte[] body = decode(recorded, responseHeaders.getFirst("Content-Encoding"));
+            final JsonObject content = new JsonObject();
+            content.addProperty("size", (body != null ? body : recorded).length);
+            content.addProperty("compression", body != null ? body.length - recorded.length : 0);
+            content.addProperty("mimeType", String.valueOf(responseHeaders.getFirst("Content-Type")));
+            content.addProperty("text", Base64.getEncoder().encodeToString(body != null ? body : recorded));
+            content.addProperty("encoding", "base64");
+            if (body == null) {
+                content.addProperty("_encoded", true);
+            }
+
+            final JsonObject response = new JsonObject();
+            response.addProperty("status", status);
+            response.addProperty("statusText", "");
+            response.addProperty("httpVersion", "HTTP/1.1");
+            response.add("cookies", new JsonArray());
+            response.add("headers", toHarHeaders(responseHeaders));
+            response.add("content", content);
+            response.addProperty("redirectURL", String.valueOf(responseHeaders.getFirst("Location")));
+            response.addProperty("headersSize", -1);
+            response.addProperty("bodySize", recorded.length);
+
+            final JsonObject timings = new JsonObject();
+            timings.addProperty("send", 0);
+            timings.addProperty("wait", duration);
+            timings.addProperty("receive", 0);
+
+            final JsonObject entry = new JsonObject();
+            entry.addProperty("startedDateTime", Instant.ofEpochMilli(time).toString());
+            entry.addProperty("time", duration);
+            entry.add("request", request);
+            entry.add("response", response);
+            entry.add("cache", new JsonObject());
+            entry.add("timings", timings);
+            return entry;
+        }
+
+        /**
+         * Decode a body of a content encoding.
+         *
+         * @param body     Recorded body.
+         * @param encoding Content encoding, or null if none.
+         * @return Decoded body, or null if the encoding can not be decoded.
+         * @throws IOException Body is not valid for its encoding.
+         */
+        @Nullable
+        private static byte[] decode(byte[] body, @Nullable String encoding) throws IOException {
+            final String name = encoding != null ? encoding.trim().toLowerCase() : "identity";
+            final InputStream in;
+            switch (name) {
+                case "identity":
+                case "":
+                    return body;
+                case "gzip":
+                case "x-gzip":
+                    in = new GZIPInputStream(new ByteArrayInputStream(body));
+                    break;
+                case "deflate":
+                    in = new InflaterInputStream(new ByteArrayInputStream(body));
+                    break;
+                default:
+                    return null;
+            }
+            try (InputStream decoded = in) {
+                return decoded.readAllBytes();
+            }
+        }
+
+        /**
+         * Read headers of a HAR request or response.
+         *
+         * @param message HAR request or response.
+         * @return Headers
+         */
+        private static Headers fromHarHeaders(JsonObject message) {
+            final Headers headers = new Headers();
+            if (message.has("headers")) {
+                for (JsonElement element : message.getAsJsonArray("headers")) {
+                    final JsonObject header = element.getAsJsonObject();
+                    headers.add(header.get("name").getAsString(), header.get("value").getAsString());
+                }
+            }
+            return headers;
+        }
+
+        /**
+         * Write headers as HAR name value pairs.
+         *
+         * @param headers Headers
+         * @return HAR headers.
+         */
+        private static JsonArray toHarHeaders(Headers headers) {
+            final JsonArray array = new JsonArray();
+            for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+                for (String value : e.getValue()) {
+                    final JsonObject header = new JsonObject();
+                    header.addProperty("name", e.getKey());
+                    header.addProperty("value", value);
+                    array.add(header);
+                }
+            }
+            return array;
+        }
+
+        /**
+         * Write headers.
+         *
+         * @param out     Output
+         * @param headers Headers
+         * @throws IOException Write error.
+         */
+        private static void writeHeaders(DataOutputStream out, Headers headers) throws IOException {
+            out.writeInt(headers.size());
+            for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (String value : e.getValue()) {
+                    out.writeUTF(value);
+                }
+            }
+        }
+
+        /**
+         * Read headers.
+         *
+         * @param in Input
+         * @return Headers
+         */
+        private static Headers readHeaders(ByteBuffer in) {
+            final Headers headers = new Headers();
+            for (int i = in.getInt(); i > 0; i--) {
+                final String name = readUTF(in);
+                final List<String> values = new ArrayList<>();
+                for (int j = in.getInt(); j > 0; j--) {
+                    values.add(readUTF(in));
+                }
+                headers.put(name, values);
+            }
+            return headers;
+        }
+
+        /**
+         * Read a string written by {@link DataOutputStream#writeUTF(String)}. Strings are ASCII in practice, other
+         * characters are decoded as UTF-8, which matches modified UTF-8 except for null and supplementary characters.
+         *
+         * @param in Input
+         * @return String
+         */
+        private static String readUTF(ByteBuffer in) {
+            final byte[] bytes = new byte[in.getShort() & 0xffff];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handles web requests with a recording archive, wrapping the web handler.
+ * <p>
+ * When recording, responses of the web handler are sent to the browser as they arrive, and appended to the archive
+ * when complete. When replaying, recorded responses are served from the archive, without contacting the origin
+ * server. Requests that were not recorded fall through to the web handler if configured, else fail with status 504.
+ * <p>
+ * The handler is at the end of the filter chain, so it records only responses fetched from the web handler.
+ * Responses served by the response cache, or from shadowed local files, are not recorded.
+ */
+public class SSArchiveHandler implements HttpHandler {
+    private final SSArchive mArchive;
+    private final HttpHandler mHandler;
+    private final boolean mRecord;
+    private final boolean mReplay;
+    private final boolean mFallthrough;
+    private final SSMetrics mMetrics;
+    private final SSUILogger mUILogger;
+
+    /**
+     * Constructor
+     *
+     * @param archive     Recording archive.
+     * @param handler     Web handler, for requests not replayed.
+     * @param record      True to record responses of web handler.
+     * @param replay      True to serve recorded responses.
+     * @param fallthrough True to send requests that were not recorded to web handler, when replaying.
+     * @param metrics     Request metrics.
+     * @param uiLogger    UI logger.
+     */
+    public SSArchiveHandler(SSArchive archive, HttpHandler handler, boolean record, boolean replay,
+                            boolean fallthrough, SSMetrics metrics, SSUILogger uiLogger) {
+        mArchive = archive;
+        mHandler = handler;
+        mRecord = record;
+        mReplay = replay;
+        mFallthrough = fallthrough;
+        mMetrics = metrics;
+        mUILogger = uiLogger;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation replays, records or forwards the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        // request body is part of the key, so read it and supply it again
+        final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+        SSUtils.IOCopy(exchange.getRequestBody(), requestBody);
+        exchange.setStreams(new ByteArrayInputStream(requestBody.toByteArray()), null);
+        final String key = SSArchive.key(exchange.getRequestMethod(), exchange.getRequestURI(),
+                requestBody.toByteArray());
+
+        // replay
+        if (mReplay) {
+            SSArchive.Exchange recorded = mArchive.find(key);
+            if (recorded == null && "HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+                // headers of a recorded GET
+                recorded = mArchive.find(SSArchive.key("GET", exchange.getRequestURI(), new byte[0]));
+            }
+            if (recorded != null) {
+                replay(exchange, recorded);
+                return;
+            }
+            if (!mFallthrough) {
+                notRecorded(exchange);
+                return;
+            }
+        }
+
+        // record
+        if (mRecord) {
+            record(exchange, requestBody.toByteArray());
+            return;
+        }
+
+        // forward
+        mHandler.handle(exchange);
+    }
+
+    /**
+     * Send a recorded response.
+     *
+     * @param exchange HTTP exchange.
+     * @param recorded Recorded exchange.
+     * @throws IOException Write error.
+     */
+    private void replay(HttpExchange exchange, SSArchive.Exchange recorded) throws IOException {
+        try {
+            mMetrics.route(SSMetrics.Route.REPLAYED);
+            if (mUILogger.isRequestLogged()) {
+                mUILogger.logStdOut("Replaying\t%s", exchange.getRequestURI().getPath());
+            }
+            SSUtils.copyResponseHeaders(recorded.getResponseHeaders(), exchange.getResponseHeaders()::put);
+
+            // send headers, with no body (length -1) if empty
+            final boolean noBody = recorded.getResponseLength() == 0
+                    || "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+            exchange.sendResponseHeaders(recorded.getStatus(), noBody ? -1 : recorded.getResponseLength());
+            if (!noBody) {
+                recorded.writeResponseBody(exchange.getResponseBody());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Fail a request that was not recorded.
+     *
+     * @param exchange HTTP exchange.
+     * @throws IOException Write error.
+     */
+    private void notRecorded(HttpExchange exchange) throws IOException {
+        try {
+            mMetrics.route(SSMetrics.Route.REPLAYED);
+            if (mUILogger.isRequestLogged()) {
+                mUILogger.logStdOut("Not recorded\t%s", exchange.getRequestURI().getPath());
+            }
+            final byte[] message = "Not recorded".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(504, -1);
+            } else {
+                exchange.sendResponseHeaders(504, message.length);
+                exchange.getResponseBody().write(message);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Forward a request to web handler, sending the response as it arrives and recording it.
+     *
+     * @param exchange    HTTP exchange.
+     * @param requestBody Request body, already read.
+     * @throws IOException Read or write error.
+     */
+    private void record(HttpExchange exchange, byte[] requestBody) throws IOException {
+        final SSCaptureExchange capture = new SSCaptureExchange(exchange, SSConstants.Defaults.ARCHIVE_ENTRY_SIZE);
+        capture.setForwarder((code, length, headers) -> {
+            SSUtils.copyResponseHeaders(headers, exchange.getResponseHeaders()::put);
+            exchange.sendResponseHeaders(code, length);
+            return true;
+        });
+
+        final long time = System.currentTimeMillis();
+        try {
+            mHandler.handle(capture);
+        } finally {
+            exchange.close();
+        }
+
+        // append complete responses only
+        final byte[] body = capture.getCapturedBody();
+        if (capture.getResponseCode() < 0 || body == null) {
+            return;
+        }
+        try {
+            mArchive.append(new SSArchive.Exchange(exchange.getRequestMethod(), exchange.getRequestURI(), time,
+                    System.currentTimeMillis() - time, exchange.getRequestHeaders(), requestBody,
+                    capture.getResponseCode(), capture.getResponseHeaders(), ByteBuffer.wrap(body)));
+        } catch (IOException e) {
+            mUILogger.logCrash(e, "Unable to record response");
+        }
+    }
+}
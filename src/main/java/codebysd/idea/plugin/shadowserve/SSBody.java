@@ -0,0 +1,133 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Body bytes of a cached response, stored on heap or off heap.
+ * <p>
+ * An off heap body is reference counted. A body handed out by the cache is retained for the caller, and must be
+ * closed (released) once used, so its memory can be reused after the cache drops it.
+ */
+public abstract class SSBody implements Closeable {
+    private static final SSBody EMPTY = wrap(new byte[0]);
+
+    /**
+     * Get an empty body.
+     *
+     * @return Empty body.
+     */
+    public static SSBody empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Wrap heap bytes as a body.
+     *
+     * @param data Body bytes. Must not be modified afterwards.
+     * @return Heap body.
+     */
+    public static SSBody wrap(byte[] data) {
+        return new HeapBody(data);
+    }
+
+    /**
+     * Get body length.
+     *
+     * @return Number of bytes.
+     */
+    public abstract int length();
+
+    /**
+     * Get number of bytes used to store the body, including allocation overhead.
+     *
+     * @return Number of bytes.
+     */
+    public int storedSize() {
+        return length();
+    }
+
+    /**
+     * Write body to a stream.
+     *
+     * @param out Output stream.
+     * @throws IOException Write error.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Open a stream to read body. The body must not be closed while stream is in use.
+     *
+     * @return Input stream.
+     */
+    public InputStream openStream() {
+        return new ByteArrayInputStream(toByteArray());
+    }
+
+    /**
+     * Get body bytes on heap.
+     *
+     * @return Body bytes. Must not be modified.
+     */
+    public abstract byte[] toByteArray();
+
+    /**
+     * Add a reference to body.
+     *
+     * @return This body.
+     */
+    public SSBody retain() {
+        return this;
+    }
+
+    /**
+     * Release a reference to body.
+     */
+    @Override
+    public void close() {
+        // nothing to release for heap body
+    }
+
+    /**
+     * Body stored in a heap byte array.
+     */
+    private static class HeapBody extends SSBody {
+        private final byte[] data;
+
+        /**
+         * Constructor
+         *
+         * @param data Body bytes.
+         */
+        private HeapBody(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public byte[] toByteArray() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off heap storage for body bytes, outside the garbage collected heap.
+ * <p>
+ * Memory is allocated as direct byte buffer slabs, created as needed up to a capacity. Slabs are split in fixed
+ * size blocks, and a body is stored in a list of blocks, so memory freed by one body can be reused by any other
+ * body without compaction. Slabs are kept for reuse until the store is discarded.
+ * <p>
+ * The tail of a body that does not fill a block, and so all of a small body, is stored in a chunk of the smallest
+ * size class that fits it, from 256 bytes up to half a block. Chunks of a size class are carved out of blocks, with
+ * a bit mask of free chunks per block, and a block is returned for any use once all its chunks are free. So a small
+ * body takes at most about twice its size, instead of a whole block.
+ * <p>
+ * The store access is synchronized. Bodies can be read concurrently.
+ */
+public class SSBodyStore {
+    private static final int BLOCK_SIZE = 8 * 1024;
+    private static final int SLAB_BLOCKS = 512;
+    private static final int[] CHUNK_SIZES = {256, 384, 512, 768, 1024, 1536, 2048, 3072, 4096};
+    private static final int CHUNK_BITS = 5;
+    private static final int WHOLE = -1;
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[BLOCK_SIZE]);
+
+    private final List<ByteBuffer> mSlabs = new ArrayList<>();
+    private final long mCapacity;
+    private int[] mFreeBlocks = new int[SLAB_BLOCKS];
+    private int mFreeCount = 0;
+    private long mUsedBytes = 0;
+    private int[] mBlockClass = new int[0];
+    private int[] mChunkFree = new int[0];
+    private int[] mNext = new int[0];
+    private int[] mPrev = new int[0];
+    private final int[] mPartial = new int[CHUNK_SIZES.length];
+
+    /**
+     * Constructor
+     *
+     * @param capacity Maximum number of bytes to allocate. Must be a positive number.
+     * @throws IllegalArgumentException If capacity is not a positive number.
+     */
+    public SSBodyStore(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The parameter capacity must be greater than zero.");
+        }
+        mCapacity = capacity;
+        Arrays.fill(mPartial, -1);
+    }
+
+    /**
+     * Get capacity of a store for a cache memory budget: the budget, and a bounded slack for bodies still being read
+     * after the cache dropped them.
+     *
+     * @param budgetBytes Cache memory budget.
+     * @return Capacity in bytes.
+     */
+    public static long capacityFor(long budgetBytes) {
+        return budgetBytes + Math.min(budgetBytes / 4, SSConstants.Defaults.BODY_STORE_SLACK);
+    }
+
+    /**
+     * Copy bytes to a new off heap body.
+     *
+     * @param data Body bytes.
+     * @return Body with one reference, or null if there is not enough free memory.
+     */
+    @Nullable
+    public SSBody store(byte[] data) {
+        // whole blocks, and a chunk for a tail up to half a block
+        final int tail = data.length % BLOCK_SIZE;
+        final int sizeClass = tail > 0 ? sizeClass(tail) : -1;
+        final int wholeBlocks = data.length / BLOCK_SIZE + (tail > 0 && sizeClass < 0 ? 1 : 0);
+
+        // allocate
+        final int[] blocks;
+        final int chunk;
+        synchronized (this) {
+            blocks = allocate(wholeBlocks, sizeClass >= 0 && mPartial[sizeClass] < 0 ? 1 : 0);
+            if (blocks == null) {
+                return null;
+            }
+            chunk = sizeClass >= 0 ? allocateChunk(sizeClass) : -1;
+        }
+        final OffHeapBody body = new OffHeapBody(blocks, chunk, data.length);
+
+        // copy data
+        for (int i = 0, pieces = body.pieces(); i < pieces; i++) {
+            final int offset = i * BLOCK_SIZE;
+            body.piece(i).put(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+        }
+        return body;
+    }
+
+    /**
+     * Get number of bytes allocated to bodies.
+     *
+     * @return Used bytes.
+     */
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /**
+     * Get number of bytes reserved as slabs.
+     *
+     * @return Reserved bytes.
+     */
+    public synchronized long getReservedBytes() {
+        return (long) mSlabs.size() * SLAB_BLOCKS * BLOCK_SIZE;
+    }
+
+    /**
+     * Find the smallest chunk size class of a tail.
+     *
+     * @param length Tail length, less than a block.
+     * @return Size class index, or -1 if the tail needs a whole block.
+     */
+    private static int sizeClass(int length) {
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            if (length <= CHUNK_SIZES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Allocate whole blocks, creating slabs if needed. Must hold the lock.
+     *
+     * @param count Number of blocks.
+     * @param spare Number of blocks needed on top, to carve chunks from.
+     * @return Block numbers, or null if capacity is reached.
+     */
+    @Nullable
+    private int[] allocate(int count, int spare) {
+        // within capacity, counting blocks carved in chunks as taken
+        final long taken = (long) mSlabs.size() * SLAB_BLOCKS - mFreeCount;
+        if ((taken + count + spare) * BLOCK_SIZE > mCapacity) {
+            return null;
+        }
+
+        // new slabs, if not enough free blocks
+        while (mFreeCount < count + spare) {
+            addSlab();
+        }
+
+        // take blocks from free list
+        final int[] blocks = new int[count];
+        mFreeCount -= count;
+        System.arraycopy(mFreeBlocks, mFreeCount, blocks, 0, count);
+        mUsedBytes += (long) count * BLOCK_SIZE;
+        return blocks;
+    }
+
+    /**
+     * Allocate a chunk of a size class, carving a free block if no block of the class has a free chunk. Must hold
+     * the lock, with a free block available.
+     *
+     * @param sizeClass Size class index.
+     * @return Chunk number: block number and chunk index in block.
+     */
+    private int allocateChunk(int sizeClass) {
+        int block = mPartial[sizeClass];
+        if (block < 0) {
+            // carve a free block, all chunks free
+            block = mFreeBlocks[--mFreeCount];
+            final int chunks = BLOCK_SIZE / CHUNK_SIZES[sizeClass];
+            mBlockClass[block] = sizeClass;
+            mChunkFree[block] = chunks == Integer.SIZE ? WHOLE : (1 << chunks) - 1;
+            link(block, sizeClass);
+        }
+
+        // lowest free chunk, block leaves the partial list once full
+        final int index = Integer.numberOfTrailingZeros(mChunkFree[block]);
+        mChunkFree[block] &= ~(1 << index);
+        if (mChunkFree[block] == 0) {
+            unlink(block, sizeClass);
+        }
+        mUsedBytes += CHUNK_SIZES[sizeClass];
+        return block << CHUNK_BITS | index;
+    }
+
+    /**
+     * Return blocks and chunk of a body to the free lists.
+     *
+     * @param blocks Block numbers.
+     * @param chunk  Chunk number, or -1 if none.
+     */
+    private synchronized void free(int[] blocks, int chunk) {
+        System.arraycopy(blocks, 0, mFreeBlocks, mFreeCount, blocks.length);
+        mFreeCount += blocks.length;
+        mUsedBytes -= (long) blocks.length * BLOCK_SIZE;
+        if (chunk < 0) {
+            return;
+        }
+
+        // free chunk, block back on the partial list once it has a free chunk
+        final int block = chunk >>> CHUNK_BITS;
+        final int sizeClass = mBlockClass[block];
+        if (mChunkFree[block] == 0) {
+            link(block, sizeClass);
+        }
+        mChunkFree[block] |= 1 << (chunk & ((1 << CHUNK_BITS) - 1));
+        mUsedBytes -= CHUNK_SIZES[sizeClass];
+
+        // block with all chunks free is free for any use, keeping one per class to avoid carving back and forth
+        final int chunks = BLOCK_SIZE / CHUNK_SIZES[sizeClass];
+        final int all = chunks == Integer.SIZE ? WHOLE : (1 << chunks) - 1;
+        if (mChunkFree[block] == all && (mNext[block] >= 0 || mPrev[block] >= 0)) {
+            unlink(block, sizeClass);
+            mFreeBlocks[mFreeCount++] = block;
+        }
+    }
+
+    /**
+     * Add a block to the head of the partial list of its size class. Must hold the lock.
+     *
+     * @param block     Block number.
+     * @param sizeClass Size class index.
+     */
+    private void link(int block, int sizeClass) {
+        final int head = mPartial[sizeClass];
+        mPrev[block] = -1;
+        mNext[block] = head;
+        if (head >= 0) {
+            mPrev[head] = block;
+        }
+        mPartial[sizeClass] = block;
+    }
+
+    /**
+     * Remove a block from the partial list of its size class. Must hold the lock.
+     *
+     * @param block     Block number.
+     * @param sizeClass Size class index.
+     */
+    private void unlink(int block, int sizeClass) {
+        if (mPrev[block] >= 0) {
+            mNext[mPrev[block]] = mNext[block];
+        } else {
+            mPartial[sizeClass] = mNext[block];
+        }
+        if (mNext[block] >= 0) {
+            mPrev[mNext[block]] = mPrev[block];
+        }
+        mNext[block] = -1;
+        mPrev[block] = -1;
+    }
+
+    /**
+     * Create a slab and add its blocks to the free list. Must hold the lock.
+     */
+    private void addSlab() {
+        final int first = mSlabs.size() * SLAB_BLOCKS;
+        mSlabs.add(ByteBuffer.allocateDirect(SLAB_BLOCKS * BLOCK_SIZE));
+
+        // free list and chunk state must hold every block
+        final int total = first + SLAB_BLOCKS;
+        if (mFreeBlocks.length < total) {
+            final int[] grown = new int[total];
+            System.arraycopy(mFreeBlocks, 0, grown, 0, mFreeCount);
+            mFreeBlocks = grown;
+        }
+        mBlockClass = Arrays.copyOf(mBlockClass, total);
+        mChunkFree = Arrays.copyOf(mChunkFree, total);
+        mNext = Arrays.copyOf(mNext, total);
+        mPrev = Arrays.copyOf(mPrev, total);
+        Arrays.fill(mNext, first, total, -1);
+        Arrays.fill(mPrev, first, total, -1);
+        for (int i = SLAB_BLOCKS - 1; i >= 0; i--) {
+            mFreeBlocks[mFreeCount++] = first + i;
+        }
+    }
+
+    /**
+     * Get a buffer view of a block, positioned at block start.
+     *
+     * @param block Block number.
+     * @return Independent buffer, limited to block.
+     */
+    private ByteBuffer block(int block) {
+        final ByteBuffer slab;
+        synchronized (this) {
+            slab = mSlabs.get(block / SLAB_BLOCKS);
+        }
+        final ByteBuffer view = slab.duplicate();
+        final int offset = (block % SLAB_BLOCKS) * BLOCK_SIZE;
+        view.limit(offset + BLOCK_SIZE).position(offset);
+        return view;
+    }
+
+    /**
+     * Get a buffer view of a chunk, positioned at chunk start.
+     *
+     * @param chunk Chunk number.
+     * @param size  Chunk size.
+     * @return Independent buffer, limited to chunk.
+     */
+    private ByteBuffer chunk(int chunk, int size) {
+        final ByteBuffer view = block(chunk >>> CHUNK_BITS);
+        final int offset = view.position() + (chunk & ((1 << CHUNK_BITS) - 1)) * size;
+        view.limit(offset + size).position(offset);
+        return view;
+    }
+
+    /**
+     * Body stored in off heap blocks, with its tail in a chunk.
+     */
+    private class OffHeapBody extends SSBody {
+        private final int[] blocks;
+        private final int chunk;
+        private final int chunkSize;
+        private final int length;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * Constructor
+         *
+         * @param blocks Block numbers.
+         * @param chunk  Chunk number of the tail, or -1 if none.
+         * @param length Body length.
+         */
+        private OffHeapBody(int[] blocks, int chunk, int length) {
+            this.blocks = blocks;
+            this.chunk = chunk;
+            this.chunkSize = chunk >= 0 ? CHUNK_SIZES[sizeClass(length % BLOCK_SIZE)] : 0;
+            this.length = length;
+        }
+
+        /**
+         * Get number of pieces: whole blocks, and the tail chunk if any.
+         *
+         * @return Piece count.
+         */
+        private int pieces() {
+            return blocks.length + (chunk >= 0 ? 1 : 0);
+        }
+
+        /**
+         * Get a buffer view of a piece, positioned at piece start. Every piece but the last holds a block of bytes.
+         *
+         * @param index Piece index.
+         * @return Independent buffer.
+         */
+        private ByteBuffer piece(int index) {
+            return index < blocks.length ? block(blocks[index]) : chunk(chunk, chunkSize);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int length() {
+            return length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int storedSize() {
+            return blocks.length * BLOCK_SIZE + chunkSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         * Copies a block at a time through a small thread local buffer.
+         */
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final byte[] buffer = COPY_BUFFER.get();
+            for (int i = 0, pieces = pieces(); i < pieces; i++) {
+                final int size = Math.min(BLOCK_SIZE, length - i * BLOCK_SIZE);
+                piece(i).get(buffer, 0, size);
+                out.write(buffer, 0, size);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * Reads blocks in place, without copying the body to heap.
+         */
+        @Override
+        public InputStream openStream() {
+            return new InputStream() {
+                private int position = 0;
+
+                @Override
+                public int read() {
+                    final byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (position >= length) {
+                        return -1;
+                    }
+
+                    // up to end of current piece
+                    final int offset = position % BLOCK_SIZE;
+                    final int size = Math.min(len, Math.min(BLOCK_SIZE - offset, length - position));
+                    final ByteBuffer view = piece(position / BLOCK_SIZE);
+                    view.position(view.position() + offset);
+                    view.get(b, off, size);
+                    position += size;
+                    return size;
+                }
+
+                @Override
+                public int available() {
+                    return length - position;
+                }
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public byte[] toByteArray() {
+            final byte[] data = new byte[length];
+            for (int i = 0, pieces = pieces(); i < pieces; i++) {
+                final int offset = i * BLOCK_SIZE;
+                piece(i).get(data, offset, Math.min(BLOCK_SIZE, length - offset));
+            }
+            return data;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public SSBody retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         * Blocks and chunk are freed when the last reference is released.
+         */
+        @Override
+        public void close() {
+            if (references.decrementAndGet() == 0) {
+                free(blocks, chunk);
+            }
+        }
+    }
+}
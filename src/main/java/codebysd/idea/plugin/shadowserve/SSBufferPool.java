@@ -0,0 +1,185 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of heap byte buffers for copying bodies, shared by shadowed, proxied and cached responses of all servers.
+ * <p>
+ * Buffers come in power of two size classes, from 4 KB to 128 KB. A buffer is sized for the expected body length,
+ * like a Content-Length or a file length: the smallest class that holds the whole body, up to the largest class.
+ * Bodies of unknown length get a 16 KB buffer. So small bodies do not tie up large buffers, and large bodies are
+ * copied with fewer reads and writes.
+ * <p>
+ * Each class keeps a few free buffers in slots, striped by thread so request threads rarely contend for a slot.
+ * Acquire takes a free buffer from a slot or allocates a new one, release puts a buffer back into an empty slot or
+ * drops it. Pooled memory is bounded by slot count, about 2 MB when all slots are full. Buffers are plain arrays,
+ * the JDK server and URL connections take streams, so direct buffers would only add a copy.
+ * <p>
+ * Counts of acquired buffers, pool hits and copied bytes are kept for metrics, since start of the IDE.
+ */
+public final class SSBufferPool {
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 17;
+    private static final int DEFAULT_SIZE = SSConstants.Defaults.BUFFER_SIZE * 1024;
+    private static final int SLOTS = 8;
+    private static final SSBufferPool SHARED = new SSBufferPool();
+
+    private final AtomicReferenceArray<byte[]> mSlots = new AtomicReferenceArray<>((MAX_SHIFT - MIN_SHIFT + 1) * SLOTS);
+    private final LongAdder mAcquired = new LongAdder();
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mCopied = new LongAdder();
+
+    /**
+     * Constructor
+     */
+    private SSBufferPool() {
+    }
+
+    /**
+     * Get the shared pool.
+     *
+     * @return Buffer pool.
+     */
+    public static SSBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get buffer size for a body of expected length.
+     *
+     * @param expectedLength Expected body length, or 0 or less if unknown.
+     * @return Buffer size, a size class.
+     */
+    public static int bufferSize(long expectedLength) {
+        if (expectedLength <= 0) {
+            return DEFAULT_SIZE;
+        }
+        if (expectedLength >= 1 << MAX_SHIFT) {
+            return 1 << MAX_SHIFT;
+        }
+        return Math.max(1 << MIN_SHIFT, Integer.highestOneBit((int) expectedLength - 1) << 1);
+    }
+
+    /**
+     * Get the smallest buffer size.
+     *
+     * @return Buffer size.
+     */
+    public static int minBufferSize() {
+        return 1 << MIN_SHIFT;
+    }
+
+    /**
+     * Get the largest buffer size.
+     *
+     * @return Buffer size.
+     */
+    public static int maxBufferSize() {
+        return 1 << MAX_SHIFT;
+    }
+
+    /**
+     * Take a buffer for a body of expected length. Buffer contents are undefined.
+     *
+     * @param expectedLength Expected body length, or 0 or less if unknown.
+     * @return Buffer, of the size class for expected length.
+     */
+    public byte[] acquire(long expectedLength) {
+        final int size = bufferSize(expectedLength);
+        mAcquired.increment();
+
+        // first free buffer of size class, starting at stripe of this thread
+        final int base = (Integer.numberOfTrailingZeros(size) - MIN_SHIFT) * SLOTS;
+        final int stripe = stripe();
+        for (int i = 0; i < SLOTS; i++) {
+            final int slot = base + ((stripe + i) & (SLOTS - 1));
+            if (mSlots.get(slot) != null) {
+                final byte[] buffer = mSlots.getAndSet(slot, null);
+                if (buffer != null) {
+                    mHits.increment();
+                    return buffer;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers not taken from the pool and buffers of other sizes are ignored.
+     * The buffer must not be used after release.
+     *
+     * @param buffer Buffer.
+     */
+    public void release(byte[] buffer) {
+        final int size = buffer.length;
+        if (Integer.bitCount(size) != 1 || size < 1 << MIN_SHIFT || size > 1 << MAX_SHIFT) {
+            return;
+        }
+
+        // first empty slot of size class, starting at stripe of this thread, or drop
+        final int base = (Integer.numberOfTrailingZeros(size) - MIN_SHIFT) * SLOTS;
+        final int stripe = stripe();
+        for (int i = 0; i < SLOTS; i++) {
+            final int slot = base + ((stripe + i) & (SLOTS - 1));
+            if (mSlots.get(slot) == null && mSlots.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Count bytes copied through pooled buffers.
+     *
+     * @param bytes Copied bytes.
+     */
+    public void copied(long bytes) {
+        mCopied.add(bytes);
+    }
+
+    /**
+     * Get number of buffers acquired.
+     *
+     * @return Acquire count.
+     */
+    public long getAcquireCount() {
+        return mAcquired.sum();
+    }
+
+    /**
+     * Get number of buffers acquired from the pool, without allocation.
+     *
+     * @return Hit count.
+     */
+    public long getHitCount() {
+        return mHits.sum();
+    }
+
+    /**
+     * Get fraction of buffers acquired from the pool.
+     *
+     * @return Hit ratio, 0 to 1. 0 if no buffers were acquired.
+     */
+    public double getHitRatio() {
+        final long acquired = getAcquireCount();
+        return acquired > 0 ? (double) getHitCount() / acquired : 0;
+    }
+
+    /**
+     * Get number of bytes copied through pooled buffers.
+     *
+     * @return Byte count.
+     */
+    public long getCopiedBytes() {
+        return mCopied.sum();
+    }
+
+    /**
+     * Get slot stripe of current thread.
+     *
+     * @return Stripe index.
+     */
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (SLOTS - 1);
+    }
+}
@@ -2,19 +2,94 @@ package codebysd.idea.plugin.shadowserve;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
- * In-memory LRU cache for bytes.
+ * In-memory cache for bytes, with an optional persistent disk tier.
+ * <p>
+ * Each entry has a small head (metadata) and a body. The head can be replaced without copying the body.
+ * <p>
+ * Memory eviction is either plain LRU, or W-TinyLFU (default). With W-TinyLFU, new entries enter a small LRU window.
+ * Entries leaving the window are admitted to the main space only if they are accessed more often than the main
+ * space entries they would evict, as estimated by a {@link SSFrequencySketch}. Main space is a segmented LRU, with
+ * entries accessed again in probation promoted to a protected segment. So a burst of one time accesses (like a
+ * large download or a crawl) can not flush frequently used entries.
+ * <p>
+ * When a disk tier is present, entries are written through to disk, and entries found only on disk are promoted
+ * into memory when accessed. Disk reads and writes run outside of the memory lock, the disk tier has a lock of its
+ * own, so lookups in memory never wait for disk. Writes of a key hold a lock striped by key across both tiers, so
+ * the last writer of a key wins in both. Promotion of a key read from disk holds the same lock, so it never brings
+ * back a removed or replaced entry, and the entry is hashed outside of the memory lock only if it will be promoted.
+ * <p>
+ * With a {@link SSBodyStore}, bodies in memory are kept off heap. Bodies handed out are retained for the caller,
+ * so a body dropped by the cache stays readable until the caller closes the value.
+ * <p>
+ * Bodies in memory are content addressed: each body is hashed once when put, and entries with equal bodies (like
+ * the same script behind different cache busting queries) share one stored body, reference counted by entries.
+ * A shared body is charged once against the memory budget. The disk tier stores bodies per entry.
+ * <p>
+ * Keys of both tiers are indexed by request path ({@link SSKeyIndex}), so entries under a path prefix are listed
+ * or purged in time proportional to the matched entries.
+ * <p>
  * The cache access is synchronized.
  */
-public class SSCache {
-    private final LinkedList<Entry> mEntries = new LinkedList<>();
+public class SSCache implements Closeable {
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final long AVERAGE_ENTRY_SIZE = 16 * 1024;
+    private static final int KEY_LOCKS = 64;
+
+    private final LinkedHashMap<String, Entry> mWindow = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> mProbation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> mProtected = new LinkedHashMap<>();
     private final Map<String, Entry> mMapping = new HashMap<>();
+    private final Map<ByteBuffer, Blob> mBlobs = new HashMap<>();
+    private final SSKeyIndex mKeyIndex = new SSKeyIndex();
+    private final Object[] mKeyLocks = new Object[KEY_LOCKS];
     private final long mMaxBytes;
+    private final long mWindowMaxBytes;
+    private final long mProtectedMaxBytes;
+    private final SSFrequencySketch mSketch;
+    private final SSDiskCache mDiskTier;
+    private final SSBodyStore mBodyStore;
     private long mCurrentBytes = 0;
+    private long mWindowBytes = 0;
+    private long mProtectedBytes = 0;
+    private long mBodyBytes = 0;
+    private long mBlobBytes = 0;
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mEvictionCount = 0;
+    private boolean mClosed = false;
+
+    /**
+     * Memory eviction policies.
+     */
+    public enum Eviction {
+        /**
+         * Least recently used entries are evicted.
+         */
+        LRU,
+
+        /**
+         * Window TinyLFU, frequency aware admission to a segmented LRU.
+         */
+        TINY_LFU
+    }
 
     /**
      * Constructor
@@ -23,111 +98,804 @@ public class SSCache {
      * @throws IllegalArgumentException If max bytes given is not a positive number.
      */
     public SSCache(long mMaxBytes) {
+        this(mMaxBytes, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mMaxBytes Maximum number of bytes to store in memory. Must be a positive number.
+     * @param diskTier  Optional, persistent disk tier.
+     * @throws IllegalArgumentException If max bytes given is not a positive number.
+     */
+    public SSCache(long mMaxBytes, @Nullable SSDiskCache diskTier) {
+        this(mMaxBytes, diskTier, Eviction.TINY_LFU);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mMaxBytes Maximum number of bytes to store in memory. Must be a positive number.
+     * @param diskTier  Optional, persistent disk tier.
+     * @param eviction  Memory eviction policy.
+     * @throws IllegalArgumentException If max bytes given is not a positive number.
+     */
+    public SSCache(long mMaxBytes, @Nullable SSDiskCache diskTier, Eviction eviction) {
+        this(mMaxBytes, diskTier, eviction, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mMaxBytes Maximum number of bytes to store in memory. Must be a positive number.
+     * @param diskTier  Optional, persistent disk tier.
+     * @param eviction  Memory eviction policy.
+     * @param bodyStore Optional, off heap storage for bodies in memory. Bodies are kept on heap if not given.
+     * @throws IllegalArgumentException If max bytes given is not a positive number.
+     */
+    public SSCache(long mMaxBytes, @Nullable SSDiskCache diskTier, Eviction eviction,
+                   @Nullable SSBodyStore bodyStore) {
         // max bytes must be valid
         if (mMaxBytes <= 0) {
             throw new IllegalArgumentException("The parameter max bytes must be greater than zero.");
         }
 
         this.mMaxBytes = mMaxBytes;
+        this.mDiskTier = diskTier;
+        this.mBodyStore = bodyStore;
+        for (int i = 0; i < KEY_LOCKS; i++) {
+            mKeyLocks[i] = new Object();
+        }
+
+        if (eviction == Eviction.TINY_LFU) {
+            // small window, main space split in probation and protected segments
+            this.mWindowMaxBytes = Math.max(1, (long) (mMaxBytes * WINDOW_RATIO));
+            this.mProtectedMaxBytes = (long) ((mMaxBytes - mWindowMaxBytes) * PROTECTED_RATIO);
+            this.mSketch = new SSFrequencySketch((int) Math.min(Integer.MAX_VALUE,
+                    Math.max(1024, mMaxBytes / AVERAGE_ENTRY_SIZE)));
+        } else {
+            // the window is the whole cache
+            this.mWindowMaxBytes = mMaxBytes;
+            this.mProtectedMaxBytes = 0;
+            this.mSketch = null;
+        }
     }
 
     /**
-     * Place the given bytes in cache (if enough space is there).
+     * Place the given head and body in cache (if enough space is there).
      *
      * @param key  Cache key.
-     * @param data Bytes to store.
-     * @return True if bytes saved in cache, false if not enough space.
+     * @param head Head bytes to store.
+     * @param body Body bytes to store.
+     * @return True if bytes accepted by cache, false if too large for cache.
+     * @throws IOException Disk tier write error.
      */
-    public synchronized boolean put(String key, byte[] data) {
-        // create an entry
-        final Entry entry = new Entry(data, key);
+    public boolean put(String key, byte[] head, byte[] body) throws IOException {
+        final SSEvents.CachePut event = new SSEvents.CachePut();
+        event.begin();
 
-        // save entry if enough space is available
-        if (makeSpace(entry.getSize()) >= entry.getSize()) {
+        // hash body outside of lock
+        final ByteBuffer digest = digest(body);
 
-            // add entry to list and mapping
-            mEntries.addFirst(entry);
-            mMapping.put(key, entry);
+        // write through to disk tier, outside of memory lock, then save in memory
+        final boolean stored;
+        synchronized (keyLock(key)) {
+            final boolean onDisk = mDiskTier != null && mDiskTier.put(key, head, body);
+            synchronized (this) {
+                stored = putInMemory(key, head, body, digest) || onDisk;
+            }
+        }
 
-            // update current space
-            mCurrentBytes += entry.getSize();
+        // flight recorder event, if recording
+        event.end();
+        if (event.shouldCommit()) {
+            event.key = key;
+            event.bytes = head.length + body.length;
+            event.stored = stored;
+            event.commit();
+        }
+        return stored;
+    }
 
-            // ok
-            return true;
-        } else {
-            // not enough space
-            return false;
+    /**
+     * Replace head of a cached entry, keeping its body.
+     *
+     * @param key  Cache key.
+     * @param head New head bytes.
+     * @return True if head replaced, false if entry not found.
+     * @throws IOException Disk tier write error.
+     */
+    public boolean update(String key, byte[] head) throws IOException {
+        synchronized (keyLock(key)) {
+            // update disk tier, outside of memory lock
+            final boolean onDisk = mDiskTier != null && mDiskTier.update(key, head);
+
+            // update memory in place, sharing body with old entry
+            synchronized (this) {
+                final Entry entry = mMapping.get(key);
+                if (entry != null) {
+                    final long delta = head.length - entry.head.length;
+                    entry.head = head;
+                    entry.size += delta;
+                    mCurrentBytes += delta;
+                    if (entry.region == mWindow) {
+                        mWindowBytes += delta;
+                    } else if (entry.region == mProtected) {
+                        mProtectedBytes += delta;
+                    }
+                    evict(null);
+                }
+                return entry != null || onDisk;
+            }
         }
+    }
+
+    /**
+     * Remove entry for given key.
+     *
+     * @param key Cache key.
+     * @return True if an entry was removed.
+     * @throws IOException Disk tier write error.
+     */
+    public boolean remove(String key) throws IOException {
+        synchronized (keyLock(key)) {
+            // remove from disk tier, outside of memory lock
+            final boolean onDisk = mDiskTier != null && mDiskTier.remove(key);
 
+            synchronized (this) {
+                final Entry entry = mMapping.get(key);
+                if (entry != null) {
+                    discard(entry);
+                }
+                return entry != null || onDisk;
+            }
+        }
     }
 
     /**
-     * Get bytes for given key.
+     * Get head and body for given key.
      *
      * @param key cache key.
-     * @return byte array if found, or null.
+     * @return Cached value if found, or null. Must be closed after use.
      */
     @Nullable
-    public synchronized byte[] get(String key) {
-        // get entry
-        final Entry entry = mMapping.get(key);
+    public Value get(String key) {
+        synchronized (this) {
+            // record access, for admission
+            if (mSketch != null) {
+                mSketch.increment(key);
+            }
+
+            // get entry
+            final Entry entry = mMapping.get(key);
+            if (entry != null) {
+                // move accessed entry to the head of its segment, promote from probation
+                mHitCount++;
+                entry.hits++;
+                onAccess(entry);
 
-        // not found
-        if (entry == null) {
+                // Return data
+                return new Value(entry.head, entry.blob.body.retain());
+            }
+
+            // not in memory, and no disk tier
+            if (mDiskTier == null) {
+                mMissCount++;
+                return null;
+            }
+        }
+
+        // not in memory, try disk tier outside of lock
+        return getFromDisk(key);
+    }
+
+    /**
+     * Get ratio of body bytes referenced by entries in memory, to body bytes stored in memory.
+     *
+     * @return Deduplication ratio, 1 if no body is shared or memory is empty.
+     */
+    public synchronized double getDedupRatio() {
+        return mBlobBytes == 0 ? 1 : (double) mBodyBytes / mBlobBytes;
+    }
+
+    /**
+     * Find keys with a request path prefix, in memory or on disk.
+     *
+     * @param pathPrefix Path prefix, like "/app/". Empty for all keys.
+     * @return Keys in path order.
+     */
+    public List<String> keys(String pathPrefix) {
+        final List<String> inMemory;
+        synchronized (this) {
+            inMemory = mKeyIndex.withPrefix(pathPrefix);
+        }
+        if (mDiskTier == null) {
+            return inMemory;
+        }
+
+        // list and merge disk keys outside of lock
+        final TreeSet<String> keys = new TreeSet<>((a, b) -> {
+            final int byPath = SSKeyIndex.path(a).compareTo(SSKeyIndex.path(b));
+            return byPath != 0 ? byPath : a.compareTo(b);
+        });
+        keys.addAll(inMemory);
+        keys.addAll(mDiskTier.keys(pathPrefix));
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Describe an entry, without recording an access.
+     *
+     * @param key Cache key.
+     * @return Entry details, or null if not found.
+     */
+    @Nullable
+    public Info inspect(String key) {
+        synchronized (this) {
+            final Entry entry = mMapping.get(key);
+            if (entry != null) {
+                return new Info(key, entry.head, entry.size, entry.hits, true);
+            }
+        }
+        if (mDiskTier == null) {
             return null;
         }
 
-        // LRU: move accessed entry to the head of the list
-        mEntries.removeLastOccurrence(entry);
-        mEntries.addFirst(entry);
+        // read disk tier outside of memory lock, head and size of the same write
+        synchronized (keyLock(key)) {
+            final byte[] head = mDiskTier.getHead(key);
+            return head != null ? new Info(key, head, mDiskTier.getSize(key), 0, false) : null;
+        }
+    }
+
+    /**
+     * Get number of entries in memory.
+     *
+     * @return Entry count.
+     */
+    public synchronized int getEntryCount() {
+        return mMapping.size();
+    }
+
+    /**
+     * Get bytes held in memory, as charged against the memory budget.
+     *
+     * @return Byte count.
+     */
+    public synchronized long getSize() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * Get number of lookups that found an entry, in memory or on disk.
+     *
+     * @return Hit count.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Get number of lookups that found no entry.
+     *
+     * @return Miss count.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Get number of entries evicted from memory to keep it in budget. Evicted entries may remain on disk.
+     *
+     * @return Eviction count.
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Get number of distinct bodies in memory.
+     *
+     * @return Body count.
+     */
+    public synchronized int getBodyCount() {
+        return mBlobs.size();
+    }
+
+    /**
+     * Check-point the disk tier, if any, keeping entries of both tiers.
+     *
+     * @throws IOException Disk tier write error.
+     */
+    public void flush() throws IOException {
+        if (mDiskTier != null) {
+            mDiskTier.flush();
+        }
+    }
+
+    /**
+     * Close the disk tier, if any. Memory entries are discarded.
+     *
+     * @throws IOException Disk tier write error.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            mClosed = true;
+            for (Blob blob : mBlobs.values()) {
+                blob.body.close();
+            }
+            mWindow.clear();
+            mProbation.clear();
+            mProtected.clear();
+            mMapping.clear();
+            mBlobs.clear();
+            mKeyIndex.clear();
+            mCurrentBytes = 0;
+            mWindowBytes = 0;
+            mProtectedBytes = 0;
+            mBodyBytes = 0;
+            mBlobBytes = 0;
+        }
 
-        // Return data
-        return entry.data;
+        // disk tier waits for its maintenance to stop, outside of memory lock
+        if (mDiskTier != null) {
+            mDiskTier.close();
+        }
     }
 
     /**
-     * Prune cache to make space
+     * Get the lock ordering writes of a key across both tiers. Taken before the memory lock, never while holding it.
      *
-     * @param required required space in bytes
-     * @return Available space after pruning
+     * @param key Cache key.
+     * @return Lock object, shared by keys in the same stripe.
      */
-    private long makeSpace(long required) {
-        // while enough space is available or cache is empty
-        while ((mMaxBytes - mCurrentBytes) < required && !mEntries.isEmpty()) {
-            // LRU: remove entries from tail end of list
-            final Entry entry = mEntries.removeLast();
+    private Object keyLock(String key) {
+        return mKeyLocks[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCKS];
+    }
 
-            // remove mapping, update current space
-            mMapping.remove(entry.key);
-            mCurrentBytes = mCurrentBytes - entry.getSize();
+    /**
+     * Place the given head and body in memory (if enough space is there), replacing any entry with same key.
+     *
+     * @param key    Cache key.
+     * @param head   Head bytes to store.
+     * @param body   Body bytes to store.
+     * @param digest Body hash.
+     * @return True if entry accepted, false if too large for memory. An accepted entry may not be admitted.
+     */
+    private boolean putInMemory(String key, byte[] head, byte[] body, ByteBuffer digest) {
+        // can never fit
+        if (body.length > mMaxBytes) {
+            final Entry old = mMapping.get(key);
+            if (old != null) {
+                discard(old);
+            }
+            return false;
         }
 
-        // return available space
-        return mMaxBytes - mCurrentBytes;
+        // share body with equal content, before dropping previous entry that may hold it
+        final Blob blob = acquire(body, digest);
+        final Entry old = mMapping.get(key);
+        if (old != null) {
+            discard(old);
+        }
+        if (blob == null) {
+            return false;
+        }
+        final Entry entry = new Entry(key, head, blob);
+        if (entry.size > mMaxBytes) {
+            release(blob);
+            return false;
+        }
+
+        // new entries start in window
+        link(entry, mWindow);
+        mKeyIndex.add(key);
+        evict(entry);
+        return true;
     }
 
     /**
-     * Holds cache entry data
+     * Handle access of an entry in memory.
+     *
+     * @param entry Accessed entry.
      */
-    private static class Entry {
-        private final byte[] data;
+    private void onAccess(Entry entry) {
+        if (entry.region == mProbation) {
+            // accessed again, promote to protected segment
+            unlink(entry);
+            link(entry, mProtected);
+
+            // demote overflow of protected segment back to probation
+            while (mProtectedBytes > mProtectedMaxBytes) {
+                final Entry demoted = mProtected.values().iterator().next();
+                unlink(demoted);
+                link(demoted, mProbation);
+            }
+        } else {
+            // move to head of segment
+            entry.region.remove(entry.key);
+            entry.region.put(entry.key, entry);
+        }
+    }
+
+    /**
+     * Evict entries to keep memory in budget. Entries overflowing the window become candidates for main space,
+     * and each candidate competes with the least recently used main space entry on access frequency.
+     *
+     * @param inserted Entry just inserted, if any. It is never chosen as victim while others are available.
+     */
+    private void evict(@Nullable Entry inserted) {
+        // move window overflow to probation, as admission candidates
+        final Deque<Entry> candidates = new ArrayDeque<>();
+        while (mWindowBytes > mWindowMaxBytes) {
+            final Entry candidate = mWindow.values().iterator().next();
+            unlink(candidate);
+            link(candidate, mProbation);
+            candidates.addLast(candidate);
+        }
+
+        // evict until in budget
+        while (mCurrentBytes > mMaxBytes) {
+            // victim from probation tail (before candidates), then protected
+            final Entry candidate = candidates.peekFirst();
+            Entry victim = mProbation.isEmpty() ? null : mProbation.values().iterator().next();
+            if (victim == candidate) {
+                victim = mProtected.isEmpty() ? null : mProtected.values().iterator().next();
+            }
+
+            if (victim == null) {
+                // no main space victim, evict from candidates or window
+                victim = candidate != null ? candidate : oldest(mWindow, inserted);
+            } else if (candidate != null && !admit(candidate, victim)) {
+                // candidate loses
+                victim = candidate;
+            }
+
+            // next candidate
+            if (victim == candidate) {
+                candidates.pollFirst();
+            }
+
+            discard(victim);
+            mEvictionCount++;
+
+            // flight recorder event, if recording
+            final SSEvents.CacheEvict event = new SSEvents.CacheEvict();
+            if (event.shouldCommit()) {
+                event.key = victim.key;
+                event.bytes = victim.size;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Decide if a candidate is admitted over a victim. Ties favour the victim, already in main space.
+     *
+     * @param candidate Candidate entry.
+     * @param victim    Victim entry.
+     * @return True if candidate should be kept and victim evicted.
+     */
+    private boolean admit(Entry candidate, Entry victim) {
+        return mSketch != null && mSketch.frequency(candidate.key) > mSketch.frequency(victim.key);
+    }
+
+    /**
+     * Get least recently used entry in a segment, preferring other entries over an excluded one.
+     *
+     * @param region  Segment.
+     * @param exclude Entry to avoid, if any.
+     * @return Entry.
+     */
+    private static Entry oldest(LinkedHashMap<String, Entry> region, @Nullable Entry exclude) {
+        final Iterator<Entry> it = region.values().iterator();
+        final Entry first = it.next();
+        return first == exclude && it.hasNext() ? it.next() : first;
+    }
+
+    /**
+     * Add entry to head of a segment.
+     *
+     * @param entry  Entry
+     * @param region Segment.
+     */
+    private void link(Entry entry, LinkedHashMap<String, Entry> region) {
+        entry.region = region;
+        region.put(entry.key, entry);
+        mMapping.put(entry.key, entry);
+        mCurrentBytes += entry.size - entry.blob.body.storedSize();
+        if (region == mWindow) {
+            mWindowBytes += entry.size;
+        } else if (region == mProtected) {
+            mProtectedBytes += entry.size;
+        }
+    }
+
+    /**
+     * Remove entry from its segment.
+     *
+     * @param entry Entry
+     */
+    private void unlink(Entry entry) {
+        entry.region.remove(entry.key);
+        mMapping.remove(entry.key);
+        mCurrentBytes -= entry.size - entry.blob.body.storedSize();
+        if (entry.region == mWindow) {
+            mWindowBytes -= entry.size;
+        } else if (entry.region == mProtected) {
+            mProtectedBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Remove entry from its segment and release its body.
+     *
+     * @param entry Entry
+     */
+    private void discard(Entry entry) {
+        unlink(entry);
+        mKeyIndex.remove(entry.key);
+        release(entry.blob);
+    }
+
+    /**
+     * Get a reference to the stored body with given content, storing it if new. The stored body is charged
+     * against the memory budget once, when stored.
+     *
+     * @param body   Body bytes.
+     * @param digest Body hash.
+     * @return Stored body with a reference added, or null if there is not enough off heap memory.
+     */
+    @Nullable
+    private Blob acquire(byte[] body, ByteBuffer digest) {
+        Blob blob = mBlobs.get(digest);
+        if (blob == null) {
+            // copy body off heap if possible, off heap memory may be held by bodies still being read
+            final SSBody stored = mBodyStore != null ? mBodyStore.store(body) : SSBody.wrap(body);
+            if (stored == null) {
+                return null;
+            }
+            blob = new Blob(digest, stored);
+            mBlobs.put(digest, blob);
+            mCurrentBytes += stored.storedSize();
+            mBlobBytes += stored.storedSize();
+        }
+        blob.references++;
+        mBodyBytes += blob.body.storedSize();
+        return blob;
+    }
+
+    /**
+     * Release a reference to a stored body, freeing it when no entry references it.
+     *
+     * @param blob Stored body.
+     */
+    private void release(Blob blob) {
+        mBodyBytes -= blob.body.storedSize();
+        if (--blob.references == 0) {
+            mBlobs.remove(blob.digest);
+            mCurrentBytes -= blob.body.storedSize();
+            mBlobBytes -= blob.body.storedSize();
+            blob.body.close();
+        }
+    }
+
+    /**
+     * Hash body content.
+     *
+     * @param body Body bytes.
+     * @return SHA-256 digest, as a map key.
+     */
+    private static ByteBuffer digest(byte[] body) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            // always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get head and body for given key from disk tier, promoting them into memory. Holds the key lock, so no write
+     * of the key runs meanwhile. Reads and hashes without holding the memory lock, which is taken only to check the
+     * key is still not in memory, and to promote.
+     *
+     * @param key cache key.
+     * @return Cached value if found, or null.
+     */
+    @Nullable
+    private Value getFromDisk(String key) {
+        synchronized (keyLock(key)) {
+            final Value value = mDiskTier.get(key);
+            synchronized (this) {
+                if (value == null) {
+                    mMissCount++;
+                    return null;
+                }
+                mHitCount++;
+
+                // already promoted by another lookup, or can never fit
+                if (mClosed || mMapping.containsKey(key) || value.body.length() > mMaxBytes) {
+                    return value;
+                }
+            }
+
+            // copy and hash body outside of memory lock
+            final byte[] body = value.body.toByteArray();
+            final ByteBuffer digest = digest(body);
+
+            // promote hot entry into memory
+            synchronized (this) {
+                if (!mClosed && !mMapping.containsKey(key)) {
+                    putInMemory(key, value.head, body, digest);
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Cached head and body bytes. Closing the value releases the body.
+     */
+    public static class Value implements Closeable {
+        private final byte[] head;
+        private final SSBody body;
+
+        /**
+         * Constructor
+         *
+         * @param head Head bytes.
+         * @param body Body, retained for the value.
+         */
+        Value(byte[] head, SSBody body) {
+            this.head = head;
+            this.body = body;
+        }
+
+        /**
+         * Get head bytes.
+         *
+         * @return Head bytes. Must not be modified.
+         */
+        public byte[] getHead() {
+            return head;
+        }
+
+        /**
+         * Get body.
+         *
+         * @return Body, valid until value is closed.
+         */
+        public SSBody getBody() {
+            return body;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            body.close();
+        }
+    }
+
+    /**
+     * Details of a cache entry, for inspection.
+     */
+    public static class Info {
         private final String key;
+        private final byte[] head;
         private final long size;
+        private final int hits;
+        private final boolean inMemory;
 
         /**
          * Constructor
          *
-         * @param data Entry data
-         * @param key  Entry key
+         * @param key      Cache key.
+         * @param head     Head bytes.
+         * @param size     Stored size, in bytes.
+         * @param hits     Number of hits in memory.
+         * @param inMemory True if in memory, false if on disk only.
          */
-        private Entry(byte[] data, String key) {
-            this.data = data;
+        private Info(String key, byte[] head, long size, int hits, boolean inMemory) {
             this.key = key;
-            this.size = data.length + key.getBytes().length;
+            this.head = head;
+            this.size = size;
+            this.hits = hits;
+            this.inMemory = inMemory;
+        }
+
+        /**
+         * Get cache key.
+         *
+         * @return Key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get head bytes.
+         *
+         * @return Head bytes. Must not be modified.
+         */
+        public byte[] getHead() {
+            return head;
+        }
+
+        /**
+         * Get stored size, including key and head.
+         *
+         * @return Number of bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Get number of hits since entry entered memory.
+         *
+         * @return Hit count.
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * Check if entry is in memory.
+         *
+         * @return True if in memory, false if on disk only.
+         */
+        public boolean isInMemory() {
+            return inMemory;
         }
+    }
 
-        private long getSize() {
-            return this.size;
+    /**
+     * Stored body, shared by entries with equal body content.
+     */
+    private static class Blob {
+        private final ByteBuffer digest;
+        private final SSBody body;
+        private int references;
+
+        /**
+         * Constructor
+         *
+         * @param digest Body hash.
+         * @param body   Stored body, with one reference held by the cache.
+         */
+        private Blob(ByteBuffer digest, SSBody body) {
+            this.digest = digest;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Holds cache entry data
+     */
+    private static class Entry {
+        private final String key;
+        private final Blob blob;
+        private byte[] head;
+        private long size;
+        private int hits;
+        private LinkedHashMap<String, Entry> region;
+
+        /**
+         * Constructor
+         *
+         * @param key  Entry key
+         * @param head Entry head
+         * @param blob Entry body, shared with equal bodies
+         */
+        private Entry(String key, byte[] head, Blob blob) {
+            this.key = key;
+            this.head = head;
+            this.blob = blob;
+            this.size = key.getBytes(StandardCharsets.UTF_8).length + head.length + blob.body.storedSize();
         }
     }
 }
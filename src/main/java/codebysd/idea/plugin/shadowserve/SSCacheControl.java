@@ -0,0 +1,135 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parsed HTTP Cache-Control directives (RFC 9111, section 5.2), and HTTP header helpers for caching.
+ */
+public class SSCacheControl {
+    private static final SSCacheControl EMPTY = new SSCacheControl(Collections.emptyMap());
+    private final Map<String, String> mDirectives;
+
+    /**
+     * Constructor
+     *
+     * @param directives Directive names (lower case) mapped to values (empty if no value).
+     */
+    private SSCacheControl(Map<String, String> directives) {
+        mDirectives = directives;
+    }
+
+    /**
+     * Parse Cache-Control header values.
+     *
+     * @param values Header values, may be null.
+     * @return Parsed directives.
+     */
+    public static SSCacheControl parse(@Nullable List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return EMPTY;
+        }
+
+        final Map<String, String> directives = new HashMap<>();
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            for (String part : value.split(",")) {
+                // directive name, and optional (quoted) value
+                final int eq = part.indexOf('=');
+                final String name = (eq < 0 ? part : part.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+                String arg = eq < 0 ? "" : part.substring(eq + 1).trim();
+                if (arg.length() >= 2 && arg.startsWith("\"") && arg.endsWith("\"")) {
+                    arg = arg.substring(1, arg.length() - 1);
+                }
+                if (!name.isEmpty()) {
+                    directives.putIfAbsent(name, arg);
+                }
+            }
+        }
+        return new SSCacheControl(directives);
+    }
+
+    /**
+     * Parse Cache-Control directives of a request.
+     * A Pragma no-cache is treated as Cache-Control no-cache, if request has no Cache-Control (RFC 9111, section 5.4).
+     *
+     * @param headers Request headers.
+     * @return Parsed directives.
+     */
+    public static SSCacheControl parseRequest(Map<String, List<String>> headers) {
+        final List<String> cacheControl = headers.get("Cache-Control");
+        if (cacheControl == null || cacheControl.isEmpty()) {
+            final List<String> pragma = headers.get("Pragma");
+            if (pragma != null && pragma.stream().anyMatch(p -> p != null && p.toLowerCase(Locale.ROOT).contains("no-cache"))) {
+                return new SSCacheControl(Collections.singletonMap("no-cache", ""));
+            }
+        }
+        return parse(cacheControl);
+    }
+
+    /**
+     * Check if a directive is present.
+     *
+     * @param directive Directive name, lower case.
+     * @return True if present.
+     */
+    public boolean has(String directive) {
+        return mDirectives.containsKey(directive);
+    }
+
+    /**
+     * Get a delta-seconds directive value.
+     *
+     * @param directive Directive name, lower case.
+     * @return Seconds, or -1 if directive is absent or invalid.
+     */
+    public long getSeconds(String directive) {
+        return parseSeconds(mDirectives.get(directive));
+    }
+
+    /**
+     * Parse a delta-seconds value, as used in directives and Age header.
+     *
+     * @param value Value, may be null.
+     * @return Seconds, or -1 if missing or invalid.
+     */
+    public static long parseSeconds(@Nullable String value) {
+        if (SSUtils.isNil(value)) {
+            return -1;
+        }
+        final String digits = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(digits));
+        } catch (NumberFormatException e) {
+            // too large values are treated as infinity (RFC 9111, section 1.2.2)
+            return digits.matches("\\d+") ? Integer.MAX_VALUE : -1;
+        }
+    }
+
+    /**
+     * Parse an HTTP date header value.
+     *
+     * @param value Header value, may be null.
+     * @return Epoch milliseconds, or -1 if missing or invalid.
+     */
+    public static long parseDate(@Nullable String value) {
+        if (SSUtils.isNil(value)) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
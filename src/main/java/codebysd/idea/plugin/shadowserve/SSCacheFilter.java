@@ -3,17 +3,49 @@ package codebysd.idea.plugin.shadowserve;
 import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Filters web requests with results from a cache.
+ * <p>
+ * Follows HTTP caching rules (RFC 9111) as a private cache. Fresh responses are served from cache. Stale responses
+ * are validated with origin using a conditional request, and a 304 (Not Modified) response only refreshes the cached
+ * headers. Client conditional requests are answered from cache where possible. Only GET responses with a
+ * configured status code are cached, and unsafe requests (like POST) drop cached responses of their URI.
+ * <p>
+ * Rules of the cache policy can bypass the cache for a request, or set the freshness lifetime of cached responses.
+ * With a warmer, assets linked from a cached HTML page are fetched in background.
+ * <p>
+ * With a refresher, a stale response within its stale window is served at once, while a fresh copy is fetched in
+ * background. Past the stale window, or if the response must be revalidated, the response is fetched in foreground.
+ * <p>
+ * With compression, textual bodies are stored gzip compressed. Clients accepting gzip get the stored bytes as is,
+ * other clients get the body decompressed as it is sent.
  */
 public class SSCacheFilter extends Filter {
+    private static final List<String> CLIENT_CONDITIONAL_HEADERS = Arrays.asList(
+            "If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range");
+    private static final int MIN_COMPRESS_BYTES = 1024;
     private final SSCache mCache;
+    private final HttpHandler mHandler;
+    private final SSCacheRefresher mRefresher;
+    private final long mStaleSeconds;
+    private final SSCachePolicy mPolicy;
+    private final boolean mCompress;
+    private final SSCacheWarmer mWarmer;
+    private final SSCacheService.Usage mUsage;
+    private final SSMetrics mMetrics;
     private final SSUILogger mUILogger;
 
     /**
@@ -23,7 +55,56 @@ public class SSCacheFilter extends Filter {
      * @param mUILogger UI logger.
      */
     public SSCacheFilter(SSCache mCache, SSUILogger mUILogger) {
+        this(mCache, null, null, 0, SSCachePolicy.defaults(), SSConstants.Defaults.CACHE_COMPRESS, null,
+                new SSMetrics(), mUILogger);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mCache        byte cache.
+     * @param mHandler      Handler for background refresh. Must be the handler at the end of the filter chain.
+     * @param mRefresher    Background refresher, or null to always revalidate stale responses in foreground.
+     * @param mStaleSeconds Seconds a stale response is served while refreshed, unless the response says otherwise.
+     * @param mPolicy       Cache policy.
+     * @param mCompress     True to store textual bodies gzip compressed.
+     * @param mWarmer       Warmer for assets of cached pages, or null.
+     * @param mMetrics      Request metrics.
+     * @param mUILogger     UI logger.
+     */
+    public SSCacheFilter(SSCache mCache, @Nullable HttpHandler mHandler, @Nullable SSCacheRefresher mRefresher,
+                         long mStaleSeconds, SSCachePolicy mPolicy, boolean mCompress,
+                         @Nullable SSCacheWarmer mWarmer, SSMetrics mMetrics, SSUILogger mUILogger) {
+        this(mCache, mHandler, mRefresher, mStaleSeconds, mPolicy, mCompress, mWarmer, null, mMetrics, mUILogger);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mCache        byte cache.
+     * @param mHandler      Handler for background refresh. Must be the handler at the end of the filter chain.
+     * @param mRefresher    Background refresher, or null to always revalidate stale responses in foreground.
+     * @param mStaleSeconds Seconds a stale response is served while refreshed, unless the response says otherwise.
+     * @param mPolicy       Cache policy.
+     * @param mCompress     True to store textual bodies gzip compressed.
+     * @param mWarmer       Warmer for assets of cached pages, or null.
+     * @param mUsage        Usage of a shared cache to count stored entries in, or null.
+     * @param mMetrics      Request metrics.
+     * @param mUILogger     UI logger.
+     */
+    public SSCacheFilter(SSCache mCache, @Nullable HttpHandler mHandler, @Nullable SSCacheRefresher mRefresher,
+                         long mStaleSeconds, SSCachePolicy mPolicy, boolean mCompress,
+                         @Nullable SSCacheWarmer mWarmer, @Nullable SSCacheService.Usage mUsage,
+                         SSMetrics mMetrics, SSUILogger mUILogger) {
         this.mCache = mCache;
+        this.mHandler = mHandler;
+        this.mRefresher = mRefresher;
+        this.mStaleSeconds = mStaleSeconds;
+        this.mPolicy = mPolicy;
+        this.mCompress = mCompress;
+        this.mWarmer = mWarmer;
+        this.mUsage = mUsage;
+        this.mMetrics = mMetrics;
         this.mUILogger = mUILogger;
     }
 
@@ -33,51 +114,82 @@ public class SSCacheFilter extends Filter {
      */
     @Override
     public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
-        // treat URI as key
-        final String key = exchange.getRequestURI().toString();
-
-        // get cached data if any
-        final byte[] cached = mCache.get(key);
-
-        if (cached == null) {
-            // No cache, continue with web request, swapping output streams
-            final OutputStream respBody = exchange.getResponseBody();
-            final ByteArrayOutputStream captureStream = new ByteArrayOutputStream();
-
-            // pass capture stream as response body
-            exchange.setStreams(exchange.getRequestBody(), captureStream);
+        // only GET responses are cached, unsafe methods invalidate cached responses
+        final String method = exchange.getRequestMethod();
+        if (!"GET".equalsIgnoreCase(method)) {
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                if (!SSCacheKey.isSafeMethod(method)) {
+                    invalidate(exchange);
+                }
+            }
+            return;
+        }
 
-            // execute exchange
+        // bypass cache if policy says so
+        final String path = exchange.getRequestURI().getPath();
+        final SSCachePolicy.Rule rule = mPolicy.forRequest(path);
+        if (rule != null && rule.getAction() == SSCachePolicy.Action.NEVER) {
             chain.doFilter(exchange);
+            return;
+        }
 
-            // create web response from exchange headers and captured response body
-            final WebResponse res = new WebResponse(exchange.getResponseCode(),
-                    exchange.getResponseHeaders(), captureStream.toByteArray());
+        // get cached response usable for this request, if any
+        final Map<String, List<String>> requestHeaders = exchange.getRequestHeaders();
+        final SSCacheControl requestCacheControl = SSCacheControl.parseRequest(requestHeaders);
+        final SSEvents.CacheLookup event = new SSEvents.CacheLookup();
+        event.begin();
+        final long start = System.nanoTime();
+        final Slot slot = applyPolicy(path,
+                lookup(SSCacheKey.primary(method, exchange.getRequestURI()), requestHeaders));
+        mMetrics.phase(SSMetrics.Phase.CACHE, System.nanoTime() - start);
+        final Stored stored = slot.stored;
+        event.end();
+        if (event.shouldCommit()) {
+            event.key = slot.key;
+            event.hit = stored != null;
+            event.bytes = stored != null ? stored.body.length() : 0;
+            event.commit();
+        }
+        try {
+            final long now = System.currentTimeMillis();
 
-            // save to cache
-            final boolean ok = mCache.put(key, res.toBytes());
-            if (!ok) {
-                mUILogger.logSystem("WARNING: Cache is full.");
+            // Cache hit, just send cached data
+            if (stored != null && stored.response.isFresh(now, requestCacheControl)) {
+                mMetrics.route(SSMetrics.Route.CACHE_HIT);
+                if (mUILogger.isRequestLogged()) {
+                    mUILogger.logStdOut("Forwarding\t%s\t⟶\tCached", exchange.getRequestURI().getPath());
+                }
+                send(exchange, stored.response, stored.body, true);
+                return;
             }
 
-            // flush response body to original output stream
-            try {
-                respBody.write(res.body);
-            } finally {
-                respBody.close();
+            // Stale but within stale window, send cached data and refresh in background
+            if (stored != null && mRefresher != null && mHandler != null
+                    && stored.response.isStaleUsable(now, requestCacheControl, mStaleSeconds)) {
+                mMetrics.route(SSMetrics.Route.CACHE_HIT);
+                if (mUILogger.isRequestLogged()) {
+                    mUILogger.logStdOut("Forwarding\t%s\t⟶\tCached (stale)", exchange.getRequestURI().getPath());
+                }
+                refreshLater(slot, exchange, requestCacheControl);
+                send(exchange, stored.response, stored.body, true);
+                return;
             }
-        } else {
-            // Cache hit, just send cached data
-            mUILogger.logStdOut("Forwarding\t%s\t⟶\tCached", exchange.getRequestURI().getPath());
-            WebResponse response = WebResponse.fromBytes(cached);
 
-            // set headers and response body
-            SSUtils.copyResponseHeaders(response.headers, exchange.getResponseHeaders()::put);
+            // No usable cache, continue with web request, streaming and capturing the response
+            mMetrics.route(SSMetrics.Route.CACHE_MISS);
             try {
-                exchange.sendResponseHeaders(response.statusCode, response.body.length);
-                exchange.getResponseBody().write(response.body);
-            } finally {
+                fetch(slot, new SSCaptureExchange(exchange, mPolicy.getMaxEntryBytes()), requestCacheControl,
+                        chain::doFilter, exchange);
+            } catch (IOException e) {
                 exchange.close();
+                throw e;
+            }
+        } finally {
+            // release cached body
+            if (stored != null) {
+                stored.body.close();
             }
         }
     }
@@ -91,53 +203,469 @@ public class SSCacheFilter extends Filter {
     }
 
     /**
-     * A serializable object to hold response headers and body.
+     * Find cache key and cached response for a request.
+     *
+     * @param primaryKey     Primary cache key of request.
+     * @param requestHeaders Request headers.
+     * @return Cache slot of request, with the cached response if found and usable for the request.
+     */
+    private Slot lookup(String primaryKey, Map<String, List<String>> requestHeaders) {
+        // get cached data if any, resolving variants
+        SSCache.Value value = mCache.get(primaryKey);
+        final SSCacheKey.Variants variants = value != null ? SSCacheKey.Variants.fromBytes(value.getHead()) : null;
+        String key = primaryKey;
+        if (variants != null) {
+            value.close();
+            key = SSCacheKey.variant(primaryKey, variants, requestHeaders);
+            value = mCache.get(key);
+        }
+        return new Slot(primaryKey, variants, key, read(value, requestHeaders));
+    }
+
+    /**
+     * Apply policy rule to a cached response: set its freshness lifetime, or drop it if it must not be cached.
+     *
+     * @param path Request path.
+     * @param slot Cache slot of request.
+     * @return Cache slot with policy applied.
+     */
+    private Slot applyPolicy(String path, Slot slot) {
+        final Stored stored = slot.stored;
+        if (stored == null) {
+            return slot;
+        }
+
+        // no rule
+        final String contentType = stored.response.getHeaders().getFirst("Content-Type");
+        final SSCachePolicy.Rule rule = mPolicy.forResponse(path, contentType);
+        if (rule == null) {
+            return slot;
+        }
+
+        // must not be cached (anymore)
+        if (rule.getAction() == SSCachePolicy.Action.NEVER) {
+            stored.body.close();
+            try {
+                mCache.remove(slot.key);
+            } catch (IOException e) {
+                mUILogger.logCrash(e, "Unable to remove cached response");
+            }
+            return new Slot(slot.primaryKey, slot.variants, slot.key, null);
+        }
+
+        // lifetime by policy
+        final SSCachedResponse response = stored.response.withFreshnessLifetime(rule.getTtlMillis());
+        return new Slot(slot.primaryKey, slot.variants, slot.key, new Stored(response, stored.body, false));
+    }
+
+    /**
+     * Read a cached response.
+     *
+     * @param value          Cached data, if any. Closed if not usable.
+     * @param requestHeaders Request headers.
+     * @return Cached response, or null if not found or not usable for the request.
      */
-    private static class WebResponse implements Serializable {
-        private final int statusCode;
-        private final Map<String, List<String>> headers;
-        private final byte[] body;
+    @Nullable
+    private static Stored read(@Nullable SSCache.Value value, Map<String, List<String>> requestHeaders) {
+        if (value == null) {
+            return null;
+        }
+
+        // read headers
+        final SSCachedResponse response;
+        try {
+            response = SSCachedResponse.fromBytes(value.getHead());
+        } catch (IOException e) {
+            // unreadable, possibly from an older version
+            value.close();
+            return null;
+        }
+
+        // selected request headers must match
+        if (!response.matchesVary(requestHeaders)) {
+            value.close();
+            return null;
+        }
+
+        return new Stored(response, value.getBody(), false);
+    }
+
+    /**
+     * Drop cached responses for the URI of an unsafe request, unless request failed (RFC 9111, section 4.4).
+     * Responses stored under variant keys are dropped along with the variants marker.
+     *
+     * @param exchange HTTP exchange, after response is sent.
+     */
+    private void invalidate(HttpExchange exchange) {
+        if (exchange.getResponseCode() >= 400) {
+            return;
+        }
+        final String primaryKey = SSCacheKey.primary("GET", exchange.getRequestURI());
+        try {
+            // variants under current and replaced markers
+            final String variantPrefix = SSCacheKey.variantPrefix(primaryKey);
+            for (String key : mCache.keys(SSKeyIndex.path(variantPrefix))) {
+                if (key.startsWith(variantPrefix)) {
+                    mCache.remove(key);
+                }
+            }
+            mCache.remove(primaryKey);
+        } catch (IOException e) {
+            mUILogger.logCrash(e, "Unable to invalidate cached response");
+        }
+    }
+
+    /**
+     * Fetch response from upstream, validating a stored response if possible, and update cache.
+     * With a client, the response is streamed to client as it arrives, unless a response from cache is sent instead.
+     * The client response is complete before the cache is updated, so compression, hashing, disk writes and warming
+     * never delay it.
+     *
+     * @param slot                Cache slot of request.
+     * @param capture             Exchange capturing the upstream response.
+     * @param requestCacheControl Request cache control.
+     * @param upstream            Upstream handler.
+     * @param client              Client exchange, if any.
+     * @throws IOException Upstream error, no response from upstream, or client write error.
+     */
+    private void fetch(Slot slot, SSCaptureExchange capture, SSCacheControl requestCacheControl,
+                         HttpHandler upstream, @Nullable HttpExchange client) throws IOException {
+        // validate stored response if possible
+        final Stored stored = slot.stored;
+        final boolean validating = stored != null && stored.response.hasValidators();
+        if (validating) {
+            stored.response.addConditionalHeaders(capture.getRequestHeaders());
+        }
+
+        // stream to client, unless cached body or a 304 is sent to client after validation
+        if (client != null) {
+            capture.setForwarder((code, length, headers) -> {
+                if (validating && (code == 304 || new SSCachedResponse(code, headers, client.getRequestHeaders(),
+                        0, 0).isNotModified(client.getRequestHeaders()))) {
+                    return false;
+                }
+                SSUtils.copyResponseHeaders(headers, client.getResponseHeaders()::put);
+                client.sendResponseHeaders(code, length);
+                return true;
+            });
+        }
+
+        // execute exchange
+        final long requestTime = System.currentTimeMillis();
+        upstream.handle(capture);
+        final long responseTime = System.currentTimeMillis();
+        if (capture.getResponseCode() < 0) {
+            throw new IOException("No response for " + slot.key);
+        }
+
+        // Not modified, send cached body, then refresh cached headers
+        if (validating && capture.getResponseCode() == 304) {
+            final SSCachedResponse refreshed = stored.response.refresh(
+                    capture.getResponseHeaders(), requestTime, responseTime);
+            try {
+                reply(client, new Stored(refreshed, stored.body, true));
+            } finally {
+                try {
+                    mCache.update(slot.key, refreshed.toBytes());
+                } catch (IOException e) {
+                    mUILogger.logCrash(e, "Unable to cache response");
+                }
+            }
+            return;
+        }
+
+        // create web response from captured headers and body
+        final SSCachedResponse response = new SSCachedResponse(capture.getResponseCode(),
+                capture.getResponseHeaders(), capture.getRequestHeaders(), requestTime, responseTime);
+        final byte[] body = capture.getCapturedBody();
+
+        // finish client response, then save to cache
+        try {
+            reply(client, capture.isForwarded() ? null : new Stored(response, SSBody.wrap(body), false));
+        } finally {
+            save(slot, capture, response, body, requestCacheControl, client != null);
+        }
+    }
+
+    /**
+     * Finish the response to client, if any.
+     *
+     * @param client   Client exchange, if any.
+     * @param response Response to send, or null if the response is already streamed to client.
+     * @throws IOException Write error.
+     */
+    private void reply(@Nullable HttpExchange client, @Nullable Stored response) throws IOException {
+        if (client == null) {
+            return;
+        }
+
+        // already streamed
+        if (response == null) {
+            client.close();
+            return;
+        }
+
+        if (response.revalidated && mUILogger.isRequestLogged()) {
+            mUILogger.logStdOut("Forwarding\t%s\t⟶\tCached (revalidated)", client.getRequestURI().getPath());
+        }
+        send(client, response.response, response.body, response.revalidated);
+    }
+
+    /**
+     * Save a fetched response to cache, or drop the outdated cached response, and warm up assets of a page.
+     *
+     * @param slot                Cache slot of request.
+     * @param capture             Exchange that captured the response.
+     * @param response            Response status and headers.
+     * @param body                Captured body, or null if too large to capture.
+     * @param requestCacheControl Request cache control.
+     * @param forClient           True if fetched for a client, not a background refresh.
+     */
+    private void save(Slot slot, SSCaptureExchange capture, SSCachedResponse response, @Nullable byte[] body,
+                      SSCacheControl requestCacheControl, boolean forClient) {
+        // policy rule for response
+        final SSCachePolicy.Rule rule = mPolicy.forResponse(capture.getRequestURI().getPath(),
+                response.getHeaders().getFirst("Content-Type"));
+        final boolean allowed = rule == null || rule.getAction() != SSCachePolicy.Action.NEVER;
+        final boolean force = rule != null && rule.getAction() == SSCachePolicy.Action.ALWAYS;
+
+        // save to cache, or drop outdated entry
+        try {
+            if (body != null && allowed && mPolicy.isCachedStatus(response.getStatusCode())
+                    && response.isStorable(requestCacheControl, force)) {
+                final boolean ok = store(slot, response, body, capture.getRequestHeaders());
+                if (!ok) {
+                    mUILogger.logSystem("WARNING: Response too large for cache.");
+                }
+
+                // warm up assets of a page fetched for a client
+                final String contentType = response.getHeaders().getFirst("Content-Type");
+                if (ok && mWarmer != null && forClient && response.getStatusCode() == 200
+                        && contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("text/html")) {
+                    mWarmer.warmPage(capture.getRequestURI().getRawPath(), body, capture.getRequestHeaders());
+                }
+            } else if (slot.stored != null) {
+                mCache.remove(slot.key);
+            }
+        } catch (IOException e) {
+            mUILogger.logCrash(e, "Unable to cache response");
+        }
+    }
+
+    /**
+     * Store a response, under a variant key if response varies on request headers.
+     *
+     * @param slot           Cache slot of request.
+     * @param response       Response status and headers.
+     * @param body           Response body.
+     * @param requestHeaders Request headers.
+     * @return True if response accepted by cache.
+     * @throws IOException Disk tier write error.
+     */
+    private boolean store(Slot slot, SSCachedResponse response, byte[] body, Map<String, List<String>> requestHeaders)
+            throws IOException {
+        // compress textual body, if it pays off
+        if (mCompress && body.length >= MIN_COMPRESS_BYTES && response.isCompressible()) {
+            final byte[] compressed = gzip(body);
+            if (compressed.length < body.length - body.length / 10) {
+                response = response.compressed(body.length);
+                body = compressed;
+            }
+        }
+
+        // no variants, store under primary key
+        final Set<String> names = response.getVaryNames();
+        if (names.isEmpty()) {
+            return put(slot.primaryKey, response.toBytes(), body);
+        }
+
+        // new marker if header names changed
+        SSCacheKey.Variants variants = slot.variants;
+        if (variants == null || !variants.getNames().equals(names)) {
+            variants = SSCacheKey.Variants.create(names);
+            put(slot.primaryKey, variants.toBytes(), new byte[0]);
+        }
+        return put(SSCacheKey.variant(slot.primaryKey, variants, requestHeaders), response.toBytes(), body);
+    }
+
+    /**
+     * Place an entry in cache, counting it in usage of a shared cache if stored.
+     *
+     * @param key  Cache key.
+     * @param head Head bytes.
+     * @param body Body bytes.
+     * @return True if entry accepted by cache.
+     * @throws IOException Disk tier write error.
+     */
+    private boolean put(String key, byte[] head, byte[] body) throws IOException {
+        final boolean stored = mCache.put(key, head, body);
+        if (stored && mUsage != null) {
+            mUsage.stored(head.length + body.length);
+        }
+        return stored;
+    }
+
+    /**
+     * Compress bytes with gzip.
+     *
+     * @param data Bytes to compress.
+     * @return Compressed bytes.
+     * @throws IOException Compression error.
+     */
+    private static byte[] gzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes, 8 * 1024)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Refresh a stale response in background. Skipped if a refresh is already pending or refresher is busy.
+     *
+     * @param slot                Cache slot of request, with stale stored response.
+     * @param exchange            Client exchange, its request is repeated.
+     * @param requestCacheControl Request cache control.
+     */
+    private void refreshLater(Slot slot, HttpExchange exchange, SSCacheControl requestCacheControl) {
+        // copy request now, without client validators
+        final SSCaptureExchange capture = new SSCaptureExchange(exchange, mPolicy.getMaxEntryBytes());
+        for (String name : CLIENT_CONDITIONAL_HEADERS) {
+            capture.getRequestHeaders().remove(name);
+        }
+
+        mRefresher.submit(slot.key, () -> {
+            try {
+                fetch(slot, capture, requestCacheControl, mHandler, null);
+            } catch (IOException e) {
+                mUILogger.logCrash(e, "Unable to refresh cached response");
+            }
+        });
+    }
+
+    /**
+     * Send a response to client. A 304 is sent instead if client conditional request matches.
+     *
+     * @param exchange HTTP exchange.
+     * @param response Response status and headers.
+     * @param body     Response body.
+     * @param cached   True if response is served from cache.
+     * @throws IOException Write error.
+     */
+    private void send(HttpExchange exchange, SSCachedResponse response, SSBody body, boolean cached)
+            throws IOException {
+        // set headers
+        final Headers headers = exchange.getResponseHeaders();
+        SSUtils.copyResponseHeaders(response.getHeaders(), headers::put);
+        if (cached) {
+            headers.set("Age", Long.toString(response.getCurrentAge(System.currentTimeMillis()) / 1000));
+        }
+
+        // compressed body, sent as is if client accepts gzip
+        final boolean inflate = response.isStoredCompressed()
+                && !SSCachedResponse.acceptsGzip(exchange.getRequestHeaders());
+        if (response.isStoredCompressed()) {
+            addVary(headers, "Accept-Encoding");
+            if (!inflate) {
+                headers.set("Content-Encoding", "gzip");
+                final String etag = headers.getFirst("ETag");
+                if (etag != null && !etag.startsWith("W/")) {
+                    headers.set("ETag", "W/" + etag);
+                }
+            }
+        }
+
+        // status and response body, if any
+        final boolean notModified = response.isNotModified(exchange.getRequestHeaders());
+        final int code = notModified ? 304 : response.getStatusCode();
+        final boolean hasBody = code >= 200 && code != 204 && code != 304 && body.length() > 0;
+        try {
+            if (!hasBody) {
+                exchange.sendResponseHeaders(code, -1);
+            } else if (inflate) {
+                exchange.sendResponseHeaders(code, response.getIdentityLength());
+                try (InputStream in = new GZIPInputStream(body.openStream(), 8 * 1024)) {
+                    in.transferTo(exchange.getResponseBody());
+                }
+            } else {
+                exchange.sendResponseHeaders(code, body.length());
+                body.writeTo(exchange.getResponseBody());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Add a header name to Vary response header, if not listed yet.
+     *
+     * @param headers Response headers.
+     * @param name    Request header name.
+     */
+    private static void addVary(Headers headers, String name) {
+        final List<String> vary = new ArrayList<>();
+        final List<String> values = headers.get("Vary");
+        if (values != null) {
+            for (String value : values) {
+                for (String element : value.split(",")) {
+                    final String e = element.trim();
+                    if (e.equalsIgnoreCase(name) || "*".equals(e)) {
+                        return;
+                    }
+                    if (!e.isEmpty()) {
+                        vary.add(e);
+                    }
+                }
+            }
+        }
+        vary.add(name);
+        headers.set("Vary", String.join(", ", vary));
+    }
+
+    /**
+     * A response with its body.
+     */
+    private static class Stored {
+        private final SSCachedResponse response;
+        private final SSBody body;
+        private final boolean revalidated;
 
         /**
          * Constructor
          *
-         * @param statusCode Response status code
-         * @param headers    Response headers
-         * @param body       Response body
+         * @param response    Cached response.
+         * @param body        Cached body.
+         * @param revalidated True if response was validated with origin.
          */
-        public WebResponse(int statusCode, Headers headers, byte[] body) {
-            this.statusCode = statusCode;
-            this.headers = new HashMap<>(headers);// Headers class is not serializable
+        private Stored(SSCachedResponse response, SSBody body, boolean revalidated) {
+            this.response = response;
             this.body = body;
+            this.revalidated = revalidated;
         }
+    }
 
-        /**
-         * De-serialize from byte data.
-         *
-         * @param data bytes
-         * @return {@link WebResponse} instance
-         * @throws IOException De-serialization error.
-         */
-        public static WebResponse fromBytes(byte[] data) throws IOException {
-            try {
-                final ObjectInputStream objInStr = new ObjectInputStream(new ByteArrayInputStream(data));
-                return (WebResponse) objInStr.readObject();
-            } catch (ClassNotFoundException e) {
-                throw new IOException(e);
-            }
-        }
+    /**
+     * Cache keys of a request, with its cached response.
+     */
+    private static class Slot {
+        private final String primaryKey;
+        private final SSCacheKey.Variants variants;
+        private final String key;
+        private final Stored stored;
 
         /**
-         * Serialize current instance to bytes.
+         * Constructor
          *
-         * @return bytes
-         * @throws IOException Serialization error.
+         * @param primaryKey Primary cache key.
+         * @param variants   Variants marker under primary key, if any.
+         * @param key        Cache key of response, primary or variant key.
+         * @param stored     Cached response, if found.
          */
-        public byte[] toBytes() throws IOException {
-            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            final ObjectOutputStream objOutStr = new ObjectOutputStream(bos);
-            objOutStr.writeObject(this);
-            return bos.toByteArray();
+        private Slot(String primaryKey, @Nullable SSCacheKey.Variants variants, String key, @Nullable Stored stored) {
+            this.primaryKey = primaryKey;
+            this.variants = variants;
+            this.key = key;
+            this.stored = stored;
         }
     }
 }
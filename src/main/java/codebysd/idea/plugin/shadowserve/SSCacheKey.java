@@ -0,0 +1,213 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds cache keys for requests.
+ * <p>
+ * The primary key is the request method with the URI path and a normalized query, with parameters sorted, so
+ * equivalent URIs share an entry. When responses for a URI vary on request headers (the "Vary" response header),
+ * the primary key holds a {@link Variants} marker, and each response is stored under a variant key made of the
+ * primary key and the normalized values of the listed request headers.
+ */
+public class SSCacheKey {
+    private static final Set<String> SAFE_METHODS = new TreeSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE"));
+
+    /**
+     * Check if a request method is safe (RFC 9110, section 9.2.1), that is, does not change origin state.
+     *
+     * @param method Request method.
+     * @return True if safe.
+     */
+    public static boolean isSafeMethod(String method) {
+        return SAFE_METHODS.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Build primary key of a request.
+     *
+     * @param method Request method.
+     * @param uri    Request URI.
+     * @return Primary cache key.
+     */
+    public static String primary(String method, URI uri) {
+        final StringBuilder key = new StringBuilder();
+        key.append(method.toUpperCase(Locale.ROOT)).append(' ');
+        key.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+
+        // sorted query parameters, empty parameters dropped
+        final String query = uri.getRawQuery();
+        if (!SSUtils.isNil(query)) {
+            final List<String> params = new ArrayList<>();
+            for (String param : query.split("&")) {
+                if (!param.isEmpty()) {
+                    params.add(param);
+                }
+            }
+            Collections.sort(params);
+            if (!params.isEmpty()) {
+                key.append('?').append(String.join("&", params));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Build variant key of a request.
+     *
+     * @param primary        Primary key.
+     * @param variants       Variants marker stored under primary key.
+     * @param requestHeaders Request headers.
+     * @return Variant cache key.
+     */
+    public static String variant(String primary, Variants variants, Map<String, List<String>> requestHeaders) {
+        final Headers request = new Headers();
+        request.putAll(requestHeaders);
+
+        final StringBuilder key = new StringBuilder(variantPrefix(primary));
+        key.append(Long.toHexString(variants.generation));
+        for (String name : variants.names) {
+            key.append('\n').append(name).append(':').append(normalize(name, request.get(name)));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get the prefix shared by all variant keys of a primary key, under any marker.
+     *
+     * @param primary Primary key.
+     * @return Variant key prefix.
+     */
+    public static String variantPrefix(String primary) {
+        return primary + '\n';
+    }
+
+    /**
+     * Normalize request header values for a key or comparison. List valued content negotiation headers (like "Accept-Encoding")
+     * are compared ignoring case, spaces and element order.
+     *
+     * @param name   Header name, in lower case.
+     * @param values Header values, if any.
+     * @return Normalized value.
+     */
+    public static String normalize(String name, @Nullable List<String> values) {
+        if (values == null) {
+            return "";
+        }
+
+        final String value = String.join(",", values).replaceAll("\\s+", "");
+        if (!name.startsWith("accept")) {
+            return value;
+        }
+
+        final Set<String> elements = new TreeSet<>();
+        for (String element : value.toLowerCase(Locale.ROOT).split(",")) {
+            if (!element.isEmpty()) {
+                elements.add(element);
+            }
+        }
+        return String.join(",", elements);
+    }
+
+    /**
+     * Marker stored under a primary key, when responses vary on request headers. Lists the request header names,
+     * and a generation that changes whenever the marker is replaced, so variants stored under an older marker can
+     * never be selected again.
+     */
+    public static class Variants {
+        private static final int MAGIC = 0x53535631;
+        private final Set<String> names;
+        private final long generation;
+
+        /**
+         * Constructor
+         *
+         * @param names      Request header names, in lower case.
+         * @param generation Marker generation.
+         */
+        private Variants(Set<String> names, long generation) {
+            this.names = names;
+            this.generation = generation;
+        }
+
+        /**
+         * Create a new marker.
+         *
+         * @param names Request header names, in lower case.
+         * @return Variants marker with a new generation.
+         */
+        public static Variants create(Set<String> names) {
+            return new Variants(new TreeSet<>(names), ThreadLocalRandom.current().nextLong());
+        }
+
+        /**
+         * Read marker from bytes.
+         *
+         * @param data Head bytes of an entry.
+         * @return Variants marker, or null if bytes are not a marker.
+         */
+        @Nullable
+        public static Variants fromBytes(byte[] data) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                if (data.length < 4 || in.readInt() != MAGIC) {
+                    return null;
+                }
+                final long generation = in.readLong();
+                final Set<String> names = new TreeSet<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    names.add(in.readUTF());
+                }
+                return new Variants(names, generation);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Write marker to bytes.
+         *
+         * @return Marker bytes.
+         */
+        public byte[] toBytes() {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                out.writeLong(generation);
+                out.writeInt(names.size());
+                for (String name : names) {
+                    out.writeUTF(name);
+                }
+            } catch (IOException e) {
+                // not thrown by byte array stream
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Get request header names.
+         *
+         * @return Header names, in lower case.
+         */
+        public Set<String> getNames() {
+            return Collections.unmodifiableSet(names);
+        }
+    }
+}
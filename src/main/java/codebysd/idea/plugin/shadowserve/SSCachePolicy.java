@@ -0,0 +1,393 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Cache policy: byte budget, largest entry, cached status codes, and ordered rules by request path or response
+ * content type.
+ * <p>
+ * Rules are written one per line, as "target pattern action". Empty lines and lines starting with "#" are ignored.
+ * <ul>
+ * <li>Target is "path" (request path) or "type" (response media type, without parameters).</li>
+ * <li>Pattern is a glob, or a regular expression if prefixed with "~". In globs, "*" matches within a path segment,
+ * "**" matches across segments, "?" matches a character and "[...]" a character class. A path glob without "/"
+ * matches the file name only.</li>
+ * <li>Action is "never" (never cached), "ttl SECONDS" (cached by HTTP rules, fresh for given time), or
+ * "always [SECONDS]" (cached even if origin forbids, fresh for given time or a year).</li>
+ * </ul>
+ * The first matching rule applies. Path rules are decided before the request is sent, type rules need the response,
+ * so a request is bypassed before it is sent only if a "never" path rule matches before any type rule.
+ * Patterns are compiled once, and simple globs are matched with plain string tests.
+ */
+public class SSCachePolicy {
+    private static final long ALWAYS_TTL_SECONDS = 365L * 24 * 60 * 60;
+    private final long mBudgetBytes;
+    private final long mMaxEntryBytes;
+    private final BitSet mStatusCodes;
+    private final List<Rule> mRules;
+
+    /**
+     * Constructor
+     *
+     * @param budgetBytes   Cache size in bytes.
+     * @param maxEntryBytes Largest response body to cache.
+     * @param statusCodes   Response status codes that may be cached.
+     * @param rules         Ordered rules.
+     */
+    public SSCachePolicy(long budgetBytes, long maxEntryBytes, BitSet statusCodes, List<Rule> rules) {
+        mBudgetBytes = budgetBytes;
+        mMaxEntryBytes = maxEntryBytes;
+        mStatusCodes = statusCodes;
+        mRules = new ArrayList<>(rules);
+    }
+
+    /**
+     * Create default policy, without rules.
+     *
+     * @return Default policy.
+     */
+    public static SSCachePolicy defaults() {
+        return new SSCachePolicy(SSConstants.Defaults.CACHE_SIZE * 1024L * 1024L,
+                SSConstants.Defaults.CACHE_ENTRY_SIZE * 1024L * 1024L,
+                SSUtils.parseStatusCodes(SSConstants.Defaults.CACHE_STATUS), Collections.emptyList());
+    }
+
+    /**
+     * Parse rules text.
+     *
+     * @param text Rules, one per line.
+     * @return Ordered rules.
+     * @throws IllegalArgumentException If a rule is invalid, with line number in message.
+     */
+    public static List<Rule> parseRules(@Nullable String text) {
+        final List<Rule> rules = new ArrayList<>();
+        if (SSUtils.isNil(text)) {
+            return rules;
+        }
+
+        final String[] lines = text.split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(Rule.parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Get cache size.
+     *
+     * @return Number of bytes.
+     */
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * Get largest response body to cache.
+     *
+     * @return Number of bytes.
+     */
+    public long getMaxEntryBytes() {
+        return mMaxEntryBytes;
+    }
+
+    /**
+     * Check if responses with a status code may be cached.
+     *
+     * @param statusCode Response status code.
+     * @return True if allowed.
+     */
+    public boolean isCachedStatus(int statusCode) {
+        return mStatusCodes.get(statusCode);
+    }
+
+    /**
+     * Find rule deciding a request before it is sent.
+     *
+     * @param path Request path.
+     * @return First matching path rule, or null if none matches before the first type rule.
+     */
+    @Nullable
+    public Rule forRequest(String path) {
+        final String name = fileName(path);
+        for (Rule rule : mRules) {
+            if (rule.byType) {
+                return null;
+            }
+            if (rule.matcher.test(rule.fileNameOnly ? name : path)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find rule for a response.
+     *
+     * @param path        Request path.
+     * @param contentType Response Content-Type header, if any.
+     * @return First matching rule, or null if none.
+     */
+    @Nullable
+    public Rule forResponse(String path, @Nullable String contentType) {
+        final String name = fileName(path);
+        final String type = contentType == null ? "" : contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        for (Rule rule : mRules) {
+            if (rule.matcher.test(rule.byType ? type : rule.fileNameOnly ? name : path)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compile a glob to a matcher, with the syntax of rule patterns.
+     *
+     * @param glob Glob pattern.
+     * @return Matcher
+     * @throws IllegalArgumentException If a character class is invalid.
+     */
+    public static Predicate<String> compileGlob(String glob) {
+        try {
+            return Rule.compileGlob(glob);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid character class: " + glob);
+        }
+    }
+
+    /**
+     * Get literal start of a glob, before its first wildcard.
+     *
+     * @param glob Glob pattern.
+     * @return Literal prefix, the whole glob if it has no wildcard.
+     */
+    public static String globPrefix(String glob) {
+        final int first = Rule.indexOfWildcard(glob, 0);
+        return first < 0 ? glob : glob.substring(0, first);
+    }
+
+    /**
+     * Get last segment of a path.
+     *
+     * @param path Path
+     * @return File name, may be empty.
+     */
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Rule actions.
+     */
+    public enum Action {
+        /**
+         * Never cached.
+         */
+        NEVER,
+        /**
+         * Cached following HTTP rules, with a fixed freshness lifetime.
+         */
+        TTL,
+        /**
+         * Cached even if origin forbids, with a fixed freshness lifetime.
+         */
+        ALWAYS
+    }
+
+    /**
+     * A compiled cache rule.
+     */
+    public static class Rule {
+        private final boolean byType;
+        private final boolean fileNameOnly;
+        private final Predicate<String> matcher;
+        private final Action action;
+        private final long ttlSeconds;
+
+        /**
+         * Constructor
+         *
+         * @param byType       True to match response media type, false to match request path.
+         * @param fileNameOnly True to match only last path segment.
+         * @param matcher      Compiled pattern.
+         * @param action       Rule action.
+         * @param ttlSeconds   Freshness lifetime, for cached responses.
+         */
+        private Rule(boolean byType, boolean fileNameOnly, Predicate<String> matcher, Action action, long ttlSeconds) {
+            this.byType = byType;
+            this.fileNameOnly = fileNameOnly;
+            this.matcher = matcher;
+            this.action = action;
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        /**
+         * Parse a rule line.
+         *
+         * @param line Rule line, trimmed.
+         * @return Compiled rule.
+         * @throws IllegalArgumentException If rule is invalid.
+         */
+        private static Rule parse(String line) {
+            final String[] parts = line.split("\\s+");
+            if (parts.length < 3 || parts.length > 4) {
+                throw new IllegalArgumentException("Expected \"path|type pattern action\": " + line);
+            }
+
+            // target
+            final String target = parts[0].toLowerCase(Locale.ROOT);
+            if (!"path".equals(target) && !"type".equals(target)) {
+                throw new IllegalArgumentException("Unknown target: " + parts[0]);
+            }
+            final boolean byType = "type".equals(target);
+
+            // action with optional seconds
+            final Action action;
+            try {
+                action = Action.valueOf(parts[2].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown action: " + parts[2]);
+            }
+            long ttl = action == Action.ALWAYS ? ALWAYS_TTL_SECONDS : 0;
+            if (parts.length == 4) {
+                if (action == Action.NEVER) {
+                    throw new IllegalArgumentException("Unexpected seconds for never: " + parts[3]);
+                }
+                try {
+                    ttl = Long.parseLong(parts[3]);
+                } catch (NumberFormatException e) {
+                    ttl = -1;
+                }
+                if (ttl < 0) {
+                    throw new IllegalArgumentException("Invalid seconds: " + parts[3]);
+                }
+            } else if (action == Action.TTL) {
+                throw new IllegalArgumentException("Missing seconds for ttl");
+            }
+
+            // pattern
+            final String pattern = parts[1];
+            if (pattern.startsWith("~")) {
+                try {
+                    return new Rule(byType, false, Pattern.compile(pattern.substring(1)).asPredicate(), action, ttl);
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Invalid regular expression: " + pattern.substring(1));
+                }
+            }
+            final String glob = byType ? pattern.toLowerCase(Locale.ROOT) : pattern;
+            try {
+                return new Rule(byType, !byType && glob.indexOf('/') < 0, compileGlob(glob), action, ttl);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid character class: " + pattern);
+            }
+        }
+
+        /**
+         * Compile a glob to a matcher. Globs that are a literal, a literal prefix or a literal suffix are matched
+         * with string tests, others with a regular expression.
+         *
+         * @param glob Glob pattern.
+         * @return Matcher
+         */
+        private static Predicate<String> compileGlob(String glob) {
+            final int first = indexOfWildcard(glob, 0);
+
+            // literal
+            if (first < 0) {
+                return glob::equals;
+            }
+
+            // literal prefix, any rest
+            if (first == glob.length() - 2 && glob.endsWith("**")) {
+                final String prefix = glob.substring(0, first);
+                return s -> s.startsWith(prefix);
+            }
+
+            // any start, literal suffix
+            final int stars = glob.startsWith("**") ? 2 : glob.startsWith("*") ? 1 : 0;
+            if (stars > 0 && indexOfWildcard(glob, stars) < 0) {
+                final String suffix = glob.substring(stars);
+                if (stars == 2) {
+                    return s -> s.endsWith(suffix);
+                }
+                return s -> s.endsWith(suffix) && s.lastIndexOf('/', s.length() - suffix.length() - 1) < 0;
+            }
+
+            // translate to regular expression
+            final StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int i = first; i >= 0; i = indexOfWildcard(glob, start)) {
+                regex.append(Pattern.quote(glob.substring(start, i)));
+                if (glob.charAt(i) == '[') {
+                    final int close = glob.indexOf(']', i + 2);
+                    final String chars = glob.substring(i + 1, close);
+                    regex.append('[').append(chars.startsWith("!") ? "^" + chars.substring(1) : chars).append(']');
+                    start = close + 1;
+                } else if (glob.charAt(i) == '?') {
+                    regex.append("[^/]");
+                    start = i + 1;
+                } else if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    start = i + 2;
+                } else {
+                    regex.append("[^/]*");
+                    start = i + 1;
+                }
+            }
+            regex.append(Pattern.quote(glob.substring(start)));
+            final Pattern compiled = Pattern.compile(regex.toString());
+            return s -> compiled.matcher(s).matches();
+        }
+
+        /**
+         * Find next glob wildcard.
+         *
+         * @param glob Glob pattern.
+         * @param from Start index.
+         * @return Index of "*", "?" or a closed "[", or -1.
+         */
+        private static int indexOfWildcard(String glob, int from) {
+            for (int i = from; i < glob.length(); i++) {
+                final char c = glob.charAt(i);
+                if (c == '*' || c == '?' || (c == '[' && glob.indexOf(']', i + 2) > 0)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Get rule action.
+         *
+         * @return Action
+         */
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * Get freshness lifetime for responses cached by this rule.
+         *
+         * @return Lifetime in millis.
+         */
+        public long getTtlMillis() {
+            return ttlSeconds * 1000;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs cache refresh tasks in background, with bounded threads and queue.
+ * <p>
+ * At most one task per key is pending at a time. Tasks are dropped when the queue is full, so a burst of stale hits
+ * can not pile up work against the origin server.
+ */
+public class SSCacheRefresher implements Closeable {
+    private final ThreadPoolExecutor mExecutor;
+    private final Set<String> mPending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor
+     *
+     * @param threads   Number of refresh threads.
+     * @param queueSize Maximum number of waiting tasks.
+     */
+    public SSCacheRefresher(int threads, int queueSize) {
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            final Thread thread = new Thread(r, SSConstants.Plugin.ID + " cache refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submit a refresh task for a key.
+     *
+     * @param key  Cache key.
+     * @param task Refresh task.
+     * @return True if task queued, false if a task for the key is already pending or queue is full.
+     */
+    public boolean submit(String key, Runnable task) {
+        // one pending task per key
+        if (!mPending.add(key)) {
+            return false;
+        }
+
+        try {
+            mExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    mPending.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // queue full or closed
+            mPending.remove(key);
+            return false;
+        }
+    }
+
+    /**
+     * Stop refreshing, interrupting running tasks and dropping waiting tasks.
+     */
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
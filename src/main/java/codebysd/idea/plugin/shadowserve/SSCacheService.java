@@ -0,0 +1,320 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Project service sharing response caches between local server runs, for the IDE session.
+ * <p>
+ * There is one cache per origin server, shared by all configurations run against that origin. A run takes a lease on
+ * the cache of its origin and releases it when it stops. A released cache is kept, so the next run starts warm, and
+ * its disk tier is check-pointed. A cache not in use is replaced when its budget or disk tier settings changed, a cache
+ * in use keeps its settings until all runs using it stop.
+ * <p>
+ * All caches of the project share one memory budget. A new cache gets the budget not held by caches of other origins
+ * in use, and caches of other origins not in use are closed to make room.
+ * <p>
+ * Bytes stored by each configuration are counted for the session, over all its runs.
+ * <p>
+ * Caches are closed when the project closes.
+ */
+public class SSCacheService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(SSCacheService.class);
+
+    private final Map<String, Shared> mCaches = new HashMap<>();
+    private final Map<String, Usage> mUsage = new HashMap<>();
+
+    /**
+     * Get service of a project.
+     *
+     * @param project Project reference.
+     * @return Cache service.
+     */
+    public static SSCacheService getInstance(Project project) {
+        return ServiceManager.getService(project, SSCacheService.class);
+    }
+
+    /**
+     * Take a lease on the cache of an origin, creating the cache if needed.
+     *
+     * @param origin        Origin server URI.
+     * @param configuration Name of the configuration being run.
+     * @param budgetBytes   Memory budget of all caches of the project.
+     * @param diskDirectory Directory of the disk tier, or null for a memory only cache.
+     * @param diskBytes     Disk budget of the disk tier.
+     * @param uiLogger      UI logger of the run.
+     * @return Cache lease, or null if the budget is held by caches of other origins in use.
+     */
+    @Nullable
+    public synchronized Lease acquire(String origin, String configuration, long budgetBytes,
+                                      @Nullable Path diskDirectory, long diskBytes, SSUILogger uiLogger) {
+        // replace cache of origin, if not in use and settings changed
+        Shared shared = mCaches.get(origin);
+        final boolean changed = shared != null && shared.isChanged(budgetBytes, diskDirectory, diskBytes);
+        if (changed && shared.leases == 0) {
+            mCaches.remove(origin);
+            close(shared, uiLogger);
+            shared = null;
+        }
+
+        if (shared == null) {
+            // close caches of other origins not in use, the rest of the budget is held by those in use
+            long budget = budgetBytes;
+            for (Iterator<Shared> iterator = mCaches.values().iterator(); iterator.hasNext(); ) {
+                final Shared other = iterator.next();
+                if (other.leases == 0) {
+                    iterator.remove();
+                    close(other, uiLogger);
+                } else {
+                    budget -= other.budgetBytes;
+                }
+            }
+            if (budget <= 0) {
+                uiLogger.logSystem("Cache:\tOff, memory budget in use by other origins");
+                return null;
+            }
+
+            shared = new Shared(origin, open(budget, diskDirectory, diskBytes, uiLogger), budget, budgetBytes,
+                    diskDirectory, diskBytes);
+            mCaches.put(origin, shared);
+        } else if (shared.leases == 0) {
+            uiLogger.logSystem("Cache:\tKept from previous run, %d entries", shared.cache.getEntryCount());
+        } else {
+            uiLogger.logSystem("Cache:\tShared with %d running, %d entries", shared.leases,
+                    shared.cache.getEntryCount());
+            if (changed) {
+                uiLogger.logSystem("Cache:\tSettings changed, previous budget and disk settings apply "
+                        + "until other runs stop");
+            }
+        }
+
+        shared.leases++;
+        return new Lease(this, shared, mUsage.computeIfAbsent(configuration, k -> new Usage()), uiLogger);
+    }
+
+    /**
+     * Close all caches.
+     */
+    @Override
+    public synchronized void dispose() {
+        for (Shared shared : mCaches.values()) {
+            try {
+                shared.cache.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close cache", e);
+            }
+        }
+        mCaches.clear();
+    }
+
+    /**
+     * Release a lease, check-pointing the disk tier of the cache once no run uses it.
+     *
+     * @param lease Cache lease.
+     */
+    private synchronized void release(Lease lease) {
+        final Shared shared = lease.shared;
+        shared.leases--;
+        if (shared.leases == 0 && mCaches.get(shared.origin) == shared) {
+            try {
+                shared.cache.flush();
+            } catch (IOException e) {
+                lease.uiLogger.logCrash(e, "Unable to check-point disk cache");
+            }
+        }
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param budgetBytes   Memory budget.
+     * @param diskDirectory Directory of the disk tier, or null for a memory only cache.
+     * @param diskBytes     Disk budget of the disk tier.
+     * @param uiLogger      UI logger.
+     * @return Response cache.
+     */
+    private static SSCache open(long budgetBytes, @Nullable Path diskDirectory, long diskBytes,
+                                SSUILogger uiLogger) {
+        // optional disk tier if configured
+        SSDiskCache diskTier = null;
+        if (diskDirectory != null) {
+            try {
+                diskTier = new SSDiskCache(diskDirectory, diskBytes, SSConstants.Defaults.DISK_SEGMENT_SIZE);
+                uiLogger.logSystem("Disk cache:\t%s (%d entries)", diskTier.getDirectory(), diskTier.getEntryCount());
+            } catch (IOException | IllegalArgumentException e) {
+                // continue with memory only cache
+                uiLogger.logCrash(e, "Unable to open disk cache");
+            }
+        }
+
+        // bodies off heap, with bounded room for bodies still being sent after eviction
+        final SSBodyStore bodyStore = new SSBodyStore(SSBodyStore.capacityFor(budgetBytes));
+        return new SSCache(budgetBytes, diskTier, SSCache.Eviction.TINY_LFU, bodyStore);
+    }
+
+    /**
+     * Close a cache no longer used.
+     *
+     * @param shared   Shared cache.
+     * @param uiLogger UI logger.
+     */
+    private static void close(Shared shared, SSUILogger uiLogger) {
+        try {
+            shared.cache.close();
+        } catch (IOException e) {
+            uiLogger.logCrash(e, "Unable to close cache");
+        }
+    }
+
+    /**
+     * A run's use of a shared cache. Closing the lease releases the cache, without closing it.
+     */
+    public static class Lease implements Closeable {
+        private final SSCacheService service;
+        private final Shared shared;
+        private final Usage usage;
+        private final SSUILogger uiLogger;
+        private boolean closed = false;
+
+        /**
+         * Constructor
+         *
+         * @param service  Owning service.
+         * @param shared   Shared cache.
+         * @param usage    Usage of the configuration.
+         * @param uiLogger UI logger of the run.
+         */
+        private Lease(SSCacheService service, Shared shared, Usage usage, SSUILogger uiLogger) {
+            this.service = service;
+            this.shared = shared;
+            this.usage = usage;
+            this.uiLogger = uiLogger;
+        }
+
+        /**
+         * Get the shared cache.
+         *
+         * @return Response cache.
+         */
+        public SSCache getCache() {
+            return shared.cache;
+        }
+
+        /**
+         * Get usage of the configuration, for the session.
+         *
+         * @return Configuration usage.
+         */
+        public Usage getUsage() {
+            return usage;
+        }
+
+        /**
+         * Release the shared cache. Does nothing if already released.
+         */
+        @Override
+        public void close() {
+            synchronized (service) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                service.release(this);
+            }
+        }
+    }
+
+    /**
+     * Bytes stored in shared caches by a configuration. Recording is lock free.
+     */
+    public static class Usage {
+        private final LongAdder storedCount = new LongAdder();
+        private final LongAdder storedBytes = new LongAdder();
+
+        /**
+         * Record an entry stored in cache.
+         *
+         * @param bytes Stored head and body bytes.
+         */
+        public void stored(long bytes) {
+            storedCount.increment();
+            storedBytes.add(bytes);
+        }
+
+        /**
+         * Get number of entries stored.
+         *
+         * @return Entry count.
+         */
+        public long getStoredCount() {
+            return storedCount.sum();
+        }
+
+        /**
+         * Get number of bytes stored.
+         *
+         * @return Byte count.
+         */
+        public long getStoredBytes() {
+            return storedBytes.sum();
+        }
+    }
+
+    /**
+     * A cache shared by runs against one origin.
+     */
+    private static class Shared {
+        final String origin;
+        final SSCache cache;
+        final long budgetBytes;
+        final long requestedBytes;
+        final Path directory;
+        final long diskBytes;
+        int leases = 0;
+
+        /**
+         * Constructor
+         *
+         * @param origin         Origin server URI.
+         * @param cache          Response cache.
+         * @param budgetBytes    Memory budget of the cache.
+         * @param requestedBytes Memory budget of all caches when created.
+         * @param directory      Directory of the disk tier, or null.
+         * @param diskBytes      Disk budget of the disk tier.
+         */
+        Shared(String origin, SSCache cache, long budgetBytes, long requestedBytes, @Nullable Path directory,
+               long diskBytes) {
+            this.origin = origin;
+            this.cache = cache;
+            this.budgetBytes = budgetBytes;
+            this.requestedBytes = requestedBytes;
+            this.directory = directory;
+            this.diskBytes = diskBytes;
+        }
+
+        /**
+         * Check if budget or disk tier settings differ from those the cache was created with.
+         *
+         * @param budgetBytes   Memory budget of all caches of the project.
+         * @param diskDirectory Directory of the disk tier, or null.
+         * @param diskBytes     Disk budget of the disk tier.
+         * @return True if changed.
+         */
+        boolean isChanged(long budgetBytes, @Nullable Path diskDirectory, long diskBytes) {
+            return requestedBytes != budgetBytes || !Objects.equals(directory, diskDirectory)
+                    || this.diskBytes != diskBytes;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Warms the cache up, by requesting pages and the assets they link to from the local server, so the responses pass
+ * through the cache filter and are stored.
+ * <p>
+ * HTML documents are scanned for script, link and image references, and style sheets for url() references. Only
+ * references on the same server (relative or root relative) are followed, up to a fixed depth, and each path is
+ * requested once. Requests run in parallel with bounded threads and queue, and progress is logged to console.
+ */
+public class SSCacheWarmer implements Closeable {
+    private static final int MAX_DEPTH = 3;
+    private static final int MAX_VISITED = 10_000;
+    private static final int PROGRESS_STEP = 10;
+    private static final List<String> COPIED_HEADERS = Arrays.asList(
+            "Accept-Encoding", "Accept-Language", "User-Agent", "Cookie", "Authorization");
+    private static final Set<String> LINK_RELS = new LinkedHashSet<>(Arrays.asList(
+            "stylesheet", "icon", "preload", "modulepreload", "prefetch", "manifest", "apple-touch-icon"));
+    private static final Pattern TAG = Pattern.compile("<(script|link|img)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "\\b(src|href|rel)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CSS_URL = Pattern.compile(
+            "url\\(\\s*(?:\"([^\"]*)\"|'([^']*)'|([^)\\s]*))\\s*\\)|@import\\s+(?:\"([^\"]*)\"|'([^']*)')",
+            Pattern.CASE_INSENSITIVE);
+
+    private final URI mServerURI;
+    private final ThreadPoolExecutor mExecutor;
+    private final Set<String> mVisited = ConcurrentHashMap.newKeySet();
+    private final SSUILogger mUILogger;
+
+    /**
+     * Constructor
+     *
+     * @param serverURI Local server URI, warm-up requests are sent to it.
+     * @param threads   Number of parallel requests.
+     * @param queueSize Maximum number of waiting requests. More requests are dropped.
+     * @param uiLogger  UI logger.
+     */
+    public SSCacheWarmer(URI serverURI, int threads, int queueSize, SSUILogger uiLogger) {
+        mServerURI = serverURI;
+        mUILogger = uiLogger;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            final Thread thread = new Thread(r, SSConstants.Plugin.ID + " cache warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Parse warm-up seed paths.
+     *
+     * @param paths Paths separated by commas or white space.
+     * @return Paths, each starting with "/".
+     * @throws IllegalArgumentException If a path is not a root relative path.
+     */
+    public static List<String> parsePaths(@Nullable String paths) {
+        final List<String> list = new ArrayList<>();
+        if (SSUtils.isNil(paths)) {
+            return list;
+        }
+        for (String path : paths.trim().split("[,\\s]+")) {
+            if (!path.startsWith("/") || path.startsWith("//")) {
+                throw new IllegalArgumentException("Invalid warm-up path: " + path);
+            }
+            URI.create(path);
+            list.add(path);
+        }
+        return list;
+    }
+
+    /**
+     * Warm up seed paths and everything they link to.
+     *
+     * @param paths Root relative paths.
+     */
+    public void warm(Collection<String> paths) {
+        final Run run = new Run(paths.size() > 1 ? paths.size() + " pages" : String.join("", paths));
+        for (String path : paths) {
+            submit(run, path, Map.of(), 0);
+        }
+        run.release();
+    }
+
+    /**
+     * Warm up assets linked from a page, already fetched by a client.
+     *
+     * @param path           Page path.
+     * @param html           Page body.
+     * @param requestHeaders Client request headers, repeated for the assets so they match the same cache variants.
+     */
+    public void warmPage(String path, byte[] html, Map<String, List<String>> requestHeaders) {
+        // page itself is known
+        if (!visit(path)) {
+            return;
+        }
+
+        // request headers to repeat
+        final Map<String, String> headers = new ConcurrentHashMap<>();
+        for (Map.Entry<String, List<String>> e : requestHeaders.entrySet()) {
+            for (String name : COPIED_HEADERS) {
+                if (name.equalsIgnoreCase(e.getKey()) && !e.getValue().isEmpty()) {
+                    headers.put(name, String.join(", ", e.getValue()));
+                }
+            }
+        }
+
+        final Run run = new Run(path);
+        for (String ref : findReferences(path, html, true)) {
+            submit(run, ref, headers, 1);
+        }
+        run.release();
+    }
+
+    /**
+     * Stop warming up, dropping waiting requests.
+     */
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mark a path as visited.
+     *
+     * @param path Request path with query.
+     * @return True if not visited before.
+     */
+    private boolean visit(String path) {
+        // forget old paths, so the set does not grow without bound
+        if (mVisited.size() > MAX_VISITED) {
+            mVisited.clear();
+        }
+        return mVisited.add(path);
+    }
+
+    /**
+     * Queue a warm-up request, unless path is already visited.
+     *
+     * @param run     Warm-up run.
+     * @param path    Request path with query.
+     * @param headers Request headers.
+     * @param depth   Link depth from seed.
+     */
+    private void submit(Run run, String path, Map<String, String> headers, int depth) {
+        if (!visit(path)) {
+            return;
+        }
+
+        run.total.incrementAndGet();
+        run.pending.incrementAndGet();
+        try {
+            mExecutor.execute(() -> {
+                try {
+                    fetch(run, path, headers, depth);
+                } finally {
+                    run.done();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // queue full or closed
+            run.failed.incrementAndGet();
+            run.done();
+        }
+    }
+
+    /**
+     * Request a path from local server, and queue its references.
+     *
+     * @param run     Warm-up run.
+     * @param path    Request path with query.
+     * @param headers Request headers.
+     * @param depth   Link depth from seed.
+     */
+    private void fetch(Run run, String path, Map<String, String> headers, int depth) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) mServerURI.resolve(path).toURL().openConnection();
+            headers.forEach(connection::setRequestProperty);
+            connection.setConnectTimeout(10_000);
+            connection.setReadTimeout(60_000);
+
+            // read body, the cache filter stores it on the way
+            final int code = connection.getResponseCode();
+            final InputStream stream = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            final byte[] body;
+            try (InputStream in = stream == null ? InputStream.nullInputStream() : stream) {
+                body = in.readAllBytes();
+            }
+            if (code >= 400) {
+                run.failed.incrementAndGet();
+                return;
+            }
+
+            // follow references of pages and style sheets
+            final String type = String.valueOf(connection.getContentType()).toLowerCase(Locale.ROOT);
+            final boolean html = type.startsWith("text/html");
+            if (depth < MAX_DEPTH && (html || type.startsWith("text/css"))) {
+                final byte[] text = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                        ? new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes() : body;
+                for (String ref : findReferences(path, text, html)) {
+                    submit(run, ref, headers, depth + 1);
+                }
+            }
+        } catch (IOException e) {
+            run.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Find same server references in a page or style sheet.
+     *
+     * @param path Document path, to resolve relative references.
+     * @param body Document body.
+     * @param html True for a HTML page, false for a style sheet.
+     * @return Root relative paths, with query.
+     */
+    private static Set<String> findReferences(String path, byte[] body, boolean html) {
+        final String text = new String(body, StandardCharsets.ISO_8859_1);
+        final URI base = URI.create("http://local").resolve(SSUtils.isNil(path) ? "/" : path);
+        final Set<String> refs = new LinkedHashSet<>();
+
+        // style sheet urls, also in inline styles of pages
+        final Matcher css = CSS_URL.matcher(text);
+        while (css.find()) {
+            addReference(refs, base, firstGroup(css, 1));
+        }
+        if (!html) {
+            return refs;
+        }
+
+        // script src, img src, and link href of asset relations
+        final Matcher tag = TAG.matcher(text);
+        while (tag.find()) {
+            String src = null;
+            String href = null;
+            String rel = "";
+            final Matcher attribute = ATTRIBUTE.matcher(tag.group(2));
+            while (attribute.find()) {
+                final String value = firstGroup(attribute, 2);
+                switch (attribute.group(1).toLowerCase(Locale.ROOT)) {
+                    case "src":
+                        src = value;
+                        break;
+                    case "href":
+                        href = value;
+                        break;
+                    default:
+                        rel = value.toLowerCase(Locale.ROOT);
+                }
+            }
+            if (!"link".equalsIgnoreCase(tag.group(1))) {
+                addReference(refs, base, src);
+            } else if (Arrays.stream(rel.split("\\s+")).anyMatch(LINK_RELS::contains)) {
+                addReference(refs, base, href);
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Get first matched group, skipping groups of the alternatives not taken.
+     *
+     * @param matcher Matcher, after a match.
+     * @param from    First group to check.
+     * @return Group value, may be empty.
+     */
+    private static String firstGroup(Matcher matcher, int from) {
+        for (int i = from; i <= matcher.groupCount(); i++) {
+            final String value = matcher.group(i);
+            if (value != null) {
+                return value;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Resolve a reference and add it, if it is on the same server.
+     *
+     * @param refs Paths to add to.
+     * @param base Document URI.
+     * @param ref  Reference, may be null.
+     */
+    private static void addReference(Set<String> refs, URI base, @Nullable String ref) {
+        if (SSUtils.isNil(ref)) {
+            return;
+        }
+        final String value = ref.trim().replace("&amp;", "&");
+
+        // not on this server, or not a resource
+        if (value.startsWith("//") || value.startsWith("#") || value.matches("^[a-zA-Z][a-zA-Z0-9+.-]*:.*")) {
+            return;
+        }
+
+        try {
+            final URI uri = base.resolve(value);
+            final String path = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            if (path.startsWith("/")) {
+                refs.add(path);
+            }
+        } catch (IllegalArgumentException e) {
+            // not a valid URI, skip
+        }
+    }
+
+    /**
+     * Progress of a warm-up, from a page or seed paths.
+     */
+    private class Run {
+        private final String name;
+        private final long start = System.currentTimeMillis();
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        /**
+         * Constructor
+         *
+         * @param name Name in console.
+         */
+        private Run(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Count a finished request, logging progress.
+         */
+        private void done() {
+            final int count = completed.incrementAndGet();
+            if (count % PROGRESS_STEP == 0) {
+                mUILogger.logSystem("Warm-up:\t%s\t%d/%d", name, count, total.get());
+            }
+            release();
+        }
+
+        /**
+         * Release a pending count, logging summary when nothing is pending.
+         */
+        private void release() {
+            if (pending.decrementAndGet() == 0 && total.get() > 0) {
+                mUILogger.logSystem("Warm-up:\t%s\t%d requests, %d failed, in %d ms", name, total.get(),
+                        failed.get(), System.currentTimeMillis() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Status, headers and timing of a cached web response, with HTTP caching rules (RFC 9111) applied to it.
+ * The response body is cached separately.
+ */
+public class SSCachedResponse {
+    private static final int FORMAT_VERSION = 3;
+    private static final long HEURISTIC_MAX_MILLIS = 24 * 60 * 60 * 1000;
+    private static final Set<String> UNSTORED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "te", "trailer", "upgrade",
+            "proxy-authenticate", "proxy-authorization", "content-length"));
+    private static final Set<Integer> HEURISTIC_STATUS = new HashSet<>(Arrays.asList(
+            200, 203, 204, 206, 300, 301, 308, 404, 405, 410, 414, 501));
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(Arrays.asList(
+            "application/javascript", "application/x-javascript", "application/ecmascript", "application/json",
+            "application/manifest+json", "application/xml", "application/xhtml+xml", "application/wasm",
+            "image/svg+xml", "image/x-icon", "font/ttf", "font/otf"));
+
+    private final int mStatusCode;
+    private final Headers mHeaders;
+    private final Map<String, String> mVaryValues;
+    private final long mRequestTime;
+    private final long mResponseTime;
+    private final int mIdentityLength;
+    private final long mLifetime;
+
+    /**
+     * Constructor
+     *
+     * @param statusCode     Response status code.
+     * @param headers        Response headers. Hop-by-hop headers are not kept.
+     * @param requestHeaders Request headers, to record values selected by response Vary header.
+     * @param requestTime    Time when request was sent, epoch millis.
+     * @param responseTime   Time when response was received, epoch millis.
+     */
+    public SSCachedResponse(int statusCode, Map<String, List<String>> headers, Map<String, List<String>> requestHeaders,
+                            long requestTime, long responseTime) {
+        mStatusCode = statusCode;
+        mHeaders = new Headers();
+        mVaryValues = new TreeMap<>();
+        mRequestTime = requestTime;
+        mResponseTime = responseTime;
+        mIdentityLength = -1;
+        mLifetime = -1;
+
+        // keep end-to-end headers
+        SSUtils.copyResponseHeaders(headers, (k, v) -> {
+            if (!UNSTORED_HEADERS.contains(k.toLowerCase(Locale.ROOT))) {
+                mHeaders.put(k, new ArrayList<>(v));
+            }
+        });
+
+        // record request header values selected by Vary
+        final Headers request = new Headers();
+        request.putAll(requestHeaders);
+        for (String name : getVaryNames()) {
+            mVaryValues.put(name, SSCacheKey.normalize(name, request.get(name)));
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param statusCode     Response status code.
+     * @param headers        Response headers.
+     * @param varyValues     Request header values selected by Vary.
+     * @param requestTime    Time when request was sent, epoch millis.
+     * @param responseTime   Time when response was received, epoch millis.
+     * @param identityLength Body length before compression if body is stored gzip compressed, or -1.
+     * @param lifetime       Freshness lifetime set by cache policy in millis, or -1. Not serialized.
+     */
+    private SSCachedResponse(int statusCode, Headers headers, Map<String, String> varyValues,
+                             long requestTime, long responseTime, int identityLength, long lifetime) {
+        mStatusCode = statusCode;
+        mHeaders = headers;
+        mVaryValues = varyValues;
+        mRequestTime = requestTime;
+        mResponseTime = responseTime;
+        mIdentityLength = identityLength;
+        mLifetime = lifetime;
+    }
+
+    /**
+     * De-serialize from byte data.
+     *
+     * @param data bytes
+     * @return {@link SSCachedResponse} instance
+     * @throws IOException De-serialization error.
+     */
+    public static SSCachedResponse fromBytes(byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported cached response format");
+        }
+
+        // status and times
+        final int statusCode = in.readInt();
+        final long requestTime = in.readLong();
+        final long responseTime = in.readLong();
+        final int identityLength = in.readInt();
+
+        // headers
+        final Headers headers = new Headers();
+        final int headerCount = in.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            final String name = readString(in);
+            final int valueCount = in.readInt();
+            final List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(readString(in));
+            }
+            headers.put(name, values);
+        }
+
+        // vary values
+        final Map<String, String> varyValues = new TreeMap<>();
+        final int varyCount = in.readInt();
+        for (int i = 0; i < varyCount; i++) {
+            varyValues.put(readString(in), readString(in));
+        }
+
+        return new SSCachedResponse(statusCode, headers, varyValues, requestTime, responseTime, identityLength, -1);
+    }
+
+    /**
+     * Serialize current instance to bytes.
+     *
+     * @return bytes
+     * @throws IOException Serialization error.
+     */
+    public byte[] toBytes() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(FORMAT_VERSION);
+
+        // status and times
+        out.writeInt(mStatusCode);
+        out.writeLong(mRequestTime);
+        out.writeLong(mResponseTime);
+        out.writeInt(mIdentityLength);
+
+        // headers
+        out.writeInt(mHeaders.size());
+        for (Map.Entry<String, List<String>> e : mHeaders.entrySet()) {
+            writeString(out, e.getKey());
+            out.writeInt(e.getValue().size());
+            for (String value : e.getValue()) {
+                writeString(out, value);
+            }
+        }
+
+        // vary values
+        out.writeInt(mVaryValues.size());
+        for (Map.Entry<String, String> e : mVaryValues.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Get response status code.
+     *
+     * @return Status code.
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Get stored response headers.
+     *
+     * @return Response headers. Must not be modified.
+     */
+    public Headers getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * Get time when the response was received.
+     *
+     * @return Epoch millis.
+     */
+    public long getResponseTime() {
+        return mResponseTime;
+    }
+
+    /**
+     * Get response Cache-Control directives.
+     *
+     * @return Cache-Control directives.
+     */
+    public SSCacheControl getCacheControl() {
+        return SSCacheControl.parse(mHeaders.get("Cache-Control"));
+    }
+
+    /**
+     * Create a refreshed copy of this response, using headers of a 304 (Not Modified) response (RFC 9111, 4.3.4).
+     *
+     * @param notModifiedHeaders Headers of 304 response.
+     * @param requestTime        Time when validation request was sent, epoch millis.
+     * @param responseTime       Time when validation response was received, epoch millis.
+     * @return Refreshed response.
+     */
+    public SSCachedResponse refresh(Map<String, List<String>> notModifiedHeaders, long requestTime, long responseTime) {
+        // age of the stored response is replaced by age of the validation response, if any
+        final Headers headers = new Headers();
+        headers.putAll(mHeaders);
+        headers.remove("Age");
+        SSUtils.copyResponseHeaders(notModifiedHeaders, (k, v) -> {
+            if (!UNSTORED_HEADERS.contains(k.toLowerCase(Locale.ROOT))) {
+                headers.put(k, new ArrayList<>(v));
+            }
+        });
+        return new SSCachedResponse(mStatusCode, headers, mVaryValues, requestTime, responseTime, mIdentityLength,
+                mLifetime);
+    }
+
+    /**
+     * Check if response body is worth storing gzip compressed: a textual content type, not already encoded.
+     *
+     * @return True if compressible.
+     */
+    public boolean isCompressible() {
+        // not already encoded, and not a part of the body
+        final String encoding = mHeaders.getFirst("Content-Encoding");
+        if ((encoding != null && !"identity".equalsIgnoreCase(encoding.trim()))
+                || mHeaders.containsKey("Content-Range")) {
+            return false;
+        }
+
+        // textual content
+        final String contentType = mHeaders.getFirst("Content-Type");
+        if (contentType == null) {
+            return false;
+        }
+        final String type = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.endsWith("+json") || type.endsWith("+xml")
+                || COMPRESSIBLE_TYPES.contains(type);
+    }
+
+    /**
+     * Create a copy of this response, marking its body as stored gzip compressed.
+     *
+     * @param identityLength Body length before compression.
+     * @return Response with compressed body.
+     */
+    public SSCachedResponse compressed(int identityLength) {
+        return new SSCachedResponse(mStatusCode, mHeaders, mVaryValues, mRequestTime, mResponseTime, identityLength,
+                mLifetime);
+    }
+
+    /**
+     * Create a copy of this response with a freshness lifetime set by cache policy. It replaces the lifetime given
+     * by origin, and origin "no-cache" directive.
+     *
+     * @param lifetime Freshness lifetime in millis.
+     * @return Response with given lifetime.
+     */
+    public SSCachedResponse withFreshnessLifetime(long lifetime) {
+        return new SSCachedResponse(mStatusCode, mHeaders, mVaryValues, mRequestTime, mResponseTime, mIdentityLength,
+                lifetime);
+    }
+
+    /**
+     * Check if body is stored gzip compressed by the cache.
+     *
+     * @return True if compressed.
+     */
+    public boolean isStoredCompressed() {
+        return mIdentityLength >= 0;
+    }
+
+    /**
+     * Get body length before compression, if body is stored gzip compressed.
+     *
+     * @return Number of bytes, or -1 if body is stored as received.
+     */
+    public int getIdentityLength() {
+        return mIdentityLength;
+    }
+
+    /**
+     * Check if a request accepts gzip content coding (RFC 9110, 12.5.3).
+     *
+     * @param requestHeaders Request headers.
+     * @return True if "gzip" or "*" is listed in Accept-Encoding, with a non zero quality.
+     */
+    public static boolean acceptsGzip(Map<String, List<String>> requestHeaders) {
+        final Headers request = new Headers();
+        request.putAll(requestHeaders);
+        final String accept = SSCacheKey.normalize("accept-encoding", request.get("Accept-Encoding"));
+        for (String element : accept.split(",")) {
+            final String[] parts = element.split(";");
+            if (("gzip".equals(parts[0]) || "x-gzip".equals(parts[0]) || "*".equals(parts[0]))
+                    && !(parts.length > 1 && parts[1].matches("q=0(\\.0*)?"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if response can be stored by a private cache (RFC 9111, section 3).
+     *
+     * @param requestCacheControl Cache-Control directives of request.
+     * @param force               True to store regardless of origin directives and freshness.
+     * @return True if response may be stored.
+     */
+    public boolean isStorable(SSCacheControl requestCacheControl, boolean force) {
+        final SSCacheControl cc = getCacheControl();
+
+        // final, complete responses only
+        if (mStatusCode < 200 || mStatusCode == 206 || mStatusCode == 304) {
+            return false;
+        }
+
+        // no-store on either side
+        if ((!force && cc.has("no-store")) || requestCacheControl.has("no-store")) {
+            return false;
+        }
+
+        // can never be selected
+        if (getVaryNames().contains("*")) {
+            return false;
+        }
+        if (force) {
+            return true;
+        }
+
+        // needs explicit freshness, or a status cacheable by default
+        return cc.has("max-age") || cc.has("public") || mHeaders.containsKey("Expires")
+                || HEURISTIC_STATUS.contains(mStatusCode);
+    }
+
+    /**
+     * Check if this response can be used for a request, according to recorded Vary header values (RFC 9111, 4.1).
+     *
+     * @param requestHeaders Request headers.
+     * @return True if all header values selected by Vary match.
+     */
+    public boolean matchesVary(Map<String, List<String>> requestHeaders) {
+        final Headers request = new Headers();
+        request.putAll(requestHeaders);
+        for (Map.Entry<String, String> e : mVaryValues.entrySet()) {
+            if ("*".equals(e.getKey()) || !e.getValue().equals(SSCacheKey.normalize(e.getKey(), request.get(e.getKey())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if response has validators, for a conditional request.
+     *
+     * @return True if ETag or Last-Modified is present.
+     */
+    public boolean hasValidators() {
+        return mHeaders.containsKey("ETag") || mHeaders.containsKey("Last-Modified");
+    }
+
+    /**
+     * Add conditional request headers, to validate this response with origin (RFC 9111, section 4.3.1).
+     *
+     * @param requestHeaders Request headers to add to.
+     */
+    public void addConditionalHeaders(Headers requestHeaders) {
+        // remove any conditions of the client
+        requestHeaders.remove("If-None-Match");
+        requestHeaders.remove("If-Modified-Since");
+        requestHeaders.remove("If-Match");
+        requestHeaders.remove("If-Unmodified-Since");
+        requestHeaders.remove("If-Range");
+
+        // add own validators
+        final String etag = mHeaders.getFirst("ETag");
+        if (etag != null) {
+            requestHeaders.set("If-None-Match", etag);
+        }
+        final String lastModified = mHeaders.getFirst("Last-Modified");
+        if (lastModified != null) {
+            requestHeaders.set("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * Check if a client conditional request is satisfied by this response, so a 304 can be sent (RFC 9110, 13.2.2).
+     *
+     * @param requestHeaders Request headers.
+     * @return True if client copy is not modified.
+     */
+    public boolean isNotModified(Map<String, List<String>> requestHeaders) {
+        // only successful responses are validated
+        if (mStatusCode != 200) {
+            return false;
+        }
+
+        final Headers request = new Headers();
+        request.putAll(requestHeaders);
+
+        // If-None-Match takes precedence, using weak comparison
+        final List<String> ifNoneMatch = request.get("If-None-Match");
+        if (ifNoneMatch != null && !ifNoneMatch.isEmpty()) {
+            final String etag = weakTag(mHeaders.getFirst("ETag"));
+            for (String value : ifNoneMatch) {
+                for (String tag : value.split(",")) {
+                    final String t = tag.trim();
+                    if ("*".equals(t) || (etag != null && etag.equals(weakTag(t)))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // If-Modified-Since
+        final long since = SSCacheControl.parseDate(request.getFirst("If-Modified-Since"));
+        final long lastModified = SSCacheControl.parseDate(mHeaders.getFirst("Last-Modified"));
+        return since >= 0 && lastModified >= 0 && lastModified <= since;
+    }
+
+    /**
+     * Calculate freshness lifetime (RFC 9111, section 4.2.1).
+     *
+     * @return Freshness lifetime in millis.
+     */
+    public long getFreshnessLifetime() {
+        // set by cache policy
+        if (mLifetime >= 0) {
+            return mLifetime;
+        }
+
+        // max-age
+        final long maxAge = getCacheControl().getSeconds("max-age");
+        if (maxAge >= 0) {
+            return maxAge * 1000;
+        }
+
+        // Expires, relative to Date. Invalid Expires means already expired.
+        final long date = getDate();
+        if (mHeaders.containsKey("Expires")) {
+            final long expires = SSCacheControl.parseDate(mHeaders.getFirst("Expires"));
+            return Math.max(0, expires - date);
+        }
+
+        // heuristic, 10% of time since last modification (RFC 9111, section 4.2.2)
+        final long lastModified = SSCacheControl.parseDate(mHeaders.getFirst("Last-Modified"));
+        if (HEURISTIC_STATUS.contains(mStatusCode) && lastModified >= 0 && lastModified < date) {
+            return Math.min((date - lastModified) / 10, HEURISTIC_MAX_MILLIS);
+        }
+
+        // no freshness
+        return 0;
+    }
+
+    /**
+     * Calculate current age (RFC 9111, section 4.2.3).
+     *
+     * @param now Current time, epoch millis.
+     * @return Current age in millis.
+     */
+    public long getCurrentAge(long now) {
+        final long apparentAge = Math.max(0, mResponseTime - getDate());
+        final long responseDelay = Math.max(0, mResponseTime - mRequestTime);
+        final long ageValue = Math.max(0, SSCacheControl.parseSeconds(mHeaders.getFirst("Age"))) * 1000;
+        final long correctedInitialAge = Math.max(apparentAge, ageValue + responseDelay);
+        final long residentTime = Math.max(0, now - mResponseTime);
+        return correctedInitialAge + residentTime;
+    }
+
+    /**
+     * Check if response is fresh, and can be served without validation (RFC 9111, section 4.2).
+     *
+     * @param now                 Current time, epoch millis.
+     * @param requestCacheControl Cache-Control directives of request.
+     * @return True if fresh.
+     */
+    public boolean isFresh(long now, SSCacheControl requestCacheControl) {
+        // validation required on every use
+        if ((mLifetime < 0 && getCacheControl().has("no-cache")) || requestCacheControl.has("no-cache")) {
+            return false;
+        }
+
+        final long lifetime = getFreshnessLifetime();
+        final long age = getCurrentAge(now);
+
+        // client limits on age
+        final long maxAge = requestCacheControl.getSeconds("max-age");
+        if (maxAge >= 0 && age > maxAge * 1000) {
+            return false;
+        }
+        final long minFresh = requestCacheControl.getSeconds("min-fresh");
+        if (minFresh >= 0 && lifetime - age < minFresh * 1000) {
+            return false;
+        }
+
+        return lifetime > age;
+    }
+
+    /**
+     * Check if a stale response can be served while it is revalidated in background (RFC 5861).
+     * The stale window is the response "stale-while-revalidate" directive, or a default if not given.
+     *
+     * @param now                 Current time in milliseconds.
+     * @param requestCacheControl Request cache control.
+     * @param defaultStaleSeconds Stale window in seconds for responses without the directive.
+     * @return True if stale response can be served.
+     */
+    public boolean isStaleUsable(long now, SSCacheControl requestCacheControl, long defaultStaleSeconds) {
+        // origin or client requires validation
+        final SSCacheControl cc = getCacheControl();
+        if (cc.has("must-revalidate") || cc.has("proxy-revalidate") || cc.has("no-cache")
+                || requestCacheControl.has("no-cache") || requestCacheControl.has("max-age")) {
+            return false;
+        }
+
+        // within stale window after freshness lifetime
+        final long staleSeconds = cc.has("stale-while-revalidate")
+                ? cc.getSeconds("stale-while-revalidate") : defaultStaleSeconds;
+        return staleSeconds > 0 && getCurrentAge(now) < getFreshnessLifetime() + staleSeconds * 1000;
+    }
+
+    /**
+     * Get Date header value, or response time if missing.
+     *
+     * @return Epoch millis.
+     */
+    private long getDate() {
+        final long date = SSCacheControl.parseDate(mHeaders.getFirst("Date"));
+        return date >= 0 ? date : mResponseTime;
+    }
+
+    /**
+     * Get lower case header names listed in Vary header.
+     *
+     * @return Header names.
+     */
+    public Set<String> getVaryNames() {
+        final Set<String> names = new TreeSet<>();
+        final List<String> vary = mHeaders.get("Vary");
+        if (vary != null) {
+            for (String value : vary) {
+                for (String name : value.split(",")) {
+                    if (!SSUtils.isNil(name)) {
+                        names.add(name.trim().toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Strip weak indicator from an entity tag.
+     *
+     * @param tag Entity tag, may be null.
+     * @return Opaque tag, or null.
+     */
+    private static String weakTag(String tag) {
+        if (tag == null) {
+            return null;
+        }
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string.
+     *
+     * @param out Output
+     * @param str String
+     * @throws IOException Write error.
+     */
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a length prefixed UTF-8 string.
+     *
+     * @param in Input
+     * @return String
+     * @throws IOException Read error.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
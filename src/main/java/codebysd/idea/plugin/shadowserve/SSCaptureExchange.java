@@ -0,0 +1,370 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * An exchange that wraps another exchange, capturing the response instead of sending it.
+ * Lets a filter inspect the response of the rest of the chain, before deciding what to send.
+ * Request headers can be modified, without affecting the wrapped exchange.
+ * <p>
+ * With a {@link Forwarder}, a response can instead be forwarded to the wrapped exchange as it arrives, while it is
+ * captured at the same time (a tee). Bodies larger than the capture limit are not captured.
+ * <p>
+ * A body of known length is captured into an array of that length, returned without copying. A body of unknown
+ * length is captured into pooled buffers of growing size classes, copied out once when complete.
+ */
+public class SSCaptureExchange extends HttpExchange {
+    private static final byte[] EMPTY = new byte[0];
+    private final HttpExchange mExchange;
+    private final Headers mRequestHeaders;
+    private final Headers mResponseHeaders;
+    private final OutputStream mResponseBody;
+    private final long mMaxCapture;
+    private byte[] mCapture = EMPTY;
+    private int mCaptured = 0;
+    private boolean mPooled = false;
+    private InputStream mRequestBody;
+    private Forwarder mForwarder;
+    private boolean mForwarded = false;
+    private int mResponseCode = -1;
+
+    /**
+     * Decides if a response is forwarded to the wrapped exchange as it arrives.
+     */
+    public interface Forwarder {
+        /**
+         * Called when response headers are sent. To forward the response, the implementation must send the
+         * response headers to the wrapped exchange.
+         *
+         * @param code    Response status code.
+         * @param length  Response length, as given to {@link HttpExchange#sendResponseHeaders(int, long)}.
+         * @param headers Response headers.
+         * @return True if response headers are sent to wrapped exchange, the body is then forwarded as well.
+         * @throws IOException Write error.
+         */
+        boolean forward(int code, long length, Headers headers) throws IOException;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param exchange Wrapped exchange.
+     */
+    public SSCaptureExchange(HttpExchange exchange) {
+        this(exchange, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param exchange   Wrapped exchange.
+     * @param maxCapture Largest response body to capture, in bytes.
+     */
+    public SSCaptureExchange(HttpExchange exchange, long maxCapture) {
+        mExchange = exchange;
+        mRequestHeaders = new Headers();
+        mRequestHeaders.putAll(exchange.getRequestHeaders());
+        mResponseHeaders = new Headers();
+        mResponseBody = new TeeStream();
+        mMaxCapture = maxCapture;
+        mRequestBody = exchange.getRequestBody();
+    }
+
+    /**
+     * Set forwarder, deciding if response is forwarded to wrapped exchange as it arrives.
+     *
+     * @param forwarder Forwarder.
+     */
+    public void setForwarder(Forwarder forwarder) {
+        mForwarder = forwarder;
+    }
+
+    /**
+     * Check if response is forwarded to wrapped exchange.
+     *
+     * @return True if forwarded.
+     */
+    public boolean isForwarded() {
+        return mForwarded;
+    }
+
+    /**
+     * Get captured response body. Call once the response is complete, the capture buffer is then released.
+     *
+     * @return Response bytes, or null if body is larger than capture limit.
+     */
+    @Nullable
+    public byte[] getCapturedBody() {
+        if (mCapture == null) {
+            return null;
+        }
+
+        // copy out of pooled or partly filled buffer, once
+        if (mPooled || mCaptured != mCapture.length) {
+            final byte[] body = Arrays.copyOf(mCapture, mCaptured);
+            releaseCapture();
+            mCapture = body;
+        }
+        return mCapture;
+    }
+
+    /**
+     * Make room in capture buffer, or stop capturing if over the capture limit.
+     *
+     * @param length Number of bytes to be captured.
+     */
+    private void ensureCapture(int length) {
+        final long needed = (long) mCaptured + length;
+        if (needed > mMaxCapture || needed > Integer.MAX_VALUE - 8) {
+            releaseCapture();
+            mCapture = null;
+            return;
+        }
+        if (needed <= mCapture.length) {
+            return;
+        }
+
+        // next size class from pool, then doubling arrays up to the limit
+        final byte[] grown;
+        if (needed <= SSBufferPool.maxBufferSize()) {
+            grown = SSBufferPool.shared().acquire(Math.max(needed, mCapture.length * 2L));
+        } else {
+            grown = new byte[(int) Math.min(Math.max(needed, mCapture.length * 2L),
+                    Math.min(mMaxCapture, Integer.MAX_VALUE - 8))];
+        }
+        System.arraycopy(mCapture, 0, grown, 0, mCaptured);
+        releaseCapture();
+        mCapture = grown;
+        mPooled = grown.length <= SSBufferPool.maxBufferSize();
+    }
+
+    /**
+     * Return capture buffer to pool, if taken from it.
+     */
+    private void releaseCapture() {
+        if (mPooled) {
+            SSBufferPool.shared().release(mCapture);
+            mPooled = false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returned headers are a modifiable copy of wrapped exchange headers.
+     */
+    @Override
+    public Headers getRequestHeaders() {
+        return mRequestHeaders;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Headers getResponseHeaders() {
+        return mResponseHeaders;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URI getRequestURI() {
+        return mExchange.getRequestURI();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRequestMethod() {
+        return mExchange.getRequestMethod();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpContext getHttpContext() {
+        return mExchange.getHttpContext();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Closing is left to the wrapping filter.
+     */
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getRequestBody() {
+        return mRequestBody;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns the capture stream, also writing to wrapped exchange if forwarded.
+     */
+    @Override
+    public OutputStream getResponseBody() {
+        return mResponseBody;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Records the response code, and lets forwarder send headers to wrapped exchange.
+     */
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        mResponseCode = rCode;
+
+        // known to be too large to capture, or captured at its exact length
+        if (responseLength > mMaxCapture) {
+            releaseCapture();
+            mCapture = null;
+        } else if (responseLength > 0 && mCaptured == 0 && responseLength <= Integer.MAX_VALUE - 8) {
+            releaseCapture();
+            mCapture = new byte[(int) responseLength];
+        }
+
+        // forward if decided so
+        mForwarded = mForwarder != null && mForwarder.forward(rCode, responseLength, mResponseHeaders);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return mExchange.getRemoteAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return mExchange.getLocalAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProtocol() {
+        return mExchange.getProtocol();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(String name) {
+        return mExchange.getAttribute(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttribute(String name, Object value) {
+        mExchange.setAttribute(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the request stream can be replaced, response is always captured.
+     */
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            mRequestBody = i;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return mExchange.getPrincipal();
+    }
+
+    /**
+     * Writes response body to capture buffer, and to wrapped exchange if forwarded.
+     */
+    private class TeeStream extends OutputStream {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int b) throws IOException {
+            // forward as it arrives
+            if (mForwarded) {
+                mExchange.getResponseBody().write(b);
+            }
+
+            // capture, until limit
+            if (mCapture != null) {
+                ensureCapture(1);
+                if (mCapture != null) {
+                    mCapture[mCaptured++] = (byte) b;
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // forward as it arrives
+            if (mForwarded) {
+                mExchange.getResponseBody().write(b, off, len);
+            }
+
+            // capture, until limit
+            if (mCapture != null) {
+                ensureCapture(len);
+                if (mCapture != null) {
+                    System.arraycopy(b, off, mCapture, mCaptured, len);
+                    mCaptured += len;
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() throws IOException {
+            if (mForwarded) {
+                mExchange.getResponseBody().flush();
+            }
+        }
+    }
+}
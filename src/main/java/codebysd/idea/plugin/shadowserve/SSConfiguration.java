@@ -6,6 +6,8 @@ import com.intellij.execution.Executor;
 import com.intellij.execution.configurations.RunConfiguration;
 import com.intellij.execution.configurations.RunConfigurationBase;
 import com.intellij.execution.configurations.RunProfileState;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.openapi.options.SettingsEditor;
 import com.intellij.openapi.project.Project;
@@ -15,6 +17,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,35 +53,277 @@ public class SSConfiguration extends RunConfigurationBase<SSConfiguration> {
     /**
      * Create HTTP handler for the local server.
      *
+     * @param archive  Optional recording archive.
+     * @param metrics  Request metrics.
      * @param uiLogger UI logger instance.
      * @return HTTP handler.
      */
-    private HttpHandler createRequestHandler(SSUILogger uiLogger) {
-        // return web handler
-        return new SSWebHandler(mSettingsStore.getWebURL(), uiLogger);
+    private HttpHandler createRequestHandler(@Nullable SSArchive archive, SSMetrics metrics, SSUILogger uiLogger) {
+        // web handler
+        final HttpHandler webHandler = new SSWebHandler(mSettingsStore.getWebURL(),
+                mSettingsStore.getBufferSize() * 1024, metrics, uiLogger);
+        if (archive == null) {
+            return webHandler;
+        }
+
+        // recording or replaying web handler
+        return new SSArchiveHandler(archive, webHandler, mSettingsStore.isArchiveRecord(),
+                mSettingsStore.isArchiveReplay(), mSettingsStore.isArchiveFallthrough(), metrics, uiLogger);
     }
 
     /**
-     * Create Request filters for the local server.
+     * Check if an archive file is a HAR file.
+     *
+     * @param path Archive file path.
+     * @return True if HAR file.
+     */
+    private static boolean isHar(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".har");
+    }
+
+    /**
+     * Open recording archive, if recording or replaying. A HAR file is imported to a temporary archive.
+     *
+     * @param path     Archive file path.
+     * @param uiLogger UI logger instance.
+     * @return Recording archive, or null if not recording or replaying.
+     */
+    @Nullable
+    private SSArchive createArchive(Path path, SSUILogger uiLogger) {
+        if (!mSettingsStore.isArchiveRecord() && !mSettingsStore.isArchiveReplay()) {
+            return null;
+        }
+
+        try {
+            // archive file
+            if (!isHar(path)) {
+                final SSArchive archive = new SSArchive(path);
+                uiLogger.logSystem("Recording:\t%s (%d responses)", path, archive.getRecordCount());
+                return archive;
+            }
+
+            // HAR file, imported if it exists
+            final Path file = Files.createTempFile(SSConstants.Defaults.ARCHIVE_DIR, ".ssa");
+            SSArchive archive = null;
+            try {
+                archive = new SSArchive(file);
+                final int count = Files.isRegularFile(path) ? archive.importHar(path) : 0;
+                uiLogger.logSystem("Recording:\t%s (%d responses)", path, count);
+                return archive;
+            } catch (IOException | RuntimeException e) {
+                // drop temporary archive
+                try {
+                    deleteTemporaryArchive(file, archive);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            // continue without recording
+            uiLogger.logCrash(e, "Unable to open recording file");
+            return null;
+        }
+    }
+
+    /**
+     * Close recording archive, if any. A HAR file is exported if recording, and its temporary archive deleted.
+     *
+     * @param archive  Optional recording archive.
+     * @param path     Archive file path.
+     * @param record   True if recording.
+     * @param uiLogger UI logger instance.
+     */
+    private void closeArchive(@Nullable SSArchive archive, Path path, boolean record, SSUILogger uiLogger) {
+        if (archive == null) {
+            return;
+        }
+
+        try {
+            if (isHar(path)) {
+                if (record) {
+                    final int count = archive.exportHar(path);
+                    uiLogger.logSystem("Recording:\t%s (%d responses saved)", path, count);
+                }
+                deleteTemporaryArchive(archive.getFile(), archive);
+            } else {
+                archive.close();
+            }
+        } catch (IOException e) {
+            uiLogger.logCrash(e, "Unable to close recording file");
+        }
+    }
+
+    /**
+     * Close and delete the temporary archive of a HAR file.
+     *
+     * @param file    Temporary archive file.
+     * @param archive Temporary archive, or null if not opened.
+     * @throws IOException Delete error.
+     */
+    private static void deleteTemporaryArchive(Path file, @Nullable SSArchive archive) throws IOException {
+        try {
+            if (archive != null) {
+                archive.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".idx"));
+        }
+    }
+
+    /**
+     * Create cache policy from settings.
+     *
+     * @return Cache policy.
+     */
+    private SSCachePolicy createCachePolicy() {
+        return new SSCachePolicy(mSettingsStore.getCacheSize() * 1024L * 1024L,
+                mSettingsStore.getCacheEntrySize() * 1024L * 1024L,
+                SSUtils.parseStatusCodes(mSettingsStore.getCacheStatusCodes()),
+                SSCachePolicy.parseRules(mSettingsStore.getCacheRules()));
+    }
+
+    /**
+     * Take a lease on the shared response cache of the origin, if configured.
+     *
+     * @param policy   Cache policy.
+     * @param uiLogger UI logger instance.
+     * @return Cache lease, or null if caching is off.
+     */
+    @Nullable
+    private SSCacheService.Lease acquireCache(SSCachePolicy policy, SSUILogger uiLogger) {
+        // no cache
+        if (!mSettingsStore.isCacheResponses()) {
+            return null;
+        }
+
+        // shared with other configurations of same origin, optional disk tier if configured
+        return SSCacheService.getInstance(getProject()).acquire(mSettingsStore.getWebURL().toString(), getName(),
+                policy.getBudgetBytes(), mSettingsStore.isCachePersist() ? mSettingsStore.getCacheDirectory() : null,
+                mSettingsStore.getDiskCacheSize() * 1024L * 1024L, uiLogger);
+    }
+
+    /**
+     * Create background cache refresher, if caching is on.
      *
+     * @param cache Optional response cache.
+     * @return Cache refresher, or null if caching is off.
+     */
+    @Nullable
+    private SSCacheRefresher createRefresher(@Nullable SSCache cache) {
+        if (cache == null) {
+            return null;
+        }
+        return new SSCacheRefresher(SSConstants.Defaults.CACHE_REFRESH_THREADS,
+                SSConstants.Defaults.CACHE_REFRESH_QUEUE);
+    }
+
+    /**
+     * Create cache warmer, if caching is on and warm-up is configured.
+     *
+     * @param cache    Optional response cache.
      * @param uiLogger UI logger instance.
+     * @return Cache warmer, or null if not needed.
+     */
+    @Nullable
+    private SSCacheWarmer createWarmer(@Nullable SSCache cache, SSUILogger uiLogger) {
+        if (cache == null || (!mSettingsStore.isCacheWarm() && SSUtils.isNil(mSettingsStore.getCacheWarmPaths()))) {
+            return null;
+        }
+        final URI serverURI = URI.create(String.format("http://%s:%d/",
+                mSettingsStore.getLocalHost(), mSettingsStore.getLocalPort()));
+        return new SSCacheWarmer(serverURI, SSConstants.Defaults.CACHE_WARM_THREADS,
+                SSConstants.Defaults.CACHE_WARM_QUEUE, uiLogger);
+    }
+
+    /**
+     * Close cache helpers and release the shared response cache, if any. The cache is kept for later runs.
+     *
+     * @param lease     Optional cache lease.
+     * @param refresher Optional cache refresher.
+     * @param warmer    Optional cache warmer.
+     * @param uiLogger  UI logger instance.
+     */
+    private void closeCache(@Nullable SSCacheService.Lease lease, @Nullable SSCacheRefresher refresher,
+                            @Nullable SSCacheWarmer warmer, SSUILogger uiLogger) {
+        // stop refreshing and warming up first, both write to cache
+        if (warmer != null) {
+            warmer.close();
+        }
+        if (refresher != null) {
+            refresher.close();
+        }
+
+        if (lease != null) {
+            final SSCache cache = lease.getCache();
+            final SSCacheService.Usage usage = lease.getUsage();
+            uiLogger.logSystem("Cache:\t%d entries, %d distinct bodies, dedup ratio %.2f",
+                    cache.getEntryCount(), cache.getBodyCount(), cache.getDedupRatio());
+            uiLogger.logSystem("Cache usage:\t%d entries, %d KB stored by %s this session",
+                    usage.getStoredCount(), usage.getStoredBytes() / 1024, getName());
+            lease.close();
+        }
+    }
+
+    /**
+     * Create network emulation filter, if a profile is selected.
+     *
+     * @return Network filter, or null if emulation is off.
+     */
+    @Nullable
+    private SSNetworkFilter createNetworkFilter() {
+        final SSNetworkProfile profile = mSettingsStore.getNetworkProfile();
+        if (profile.isOff()) {
+            return null;
+        }
+        return new SSNetworkFilter(profile, SSConstants.Defaults.NETWORK_THREADS, SSConstants.Defaults.NETWORK_BUFFER);
+    }
+
+    /**
+     * Create Request filters for the local server.
+     *
+     * @param uiLogger  UI logger instance.
+     * @param metrics   Request metrics.
+     * @param policy    Cache policy.
+     * @param lease     Optional cache lease.
+     * @param refresher Optional cache refresher.
+     * @param warmer    Optional cache warmer.
+     * @param network   Optional network emulation filter.
+     * @param handler   HTTP handler, for background cache refresh.
      * @return Filter list.
      */
-    private List<Filter> createFilters(SSUILogger uiLogger) {
+    private List<Filter> createFilters(SSUILogger uiLogger, SSMetrics metrics, SSCachePolicy policy,
+                                       @Nullable SSCacheService.Lease lease, @Nullable SSCacheRefresher refresher,
+                                       @Nullable SSCacheWarmer warmer, @Nullable SSNetworkFilter network,
+                                       HttpHandler handler) {
         // filter list
         final List<Filter> filters = new ArrayList<>();
+        final SSCache cache = lease != null ? lease.getCache() : null;
+
+        // cache admin path is reserved, before any shadowing
+        filters.add(new SSAdminFilter(SSConstants.Defaults.ADMIN_PATH, cache, uiLogger));
+
+        // optional network emulation of all other requests, metrics measure the server without it
+        if (network != null) {
+            filters.add(network);
+        }
 
-        // shadow filter is first filter
+        // metrics of all other requests
+        filters.add(new SSMetricsFilter(metrics, mSettingsStore.isServerTiming()));
+
+        // shadow filter after admin, network and metrics filters, local files are served before the cache
         final SSShadowFilter shadowFilter = new SSShadowFilter(
                 mSettingsStore.getShadowPath(),
                 mSettingsStore.getLocalRoot(),
-                SSConstants.Defaults.INDEX_FILE, uiLogger);
+                SSConstants.Defaults.INDEX_FILE, metrics, uiLogger);
         filters.add(shadowFilter);
 
         // optional cache filter if configured
-        if (mSettingsStore.isCacheResponses()) {
-            final SSCache cache = new SSCache(SSConstants.Defaults.CACHE_SIZE);
-            filters.add(new SSCacheFilter(cache, uiLogger));
+        if (lease != null) {
+            filters.add(new SSCacheFilter(cache, handler, refresher, mSettingsStore.getCacheStaleSeconds(), policy,
+                    mSettingsStore.isCacheCompress(), mSettingsStore.isCacheWarm() ? warmer : null,
+                    lease.getUsage(), metrics, uiLogger));
         }
 
         // http filters
@@ -84,23 +331,29 @@ public class SSConfiguration extends RunConfigurationBase<SSConfiguration> {
     }
 
     /**
-     * Create the local server.
+     * Create the local server, sized by performance settings.
      *
      * @param handler HTTP handler
      * @param filters Request filters
      * @return Local server.
      */
     private SSLocalServer createLocalServer(HttpHandler handler, List<Filter> filters) {
-        return new SSLocalServer(SSConstants.Defaults.LOCAL_HOST, mSettingsStore.getLocalPort(), filters, handler);
+        final SSLocalServer server = new SSLocalServer(mSettingsStore.getBindAddress(), mSettingsStore.getLocalPort(),
+                filters, handler);
+        server.setExecutor(mSettingsStore.getServerExecutor(), mSettingsStore.getServerThreads());
+        server.setConnectionOptions(mSettingsStore.getServerBacklog(), mSettingsStore.getIdleTimeout(),
+                mSettingsStore.isTcpNoDelay());
+        return server;
     }
 
     /**
-     * Create UI logger.
+     * Create UI logger, logging to console in background.
      *
      * @return UI logger.
      */
-    private SSUILogger createUILogger() {
-        return new SSUILoggerDefault(getProject());
+    private SSUILoggerAsync createUILogger() {
+        return new SSUILoggerAsync(new SSUILoggerDefault(getProject()), mSettingsStore.getLogVerbosity(),
+                SSConstants.Defaults.LOG_BUFFER);
     }
 
     /**
@@ -114,16 +367,48 @@ public class SSConfiguration extends RunConfigurationBase<SSConfiguration> {
         return (exec, runner) -> {
 
             // create a UI logger
-            final SSUILogger uiLogger = createUILogger();
+            final SSUILoggerAsync uiLogger = createUILogger();
+
+            // fresh request metrics, shown in tool window
+            final SSMetrics metrics = SSMetricsService.getInstance(getProject()).start();
+
+            // recording archive and request handler
+            final Path archivePath = mSettingsStore.getArchivePath();
+            final boolean record = mSettingsStore.isArchiveRecord();
+            final SSArchive archive = createArchive(archivePath, uiLogger);
+            final HttpHandler httpHandler = createRequestHandler(archive, metrics, uiLogger);
 
-            // request handler
-            final HttpHandler httpHandler = createRequestHandler(uiLogger);
+            // response cache, shared by runs of same origin
+            final SSCachePolicy policy = createCachePolicy();
+            final SSCacheService.Lease lease = acquireCache(policy, uiLogger);
+            final SSCache cache = lease != null ? lease.getCache() : null;
+            final SSCacheRefresher refresher = createRefresher(cache);
+            final SSCacheWarmer warmer = createWarmer(cache, uiLogger);
 
             // request filters
-            final List<Filter> filters = createFilters(uiLogger);
+            final SSNetworkFilter network = createNetworkFilter();
+            final List<Filter> filters = createFilters(uiLogger, metrics, policy, lease, refresher, warmer, network,
+                    httpHandler);
 
             // local server
             final SSLocalServer localServer = createLocalServer(httpHandler, filters);
+            localServer.addReservedHandler(SSConstants.Defaults.METRICS_PATH,
+                    new SSMetricsEndpoint(metrics, cache, localServer));
+
+            // stop network emulation, release cache and close archive when server stops,
+            // check-pointing disk tier and archive index
+            // then close logger, logging buffered messages
+            localServer.addProcessListener(new ProcessAdapter() {
+                @Override
+                public void processTerminated(@NotNull ProcessEvent event) {
+                    if (network != null) {
+                        network.close();
+                    }
+                    closeCache(lease, refresher, warmer, uiLogger);
+                    closeArchive(archive, archivePath, record, uiLogger);
+                    uiLogger.close();
+                }
+            });
 
             try {
                 // start local server
@@ -134,10 +419,34 @@ public class SSConfiguration extends RunConfigurationBase<SSConfiguration> {
                 uiLogger.logSystem("Shadow root:\t%s", mSettingsStore.getLocalRoot().getCanonicalPath());
                 uiLogger.logSystem("Shadow Path:\t%s", mSettingsStore.getShadowPath());
                 uiLogger.logSystem("Shadow Over:\t%s", mSettingsStore.getWebURL().toString());
+                uiLogger.logSystem("Metrics:\t%s%s", localServer.getAddress(), SSConstants.Defaults.METRICS_PATH);
+                uiLogger.logSystem("Threads:\t%d (%s)", mSettingsStore.getServerThreads(),
+                        mSettingsStore.getServerExecutor().name().toLowerCase());
+                if (network != null) {
+                    uiLogger.logSystem("Network:\t%s", mSettingsStore.getNetworkProfile());
+                }
+                if (archive != null && record && lease != null) {
+                    uiLogger.logSystem("WARNING: Responses served from cache are not recorded. "
+                            + "Turn off caching to record every response.");
+                }
+                if (!localServer.isConnectionOptionsApplied()) {
+                    uiLogger.logSystem("Idle timeout and TCP no delay changes apply after IDE restart");
+                }
+
+                // warm up configured paths
+                if (warmer != null) {
+                    warmer.warm(SSCacheWarmer.parsePaths(mSettingsStore.getCacheWarmPaths()));
+                }
                 return new DefaultExecutionResult(uiLogger.getExecutionConsole(), localServer);
             } catch (IOException e) {
                 // Log and throw error
                 uiLogger.logCrash(e, "Error running shadow server");
+                if (network != null) {
+                    network.close();
+                }
+                closeCache(lease, refresher, warmer, uiLogger);
+                closeArchive(archive, archivePath, record, uiLogger);
+                uiLogger.close();
                 throw new ExecutionException("Failed to start Local Server", e);
             }
         };
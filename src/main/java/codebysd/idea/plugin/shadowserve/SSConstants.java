@@ -57,6 +57,151 @@ public interface SSConstants {
          * Cache switch key
          */
         String CACHE_RESPONSES = key("CacheResponses");
+
+        /**
+         * Cache persistence switch key
+         */
+        String CACHE_PERSIST = key("CachePersist");
+
+        /**
+         * Disk cache size key
+         */
+        String DISK_CACHE_SIZE = key("DiskCacheSize");
+
+        /**
+         * Cache stale window key
+         */
+        String CACHE_STALE = key("CacheStale");
+
+        /**
+         * Cached status codes key
+         */
+        String CACHE_STATUS = key("CacheStatus");
+
+        /**
+         * Largest cached response key
+         */
+        String CACHE_ENTRY_SIZE = key("CacheEntrySize");
+
+        /**
+         * Cache compression switch key
+         */
+        String CACHE_COMPRESS = key("CacheCompress");
+
+        /**
+         * Cache size key
+         */
+        String CACHE_SIZE = key("CacheSize");
+
+        /**
+         * Cache policy rules key
+         */
+        String CACHE_RULES = key("CacheRules");
+
+        /**
+         * Cache warm-up switch key
+         */
+        String CACHE_WARM = key("CacheWarm");
+
+        /**
+         * Cache warm-up paths key
+         */
+        String CACHE_WARM_PATHS = key("CacheWarmPaths");
+
+        /**
+         * Archive recording switch key
+         */
+        String ARCHIVE_RECORD = key("ArchiveRecord");
+
+        /**
+         * Archive replay switch key
+         */
+        String ARCHIVE_REPLAY = key("ArchiveReplay");
+
+        /**
+         * Archive replay fall through switch key
+         */
+        String ARCHIVE_FALLTHROUGH = key("ArchiveFallthrough");
+
+        /**
+         * Archive file key
+         */
+        String ARCHIVE_FILE = key("ArchiveFile");
+
+        /**
+         * Console log verbosity key
+         */
+        String LOG_VERBOSITY = key("LogVerbosity");
+
+        /**
+         * Server-Timing header switch key
+         */
+        String SERVER_TIMING = key("ServerTiming");
+
+        /**
+         * Bind address key
+         */
+        String BIND_ADDRESS = key("BindAddress");
+
+        /**
+         * Request thread pool type key
+         */
+        String SERVER_EXECUTOR = key("ServerExecutor");
+
+        /**
+         * Request thread count key
+         */
+        String SERVER_THREADS = key("ServerThreads");
+
+        /**
+         * Connection backlog key
+         */
+        String SERVER_BACKLOG = key("ServerBacklog");
+
+        /**
+         * Copy buffer size key
+         */
+        String BUFFER_SIZE = key("BufferSize");
+
+        /**
+         * Idle connection timeout key
+         */
+        String IDLE_TIMEOUT = key("IdleTimeout");
+
+        /**
+         * TCP no delay switch key
+         */
+        String TCP_NODELAY = key("TcpNoDelay");
+
+        /**
+         * Network emulation profile key
+         */
+        String NETWORK_PROFILE = key("NetworkProfile");
+
+        /**
+         * Custom network latency key
+         */
+        String NETWORK_LATENCY = key("NetworkLatency");
+
+        /**
+         * Custom network download bandwidth key
+         */
+        String NETWORK_DOWNLOAD = key("NetworkDownload");
+
+        /**
+         * Custom network upload bandwidth key
+         */
+        String NETWORK_UPLOAD = key("NetworkUpload");
+
+        /**
+         * Network latency jitter key
+         */
+        String NETWORK_JITTER = key("NetworkJitter");
+
+        /**
+         * Network packet loss key
+         */
+        String NETWORK_LOSS = key("NetworkLoss");
     }
 
     /**
@@ -89,9 +234,240 @@ public interface SSConstants {
         boolean CACHE_RESPONSES = false;
 
         /**
-         * Default cache size (100Mb)
+         * Default cache size, in Mb.
+         */
+        int CACHE_SIZE = 100;
+
+        /**
+         * Default cache persistence switch value
+         */
+        boolean CACHE_PERSIST = false;
+
+        /**
+         * Largest off heap memory reserved on top of the cache size, for bodies still being sent after eviction
+         * (64Mb). A quarter of the cache size is reserved if less.
+         */
+        long BODY_STORE_SLACK = 64 * 1024 * 1024;
+
+        /**
+         * Default disk cache size, in Mb.
+         */
+        int DISK_CACHE_SIZE = 1024;
+
+        /**
+         * Default disk cache segment file size (32Mb). Also the largest response that can be stored on disk.
+         */
+        int DISK_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+        /**
+         * Default name of disk cache directory, under IDE system directory.
+         */
+        String DISK_CACHE_DIR = "shadowserve-cache";
+
+        /**
+         * Reserved request path to inspect and purge cache entries.
+         */
+        String ADMIN_PATH = "/__shadowserve/cache";
+
+        /**
+         * Reserved request path of the metrics endpoint.
+         */
+        String METRICS_PATH = "/__shadowserve/metrics";
+
+        /**
+         * Default seconds to serve a stale response while refreshing it, for responses without a stale window.
+         */
+        int CACHE_STALE = 0;
+
+        /**
+         * Default response status codes that may be cached.
+         */
+        String CACHE_STATUS = "200, 203, 204, 300, 301, 308";
+
+        /**
+         * Default largest cached response body, in Mb. Larger responses pass through.
+         */
+        int CACHE_ENTRY_SIZE = 16;
+
+        /**
+         * Default cache compression switch value
+         */
+        boolean CACHE_COMPRESS = true;
+
+        /**
+         * Default cache policy rules, none.
+         */
+        String CACHE_RULES = "";
+
+        /**
+         * Default cache warm-up switch value, for assets of cached pages.
+         */
+        boolean CACHE_WARM = false;
+
+        /**
+         * Default paths warmed up at server start, none.
+         */
+        String CACHE_WARM_PATHS = "";
+
+        /**
+         * Default number of parallel warm-up requests.
+         */
+        int CACHE_WARM_THREADS = 4;
+
+        /**
+         * Default number of warm-up requests waiting for a thread. More requests are dropped.
+         */
+        int CACHE_WARM_QUEUE = 256;
+
+        /**
+         * Default archive recording switch value
+         */
+        boolean ARCHIVE_RECORD = false;
+
+        /**
+         * Default archive replay switch value
+         */
+        boolean ARCHIVE_REPLAY = false;
+
+        /**
+         * Default archive replay fall through switch value, sending requests that were not recorded to origin.
+         */
+        boolean ARCHIVE_FALLTHROUGH = true;
+
+        /**
+         * Default archive file, none for a file under IDE system directory.
+         */
+        String ARCHIVE_FILE = "";
+
+        /**
+         * Default name of archive directory, under IDE system directory.
+         */
+        String ARCHIVE_DIR = "shadowserve-archive";
+
+        /**
+         * Default largest recorded response body (64Mb). Larger responses pass through without being recorded.
+         */
+        long ARCHIVE_ENTRY_SIZE = 64 * 1024 * 1024;
+
+        /**
+         * Default console log verbosity, a {@link SSUILogger.Verbosity} name.
+         */
+        String LOG_VERBOSITY = SSUILogger.Verbosity.REQUESTS.name();
+
+        /**
+         * Default Server-Timing header switch value
+         */
+        boolean SERVER_TIMING = false;
+
+        /**
+         * Default bind address, this machine only.
+         */
+        String BIND_ADDRESS = LOCAL_HOST;
+
+        /**
+         * Default request thread pool type, a {@link SSLocalServer.ExecutorType} name.
+         */
+        String SERVER_EXECUTOR = SSLocalServer.ExecutorType.WORK_STEALING.name();
+
+        /**
+         * Default number of request threads.
+         */
+        int SERVER_THREADS = 5;
+
+        /**
+         * Largest number of request threads.
+         */
+        int MAX_SERVER_THREADS = 256;
+
+        /**
+         * Default connection backlog, 0 for system default.
+         */
+        int SERVER_BACKLOG = 0;
+
+        /**
+         * Default copy buffer size for bodies of unknown length, in Kb.
+         */
+        int BUFFER_SIZE = 16;
+
+        /**
+         * Default idle connection timeout, in seconds, as the JDK server default.
+         */
+        int IDLE_TIMEOUT = 30;
+
+        /**
+         * Default TCP no delay switch value
+         */
+        boolean TCP_NODELAY = true;
+
+        /**
+         * Default network emulation profile, a {@link SSNetworkProfile.Preset} name.
+         */
+        String NETWORK_PROFILE = SSNetworkProfile.Preset.OFF.name();
+
+        /**
+         * Default custom network latency, in milliseconds.
+         */
+        int NETWORK_LATENCY = 100;
+
+        /**
+         * Default custom network download bandwidth, in Kb per second, 0 for unlimited.
+         */
+        int NETWORK_DOWNLOAD = 1024;
+
+        /**
+         * Default custom network upload bandwidth, in Kb per second, 0 for unlimited.
+         */
+        int NETWORK_UPLOAD = 512;
+
+        /**
+         * Default network latency jitter, in milliseconds.
+         */
+        int NETWORK_JITTER = 0;
+
+        /**
+         * Default network packet loss, in percent.
+         */
+        String NETWORK_LOSS = "0";
+
+        /**
+         * Largest custom network latency, jitter or bandwidth value.
+         */
+        int MAX_NETWORK_VALUE = 1000000;
+
+        /**
+         * Default number of network emulation threads, pacing throttled responses.
+         */
+        int NETWORK_THREADS = 2;
+
+        /**
+         * Default response bytes buffered in memory per throttled exchange (1Mb), before the rest spills to a file.
+         */
+        long NETWORK_BUFFER = 1024 * 1024;
+
+        /**
+         * Name prefix of temporary files, holding throttled response bodies over the network buffer.
+         */
+        String NETWORK_SPILL_PREFIX = "shadowserve-network";
+
+        /**
+         * Default number of console log messages buffered for the console. More per request messages are dropped.
+         */
+        int LOG_BUFFER = 8192;
+
+        /**
+         * Metrics tool window refresh interval, in milliseconds.
+         */
+        int METRICS_REFRESH_MS = 1000;
+
+        /**
+         * Default number of background cache refresh threads.
+         */
+        int CACHE_REFRESH_THREADS = 2;
+
+        /**
+         * Default number of cache refreshes waiting for a thread. More refreshes are dropped.
          */
-        long CACHE_SIZE = 100 * 1024 * 1024;
+        int CACHE_REFRESH_QUEUE = 32;
 
         /**
          * Default index file for serving directory.
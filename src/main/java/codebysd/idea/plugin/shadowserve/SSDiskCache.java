@@ -0,0 +1,1072 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache for head and body bytes, stored as append-only memory mapped segment files in a directory.
+ * <p>
+ * Every put, head update or remove appends a checksummed record to the active segment. A head update record holds
+ * only the new head, the body stays where it was written. An index of live records is kept in memory and
+ * check-pointed to an index file, on flush, on close and after segments are compacted or dropped. On open, the index
+ * is loaded and any records appended after the last checkpoint are recovered by scanning the segments, stopping at
+ * the first torn or corrupt record. If the index is missing or corrupt, all segments are scanned.
+ * <p>
+ * Maintenance runs on a background thread, so writers only append. When the disk budget is exceeded, oldest segments
+ * are dropped. A sealed segment is compacted, by re-appending its live records, when more than half of its own bytes
+ * are garbage (overwritten or removed records). Live records are moved one at a time, and segments are flushed and
+ * the index file written outside of the lock.
+ * <p>
+ * A tombstone shadows older records of its key, which a scan would otherwise bring back. So the latest tombstone of
+ * a removed key counts as live, and is carried forward by compaction, until no segment older than its own is left
+ * or the key is written again.
+ * <p>
+ * The cache access is synchronized.
+ */
+public class SSDiskCache implements Closeable {
+    private static final Logger LOG = Logger.getInstance(SSDiskCache.class);
+    private static final int RECORD_MAGIC = 0x53535232;
+    private static final int INDEX_MAGIC = 0x53534958;
+    private static final int INDEX_VERSION = 3;
+    private static final int HEADER_SIZE = 20;
+    private static final int TOMBSTONE = -1;
+    private static final int HEAD_UPDATE = -2;
+    private static final String INDEX_FILE = "cache.idx";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^seg-(\\d{8})\\.dat$");
+    private static final double COMPACT_GARBAGE_RATIO = 0.5;
+    private static final long CLOSE_WAIT_SECONDS = 10;
+
+    private final Path mDirectory;
+    private final long mMaxBytes;
+    private final int mSegmentSize;
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+    private final Map<String, Location> mIndex = new HashMap<>();
+    private final Map<String, Location> mTombstones = new HashMap<>();
+    private final SSKeyIndex mKeyIndex = new SSKeyIndex();
+    private final Set<Segment> mCompactable = new HashSet<>();
+    private final ThreadPoolExecutor mMaintainer;
+    private Segment mActive;
+    private long mLiveBytes = 0;
+    private boolean mMaintenancePending = false;
+    private boolean mClosed = false;
+
+    /**
+     * Constructor. Opens (or creates) the cache in given directory, recovering existing entries.
+     *
+     * @param directory   Cache directory. Created if it does not exist.
+     * @param maxBytes    Maximum number of bytes to store on disk. Must be at least two segments.
+     * @param segmentSize Size of each segment file in bytes. Also the upper limit of single entry size.
+     * @throws IllegalArgumentException If sizes are not valid.
+     * @throws IOException              Directory or file access error.
+     */
+    public SSDiskCache(Path directory, long maxBytes, int segmentSize) throws IOException {
+        // sizes must be valid
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("The parameter segment size is too small.");
+        }
+        if (maxBytes < 2L * segmentSize) {
+            throw new IllegalArgumentException("The parameter max bytes must be at least two segments.");
+        }
+
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mSegmentSize = segmentSize;
+
+        // one background thread for maintenance, stopped when idle
+        mMaintainer = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, SSConstants.Plugin.ID + " disk cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mMaintainer.allowCoreThreadTimeOut(true);
+
+        // open segments and recover index
+        Files.createDirectories(mDirectory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            mMaintainer.shutdown();
+            mSegments.values().forEach(Segment::close);
+            throw e;
+        }
+
+        // recovered segments may be over budget or mostly garbage
+        synchronized (this) {
+            mSegments.values().forEach(this::checkGarbage);
+            maintainIfNeeded();
+        }
+    }
+
+    /**
+     * Get the directory of cache files.
+     *
+     * @return Cache directory.
+     */
+    public Path getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Get number of entries stored.
+     *
+     * @return Entry count.
+     */
+    public synchronized int getEntryCount() {
+        return mIndex.size();
+    }
+
+    /**
+     * Get number of bytes in live records.
+     *
+     * @return Live bytes.
+     */
+    public synchronized long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    /**
+     * Append given head and body to disk, replacing any previous value for the key.
+     *
+     * @param key  Cache key.
+     * @param head Head bytes to store.
+     * @param body Body bytes to store.
+     * @return True if bytes saved, false if entry is too large for a segment or cache is closed.
+     * @throws IOException File access error.
+     */
+    public synchronized boolean put(String key, byte[] head, byte[] body) throws IOException {
+        if (mClosed) {
+            return false;
+        }
+
+        // append record
+        final Location location = append(key.getBytes(StandardCharsets.UTF_8), head, body, body.length, null);
+        if (location == null) {
+            return false;
+        }
+
+        // replace index entry, disk usage is kept in budget in background
+        index(key, location);
+        maintainIfNeeded();
+        return true;
+    }
+
+    /**
+     * Replace head of a stored entry. The body is not moved.
+     *
+     * @param key  Cache key.
+     * @param head New head bytes.
+     * @return True if head replaced, false if no entry for key.
+     * @throws IOException File access error.
+     */
+    public synchronized boolean update(String key, byte[] head) throws IOException {
+        // entry must exist
+        final Location old = mClosed ? null : mIndex.get(key);
+        if (old == null) {
+            return false;
+        }
+
+        // append head record pointing to existing body
+        final Location location = append(key.getBytes(StandardCharsets.UTF_8), head, new byte[0], HEAD_UPDATE, old);
+        if (location == null) {
+            return false;
+        }
+
+        index(key, location);
+        maintainIfNeeded();
+        return true;
+    }
+
+    /**
+     * Get head and body for given key.
+     *
+     * @param key cache key.
+     * @return Cached value if found, or null.
+     */
+    @Nullable
+    public synchronized SSCache.Value get(String key) {
+        // find entry location
+        final Location location = mClosed ? null : mIndex.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        // copy data out of mapped segments
+        return new SSCache.Value(location.readHead(), SSBody.wrap(location.readBody()));
+    }
+
+    /**
+     * Get head for given key, without reading the body.
+     *
+     * @param key cache key.
+     * @return Head bytes if found, or null.
+     */
+    @Nullable
+    public synchronized byte[] getHead(String key) {
+        final Location location = mClosed ? null : mIndex.get(key);
+        return location != null ? location.readHead() : null;
+    }
+
+    /**
+     * Get stored size for given key, including record header, key and head.
+     *
+     * @param key cache key.
+     * @return Number of bytes, or -1 if not found.
+     */
+    public synchronized long getSize(String key) {
+        final Location location = mClosed ? null : mIndex.get(key);
+        return location != null ? location.size() : -1;
+    }
+
+    /**
+     * Find stored keys with a request path prefix.
+     *
+     * @param pathPrefix Path prefix. Empty for all keys.
+     * @return Keys in path order.
+     */
+    public synchronized List<String> keys(String pathPrefix) {
+        return mKeyIndex.withPrefix(pathPrefix);
+    }
+
+    /**
+     * Remove entry for given key, if stored.
+     *
+     * @param key cache key.
+     * @return True if an entry was removed.
+     * @throws IOException File access error.
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        if (mClosed || !mIndex.containsKey(key)) {
+            return false;
+        }
+
+        // append tombstone, so removal survives recovery
+        final Location tombstone = append(key.getBytes(StandardCharsets.UTF_8), new byte[0], new byte[0],
+                TOMBSTONE, null);
+        index(key, null);
+        tombstone(key, tombstone);
+        maintainIfNeeded();
+        return true;
+    }
+
+    /**
+     * Flush segments and write index checkpoint, keeping files open. Waits for the checkpoint, which runs on the
+     * maintenance thread. Does nothing once closed.
+     *
+     * @throws IOException File access error.
+     */
+    public void flush() throws IOException {
+        try {
+            mMaintainer.submit(() -> {
+                checkpoint();
+                return null;
+            }).get();
+        } catch (RejectedExecutionException e) {
+            // closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing disk cache");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Stop maintenance, flush segments, write index checkpoint and release files.
+     *
+     * @throws IOException File access error.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+
+        // maintenance stops at the next record once closed
+        mMaintainer.shutdown();
+        try {
+            mMaintainer.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            try {
+                for (Segment segment : mSegments.values()) {
+                    segment.mBuffer.force();
+                }
+                writeIndex(serializeIndex());
+            } finally {
+                for (Segment segment : mSegments.values()) {
+                    segment.close();
+                }
+                mSegments.clear();
+                mIndex.clear();
+                mTombstones.clear();
+                mKeyIndex.clear();
+                mCompactable.clear();
+                mActive = null;
+            }
+        }
+    }
+
+    /**
+     * Replace index entry for a key, updating live byte accounting.
+     *
+     * @param key      Cache key.
+     * @param location New location, or null to remove.
+     */
+    private void index(String key, @Nullable Location location) {
+        final Location old = location == null ? mIndex.remove(key) : mIndex.put(key, location);
+        if (old != null) {
+            mLiveBytes -= old.size();
+            old.segment.mLiveBytes -= old.size() - old.bodyLength;
+            old.bodySegment.mLiveBytes -= old.bodyLength;
+            checkGarbage(old.segment);
+            checkGarbage(old.bodySegment);
+        }
+        if (location != null) {
+            mLiveBytes += location.size();
+            location.segment.mLiveBytes += location.size() - location.bodyLength;
+            location.bodySegment.mLiveBytes += location.bodyLength;
+
+            // a newer record shadows older ones itself
+            tombstone(key, null);
+        }
+
+        // path index, on key added or removed
+        if (old == null && location != null) {
+            mKeyIndex.add(key);
+        } else if (old != null && location == null) {
+            mKeyIndex.remove(key);
+        }
+    }
+
+    /**
+     * Replace the latest tombstone of a key, counting it as live in its segment while it shadows older records.
+     *
+     * @param key       Cache key.
+     * @param tombstone Location of tombstone record, or null if the key needs no tombstone.
+     */
+    private void tombstone(String key, @Nullable Location tombstone) {
+        final Location old = tombstone == null ? mTombstones.remove(key) : mTombstones.put(key, tombstone);
+        if (old != null) {
+            old.segment.mLiveBytes -= old.size();
+            checkGarbage(old.segment);
+        }
+        if (tombstone != null) {
+            tombstone.segment.mLiveBytes += tombstone.size();
+        }
+    }
+
+    /**
+     * Release tombstones in the oldest segment, there are no older records left for them to shadow.
+     */
+    private void releaseTombstones() {
+        if (mSegments.isEmpty()) {
+            return;
+        }
+        final Segment oldest = mSegments.firstEntry().getValue();
+        final List<String> released = new ArrayList<>();
+        for (Map.Entry<String, Location> e : mTombstones.entrySet()) {
+            if (e.getValue().segment == oldest) {
+                released.add(e.getKey());
+            }
+        }
+        for (String key : released) {
+            tombstone(key, null);
+        }
+    }
+
+    /**
+     * Append a record to the active segment, rolling over to a new segment if full.
+     *
+     * @param key        Key bytes.
+     * @param head       Head bytes.
+     * @param body       Body bytes.
+     * @param bodyLength Body length, {@link #TOMBSTONE} for removal or {@link #HEAD_UPDATE} for head update records.
+     * @param bodyFrom   For head update records, the location holding the body.
+     * @return Location of record, or null if record can not fit in a segment.
+     * @throws IOException File access error.
+     */
+    @Nullable
+    private Location append(byte[] key, byte[] head, byte[] body, int bodyLength, @Nullable Location bodyFrom)
+            throws IOException {
+        // record must fit in a segment
+        final long recordSize = (long) HEADER_SIZE + key.length + head.length + body.length;
+        if (recordSize > mSegmentSize) {
+            return null;
+        }
+
+        // roll over if active segment is full, the sealed segment may already be mostly garbage
+        if (mActive == null || mActive.mWritePos + recordSize > mSegmentSize) {
+            final Segment sealed = mActive;
+            final int id = mSegments.isEmpty() ? 1 : mSegments.lastKey() + 1;
+            mActive = Segment.open(mDirectory, id, mSegmentSize);
+            mSegments.put(id, mActive);
+            if (sealed != null) {
+                checkGarbage(sealed);
+            }
+        }
+
+        // checksum key, head and body
+        final CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(head);
+        crc.update(body);
+
+        // write data first and header last, so a torn write never looks like a valid record
+        final ByteBuffer buffer = mActive.mBuffer.duplicate();
+        final int offset = mActive.mWritePos;
+        buffer.position(offset + HEADER_SIZE);
+        buffer.put(key);
+        buffer.put(head);
+        buffer.put(body);
+        buffer.position(offset + Integer.BYTES);
+        buffer.putInt(key.length);
+        buffer.putInt(head.length);
+        buffer.putInt(bodyLength);
+        buffer.putInt((int) crc.getValue());
+        buffer.putInt(offset, RECORD_MAGIC);
+        mActive.mWritePos += (int) recordSize;
+
+        // location of head, and of body in this or an earlier record
+        final int headOffset = offset + HEADER_SIZE + key.length;
+        if (bodyFrom != null) {
+            return new Location(mActive, offset, key.length, head.length,
+                    bodyFrom.bodySegment, bodyFrom.bodyOffset, bodyFrom.bodyLength);
+        }
+        return new Location(mActive, offset, key.length, head.length, mActive, headOffset + head.length, body.length);
+    }
+
+    /**
+     * Mark a sealed segment for compaction if more of its bytes are garbage than the compaction ratio allows.
+     *
+     * @param segment Segment.
+     */
+    private void checkGarbage(Segment segment) {
+        if (segment != mActive && segment.mWritePos > 0
+                && segment.mWritePos - segment.mLiveBytes > COMPACT_GARBAGE_RATIO * segment.mWritePos) {
+            mCompactable.add(segment);
+        }
+    }
+
+    /**
+     * Check if disk usage is over budget.
+     *
+     * @return True if oldest segments must be dropped.
+     */
+    private boolean isOverBudget() {
+        return mSegments.size() > 1 && (long) mSegments.size() * mSegmentSize > mMaxBytes;
+    }
+
+    /**
+     * Schedule maintenance in background, if disk usage is over budget or a segment is due for compaction and no
+     * maintenance is pending.
+     */
+    private void maintainIfNeeded() {
+        if (mMaintenancePending || mClosed || (mCompactable.isEmpty() && !isOverBudget())) {
+            return;
+        }
+        try {
+            mMaintainer.execute(this::maintain);
+            mMaintenancePending = true;
+        } catch (RejectedExecutionException e) {
+            // closing
+        }
+    }
+
+    /**
+     * Keep disk usage in budget and garbage in check. Runs on the maintenance thread.
+     */
+    private void maintain() {
+        boolean changed = false;
+        try {
+            // drop oldest segments while over budget
+            synchronized (this) {
+                mMaintenancePending = false;
+                while (!mClosed && isOverBudget()) {
+                    drop(mSegments.firstEntry().getValue());
+                    changed = true;
+                }
+            }
+
+            // compact segments mostly garbage, most garbage first
+            Segment segment;
+            while ((segment = nextCompactable()) != null) {
+                compact(segment);
+                changed = true;
+            }
+
+            // check point index after segments change
+            if (changed) {
+                checkpoint();
+            }
+        } catch (IOException | RuntimeException e) {
+            // retried when next due, index is check-pointed on close anyway
+            LOG.warn("Disk cache maintenance failed", e);
+        }
+    }
+
+    /**
+     * Take the next segment due for compaction.
+     *
+     * @return Segment with the largest share of garbage, or null if none is due or cache is closed.
+     */
+    @Nullable
+    private synchronized Segment nextCompactable() {
+        Segment next = null;
+        double nextRatio = COMPACT_GARBAGE_RATIO;
+        for (Iterator<Segment> it = mCompactable.iterator(); it.hasNext(); ) {
+            // segments dropped, active or no longer due are marked again when due
+            final Segment segment = it.next();
+            final double ratio = (segment.mWritePos - segment.mLiveBytes) / (double) segment.mWritePos;
+            if (mSegments.get(segment.mId) != segment || segment == mActive || ratio <= COMPACT_GARBAGE_RATIO) {
+                it.remove();
+            } else if (ratio > nextRatio) {
+                next = segment;
+                nextRatio = ratio;
+            }
+        }
+        if (next != null) {
+            mCompactable.remove(next);
+        }
+        return mClosed ? null : next;
+    }
+
+    /**
+     * Drop a segment and all index entries with head or body in it.
+     *
+     * @param segment Segment to drop.
+     */
+    private void drop(Segment segment) {
+        mIndex.entrySet().removeIf(e -> {
+            final Location location = e.getValue();
+            if (location.isIn(segment)) {
+                mLiveBytes -= location.size();
+                location.segment.mLiveBytes -= location.size() - location.bodyLength;
+                location.bodySegment.mLiveBytes -= location.bodyLength;
+                mKeyIndex.remove(e.getKey());
+                return true;
+            }
+            return false;
+        });
+        mTombstones.values().removeIf(tombstone -> tombstone.segment == segment);
+        mSegments.remove(segment.mId);
+        mCompactable.remove(segment);
+        segment.delete();
+        releaseTombstones();
+    }
+
+    /**
+     * Compact a segment, by re-appending its live records and dropping it. Records are moved one per lock hold, so
+     * readers and writers wait for one record at most. Records written to the segment meanwhile are moved last.
+     *
+     * @param segment Segment to compact.
+     * @throws IOException File access error.
+     */
+    private void compact(Segment segment) throws IOException {
+        // collect keys of live entries and tombstones in segment
+        final List<String> live;
+        synchronized (this) {
+            if (mClosed || mSegments.get(segment.mId) != segment) {
+                return;
+            }
+            live = liveKeys(segment);
+        }
+
+        // re-append live records and tombstones, older segments may still hold records tombstones shadow
+        for (String key : live) {
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                move(key, segment);
+            }
+        }
+
+        // move entries pointed at the segment meanwhile, and remove compacted segment
+        synchronized (this) {
+            if (mClosed || mSegments.get(segment.mId) != segment) {
+                return;
+            }
+            for (String key : liveKeys(segment)) {
+                move(key, segment);
+            }
+            drop(segment);
+        }
+    }
+
+    /**
+     * Find keys of entries with head or body in a segment, and of tombstones in it. Must hold the lock.
+     *
+     * @param segment Segment.
+     * @return Keys.
+     */
+    private List<String> liveKeys(Segment segment) {
+        final List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Location> e : mIndex.entrySet()) {
+            if (e.getValue().isIn(segment)) {
+                keys.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, Location> e : mTombstones.entrySet()) {
+            if (e.getValue().segment == segment) {
+                keys.add(e.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Re-append the record of an entry, if it still has head or body in a segment. Must hold the lock.
+     *
+     * @param key     Cache key.
+     * @param segment Segment being compacted.
+     * @throws IOException File access error.
+     */
+    private void move(String key, Segment segment) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final Location tombstone = mTombstones.get(key);
+        if (tombstone != null && tombstone.segment == segment) {
+            // tombstone moves, the segment is not the oldest, or it would have been released
+            tombstone(key, append(keyBytes, new byte[0], new byte[0], TOMBSTONE, null));
+            return;
+        }
+
+        final Location old = mIndex.get(key);
+        if (old == null || !old.isIn(segment)) {
+            return;
+        }
+        if (old.bodySegment == segment) {
+            // body moves with head
+            final byte[] body = old.readBody();
+            index(key, append(keyBytes, old.readHead(), body, body.length, null));
+        } else {
+            // only head moves
+            index(key, append(keyBytes, old.readHead(), new byte[0], HEAD_UPDATE, old));
+        }
+    }
+
+    /**
+     * Write index checkpoint atomically, after flushing segments. The index is serialized under the lock, segments
+     * are flushed and the file is written outside of it. Runs on the maintenance thread, which is the only one
+     * dropping segments while open. Does nothing once closed.
+     *
+     * @throws IOException File access error.
+     */
+    private void checkpoint() throws IOException {
+        // snapshot of index, with the segments it refers to
+        final List<Segment> segments;
+        final byte[] index;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            segments = new ArrayList<>(mSegments.values());
+            index = serializeIndex();
+        }
+
+        // flush mapped segments, so records in the snapshot are on disk before the index refers to them
+        for (Segment segment : segments) {
+            segment.mBuffer.force();
+        }
+        writeIndex(index);
+    }
+
+    /**
+     * Serialize index, with checksum. Must hold the lock.
+     *
+     * @return Index file bytes.
+     * @throws IOException Serialization error.
+     */
+    private byte[] serializeIndex() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(mSegmentSize);
+        out.writeInt(mSegments.size());
+        for (Segment segment : mSegments.values()) {
+            out.writeInt(segment.mId);
+            out.writeInt(segment.mWritePos);
+        }
+        out.writeInt(mIndex.size());
+        for (Location location : mIndex.values()) {
+            out.writeInt(location.segment.mId);
+            out.writeInt(location.offset);
+            out.writeInt(location.keyLength);
+            out.writeInt(location.headLength);
+            out.writeInt(location.bodySegment.mId);
+            out.writeInt(location.bodyOffset);
+            out.writeInt(location.bodyLength);
+        }
+        out.writeInt(mTombstones.size());
+        for (Location tombstone : mTombstones.values()) {
+            out.writeInt(tombstone.segment.mId);
+            out.writeInt(tombstone.offset);
+            out.writeInt(tombstone.keyLength);
+        }
+        out.flush();
+        final CRC32 crc = new CRC32();
+        crc.update(bos.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Write index file atomically, through a temporary file moved in place.
+     *
+     * @param index Index file bytes.
+     * @throws IOException File access error.
+     */
+    private void writeIndex(byte[] index) throws IOException {
+        final Path tmp = mDirectory.resolve(INDEX_FILE + ".tmp");
+        Files.write(tmp, index);
+        Files.move(tmp, mDirectory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open segment files and rebuild index from checkpoint and segment scan.
+     *
+     * @throws IOException File access error.
+     */
+    private void recover() throws IOException {
+        // find segment files
+        final TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(mDirectory, "seg-*.dat")) {
+            for (Path file : stream) {
+                final Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    files.put(Integer.parseInt(m.group(1)), file);
+                }
+            }
+        }
+
+        // load checkpoint, segments not in a valid checkpoint are scanned from the start
+        final Map<Integer, Integer> scanFrom = new HashMap<>();
+        final int checkpointLast = loadCheckpoint(files, scanFrom);
+        for (Map.Entry<Integer, Path> e : files.entrySet()) {
+            if (e.getKey() <= checkpointLast && !mSegments.containsKey(e.getKey())) {
+                // dropped before checkpoint, but not deleted
+                Files.deleteIfExists(e.getValue());
+            } else if (!mSegments.containsKey(e.getKey())) {
+                mSegments.put(e.getKey(), Segment.open(mDirectory, e.getKey(), mSegmentSize));
+            }
+        }
+
+        // scan records written after checkpoint
+        for (Segment segment : mSegments.values()) {
+            scan(segment, scanFrom.getOrDefault(segment.mId, 0));
+        }
+
+        // continue writing to the last segment, tombstones of oldest segment shadow nothing
+        mActive = mSegments.isEmpty() ? null : mSegments.lastEntry().getValue();
+        releaseTombstones();
+    }
+
+    /**
+     * Load index checkpoint file.
+     *
+     * @param files    Segment files found on disk.
+     * @param scanFrom Receives write position recorded for each check-pointed segment.
+     * @return Id of last check-pointed segment, or zero if checkpoint is missing or invalid.
+     */
+    private int loadCheckpoint(Map<Integer, Path> files, Map<Integer, Integer> scanFrom) {
+        final Path file = mDirectory.resolve(INDEX_FILE);
+        final Map<Integer, Segment> segments = new HashMap<>();
+        try {
+            // verify checksum
+            final byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < Long.BYTES) {
+                return 0;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - Long.BYTES);
+            if (ByteBuffer.wrap(bytes).getLong(bytes.length - Long.BYTES) != crc.getValue()) {
+                return 0;
+            }
+
+            // verify header
+            final DataInputStream idx = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (idx.readInt() != INDEX_MAGIC || idx.readInt() != INDEX_VERSION || idx.readInt() != mSegmentSize) {
+                return 0;
+            }
+
+            // segments, all must still exist
+            final int segmentCount = idx.readInt();
+            int last = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                final int id = idx.readInt();
+                final int writePos = idx.readInt();
+                if (!files.containsKey(id)) {
+                    throw new IOException("Missing segment " + id);
+                }
+                segments.put(id, Segment.open(mDirectory, id, mSegmentSize));
+                scanFrom.put(id, writePos);
+                last = Math.max(last, id);
+            }
+
+            // index entries
+            final int entryCount = idx.readInt();
+            final Map<String, Location> index = new HashMap<>();
+            for (int i = 0; i < entryCount; i++) {
+                final Location location = new Location(segments.get(idx.readInt()), idx.readInt(), idx.readInt(),
+                        idx.readInt(), segments.get(idx.readInt()), idx.readInt(), idx.readInt());
+                index.put(location.readKey(), location);
+            }
+
+            // tombstones still shadowing older records
+            final int tombstoneCount = idx.readInt();
+            final Map<String, Location> tombstones = new HashMap<>();
+            for (int i = 0; i < tombstoneCount; i++) {
+                final Segment segment = segments.get(idx.readInt());
+                final int offset = idx.readInt();
+                final int keyLength = idx.readInt();
+                final Location tombstone = new Location(segment, offset, keyLength, 0, segment,
+                        offset + HEADER_SIZE + keyLength, 0);
+                tombstones.put(tombstone.readKey(), tombstone);
+            }
+
+            // accept checkpoint
+            mSegments.putAll(segments);
+            index.forEach(this::index);
+            tombstones.forEach(this::tombstone);
+            return last;
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            // corrupt checkpoint, fall back to full scan
+            segments.values().forEach(Segment::close);
+            mSegments.clear();
+            mIndex.clear();
+            mTombstones.clear();
+            mKeyIndex.clear();
+            mLiveBytes = 0;
+            scanFrom.clear();
+            return 0;
+        }
+    }
+
+    /**
+     * Scan records of a segment from given position, applying them to index.
+     * Scan stops at the first torn or corrupt record, which becomes the write position.
+     *
+     * @param segment Segment to scan.
+     * @param from    Position to scan from.
+     */
+    private void scan(Segment segment, int from) {
+        final ByteBuffer buffer = segment.mBuffer.duplicate();
+        int pos = from;
+        while (pos + HEADER_SIZE <= mSegmentSize) {
+            // header
+            buffer.position(pos);
+            final int magic = buffer.getInt();
+            final int keyLength = buffer.getInt();
+            final int headLength = buffer.getInt();
+            final int bodyLength = buffer.getInt();
+            final int checksum = buffer.getInt();
+            final int storedBody = Math.max(bodyLength, 0);
+            if (magic != RECORD_MAGIC || keyLength < 0 || headLength < 0 || bodyLength < HEAD_UPDATE
+                    || (long) pos + HEADER_SIZE + keyLength + headLength + storedBody > mSegmentSize) {
+                break;
+            }
+
+            // key and checksum
+            final byte[] key = new byte[keyLength];
+            buffer.get(key);
+            final CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(buffer.slice().limit(headLength + storedBody));
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            // apply record
+            final String k = new String(key, StandardCharsets.UTF_8);
+            final int headOffset = pos + HEADER_SIZE + keyLength;
+            if (bodyLength == TOMBSTONE) {
+                index(k, null);
+                tombstone(k, new Location(segment, pos, keyLength, headLength, segment, headOffset + headLength, 0));
+            } else if (bodyLength == HEAD_UPDATE) {
+                // body is where the previous record for key put it
+                final Location old = mIndex.get(k);
+                if (old != null) {
+                    index(k, new Location(segment, pos, keyLength, headLength,
+                            old.bodySegment, old.bodyOffset, old.bodyLength));
+                }
+            } else {
+                index(k, new Location(segment, pos, keyLength, headLength,
+                        segment, headOffset + headLength, bodyLength));
+            }
+            pos += HEADER_SIZE + keyLength + headLength + storedBody;
+        }
+
+        // discard anything after last valid record
+        segment.mWritePos = pos;
+        if (pos + Integer.BYTES <= mSegmentSize) {
+            segment.mBuffer.duplicate().putInt(pos, 0);
+        }
+    }
+
+    /**
+     * A memory mapped segment file.
+     */
+    private static class Segment {
+        private final int mId;
+        private final Path mFile;
+        private final FileChannel mChannel;
+        private final MappedByteBuffer mBuffer;
+        private int mWritePos = 0;
+        private long mLiveBytes = 0;
+
+        /**
+         * Constructor
+         *
+         * @param id      Segment id.
+         * @param file    Segment file.
+         * @param channel Open file channel.
+         * @param buffer  Mapped buffer.
+         */
+        private Segment(int id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            mId = id;
+            mFile = file;
+            mChannel = channel;
+            mBuffer = buffer;
+        }
+
+        /**
+         * Open or create a segment file and map it in memory.
+         *
+         * @param dir  Cache directory.
+         * @param id   Segment id.
+         * @param size Segment size.
+         * @return Segment
+         * @throws IOException File access error.
+         */
+        private static Segment open(Path dir, int id, int size) throws IOException {
+            final Path file = dir.resolve(String.format("seg-%08d.dat", id));
+            final FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Copy bytes out of segment.
+         *
+         * @param offset Offset in segment.
+         * @param length Number of bytes.
+         * @return Bytes
+         */
+        private byte[] read(int offset, int length) {
+            final byte[] bytes = new byte[length];
+            mBuffer.duplicate().position(offset).get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Close segment file.
+         */
+        private void close() {
+            try {
+                mChannel.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+        }
+
+        /**
+         * Close and delete segment file. If the file can not be deleted yet, it is cleaned on next open.
+         */
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(mFile);
+            } catch (IOException ignored) {
+                // file is still mapped on some platforms, cleaned on next open
+            }
+        }
+    }
+
+    /**
+     * Location of an entry. Head is in the latest record for the key, body may be in an earlier one.
+     */
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int keyLength;
+        private final int headLength;
+        private final Segment bodySegment;
+        private final int bodyOffset;
+        private final int bodyLength;
+
+        /**
+         * Constructor
+         *
+         * @param segment     Segment holding the record.
+         * @param offset      Record offset in segment.
+         * @param keyLength   Length of key bytes.
+         * @param headLength  Length of head bytes.
+         * @param bodySegment Segment holding the body.
+         * @param bodyOffset  Body offset in body segment.
+         * @param bodyLength  Length of body bytes.
+         */
+        private Location(Segment segment, int offset, int keyLength, int headLength,
+                         Segment bodySegment, int bodyOffset, int bodyLength) {
+            this.segment = Objects.requireNonNull(segment);
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.headLength = headLength;
+            this.bodySegment = Objects.requireNonNull(bodySegment);
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        private String readKey() {
+            return new String(segment.read(offset + HEADER_SIZE, keyLength), StandardCharsets.UTF_8);
+        }
+
+        private byte[] readHead() {
+            return segment.read(offset + HEADER_SIZE + keyLength, headLength);
+        }
+
+        private byte[] readBody() {
+            return bodySegment.read(bodyOffset, bodyLength);
+        }
+
+        private boolean isIn(Segment s) {
+            return segment == s || bodySegment == s;
+        }
+
+        private long size() {
+            return HEADER_SIZE + keyLength + headLength + bodyLength;
+        }
+    }
+}
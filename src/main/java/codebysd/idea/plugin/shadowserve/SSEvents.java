@@ -0,0 +1,190 @@
+package codebysd.idea.plugin.shadowserve;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of request stages, for profiling the local server in a running IDE.
+ * <p>
+ * Events are recorded only while a recording with them enabled is running, otherwise they cost a check and no
+ * allocation. Fields are set only when an event will be committed. Events of a request are recorded on its request
+ * thread and nest within its exchange event, so a recording correlates them by thread and time. Stack traces are
+ * off, the stage is known from the event type.
+ */
+public final class SSEvents {
+    private static final String PREFIX = "codebysd.shadowserve.";
+    private static final String CATEGORY = "Shadow Serve";
+
+    /**
+     * Constructor, not instantiable.
+     */
+    private SSEvents() {
+    }
+
+    /**
+     * A request handled by the local server, from accept until the response is complete.
+     */
+    @Name(PREFIX + "Exchange")
+    @Label("Exchange")
+    @Category({CATEGORY, "Server"})
+    @Description("Request handled by the local server, until response is complete")
+    @StackTrace(false)
+    static final class Exchange extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        String path;
+
+        @Label("Status")
+        int status;
+
+        @Label("Response Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Lookup of a local file for a shadowed path.
+     */
+    @Name(PREFIX + "ShadowLookup")
+    @Label("Shadow Lookup")
+    @Category({CATEGORY, "Shadow"})
+    @Description("Lookup of a local file for a shadowed path")
+    @StackTrace(false)
+    static final class ShadowLookup extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Found")
+        boolean found;
+    }
+
+    /**
+     * Sending of a local file for a shadowed path.
+     */
+    @Name(PREFIX + "ShadowServe")
+    @Label("Shadow Serve")
+    @Category({CATEGORY, "Shadow"})
+    @Description("Sending of a local file for a shadowed path")
+    @StackTrace(false)
+    static final class ShadowServe extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("File")
+        String file;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Cache lookup of a request, resolving variants.
+     */
+    @Name(PREFIX + "CacheLookup")
+    @Label("Cache Lookup")
+    @Category({CATEGORY, "Cache"})
+    @Description("Cache lookup of a request, a hit if a stored response was found, fresh or not")
+    @StackTrace(false)
+    static final class CacheLookup extends Event {
+        @Label("Key")
+        String key;
+
+        @Label("Hit")
+        boolean hit;
+
+        @Label("Body Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Store of a response in cache.
+     */
+    @Name(PREFIX + "CachePut")
+    @Label("Cache Put")
+    @Category({CATEGORY, "Cache"})
+    @Description("Store of a response in cache, including evictions it causes")
+    @StackTrace(false)
+    static final class CachePut extends Event {
+        @Label("Key")
+        String key;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Stored")
+        boolean stored;
+    }
+
+    /**
+     * Eviction of a cache entry from memory.
+     */
+    @Name(PREFIX + "CacheEvict")
+    @Label("Cache Evict")
+    @Category({CATEGORY, "Cache"})
+    @Description("Eviction of a cache entry from memory")
+    @StackTrace(false)
+    static final class CacheEvict extends Event {
+        @Label("Key")
+        String key;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Connection to the origin server, or reuse of a kept alive one.
+     */
+    @Name(PREFIX + "UpstreamConnect")
+    @Label("Upstream Connect")
+    @Category({CATEGORY, "Upstream"})
+    @Description("Connection to the origin server, or reuse of a kept alive one")
+    @StackTrace(false)
+    static final class UpstreamConnect extends Event {
+        @Label("URL")
+        String url;
+    }
+
+    /**
+     * Wait for the origin server response headers, after connecting and sending any request body.
+     */
+    @Name(PREFIX + "UpstreamResponse")
+    @Label("Upstream Response")
+    @Category({CATEGORY, "Upstream"})
+    @Description("Wait for origin server response headers, after connecting")
+    @StackTrace(false)
+    static final class UpstreamResponse extends Event {
+        @Label("URL")
+        String url;
+
+        @Label("Status")
+        int status;
+    }
+
+    /**
+     * Transfer of an origin server response body to the client.
+     */
+    @Name(PREFIX + "UpstreamTransfer")
+    @Label("Upstream Transfer")
+    @Category({CATEGORY, "Upstream"})
+    @Description("Transfer of an origin server response body to the client")
+    @StackTrace(false)
+    static final class UpstreamTransfer extends Event {
+        @Label("URL")
+        String url;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
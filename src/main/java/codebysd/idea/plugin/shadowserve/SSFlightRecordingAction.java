@@ -0,0 +1,119 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * IDE action to start and stop a flight recording of the IDE, with the bundled Shadow Serve settings. The recording
+ * holds request stage events of local servers, next to GC and thread activity, and is saved to the IDE log directory
+ * when stopped, for opening in a JFR viewer.
+ * <p>
+ * One recording runs at a time, for the whole IDE.
+ */
+public class SSFlightRecordingAction extends ToggleAction implements DumbAware {
+    private static final String SETTINGS = "/jfr/shadowserve.jfc";
+    private static Recording sRecording;
+
+    /**
+     * Constructor
+     */
+    public SSFlightRecordingAction() {
+        super(SSBundle.message("act_flight_record"), SSBundle.message("ttp_flight_record"), SSIcons.PLUGIN_ICON);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSelected(@NotNull AnActionEvent e) {
+        synchronized (SSFlightRecordingAction.class) {
+            return sRecording != null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Starts a recording, or stops and saves the running one in background.
+     */
+    @Override
+    public void setSelected(@NotNull AnActionEvent e, boolean state) {
+        final Project project = e.getProject();
+        synchronized (SSFlightRecordingAction.class) {
+            if (state && sRecording == null) {
+                try {
+                    sRecording = start();
+                } catch (IOException | ParseException | RuntimeException ex) {
+                    Messages.showErrorDialog(project, SSBundle.message("msg_flight_record_failed", ex.getMessage()),
+                            SSBundle.message("act_flight_record"));
+                }
+            } else if (!state && sRecording != null) {
+                final Recording recording = sRecording;
+                sRecording = null;
+                ApplicationManager.getApplication().executeOnPooledThread(() -> save(project, recording));
+            }
+        }
+    }
+
+    /**
+     * Start a recording with bundled settings.
+     *
+     * @return Running recording.
+     * @throws IOException    Settings read error.
+     * @throws ParseException Invalid settings.
+     */
+    private static Recording start() throws IOException, ParseException {
+        final Configuration configuration;
+        try (InputStream stream = SSFlightRecordingAction.class.getResourceAsStream(SETTINGS);
+             Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            configuration = Configuration.create(reader);
+        }
+        final Recording recording = new Recording(configuration);
+        recording.setName("Shadow Serve");
+        recording.setToDisk(true);
+        recording.start();
+        return recording;
+    }
+
+    /**
+     * Stop a recording, save it to the IDE log directory and report where.
+     *
+     * @param project   Project to report in, if any.
+     * @param recording Running recording.
+     */
+    private static void save(Project project, Recording recording) {
+        String message;
+        try {
+            final Path path = Paths.get(PathManager.getLogPath(),
+                    "shadowserve-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr");
+            recording.stop();
+            recording.dump(path);
+            message = SSBundle.message("msg_flight_recorded", path.toString());
+        } catch (IOException | RuntimeException ex) {
+            message = SSBundle.message("msg_flight_record_failed", ex.getMessage());
+        } finally {
+            recording.close();
+        }
+        final String result = message;
+        ApplicationManager.getApplication().invokeLater(() ->
+                Messages.showInfoMessage(project, result, SSBundle.message("act_flight_record")));
+    }
+}
@@ -0,0 +1,135 @@
+package codebysd.idea.plugin.shadowserve;
+
+/**
+ * A probabilistic estimate of how often keys are accessed, using a count-min sketch of 4-bit counters.
+ * <p>
+ * Each key maps to 4 counters in a table of longs, each long holding 16 counters. The estimate is the minimum of
+ * the key counters, so it may over-count but never under-counts. To keep the history recent, all counters are
+ * halved when the number of increments reaches a sample size (10 times the expected number of entries).
+ * <p>
+ * The sketch is not synchronized.
+ */
+public class SSFrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+
+    private final long[] mTable;
+    private final int mTableMask;
+    private final int mSampleSize;
+    private int mSize = 0;
+
+    /**
+     * Constructor
+     *
+     * @param expectedEntries Expected number of entries to track. Must be a positive number.
+     * @throws IllegalArgumentException If expected entries is not a positive number.
+     */
+    public SSFrequencySketch(int expectedEntries) {
+        if (expectedEntries <= 0) {
+            throw new IllegalArgumentException("The parameter expected entries must be greater than zero.");
+        }
+
+        // table size is a power of two, for masking
+        int tableSize = Integer.highestOneBit(Math.min(expectedEntries, MAX_TABLE_SIZE));
+        if (tableSize < expectedEntries && tableSize < MAX_TABLE_SIZE) {
+            tableSize <<= 1;
+        }
+        mTable = new long[tableSize];
+        mTableMask = tableSize - 1;
+        mSampleSize = (int) Math.min(10L * expectedEntries, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get estimated access frequency of a key.
+     *
+     * @param key Key
+     * @return Estimated frequency, from 0 to 15.
+     */
+    public int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of a key. Counters are aged when sample size is reached.
+     *
+     * @param key Key
+     */
+    public void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        // age counters
+        if (added && ++mSize >= mSampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Increment a counter, unless it is saturated.
+     *
+     * @param index   Table index.
+     * @param counter Counter index in table element, from 0 to 15.
+     * @return True if incremented.
+     */
+    private boolean incrementAt(int index, int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((mTable[index] & mask) != mask) {
+            mTable[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halve all counters.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            odd += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (odd >>> 2);
+    }
+
+    /**
+     * Get table index for a hash and counter depth.
+     *
+     * @param hash  Spread hash.
+     * @param depth Counter depth, from 0 to 3.
+     * @return Table index.
+     */
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return ((int) h) & mTableMask;
+    }
+
+    /**
+     * Spread bits of a hash code, to defend against poor hash functions.
+     *
+     * @param x Hash code.
+     * @return Spread hash.
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
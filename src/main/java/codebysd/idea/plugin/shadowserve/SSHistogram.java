@@ -0,0 +1,252 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram, with log-linear buckets in the manner of HDR histograms.
+ * <p>
+ * Values below 32 have a bucket each. Above that, every power of two range is split into 16 buckets, so a recorded
+ * value is known within 1/16 (about 6%) of itself, from microseconds up to hours, in a few hundred buckets. Bucket
+ * counts are striped by thread, so request threads recording at once rarely write the same memory. A snapshot sums
+ * the stripes, it is not atomic with respect to concurrent recording.
+ */
+public class SSHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+    private static final int STRIPES = Math.min(4, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    private final AtomicLongArray[] mStripes = new AtomicLongArray[STRIPES];
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mSum = new LongAdder();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public SSHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value Value, negative values count as 0, values above about 6.8e10 as that.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, Math.min(value, MAX_VALUE));
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        mStripes[stripe].incrementAndGet(index(v));
+        mCount.increment();
+        mSum.add(v);
+
+        // update maximum, without a write when not exceeded
+        if (v > mMax.get()) {
+            mMax.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * Get number of recorded values.
+     *
+     * @return Count.
+     */
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    /**
+     * Get sum of recorded values.
+     *
+     * @return Sum.
+     */
+    public long getSum() {
+        return mSum.sum();
+    }
+
+    /**
+     * Count recorded values at or below each of the given bounds, without taking a snapshot. A bucket counts
+     * toward a bound if all its values are at or below it, so counts at a bound may miss values within bucket
+     * precision of it.
+     *
+     * @param bounds Ascending upper bounds.
+     * @param into   Cumulative counts per bound, with one more slot for all values. Overwritten.
+     */
+    public void countAtOrBelow(long[] bounds, long[] into) {
+        Arrays.fill(into, 0, bounds.length + 1, 0);
+        int bound = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = 0;
+            for (AtomicLongArray stripe : mStripes) {
+                count += stripe.get(i);
+            }
+            if (count == 0) {
+                continue;
+            }
+
+            // first bound holding the whole bucket, or all values
+            final long highest = highest(i);
+            while (bound < bounds.length && highest > bounds[bound]) {
+                bound++;
+            }
+            into[bound] += count;
+        }
+
+        // make cumulative
+        for (int i = 1; i <= bounds.length; i++) {
+            into[i] += into[i - 1];
+        }
+    }
+
+    /**
+     * Clear recorded values.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : mStripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        mCount.reset();
+        mSum.reset();
+        mMax.set(0);
+    }
+
+    /**
+     * Take a snapshot of recorded values.
+     *
+     * @return Snapshot.
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : mStripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts, mCount.sum(), mSum.sum(), mMax.get());
+    }
+
+    /**
+     * Get bucket index of a value.
+     *
+     * @param value Value, not negative.
+     * @return Bucket index.
+     */
+    private static int index(long value) {
+        if (value < 2 * HALF) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    /**
+     * Get highest value of a bucket.
+     *
+     * @param index Bucket index.
+     * @return Highest value counted in bucket.
+     */
+    private static long highest(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        final int shift = (index >>> (SUB_BITS - 1)) - 1;
+        final long lowest = (long) (index - (shift << (SUB_BITS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Recorded values at a point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        /**
+         * Constructor
+         *
+         * @param counts Bucket counts.
+         * @param count  Number of values.
+         * @param sum    Sum of values.
+         * @param max    Largest value.
+         */
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Get number of values.
+         *
+         * @return Count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get sum of values.
+         *
+         * @return Sum.
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Get largest value.
+         *
+         * @return Largest value, 0 if none.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Get mean of values.
+         *
+         * @return Mean, 0 if none.
+         */
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * Get value at a percentile, within bucket precision.
+         *
+         * @param percentile Percentile, 0 to 100.
+         * @return Highest value of the bucket holding the percentile, not above the largest value. 0 if none.
+         */
+        public long getValueAt(double percentile) {
+            // bucket counts are summed without a lock, so use their own total
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highest(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
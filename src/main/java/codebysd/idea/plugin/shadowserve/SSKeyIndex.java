@@ -0,0 +1,76 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Index of cache keys ordered by request path, so keys under a path prefix are found without a full scan.
+ * <p>
+ * Cache keys start with the request method, like "GET /app/main.js?v=1". The index orders them by the rest of the
+ * key (path, query and variant values) and then by method, so all keys of a path prefix, for any method, are in
+ * one range. A lookup costs a tree search plus the number of matched keys.
+ * <p>
+ * The index is not synchronized, it is guarded by its owner.
+ */
+public class SSKeyIndex {
+    private static final char METHOD_SEPARATOR = '\u0000';
+    private final TreeMap<String, String> mKeys = new TreeMap<>();
+
+    /**
+     * Add a key.
+     *
+     * @param key Cache key.
+     */
+    public void add(String key) {
+        mKeys.put(order(key), key);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key Cache key.
+     */
+    public void remove(String key) {
+        mKeys.remove(order(key));
+    }
+
+    /**
+     * Remove all keys.
+     */
+    public void clear() {
+        mKeys.clear();
+    }
+
+    /**
+     * Find keys with a path prefix.
+     *
+     * @param pathPrefix Path prefix, like "/app/". Empty for all keys.
+     * @return Keys in path order.
+     */
+    public List<String> withPrefix(String pathPrefix) {
+        final String end = pathPrefix + Character.MAX_VALUE;
+        return new ArrayList<>(mKeys.subMap(pathPrefix, true, end, false).values());
+    }
+
+    /**
+     * Get path of a cache key, with query and variant values.
+     *
+     * @param key Cache key.
+     * @return Key without method.
+     */
+    public static String path(String key) {
+        return key.substring(key.indexOf(' ') + 1);
+    }
+
+    /**
+     * Get index order of a key, path first and method last.
+     *
+     * @param key Cache key.
+     * @return Ordering string.
+     */
+    private static String order(String key) {
+        final int space = key.indexOf(' ');
+        return key.substring(space + 1) + METHOD_SEPARATOR + key.substring(0, Math.max(space, 0));
+    }
+}
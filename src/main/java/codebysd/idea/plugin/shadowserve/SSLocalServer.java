@@ -12,23 +12,55 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Local HTTP server implementation.
+ * <p>
+ * Requests run on a pool of request threads, of a configurable type and size. Idle timeout and TCP no delay of
+ * browser connections are options of the JDK server, read once when the first server of the IDE session starts, so
+ * changing them takes effect after an IDE restart.
  */
 public class SSLocalServer extends ProcessHandler {
-    private static final int NUM_THREADS = 5;
+    private static final ThreadLocal<long[]> QUEUE_WAIT = ThreadLocal.withInitial(() -> new long[1]);
+    private static String sConnectionOptions;
     private final String mHost;
     private final int mPort;
     private final List<Filter> mFilters;
     private final HttpHandler mHandler;
+    private final Map<String, HttpHandler> mReservedHandlers = new LinkedHashMap<>();
     private final AtomicBoolean mStarted;
+    private ExecutorType mExecutorType = ExecutorType.WORK_STEALING;
+    private int mThreads = SSConstants.Defaults.SERVER_THREADS;
+    private int mBacklog = SSConstants.Defaults.SERVER_BACKLOG;
+    private int mIdleSeconds = SSConstants.Defaults.IDLE_TIMEOUT;
+    private boolean mNoDelay = SSConstants.Defaults.TCP_NODELAY;
+    private boolean mConnectionOptionsApplied = true;
     private HttpServer mServer;
-    private ExecutorService mExecutor;
+    private volatile ExecutorService mExecutor;
+
+    /**
+     * Type of request thread pool
+     */
+    public enum ExecutorType {
+        /**
+         * Work stealing pool, balancing uneven requests across threads
+         */
+        WORK_STEALING,
+
+        /**
+         * Fixed size pool, running requests in arrival order
+         */
+        FIXED
+    }
 
     /**
      * Constructor
@@ -46,6 +78,50 @@ public class SSLocalServer extends ProcessHandler {
         mStarted = new AtomicBoolean();
     }
 
+    /**
+     * Add a handler for a reserved path, served without request filters. Must be called before start.
+     *
+     * @param path    Reserved path, requests to it and paths under it go to the handler.
+     * @param handler Request handler.
+     */
+    public void addReservedHandler(String path, HttpHandler handler) {
+        mReservedHandlers.put(path, handler);
+    }
+
+    /**
+     * Set request thread pool. Must be called before start.
+     *
+     * @param type    Thread pool type.
+     * @param threads Number of request threads.
+     */
+    public void setExecutor(ExecutorType type, int threads) {
+        mExecutorType = type;
+        mThreads = threads;
+    }
+
+    /**
+     * Set connection options. Must be called before start.
+     *
+     * @param backlog     Connections waiting to be accepted, 0 for system default.
+     * @param idleSeconds Seconds an idle connection is kept open.
+     * @param noDelay     True to send response data without waiting to fill network packets.
+     */
+    public void setConnectionOptions(int backlog, int idleSeconds, boolean noDelay) {
+        mBacklog = backlog;
+        mIdleSeconds = idleSeconds;
+        mNoDelay = noDelay;
+    }
+
+    /**
+     * Check if idle timeout and TCP no delay options are in effect. They are not, if a server of this IDE session
+     * was started with other options before.
+     *
+     * @return True if in effect, false if they take effect after an IDE restart.
+     */
+    public boolean isConnectionOptionsApplied() {
+        return mConnectionOptionsApplied;
+    }
+
     /**
      * Start Server
      *
@@ -56,20 +132,67 @@ public class SSLocalServer extends ProcessHandler {
         if (mStarted.compareAndSet(false, true)) {
             // create HTTP server
             final InetSocketAddress address = new InetSocketAddress(mHost, mPort);
-            mServer = HttpServerProvider.provider().createHttpServer(address, 0);
+            applyConnectionOptions();
+            mServer = HttpServerProvider.provider().createHttpServer(address, mBacklog);
 
             // init context, set handler and filters
             final HttpContext context = mServer.createContext("/", mHandler);
             context.getFilters().addAll(mFilters);
 
+            // reserved paths, more specific than root context
+            for (Map.Entry<String, HttpHandler> reserved : mReservedHandlers.entrySet()) {
+                mServer.createContext(reserved.getKey(), reserved.getValue());
+            }
+
             // set executor and start
-            mExecutor = Executors.newWorkStealingPool(NUM_THREADS);
-            mServer.setExecutor(mExecutor);
+            mExecutor = createExecutor();
+            final ExecutorService executor = mExecutor;
+            mServer.setExecutor(command -> {
+                // time waiting for a request thread
+                final long queued = System.nanoTime();
+                executor.execute(() -> {
+                    QUEUE_WAIT.get()[0] = System.nanoTime() - queued;
+                    command.run();
+                });
+            });
             mServer.start();
             startNotify();
         }
     }
 
+    /**
+     * Create request thread pool of configured type.
+     *
+     * @return Thread pool.
+     */
+    private ExecutorService createExecutor() {
+        switch (mExecutorType) {
+            case FIXED:
+                return new ThreadPoolExecutor(mThreads, mThreads, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>());
+            case WORK_STEALING:
+            default:
+                // as Executors.newWorkStealingPool, typed for its statistics
+                return new ForkJoinPool(mThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+    }
+
+    /**
+     * Set idle timeout and TCP no delay of the JDK server, if no server of this IDE session was started yet.
+     */
+    private void applyConnectionOptions() {
+        final String options = mIdleSeconds + "," + mNoDelay;
+        synchronized (SSLocalServer.class) {
+            // read by the JDK server once, when its first server is created
+            if (sConnectionOptions == null) {
+                System.setProperty("sun.net.httpserver.idleInterval", Integer.toString(mIdleSeconds));
+                System.setProperty("sun.net.httpserver.nodelay", Boolean.toString(mNoDelay));
+                sConnectionOptions = options;
+            }
+            mConnectionOptionsApplied = options.equals(sConnectionOptions);
+        }
+    }
+
     /**
      * Get HTTP address of server.
      *
@@ -83,6 +206,55 @@ public class SSLocalServer extends ProcessHandler {
         }
     }
 
+    /**
+     * Get time the request handled on current thread waited for a request thread.
+     *
+     * @return Wait in nanoseconds, 0 outside a request thread.
+     */
+    public static long getQueueWaitNanos() {
+        return QUEUE_WAIT.get()[0];
+    }
+
+    /**
+     * Get number of requests waiting for a request thread.
+     *
+     * @return Queued request count, 0 if server not running.
+     */
+    public long getQueuedRequestCount() {
+        final ExecutorService executor = mExecutor;
+        if (executor instanceof ForkJoinPool) {
+            final ForkJoinPool pool = (ForkJoinPool) executor;
+            return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        }
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    /**
+     * Get number of request threads handling requests.
+     *
+     * @return Active thread count, 0 if server not running.
+     */
+    public int getActiveThreadCount() {
+        final ExecutorService executor = mExecutor;
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getActiveThreadCount();
+        }
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getActiveCount() : 0;
+    }
+
+    /**
+     * Get number of request threads started.
+     *
+     * @return Thread count, 0 if server not running.
+     */
+    public int getThreadCount() {
+        final ExecutorService executor = mExecutor;
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getPoolSize();
+        }
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getPoolSize() : 0;
+    }
+
     /**
      * Stop the server.
      */
@@ -0,0 +1,511 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a local server run: latency histograms and byte counts per route and per status class, latency
+ * per request phase, and upstream latency.
+ * <p>
+ * The metrics filter times every request, from the first filter to the end of the response. While a request is
+ * handled, the component serving it tags its route on the request thread, the first tag wins. So a cache miss tagged
+ * by the cache filter is not counted again as proxied by the web handler. Requests without a tag count as proxied.
+ * Upstream latency is recorded by the web handler for every origin request, including background cache refreshes.
+ * <p>
+ * Components also record time spent in phases of the request on the request thread, for a Server-Timing header. When
+ * the request ends, each phase it went through is recorded in the histogram of the phase.
+ * <p>
+ * All recording is lock free and allocation free. Latencies are recorded in microseconds.
+ */
+public class SSMetrics {
+
+    /**
+     * Route class of a request
+     */
+    public enum Route {
+        /**
+         * Served from local files
+         */
+        SHADOWED,
+
+        /**
+         * Served from cache
+         */
+        CACHE_HIT,
+
+        /**
+         * Not in cache, fetched from origin server
+         */
+        CACHE_MISS,
+
+        /**
+         * Forwarded to origin server, without cache
+         */
+        PROXIED,
+
+        /**
+         * Served from recording archive
+         */
+        REPLAYED
+    }
+
+    /**
+     * Timed phase of a request
+     */
+    public enum Phase {
+        /**
+         * Wait for a request thread
+         */
+        QUEUE("queue", "Queue wait"),
+
+        /**
+         * Local file lookup
+         */
+        SHADOW("shadow", "Shadow lookup"),
+
+        /**
+         * Cache lookup and response decoding
+         */
+        CACHE("cache", "Cache lookup"),
+
+        /**
+         * Connection to origin server
+         */
+        CONNECT("connect", "Upstream connect"),
+
+        /**
+         * Request to origin server until response headers, after connecting
+         */
+        TTFB("ttfb", "Upstream first byte");
+
+        private final String mName;
+        private final String mMetric;
+
+        /**
+         * Constructor
+         *
+         * @param name        Server-Timing metric name.
+         * @param description Server-Timing description.
+         */
+        Phase(String name, String description) {
+            mName = name;
+            mMetric = name + ";desc=\"" + description + "\";dur=";
+        }
+
+        /**
+         * Get metric name of the phase.
+         *
+         * @return Name, like "ttfb".
+         */
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /**
+     * Number of status classes, 1xx to 5xx.
+     */
+    public static final int STATUS_CLASSES = 5;
+
+    private final SSHistogram[] mRouteLatency = new SSHistogram[Route.values().length];
+    private final LongAdder[] mRouteBytes = new LongAdder[Route.values().length];
+    private final SSHistogram[] mStatusLatency = new SSHistogram[STATUS_CLASSES];
+    private final SSHistogram[] mPhaseLatency = new SSHistogram[Phase.values().length];
+    private final SSHistogram mUpstreamLatency = new SSHistogram();
+    private final LongAdder mUpstreamInFlight = new LongAdder();
+    private final LongAdder mUpstreamErrors = new LongAdder();
+    private final ThreadLocal<Sample> mSample = ThreadLocal.withInitial(Sample::new);
+    private volatile long mStartNanos = System.nanoTime();
+
+    /**
+     * Constructor
+     */
+    public SSMetrics() {
+        for (int i = 0; i < mRouteLatency.length; i++) {
+            mRouteLatency[i] = new SSHistogram();
+            mRouteBytes[i] = new LongAdder();
+        }
+        for (int i = 0; i < mStatusLatency.length; i++) {
+            mStatusLatency[i] = new SSHistogram();
+        }
+        for (int i = 0; i < mPhaseLatency.length; i++) {
+            mPhaseLatency[i] = new SSHistogram();
+        }
+    }
+
+    /**
+     * Start a request on current thread.
+     */
+    public void begin() {
+        final Sample sample = mSample.get();
+        sample.active = true;
+        sample.route = null;
+        Arrays.fill(sample.phases, -1);
+    }
+
+    /**
+     * Tag route of the request on current thread, unless already tagged. Does nothing outside a request.
+     *
+     * @param route Route class.
+     */
+    public void route(Route route) {
+        final Sample sample = mSample.get();
+        if (sample.active && sample.route == null) {
+            sample.route = route;
+        }
+    }
+
+    /**
+     * Add time spent in a phase by the request on current thread. Does nothing outside a request.
+     *
+     * @param phase        Request phase.
+     * @param elapsedNanos Time spent.
+     */
+    public void phase(Phase phase, long elapsedNanos) {
+        final Sample sample = mSample.get();
+        if (sample.active) {
+            final long[] phases = sample.phases;
+            phases[phase.ordinal()] = Math.max(phases[phase.ordinal()], 0) + elapsedNanos;
+        }
+    }
+
+    /**
+     * Build a Server-Timing header value for the request on current thread, from its recorded phases.
+     *
+     * @param elapsedNanos Time since request started, as the total.
+     * @return Header value, with durations in milliseconds.
+     */
+    public String serverTiming(long elapsedNanos) {
+        final long[] phases = mSample.get().phases;
+        final StringBuilder header = new StringBuilder(256);
+        for (Phase phase : Phase.values()) {
+            if (phases[phase.ordinal()] >= 0) {
+                appendMillis(header.append(phase.mMetric), phases[phase.ordinal()]).append(", ");
+            }
+        }
+        return appendMillis(header.append("total;desc=\"Until headers\";dur="), elapsedNanos).toString();
+    }
+
+    /**
+     * End the request on current thread, and record it with the phases it went through.
+     *
+     * @param status       Response status code, or -1 if no response was sent.
+     * @param bytes        Response body bytes sent.
+     * @param elapsedNanos Request duration.
+     */
+    public void end(int status, long bytes, long elapsedNanos) {
+        final Sample sample = mSample.get();
+        final Route route = sample.route != null ? sample.route : Route.PROXIED;
+        sample.active = false;
+        sample.route = null;
+
+        final long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        mRouteLatency[route.ordinal()].record(micros);
+        mRouteBytes[route.ordinal()].add(bytes);
+        if (status >= 100 && status < 100 * (STATUS_CLASSES + 1)) {
+            mStatusLatency[status / 100 - 1].record(micros);
+        }
+        final long[] phases = sample.phases;
+        for (int i = 0; i < phases.length; i++) {
+            if (phases[i] >= 0) {
+                mPhaseLatency[i].record(TimeUnit.NANOSECONDS.toMicros(phases[i]));
+            }
+        }
+    }
+
+    /**
+     * Start an origin server request.
+     */
+    public void upstreamStarted() {
+        mUpstreamInFlight.increment();
+    }
+
+    /**
+     * Record response headers of an origin server request.
+     *
+     * @param elapsedNanos Time until response headers arrived.
+     */
+    public void upstream(long elapsedNanos) {
+        mUpstreamLatency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * End an origin server request.
+     *
+     * @param failed True if the request failed with an error.
+     */
+    public void upstreamFinished(boolean failed) {
+        mUpstreamInFlight.decrement();
+        if (failed) {
+            mUpstreamErrors.increment();
+        }
+    }
+
+    /**
+     * Get live latency histogram of a route, in microseconds.
+     *
+     * @param route Route class.
+     * @return Latency histogram.
+     */
+    public SSHistogram getLatency(Route route) {
+        return mRouteLatency[route.ordinal()];
+    }
+
+    /**
+     * Get response body bytes sent for a route.
+     *
+     * @param route Route class.
+     * @return Byte count.
+     */
+    public long getBytes(Route route) {
+        return mRouteBytes[route.ordinal()].sum();
+    }
+
+    /**
+     * Get number of responses of a status class.
+     *
+     * @param statusClass Status class, 1 to 5.
+     * @return Response count.
+     */
+    public long getStatusCount(int statusClass) {
+        return mStatusLatency[statusClass - 1].getCount();
+    }
+
+    /**
+     * Get live latency histogram of a request phase, in microseconds.
+     *
+     * @param phase Request phase.
+     * @return Latency histogram.
+     */
+    public SSHistogram getPhaseLatency(Phase phase) {
+        return mPhaseLatency[phase.ordinal()];
+    }
+
+    /**
+     * Get live latency histogram of origin server requests until response headers, in microseconds.
+     *
+     * @return Latency histogram.
+     */
+    public SSHistogram getUpstreamLatency() {
+        return mUpstreamLatency;
+    }
+
+    /**
+     * Get number of origin server requests in progress.
+     *
+     * @return Request count.
+     */
+    public long getUpstreamInFlight() {
+        return mUpstreamInFlight.sum();
+    }
+
+    /**
+     * Get number of failed origin server requests.
+     *
+     * @return Error count.
+     */
+    public long getUpstreamErrors() {
+        return mUpstreamErrors.sum();
+    }
+
+    /**
+     * Clear recorded metrics, and restart throughput measurement.
+     */
+    public void reset() {
+        for (int i = 0; i < mRouteLatency.length; i++) {
+            mRouteLatency[i].reset();
+            mRouteBytes[i].reset();
+        }
+        for (SSHistogram histogram : mStatusLatency) {
+            histogram.reset();
+        }
+        for (SSHistogram histogram : mPhaseLatency) {
+            histogram.reset();
+        }
+        mUpstreamLatency.reset();
+        mUpstreamErrors.reset();
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Take a snapshot of recorded metrics.
+     *
+     * @return Snapshot.
+     */
+    public Snapshot snapshot() {
+        final SSHistogram.Snapshot[] routes = new SSHistogram.Snapshot[mRouteLatency.length];
+        final long[] bytes = new long[mRouteLatency.length];
+        for (int i = 0; i < routes.length; i++) {
+            routes[i] = mRouteLatency[i].snapshot();
+            bytes[i] = mRouteBytes[i].sum();
+        }
+        final SSHistogram.Snapshot[] statuses = new SSHistogram.Snapshot[mStatusLatency.length];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = mStatusLatency[i].snapshot();
+        }
+        final SSHistogram.Snapshot[] phases = new SSHistogram.Snapshot[mPhaseLatency.length];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = mPhaseLatency[i].snapshot();
+        }
+        return new Snapshot(System.nanoTime() - mStartNanos, routes, bytes, statuses, phases,
+                mUpstreamLatency.snapshot());
+    }
+
+    /**
+     * Append nanoseconds as milliseconds, with three decimals.
+     *
+     * @param text  Text to append to.
+     * @param nanos Nanoseconds.
+     * @return Text.
+     */
+    private static StringBuilder appendMillis(StringBuilder text, long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+        final long fraction = micros % 1000;
+        text.append(micros / 1000).append('.');
+        if (fraction < 100) {
+            text.append('0');
+        }
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction);
+    }
+
+    /**
+     * Request in progress on a thread, reused across requests.
+     */
+    private static class Sample {
+        private final long[] phases = new long[Phase.values().length];
+        private boolean active;
+        private Route route;
+    }
+
+    /**
+     * Recorded metrics at a point in time.
+     */
+    public static class Snapshot {
+        private final long elapsedNanos;
+        private final SSHistogram.Snapshot[] routes;
+        private final long[] routeBytes;
+        private final SSHistogram.Snapshot[] statuses;
+        private final SSHistogram.Snapshot[] phases;
+        private final SSHistogram.Snapshot upstream;
+
+        /**
+         * Constructor
+         *
+         * @param elapsedNanos Time since metrics started.
+         * @param routes       Latency per route.
+         * @param routeBytes   Bytes sent per route.
+         * @param statuses     Latency per status class.
+         * @param phases       Latency per request phase.
+         * @param upstream     Upstream latency.
+         */
+        private Snapshot(long elapsedNanos, SSHistogram.Snapshot[] routes, long[] routeBytes,
+                         SSHistogram.Snapshot[] statuses, SSHistogram.Snapshot[] phases,
+                         SSHistogram.Snapshot upstream) {
+            this.elapsedNanos = elapsedNanos;
+            this.routes = routes;
+            this.routeBytes = routeBytes;
+            this.statuses = statuses;
+            this.phases = phases;
+            this.upstream = upstream;
+        }
+
+        /**
+         * Get time since metrics started, or were reset.
+         *
+         * @return Elapsed nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Get latency of a route, in microseconds.
+         *
+         * @param route Route class.
+         * @return Latency histogram.
+         */
+        public SSHistogram.Snapshot getLatency(Route route) {
+            return routes[route.ordinal()];
+        }
+
+        /**
+         * Get response body bytes sent for a route.
+         *
+         * @param route Route class.
+         * @return Byte count.
+         */
+        public long getBytes(Route route) {
+            return routeBytes[route.ordinal()];
+        }
+
+        /**
+         * Get latency of a status class, in microseconds.
+         *
+         * @param statusClass Status class, 1 to 5.
+         * @return Latency histogram.
+         */
+        public SSHistogram.Snapshot getStatusLatency(int statusClass) {
+            return statuses[statusClass - 1];
+        }
+
+        /**
+         * Get latency of a request phase, in microseconds.
+         *
+         * @param phase Request phase.
+         * @return Latency histogram.
+         */
+        public SSHistogram.Snapshot getPhaseLatency(Phase phase) {
+            return phases[phase.ordinal()];
+        }
+
+        /**
+         * Get latency of origin server requests until response headers, in microseconds.
+         *
+         * @return Latency histogram.
+         */
+        public SSHistogram.Snapshot getUpstreamLatency() {
+            return upstream;
+        }
+
+        /**
+         * Get number of requests, of all routes.
+         *
+         * @return Request count.
+         */
+        public long getRequestCount() {
+            long count = 0;
+            for (SSHistogram.Snapshot route : routes) {
+                count += route.getCount();
+            }
+            return count;
+        }
+
+        /**
+         * Get response body bytes sent, for all routes.
+         *
+         * @return Byte count.
+         */
+        public long getTotalBytes() {
+            long bytes = 0;
+            for (long b : routeBytes) {
+                bytes += b;
+            }
+            return bytes;
+        }
+
+        /**
+         * Get fraction of cacheable requests served from cache.
+         *
+         * @return Hit ratio, 0 to 1. 0 if no cacheable requests.
+         */
+        public double getCacheHitRatio() {
+            final long hits = getLatency(Route.CACHE_HIT).getCount();
+            final long lookups = hits + getLatency(Route.CACHE_MISS).getCount();
+            return lookups > 0 ? (double) hits / lookups : 0;
+        }
+    }
+}
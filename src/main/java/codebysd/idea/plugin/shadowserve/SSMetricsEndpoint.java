@@ -0,0 +1,321 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Serves server metrics for scraping, on a reserved path of the local server.
+ * <p>
+ * Metrics are rendered in Prometheus text format, or as JSON when requested with query "format=json" or an Accept
+ * header of "application/json". They cover requests per route (latency buckets, count, bytes), responses per status
+ * class, request phases (latency buckets of queue wait, shadow and cache lookup, upstream connect and first byte),
+ * upstream requests (latency buckets, in flight, errors), the response cache (bytes, entries, hits, misses,
+ * evictions), the request thread pool (queued requests, active and started threads) and the shared copy buffer
+ * pool (acquired buffers, pool hits, copied bytes, counted since IDE start). Latency buckets are
+ * cumulative counts at fixed bounds from 1 ms to 10 s, within histogram precision.
+ * <p>
+ * Rendering reads live counters without snapshots, into a text buffer and a byte buffer reused across scrapes, so
+ * a scrape costs no allocation per metric. Scrapes are served one at a time.
+ */
+public class SSMetricsEndpoint implements HttpHandler {
+    private static final long[] BOUNDS_MICROS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000};
+    private static final String[] BOUND_LABELS = {
+            "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "+Inf"};
+    private static final SSMetrics.Route[] ROUTES = SSMetrics.Route.values();
+    private static final String[] ROUTE_LABELS = new String[ROUTES.length];
+    private static final SSMetrics.Phase[] PHASES = SSMetrics.Phase.values();
+    private static final String PREFIX = "shadowserve_";
+
+    static {
+        for (int i = 0; i < ROUTES.length; i++) {
+            ROUTE_LABELS[i] = ROUTES[i].name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final SSMetrics mMetrics;
+    private final SSCache mCache;
+    private final SSLocalServer mServer;
+    private final StringBuilder mText = new StringBuilder(16 * 1024);
+    private final long[] mCounts = new long[BOUNDS_MICROS.length + 1];
+    private byte[] mBytes = new byte[16 * 1024];
+
+    /**
+     * Constructor
+     *
+     * @param metrics Request metrics.
+     * @param cache   Optional response cache.
+     * @param server  Local server, for request thread pool metrics.
+     */
+    public SSMetricsEndpoint(SSMetrics metrics, @Nullable SSCache cache, SSLocalServer server) {
+        mMetrics = metrics;
+        mCache = cache;
+        mServer = server;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation renders metrics in the requested format.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            // requested format
+            final String query = exchange.getRequestURI().getRawQuery();
+            final String accept = exchange.getRequestHeaders().getFirst("Accept");
+            final boolean json = (query != null && query.contains("format=json"))
+                    || (accept != null && accept.contains("application/json"));
+            exchange.getResponseHeaders().set("Content-Type", json
+                    ? "application/json; charset=utf-8" : "text/plain; version=0.0.4; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+
+            synchronized (this) {
+                mText.setLength(0);
+                if (json) {
+                    renderJson();
+                } else {
+                    renderText();
+                }
+
+                // text is ASCII, copy it as bytes
+                final int length = mText.length();
+                if (mBytes.length < length) {
+                    mBytes = new byte[Math.max(length, mBytes.length * 2)];
+                }
+                for (int i = 0; i < length; i++) {
+                    mBytes[i] = (byte) mText.charAt(i);
+                }
+
+                if ("HEAD".equalsIgnoreCase(method)) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, length);
+                    exchange.getResponseBody().write(mBytes, 0, length);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Render metrics in Prometheus text format.
+     */
+    private void renderText() {
+        // requests per route
+        header("request_duration_seconds", "histogram", "Request duration, until response is complete.");
+        for (int i = 0; i < ROUTES.length; i++) {
+            histogramText("request_duration_seconds", "route", ROUTE_LABELS[i], mMetrics.getLatency(ROUTES[i]));
+        }
+        header("response_bytes_total", "counter", "Response body bytes sent.");
+        for (int i = 0; i < ROUTES.length; i++) {
+            sampleText("response_bytes_total", "route", ROUTE_LABELS[i]).append(mMetrics.getBytes(ROUTES[i]))
+                    .append('\n');
+        }
+        header("responses_total", "counter", "Responses by status class.");
+        for (int statusClass = 1; statusClass <= SSMetrics.STATUS_CLASSES; statusClass++) {
+            mText.append(PREFIX).append("responses_total{class=\"").append(statusClass).append("xx\"} ")
+                    .append(mMetrics.getStatusCount(statusClass)).append('\n');
+        }
+
+        // phases of requests
+        header("phase_duration_seconds", "histogram", "Time spent in a phase, by requests that went through it.");
+        for (SSMetrics.Phase phase : PHASES) {
+            histogramText("phase_duration_seconds", "phase", phase.getName(), mMetrics.getPhaseLatency(phase));
+        }
+
+        // upstream
+        header("upstream_duration_seconds", "histogram", "Origin server request duration, until response headers.");
+        histogramText("upstream_duration_seconds", null, null, mMetrics.getUpstreamLatency());
+        header("upstream_in_flight", "gauge", "Origin server requests in progress.");
+        sampleText("upstream_in_flight", null, null).append(mMetrics.getUpstreamInFlight()).append('\n');
+        header("upstream_errors_total", "counter", "Failed origin server requests.");
+        sampleText("upstream_errors_total", null, null).append(mMetrics.getUpstreamErrors()).append('\n');
+
+        // cache
+        if (mCache != null) {
+            header("cache_bytes", "gauge", "Bytes held by cache in memory.");
+            sampleText("cache_bytes", null, null).append(mCache.getSize()).append('\n');
+            header("cache_entries", "gauge", "Cache entries in memory.");
+            sampleText("cache_entries", null, null).append(mCache.getEntryCount()).append('\n');
+            header("cache_hits_total", "counter", "Cache lookups that found an entry.");
+            sampleText("cache_hits_total", null, null).append(mCache.getHitCount()).append('\n');
+            header("cache_misses_total", "counter", "Cache lookups that found no entry.");
+            sampleText("cache_misses_total", null, null).append(mCache.getMissCount()).append('\n');
+            header("cache_evictions_total", "counter", "Entries evicted from cache memory.");
+            sampleText("cache_evictions_total", null, null).append(mCache.getEvictionCount()).append('\n');
+        }
+
+        // request threads
+        header("executor_queue_depth", "gauge", "Requests waiting for a request thread.");
+        sampleText("executor_queue_depth", null, null).append(mServer.getQueuedRequestCount()).append('\n');
+        header("executor_active_threads", "gauge", "Request threads handling requests.");
+        sampleText("executor_active_threads", null, null).append(mServer.getActiveThreadCount()).append('\n');
+        header("executor_threads", "gauge", "Request threads started.");
+        sampleText("executor_threads", null, null).append(mServer.getThreadCount()).append('\n');
+
+        // copy buffers
+        final SSBufferPool pool = SSBufferPool.shared();
+        header("buffer_acquires_total", "counter", "Copy buffers acquired.");
+        sampleText("buffer_acquires_total", null, null).append(pool.getAcquireCount()).append('\n');
+        header("buffer_pool_hits_total", "counter", "Copy buffers acquired from pool, without allocation.");
+        sampleText("buffer_pool_hits_total", null, null).append(pool.getHitCount()).append('\n');
+        header("copied_bytes_total", "counter", "Body bytes copied through pooled buffers.");
+        sampleText("copied_bytes_total", null, null).append(pool.getCopiedBytes()).append('\n');
+    }
+
+    /**
+     * Render metrics as a JSON document.
+     */
+    private void renderJson() {
+        mText.append("{\"requests\":{");
+        for (int i = 0; i < ROUTES.length; i++) {
+            if (i > 0) {
+                mText.append(',');
+            }
+            mText.append('"').append(ROUTE_LABELS[i]).append("\":{\"bytes\":").append(mMetrics.getBytes(ROUTES[i]))
+                    .append(',');
+            histogramJson(mMetrics.getLatency(ROUTES[i]));
+            mText.append('}');
+        }
+
+        mText.append("},\"responses\":{");
+        for (int statusClass = 1; statusClass <= SSMetrics.STATUS_CLASSES; statusClass++) {
+            if (statusClass > 1) {
+                mText.append(',');
+            }
+            mText.append('"').append(statusClass).append("xx\":").append(mMetrics.getStatusCount(statusClass));
+        }
+
+        mText.append("},\"phases\":{");
+        for (int i = 0; i < PHASES.length; i++) {
+            if (i > 0) {
+                mText.append(',');
+            }
+            mText.append('"').append(PHASES[i].getName()).append("\":{");
+            histogramJson(mMetrics.getPhaseLatency(PHASES[i]));
+            mText.append('}');
+        }
+
+        mText.append("},\"upstream\":{\"in_flight\":").append(mMetrics.getUpstreamInFlight())
+                .append(",\"errors\":").append(mMetrics.getUpstreamErrors()).append(',');
+        histogramJson(mMetrics.getUpstreamLatency());
+
+        mText.append("},\"cache\":");
+        if (mCache != null) {
+            mText.append("{\"bytes\":").append(mCache.getSize())
+                    .append(",\"entries\":").append(mCache.getEntryCount())
+                    .append(",\"hits\":").append(mCache.getHitCount())
+                    .append(",\"misses\":").append(mCache.getMissCount())
+                    .append(",\"evictions\":").append(mCache.getEvictionCount()).append('}');
+        } else {
+            mText.append("null");
+        }
+
+        mText.append(",\"executor\":{\"queue_depth\":").append(mServer.getQueuedRequestCount())
+                .append(",\"active_threads\":").append(mServer.getActiveThreadCount())
+                .append(",\"threads\":").append(mServer.getThreadCount()).append('}');
+
+        final SSBufferPool pool = SSBufferPool.shared();
+        mText.append(",\"buffers\":{\"acquires\":").append(pool.getAcquireCount())
+                .append(",\"pool_hits\":").append(pool.getHitCount())
+                .append(",\"hit_ratio\":").append(pool.getHitRatio())
+                .append(",\"copied_bytes\":").append(pool.getCopiedBytes()).append("}}");
+    }
+
+    /**
+     * Append help and type lines of a metric.
+     *
+     * @param name Metric name, without prefix.
+     * @param type Metric type.
+     * @param help Description.
+     */
+    private void header(String name, String type, String help) {
+        mText.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        mText.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append start of a sample line, up to the value.
+     *
+     * @param name       Metric name, without prefix.
+     * @param labelName  Optional label name.
+     * @param labelValue Label value, if label name is given.
+     * @return Text buffer.
+     */
+    private StringBuilder sampleText(String name, @Nullable String labelName, @Nullable String labelValue) {
+        return sampleText(name, "", labelName, labelValue);
+    }
+
+    /**
+     * Append start of a sample line with a name suffix, up to the value.
+     *
+     * @param name       Metric name, without prefix.
+     * @param suffix     Metric name suffix, like "_sum".
+     * @param labelName  Optional label name.
+     * @param labelValue Label value, if label name is given.
+     * @return Text buffer.
+     */
+    private StringBuilder sampleText(String name, String suffix, @Nullable String labelName,
+                                     @Nullable String labelValue) {
+        mText.append(PREFIX).append(name).append(suffix);
+        if (labelName != null) {
+            mText.append('{').append(labelName).append("=\"").append(labelValue).append("\"}");
+        }
+        return mText.append(' ');
+    }
+
+    /**
+     * Append sample lines of a histogram, in seconds.
+     *
+     * @param name       Metric name, without prefix.
+     * @param labelName  Optional label name.
+     * @param labelValue Optional label value.
+     * @param histogram  Latency histogram, in microseconds.
+     */
+    private void histogramText(String name, @Nullable String labelName, @Nullable String labelValue,
+                               SSHistogram histogram) {
+        histogram.countAtOrBelow(BOUNDS_MICROS, mCounts);
+        for (int i = 0; i < BOUND_LABELS.length; i++) {
+            mText.append(PREFIX).append(name).append("_bucket{");
+            if (labelName != null) {
+                mText.append(labelName).append("=\"").append(labelValue).append("\",");
+            }
+            mText.append("le=\"").append(BOUND_LABELS[i]).append("\"} ").append(mCounts[i]).append('\n');
+        }
+        sampleText(name, "_sum", labelName, labelValue).append(histogram.getSum() / 1e6).append('\n');
+        sampleText(name, "_count", labelName, labelValue).append(mCounts[BOUNDS_MICROS.length]).append('\n');
+    }
+
+    /**
+     * Append count, sum and buckets of a histogram as JSON members, in seconds.
+     *
+     * @param histogram Latency histogram, in microseconds.
+     */
+    private void histogramJson(SSHistogram histogram) {
+        histogram.countAtOrBelow(BOUNDS_MICROS, mCounts);
+        mText.append("\"count\":").append(mCounts[BOUNDS_MICROS.length])
+                .append(",\"sum_seconds\":").append(histogram.getSum() / 1e6)
+                .append(",\"buckets\":{");
+        for (int i = 0; i < BOUND_LABELS.length; i++) {
+            if (i > 0) {
+                mText.append(',');
+            }
+            mText.append('"').append(BOUND_LABELS[i]).append("\":").append(mCounts[i]);
+        }
+        mText.append('}');
+    }
+}
@@ -0,0 +1,104 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records metrics of every request passing through, timing it until the response is complete and counting response
+ * body bytes. Later filters and the handler tag the route of the request, and record time of its phases.
+ * <p>
+ * With server timing, the phases are sent to the browser in a Server-Timing response header, so they show in the
+ * network timing of developer tools. Each request is also a flight recorder event, enclosing events of its stages.
+ */
+public class SSMetricsFilter extends Filter {
+    private final SSMetrics mMetrics;
+    private final boolean mServerTiming;
+
+    /**
+     * Constructor
+     *
+     * @param metrics      Request metrics.
+     * @param serverTiming True to add a Server-Timing header to responses.
+     */
+    public SSMetricsFilter(SSMetrics metrics, boolean serverTiming) {
+        mMetrics = metrics;
+        mServerTiming = serverTiming;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Times request and counts response bytes.
+     */
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        final CountingOutputStream body = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(null, body);
+
+        final SSEvents.Exchange event = new SSEvents.Exchange();
+        event.begin();
+        mMetrics.begin();
+        mMetrics.phase(SSMetrics.Phase.QUEUE, SSLocalServer.getQueueWaitNanos());
+        final long start = System.nanoTime();
+        try {
+            chain.doFilter(mServerTiming ? new SSTimingExchange(exchange, mMetrics, start) : exchange);
+        } finally {
+            mMetrics.end(exchange.getResponseCode(), body.count, System.nanoTime() - start);
+
+            // flight recorder event, if recording
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = exchange.getRequestMethod();
+                event.path = exchange.getRequestURI().getPath();
+                event.status = exchange.getResponseCode();
+                event.bytes = body.count;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String description() {
+        return "Records request metrics";
+    }
+
+    /**
+     * Output stream counting written bytes. Used by a single request thread.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        /**
+         * Constructor
+         *
+         * @param out Stream to write to.
+         */
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
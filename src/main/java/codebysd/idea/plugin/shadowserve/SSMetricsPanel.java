@@ -0,0 +1,225 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.Locale;
+
+/**
+ * Panel of the metrics tool window. Shows latency percentiles, throughput and bytes per route, status class and for
+ * upstream requests, refreshed at a fixed interval while shown.
+ */
+public class SSMetricsPanel extends JPanel implements Disposable {
+    private static final SSMetrics.Route[] ROUTES = SSMetrics.Route.values();
+    private static final String[] ROUTE_NAMES = {
+            SSBundle.message("row_metrics_shadowed"),
+            SSBundle.message("row_metrics_cache_hit"),
+            SSBundle.message("row_metrics_cache_miss"),
+            SSBundle.message("row_metrics_proxied"),
+            SSBundle.message("row_metrics_replayed")};
+    private static final String[] COLUMNS = {
+            SSBundle.message("col_metrics_name"),
+            SSBundle.message("col_metrics_requests"),
+            SSBundle.message("col_metrics_rate"),
+            SSBundle.message("col_metrics_bytes"),
+            SSBundle.message("col_metrics_p50"),
+            SSBundle.message("col_metrics_p99"),
+            SSBundle.message("col_metrics_max")};
+    private static final int ROWS = ROUTES.length + SSMetrics.STATUS_CLASSES + 1;
+
+    private final SSMetricsService mService;
+    private final JLabel mSummary = new JLabel();
+    private final MetricsModel mModel = new MetricsModel();
+    private final Timer mTimer;
+    private SSMetrics mMetrics;
+    private SSMetrics.Snapshot mPrevious;
+
+    /**
+     * Constructor. Starts refreshing.
+     *
+     * @param service Metrics service of the project.
+     */
+    public SSMetricsPanel(SSMetricsService service) {
+        super(new BorderLayout());
+        mService = service;
+
+        // summary line and reset button
+        final JButton reset = new JButton(SSBundle.message("act_metrics_reset"));
+        reset.addActionListener(e -> {
+            mService.getMetrics().reset();
+            mPrevious = null;
+            refresh();
+        });
+        final JPanel top = new JPanel(new BorderLayout());
+        top.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        top.add(mSummary, BorderLayout.CENTER);
+        top.add(reset, BorderLayout.EAST);
+        add(top, BorderLayout.NORTH);
+
+        // table of rows
+        final JBTable table = new JBTable(mModel);
+        table.setAutoCreateRowSorter(false);
+        add(new JBScrollPane(table), BorderLayout.CENTER);
+
+        mTimer = new Timer(SSConstants.Defaults.METRICS_REFRESH_MS, e -> refresh());
+        mTimer.start();
+        refresh();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Stops refreshing.
+     */
+    @Override
+    public void dispose() {
+        mTimer.stop();
+    }
+
+    /**
+     * Take a metrics snapshot and show it.
+     */
+    private void refresh() {
+        // a new server run starts with new metrics
+        final SSMetrics metrics = mService.getMetrics();
+        if (metrics != mMetrics) {
+            mMetrics = metrics;
+            mPrevious = null;
+        }
+
+        final SSMetrics.Snapshot snapshot = metrics.snapshot();
+        final SSMetrics.Snapshot previous = mPrevious;
+        mPrevious = snapshot;
+
+        // rates over the refresh interval, or since start at first
+        final double seconds = (previous != null
+                ? snapshot.getElapsedNanos() - previous.getElapsedNanos() : snapshot.getElapsedNanos()) / 1e9;
+        final Object[][] rows = new Object[ROWS][];
+        int row = 0;
+        for (int i = 0; i < ROUTES.length; i++) {
+            final SSHistogram.Snapshot latency = snapshot.getLatency(ROUTES[i]);
+            final long before = previous != null ? previous.getLatency(ROUTES[i]).getCount() : 0;
+            rows[row++] = row(ROUTE_NAMES[i], latency, rate(latency.getCount() - before, seconds),
+                    formatBytes(snapshot.getBytes(ROUTES[i])));
+        }
+        for (int statusClass = 1; statusClass <= SSMetrics.STATUS_CLASSES; statusClass++) {
+            final SSHistogram.Snapshot latency = snapshot.getStatusLatency(statusClass);
+            final long before = previous != null ? previous.getStatusLatency(statusClass).getCount() : 0;
+            rows[row++] = row(statusClass + "xx", latency, rate(latency.getCount() - before, seconds), "");
+        }
+        final SSHistogram.Snapshot upstream = snapshot.getUpstreamLatency();
+        final long before = previous != null ? previous.getUpstreamLatency().getCount() : 0;
+        rows[row] = row(SSBundle.message("row_metrics_upstream"), upstream,
+                rate(upstream.getCount() - before, seconds), "");
+        mModel.setRows(rows);
+
+        // summary of all requests
+        final long requests = snapshot.getRequestCount();
+        final long requestsBefore = previous != null ? previous.getRequestCount() : 0;
+        mSummary.setText(SSBundle.message("msg_metrics_summary", Long.toString(requests),
+                rate(requests - requestsBefore, seconds), formatBytes(snapshot.getTotalBytes()),
+                String.format(Locale.ROOT, "%.1f%%", snapshot.getCacheHitRatio() * 100),
+                formatMillis(upstream.getValueAt(50))));
+    }
+
+    /**
+     * Build a table row.
+     *
+     * @param name    Row name.
+     * @param latency Latency histogram, in microseconds.
+     * @param rate    Formatted rate.
+     * @param bytes   Formatted bytes.
+     * @return Row values.
+     */
+    private static Object[] row(String name, SSHistogram.Snapshot latency, String rate, String bytes) {
+        return new Object[]{name, latency.getCount(), rate, bytes, formatMillis(latency.getValueAt(50)),
+                formatMillis(latency.getValueAt(99)), formatMillis(latency.getMax())};
+    }
+
+    /**
+     * Format a rate per second.
+     *
+     * @param count   Count in interval.
+     * @param seconds Interval seconds.
+     * @return Formatted rate.
+     */
+    private static String rate(long count, double seconds) {
+        return String.format(Locale.ROOT, "%.1f", seconds > 0 ? count / seconds : 0);
+    }
+
+    /**
+     * Format microseconds as milliseconds.
+     *
+     * @param micros Microseconds.
+     * @return Formatted milliseconds.
+     */
+    private static String formatMillis(long micros) {
+        return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+    }
+
+    /**
+     * Format a byte count with a binary unit.
+     *
+     * @param bytes Byte count.
+     * @return Formatted size.
+     */
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        final int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ROOT, "%.1f %siB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+
+    /**
+     * Table model of metrics rows.
+     */
+    private static class MetricsModel extends AbstractTableModel {
+        private Object[][] rows = new Object[0][];
+
+        /**
+         * Replace rows.
+         *
+         * @param rows New rows.
+         */
+        private void setRows(Object[][] rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getRowCount() {
+            return rows.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            return rows[rowIndex][columnIndex];
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+
+/**
+ * Project service holding request metrics of the latest local server run, for the metrics tool window.
+ */
+public class SSMetricsService {
+    private volatile SSMetrics mMetrics = new SSMetrics();
+
+    /**
+     * Get service of a project.
+     *
+     * @param project Project reference.
+     * @return Metrics service.
+     */
+    public static SSMetricsService getInstance(Project project) {
+        return ServiceManager.getService(project, SSMetricsService.class);
+    }
+
+    /**
+     * Start metrics of a new local server run. The previous run is no longer shown.
+     *
+     * @return New request metrics.
+     */
+    public SSMetrics start() {
+        final SSMetrics metrics = new SSMetrics();
+        mMetrics = metrics;
+        return metrics;
+    }
+
+    /**
+     * Get metrics of the latest local server run.
+     *
+     * @return Request metrics, empty if no server was run.
+     */
+    public SSMetrics getMetrics() {
+        return mMetrics;
+    }
+}
@@ -0,0 +1,27 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Creates the metrics tool window, showing live request metrics of the local server.
+ */
+public class SSMetricsToolWindowFactory implements ToolWindowFactory, DumbAware {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        final SSMetricsPanel panel = new SSMetricsPanel(SSMetricsService.getInstance(project));
+        final Content content = toolWindow.getContentManager().getFactory().createContent(panel, "", false);
+
+        // stop refreshing when closed
+        content.setDisposer(panel);
+        toolWindow.getContentManager().addContent(content);
+    }
+}
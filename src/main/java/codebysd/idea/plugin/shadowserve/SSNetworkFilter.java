@@ -0,0 +1,100 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filters web requests through an emulated network, so responses reach clients with the latency, bandwidth, jitter
+ * and loss of a network profile. Applies to shadowed, cached and proxied responses alike, as all filters and the
+ * handler after this one write to a {@link SSShapedExchange}.
+ * <p>
+ * Responses are paced by a few scheduler threads and written to clients by sender threads, taken only while a write
+ * is in progress. Request threads are not held while a response is throttled, scheduler threads are not held by a
+ * client that stops reading.
+ * Request metrics are taken behind this filter, so they measure the local server without the emulated network.
+ */
+public class SSNetworkFilter extends Filter implements Closeable {
+    private final SSNetworkProfile mProfile;
+    private final long mMaxBuffered;
+    private final ScheduledThreadPoolExecutor mScheduler;
+    private final ThreadPoolExecutor mSender;
+
+    /**
+     * Constructor
+     *
+     * @param mProfile     Emulated network conditions.
+     * @param threads      Number of scheduler threads.
+     * @param mMaxBuffered Largest number of response bytes buffered in memory per exchange, before the rest spills
+     *                     to a temporary file.
+     */
+    public SSNetworkFilter(SSNetworkProfile mProfile, int threads, long mMaxBuffered) {
+        this.mProfile = mProfile;
+        this.mMaxBuffered = mMaxBuffered;
+        mScheduler = new ScheduledThreadPoolExecutor(threads, r -> {
+            final Thread thread = new Thread(r, SSConstants.Plugin.ID + " network emulation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mScheduler.setRemoveOnCancelPolicy(true);
+
+        // a thread per client write in progress, idle threads expire
+        mSender = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            final Thread thread = new Thread(r, SSConstants.Plugin.ID + " network delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * Passes a shaped exchange down the chain. The response is delivered after the chain returns.
+     */
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        // nothing to emulate
+        if (mProfile.isOff()) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        final long requestBytes = Math.max(0, SSUtils.getContentLength(exchange.getRequestHeaders()));
+        final SSShapedExchange shaped = new SSShapedExchange(exchange, mProfile, mScheduler, mSender,
+                mMaxBuffered, requestBytes);
+        try {
+            chain.doFilter(shaped);
+        } catch (IOException | RuntimeException e) {
+            shaped.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String description() {
+        return "Delivers responses through an emulated network";
+    }
+
+    /**
+     * Stop delivering, dropping responses not yet delivered.
+     */
+    @Override
+    public void close() {
+        mScheduler.shutdownNow();
+        mSender.shutdownNow();
+        try {
+            mScheduler.awaitTermination(1, TimeUnit.SECONDS);
+            mSender.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network conditions emulated for clients of the local server: round trip latency of a request, download and upload
+ * bandwidth of a connection, latency jitter and packet loss.
+ * <p>
+ * Presets follow the throttling presets of browser developer tools. A bandwidth of 0 is unlimited.
+ * <p>
+ * Loss is emulated as TCP sees it: a lost segment is sent again after a retransmission timeout, so loss delays a
+ * response instead of failing it.
+ */
+public class SSNetworkProfile {
+    /**
+     * Bytes in a TCP segment, of a typical Ethernet path.
+     */
+    public static final int SEGMENT_SIZE = 1460;
+
+    private static final long MIN_RETRANSMIT_MILLIS = 200;
+
+    /**
+     * No emulation.
+     */
+    public static final SSNetworkProfile OFF = new SSNetworkProfile(Preset.OFF, 0, 0, 0, 0, 0);
+
+    private final Preset mPreset;
+    private final int mLatencyMillis;
+    private final int mDownloadBytes;
+    private final int mUploadBytes;
+    private final int mJitterMillis;
+    private final double mLossPercent;
+
+    /**
+     * Emulation profile presets
+     */
+    public enum Preset {
+        /**
+         * No emulation
+         */
+        OFF(0, 0, 0),
+
+        /**
+         * Slow 3G, as browser developer tools throttle it
+         */
+        SLOW_3G(2000, 50_000, 50_000),
+
+        /**
+         * Fast 3G, as browser developer tools throttle it
+         */
+        FAST_3G(563, 180_000, 84_375),
+
+        /**
+         * Slow 4G, as browser developer tools throttle it
+         */
+        SLOW_4G(165, 1_012_500, 168_750),
+
+        /**
+         * Latency and bandwidth from settings
+         */
+        CUSTOM(0, 0, 0);
+
+        private final int mLatencyMillis;
+        private final int mDownloadBytes;
+        private final int mUploadBytes;
+
+        /**
+         * Constructor
+         *
+         * @param latencyMillis Round trip latency.
+         * @param downloadBytes Download bytes per second.
+         * @param uploadBytes   Upload bytes per second.
+         */
+        Preset(int latencyMillis, int downloadBytes, int uploadBytes) {
+            mLatencyMillis = latencyMillis;
+            mDownloadBytes = downloadBytes;
+            mUploadBytes = uploadBytes;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param preset        Preset the profile is made from.
+     * @param latencyMillis Round trip latency of a request, in milliseconds.
+     * @param downloadBytes Download bytes per second of a connection, 0 for unlimited.
+     * @param uploadBytes   Upload bytes per second of a connection, 0 for unlimited.
+     * @param jitterMillis  Largest random change of latency, either way, in milliseconds.
+     * @param lossPercent   Percentage of TCP segments lost.
+     */
+    public SSNetworkProfile(Preset preset, int latencyMillis, int downloadBytes, int uploadBytes, int jitterMillis,
+                            double lossPercent) {
+        mPreset = preset;
+        mLatencyMillis = latencyMillis;
+        mDownloadBytes = downloadBytes;
+        mUploadBytes = uploadBytes;
+        mJitterMillis = jitterMillis;
+        mLossPercent = lossPercent;
+    }
+
+    /**
+     * Create profile of a preset. Latency and bandwidth are used only with the custom preset.
+     *
+     * @param preset        Emulation preset.
+     * @param latencyMillis Custom round trip latency, in milliseconds.
+     * @param downloadBytes Custom download bytes per second, 0 for unlimited.
+     * @param uploadBytes   Custom upload bytes per second, 0 for unlimited.
+     * @param jitterMillis  Largest random change of latency, either way, in milliseconds.
+     * @param lossPercent   Percentage of TCP segments lost.
+     * @return Emulation profile.
+     */
+    public static SSNetworkProfile of(Preset preset, int latencyMillis, int downloadBytes, int uploadBytes,
+                                      int jitterMillis, double lossPercent) {
+        switch (preset) {
+            case OFF:
+                return OFF;
+            case CUSTOM:
+                return new SSNetworkProfile(preset, latencyMillis, downloadBytes, uploadBytes, jitterMillis,
+                        lossPercent);
+            default:
+                return new SSNetworkProfile(preset, preset.mLatencyMillis, preset.mDownloadBytes,
+                        preset.mUploadBytes, jitterMillis, lossPercent);
+        }
+    }
+
+    /**
+     * Check if nothing is emulated.
+     *
+     * @return True if off.
+     */
+    public boolean isOff() {
+        return mLatencyMillis <= 0 && mDownloadBytes <= 0 && mUploadBytes <= 0 && mJitterMillis <= 0
+                && mLossPercent <= 0;
+    }
+
+    /**
+     * Get preset the profile is made from.
+     *
+     * @return Emulation preset.
+     */
+    public Preset getPreset() {
+        return mPreset;
+    }
+
+    /**
+     * Get round trip latency of a request.
+     *
+     * @return Latency in milliseconds.
+     */
+    public int getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    /**
+     * Get download bandwidth of a connection.
+     *
+     * @return Bytes per second, 0 for unlimited.
+     */
+    public int getDownloadBytes() {
+        return mDownloadBytes;
+    }
+
+    /**
+     * Get upload bandwidth of a connection.
+     *
+     * @return Bytes per second, 0 for unlimited.
+     */
+    public int getUploadBytes() {
+        return mUploadBytes;
+    }
+
+    /**
+     * Get largest random change of latency.
+     *
+     * @return Jitter in milliseconds.
+     */
+    public int getJitterMillis() {
+        return mJitterMillis;
+    }
+
+    /**
+     * Get percentage of TCP segments lost.
+     *
+     * @return Loss percentage.
+     */
+    public double getLossPercent() {
+        return mLossPercent;
+    }
+
+    /**
+     * Pick delay until the first response byte reaches the client: latency with jitter, upload time of the request
+     * body, and retransmission of the request if lost.
+     *
+     * @param requestBytes Request body length, 0 if none or unknown.
+     * @param random       Random source.
+     * @return Delay in nanoseconds.
+     */
+    public long firstByteDelayNanos(long requestBytes, Random random) {
+        long millis = mLatencyMillis;
+        if (mJitterMillis > 0) {
+            millis = Math.max(0, millis + random.nextInt(2 * mJitterMillis + 1) - mJitterMillis);
+        }
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        if (mUploadBytes > 0 && requestBytes > 0) {
+            nanos += TimeUnit.SECONDS.toNanos(requestBytes) / mUploadBytes;
+        }
+        return nanos + lossDelayNanos(requestBytes, random);
+    }
+
+    /**
+     * Pick delay of a chunk of bytes by loss: a retransmission timeout if any of its segments is lost.
+     *
+     * @param bytes  Chunk length.
+     * @param random Random source.
+     * @return Delay in nanoseconds, 0 if not lost.
+     */
+    public long lossDelayNanos(long bytes, Random random) {
+        if (mLossPercent <= 0) {
+            return 0;
+        }
+        final long segments = Math.max(1, (bytes + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        final double delivered = Math.pow(1 - Math.min(mLossPercent, 100) / 100, segments);
+        if (random.nextDouble() < delivered) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(MIN_RETRANSMIT_MILLIS, 2L * mLatencyMillis));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("%s, %d ms latency, %s down, %s up, %d ms jitter, %.1f%% loss",
+                mPreset.name().toLowerCase(), mLatencyMillis, rate(mDownloadBytes), rate(mUploadBytes),
+                mJitterMillis, mLossPercent);
+    }
+
+    /**
+     * Format a bandwidth.
+     *
+     * @param bytes Bytes per second, 0 for unlimited.
+     * @return Bandwidth text.
+     */
+    private static String rate(int bytes) {
+        return bytes > 0 ? (bytes / 1024) + " KB/s" : "unlimited";
+    }
+}
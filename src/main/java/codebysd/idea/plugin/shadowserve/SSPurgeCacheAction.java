@@ -0,0 +1,139 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * IDE action to purge cache entries of the running local server, through its cache admin path.
+ * <p>
+ * The input is a path prefix (like "/app/"), a path glob (like "*.css"), an exact path and query prefixed
+ * with "=" (like "=/app/main.js?v=1"), or a media type prefixed with "type:" (like "type:image/*"). Empty input
+ * purges everything, after confirmation.
+ */
+public class SSPurgeCacheAction extends AnAction implements DumbAware {
+
+    /**
+     * Constructor
+     */
+    public SSPurgeCacheAction() {
+        super(SSBundle.message("act_cache_purge"), SSBundle.message("ttp_cache_purge"), SSIcons.PLUGIN_ICON);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabled(e.getProject() != null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Asks for entries to purge, and purges them in background.
+     */
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        final Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        // entries to purge
+        final String input = Messages.showInputDialog(project, SSBundle.message("msg_cache_purge"),
+                SSBundle.message("act_cache_purge"), SSIcons.PLUGIN_ICON);
+        if (input == null) {
+            return;
+        }
+
+        // everything, only if confirmed
+        if (input.trim().isEmpty() && Messages.showYesNoDialog(project, SSBundle.message("msg_cache_purge_all"),
+                SSBundle.message("act_cache_purge"), Messages.getQuestionIcon()) != Messages.YES) {
+            return;
+        }
+
+        // send request off the UI thread, report on it
+        final SSSettingsStore store = new SSSettingsStore(project);
+        final String host = store.getLocalHost();
+        final int port = store.getLocalPort();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            String message;
+            try {
+                message = SSBundle.message("msg_cache_purged", purge(host, port, input.trim()));
+            } catch (IOException ex) {
+                message = SSBundle.message("msg_cache_purge_failed", ex.getMessage());
+            }
+            final String result = message;
+            ApplicationManager.getApplication().invokeLater(() ->
+                    Messages.showInfoMessage(project, result, SSBundle.message("act_cache_purge")));
+        });
+    }
+
+    /**
+     * Purge cache entries of the local server.
+     *
+     * @param host  Local server host.
+     * @param port  Local server port.
+     * @param input Entries to purge, empty for all.
+     * @return Number of purged entries.
+     * @throws IOException Request error, or server not running.
+     */
+    private static int purge(String host, int port, String input) throws IOException {
+        // query parameter from input syntax
+        final String param;
+        final String value;
+        if (input.startsWith("type:")) {
+            param = "type";
+            value = input.substring(5).trim();
+        } else if (input.startsWith("=")) {
+            param = "key";
+            value = input.substring(1).trim();
+        } else if (SSCachePolicy.globPrefix(input).length() < input.length()) {
+            param = "glob";
+            value = input;
+        } else {
+            param = "prefix";
+            value = input;
+        }
+
+        final URL url = new URL(String.format("http://%s:%d%s?%s=%s", host, port,
+                SSConstants.Defaults.ADMIN_PATH, param, URLEncoder.encode(value, "UTF-8")));
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("DELETE");
+            final int code = connection.getResponseCode();
+            final InputStream stream = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (stream == null) {
+                throw new IOException("HTTP " + code);
+            }
+
+            // purged count, or error message
+            final JsonObject result;
+            try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                result = new Gson().fromJson(reader, JsonObject.class);
+            }
+            if (code >= 400 || result == null || !result.has("purged")) {
+                throw new IOException(result != null && result.has("error")
+                        ? result.get("error").getAsString() : "HTTP " + code);
+            }
+            return result.get("purged").getAsInt();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
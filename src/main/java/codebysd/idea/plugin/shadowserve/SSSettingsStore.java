@@ -1,18 +1,22 @@
 package codebysd.idea.plugin.shadowserve;
 
 import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import java.io.File;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 /**
  * Stores and retrieves plugin settings.
@@ -178,4 +182,837 @@ public class SSSettingsStore {
     public void setCacheResponses(boolean cache) {
         mComponent.setValue(SSConstants.Settings.CACHE_RESPONSES, cache);
     }
+
+    /**
+     * Get if cache is persisted on disk
+     *
+     * @return true if persisted
+     */
+    public boolean isCachePersist() {
+        return mComponent.getBoolean(SSConstants.Settings.CACHE_PERSIST, SSConstants.Defaults.CACHE_PERSIST);
+    }
+
+    /**
+     * Set cache persistence state
+     *
+     * @param persist True to persist
+     */
+    public void setCachePersist(boolean persist) {
+        mComponent.setValue(SSConstants.Settings.CACHE_PERSIST, persist);
+    }
+
+    /**
+     * Get disk cache size
+     *
+     * @return size in Mb
+     */
+    public int getDiskCacheSize() {
+        return mComponent.getInt(SSConstants.Settings.DISK_CACHE_SIZE, SSConstants.Defaults.DISK_CACHE_SIZE);
+    }
+
+    /**
+     * Set disk cache size
+     *
+     * @param size size in Mb
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setDiskCacheSize(String size) throws ConfigurationException {
+        if (SSUtils.isNil(size)) {
+            throw new ConfigurationException("Disk cache size is required.");
+        }
+        int value;
+        try {
+            value = Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Disk cache size must be a number.");
+        }
+
+        // at least two segment files
+        final int min = 2 * SSConstants.Defaults.DISK_SEGMENT_SIZE / (1024 * 1024);
+        if (value < min) {
+            throw new ConfigurationException("Disk cache size must be at least " + min + " Mb.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.DISK_CACHE_SIZE, value, SSConstants.Defaults.DISK_CACHE_SIZE);
+    }
+
+    /**
+     * Get if cached bodies are stored compressed
+     *
+     * @return true if compressed
+     */
+    public boolean isCacheCompress() {
+        return mComponent.getBoolean(SSConstants.Settings.CACHE_COMPRESS, SSConstants.Defaults.CACHE_COMPRESS);
+    }
+
+    /**
+     * Set cache compression state
+     *
+     * @param compress True to compress
+     */
+    public void setCacheCompress(boolean compress) {
+        mComponent.setValue(SSConstants.Settings.CACHE_COMPRESS, compress, SSConstants.Defaults.CACHE_COMPRESS);
+    }
+
+    /**
+     * Get seconds a stale response is served while refreshed in background
+     *
+     * @return stale window in seconds, 0 if off
+     */
+    public int getCacheStaleSeconds() {
+        return mComponent.getInt(SSConstants.Settings.CACHE_STALE, SSConstants.Defaults.CACHE_STALE);
+    }
+
+    /**
+     * Set seconds a stale response is served while refreshed in background
+     *
+     * @param seconds stale window in seconds
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setCacheStaleSeconds(String seconds) throws ConfigurationException {
+        if (SSUtils.isNil(seconds)) {
+            seconds = "0";
+        }
+        int value;
+        try {
+            value = Integer.parseInt(seconds.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Stale window must be a number.");
+        }
+
+        if (value < 0) {
+            throw new ConfigurationException("Stale window must not be negative.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.CACHE_STALE, value, SSConstants.Defaults.CACHE_STALE);
+    }
+
+    /**
+     * Get response status codes that may be cached
+     *
+     * @return Comma separated status codes or ranges
+     */
+    public String getCacheStatusCodes() {
+        return mComponent.getValue(SSConstants.Settings.CACHE_STATUS, SSConstants.Defaults.CACHE_STATUS);
+    }
+
+    /**
+     * Set response status codes that may be cached
+     *
+     * @param codes Comma separated status codes or ranges
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setCacheStatusCodes(String codes) throws ConfigurationException {
+        if (SSUtils.isNil(codes)) {
+            codes = SSConstants.Defaults.CACHE_STATUS;
+        }
+        try {
+            SSUtils.parseStatusCodes(codes);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cached status codes must be HTTP status codes or ranges, like 200-204.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.CACHE_STATUS, codes.trim(), SSConstants.Defaults.CACHE_STATUS);
+    }
+
+    /**
+     * Get largest cached response body size
+     *
+     * @return size in Mb
+     */
+    public int getCacheEntrySize() {
+        return mComponent.getInt(SSConstants.Settings.CACHE_ENTRY_SIZE, SSConstants.Defaults.CACHE_ENTRY_SIZE);
+    }
+
+    /**
+     * Set largest cached response body size
+     *
+     * @param size size in Mb
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setCacheEntrySize(String size) throws ConfigurationException {
+        if (SSUtils.isNil(size)) {
+            throw new ConfigurationException("Largest cached response size is required.");
+        }
+        int value;
+        try {
+            value = Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Largest cached response size must be a number.");
+        }
+
+        if (value <= 0) {
+            throw new ConfigurationException("Largest cached response size must be greater than zero.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.CACHE_ENTRY_SIZE, value, SSConstants.Defaults.CACHE_ENTRY_SIZE);
+    }
+
+    /**
+     * Get memory cache size
+     *
+     * @return size in Mb
+     */
+    public int getCacheSize() {
+        return mComponent.getInt(SSConstants.Settings.CACHE_SIZE, SSConstants.Defaults.CACHE_SIZE);
+    }
+
+    /**
+     * Set memory cache size
+     *
+     * @param size size in Mb
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setCacheSize(String size) throws ConfigurationException {
+        if (SSUtils.isNil(size)) {
+            throw new ConfigurationException("Cache size is required.");
+        }
+        int value;
+        try {
+            value = Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Cache size must be a number.");
+        }
+
+        if (value <= 0) {
+            throw new ConfigurationException("Cache size must be greater than zero.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.CACHE_SIZE, value, SSConstants.Defaults.CACHE_SIZE);
+    }
+
+    /**
+     * Get cache policy rules
+     *
+     * @return Rules, one per line
+     */
+    public String getCacheRules() {
+        return mComponent.getValue(SSConstants.Settings.CACHE_RULES, SSConstants.Defaults.CACHE_RULES);
+    }
+
+    /**
+     * Set cache policy rules
+     *
+     * @param rules Rules, one per line
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setCacheRules(String rules) throws ConfigurationException {
+        if (SSUtils.isNil(rules)) {
+            rules = SSConstants.Defaults.CACHE_RULES;
+        }
+        try {
+            SSCachePolicy.parseRules(rules);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Invalid cache rule. " + e.getMessage());
+        }
+
+        mComponent.setValue(SSConstants.Settings.CACHE_RULES, rules.trim(), SSConstants.Defaults.CACHE_RULES);
+    }
+
+    /**
+     * Get if assets of cached pages are warmed up
+     *
+     * @return true if warmed up
+     */
+    public boolean isCacheWarm() {
+        return mComponent.getBoolean(SSConstants.Settings.CACHE_WARM, SSConstants.Defaults.CACHE_WARM);
+    }
+
+    /**
+     * Set cache warm-up state
+     *
+     * @param warm True to warm up
+     */
+    public void setCacheWarm(boolean warm) {
+        mComponent.setValue(SSConstants.Settings.CACHE_WARM, warm);
+    }
+
+    /**
+     * Get paths warmed up at server start
+     *
+     * @return Paths separated by spaces
+     */
+    public String getCacheWarmPaths() {
+        return mComponent.getValue(SSConstants.Settings.CACHE_WARM_PATHS, SSConstants.Defaults.CACHE_WARM_PATHS);
+    }
+
+    /**
+     * Set paths warmed up at server start
+     *
+     * @param paths Paths separated by commas or spaces
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setCacheWarmPaths(String paths) throws ConfigurationException {
+        final List<String> list;
+        try {
+            list = SSCacheWarmer.parsePaths(paths);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Warm-up paths must start with \"/\", like /index.html.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.CACHE_WARM_PATHS, String.join(" ", list),
+                SSConstants.Defaults.CACHE_WARM_PATHS);
+    }
+
+    /**
+     * Get if origin responses are recorded
+     *
+     * @return true if enabled
+     */
+    public boolean isArchiveRecord() {
+        return mComponent.getBoolean(SSConstants.Settings.ARCHIVE_RECORD, SSConstants.Defaults.ARCHIVE_RECORD);
+    }
+
+    /**
+     * Set archive recording state
+     *
+     * @param record True to record
+     */
+    public void setArchiveRecord(boolean record) {
+        mComponent.setValue(SSConstants.Settings.ARCHIVE_RECORD, record);
+    }
+
+    /**
+     * Get if recorded responses are replayed
+     *
+     * @return true if enabled
+     */
+    public boolean isArchiveReplay() {
+        return mComponent.getBoolean(SSConstants.Settings.ARCHIVE_REPLAY, SSConstants.Defaults.ARCHIVE_REPLAY);
+    }
+
+    /**
+     * Set archive replay state
+     *
+     * @param replay True to replay
+     */
+    public void setArchiveReplay(boolean replay) {
+        mComponent.setValue(SSConstants.Settings.ARCHIVE_REPLAY, replay);
+    }
+
+    /**
+     * Get if requests that were not recorded are sent to origin, when replaying
+     *
+     * @return true if enabled
+     */
+    public boolean isArchiveFallthrough() {
+        return mComponent.getBoolean(SSConstants.Settings.ARCHIVE_FALLTHROUGH,
+                SSConstants.Defaults.ARCHIVE_FALLTHROUGH);
+    }
+
+    /**
+     * Set archive replay fall through state
+     *
+     * @param fallthrough True to fall through
+     */
+    public void setArchiveFallthrough(boolean fallthrough) {
+        mComponent.setValue(SSConstants.Settings.ARCHIVE_FALLTHROUGH, fallthrough,
+                SSConstants.Defaults.ARCHIVE_FALLTHROUGH);
+    }
+
+    /**
+     * Get archive file setting
+     *
+     * @return File path, or empty for default file.
+     */
+    public String getArchiveFile() {
+        return mComponent.getValue(SSConstants.Settings.ARCHIVE_FILE, SSConstants.Defaults.ARCHIVE_FILE);
+    }
+
+    /**
+     * Set archive file setting
+     *
+     * @param file Absolute file path, or empty for default file
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setArchiveFile(String file) throws ConfigurationException {
+        if (SSUtils.isNil(file)) {
+            mComponent.setValue(SSConstants.Settings.ARCHIVE_FILE, SSConstants.Defaults.ARCHIVE_FILE);
+            return;
+        }
+        Path value;
+        try {
+            value = Paths.get(file.trim()).normalize();
+        } catch (InvalidPathException e) {
+            throw new ConfigurationException("Recording file path is invalid.");
+        }
+
+        if (!value.isAbsolute() || Files.isDirectory(value)) {
+            throw new ConfigurationException("Recording file path must be an absolute file path.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.ARCHIVE_FILE, value.toString());
+    }
+
+    /**
+     * Get archive file path. The default file is under IDE system directory, specific to the project and web URL.
+     * A file ending with ".har" is a HAR file.
+     *
+     * @return Archive file path.
+     */
+    public Path getArchivePath() {
+        final String file = getArchiveFile();
+        if (!SSUtils.isNil(file)) {
+            return Paths.get(file);
+        }
+        final String origin = Integer.toHexString(getWebURL().toString().hashCode());
+        return Paths.get(PathManager.getSystemPath(), SSConstants.Defaults.ARCHIVE_DIR,
+                mProject.getLocationHash(), origin + ".ssa");
+    }
+
+    /**
+     * Get console log verbosity
+     *
+     * @return Verbosity, default if setting is invalid.
+     */
+    public SSUILogger.Verbosity getLogVerbosity() {
+        final String value = mComponent.getValue(SSConstants.Settings.LOG_VERBOSITY,
+                SSConstants.Defaults.LOG_VERBOSITY);
+        try {
+            return SSUILogger.Verbosity.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return SSUILogger.Verbosity.valueOf(SSConstants.Defaults.LOG_VERBOSITY);
+        }
+    }
+
+    /**
+     * Set console log verbosity
+     *
+     * @param verbosity Verbosity
+     */
+    public void setLogVerbosity(SSUILogger.Verbosity verbosity) {
+        mComponent.setValue(SSConstants.Settings.LOG_VERBOSITY, verbosity.name(),
+                SSConstants.Defaults.LOG_VERBOSITY);
+    }
+
+    /**
+     * Get if responses carry a Server-Timing header
+     *
+     * @return true if enabled
+     */
+    public boolean isServerTiming() {
+        return mComponent.getBoolean(SSConstants.Settings.SERVER_TIMING, SSConstants.Defaults.SERVER_TIMING);
+    }
+
+    /**
+     * Set Server-Timing header state
+     *
+     * @param serverTiming True to add header
+     */
+    public void setServerTiming(boolean serverTiming) {
+        mComponent.setValue(SSConstants.Settings.SERVER_TIMING, serverTiming);
+    }
+
+    /**
+     * Get address the local server listens on
+     *
+     * @return Host name or IP address
+     */
+    public String getBindAddress() {
+        return mComponent.getValue(SSConstants.Settings.BIND_ADDRESS, SSConstants.Defaults.BIND_ADDRESS);
+    }
+
+    /**
+     * Set address the local server listens on
+     *
+     * @param address Host name or IP address
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setBindAddress(String address) throws ConfigurationException {
+        if (SSUtils.isNil(address)) {
+            address = SSConstants.Defaults.BIND_ADDRESS;
+        }
+        try {
+            InetAddress.getByName(address.trim());
+        } catch (UnknownHostException e) {
+            throw new ConfigurationException("Bind address must be a valid host name or IP address.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.BIND_ADDRESS, address.trim(), SSConstants.Defaults.BIND_ADDRESS);
+    }
+
+    /**
+     * Get host for clients on this machine to reach the local server, in URL form. The loopback address if the
+     * server listens on all addresses.
+     *
+     * @return Host name or IP address, IPv6 addresses in brackets
+     */
+    public String getLocalHost() {
+        final String address = getBindAddress();
+        try {
+            if (InetAddress.getByName(address).isAnyLocalAddress()) {
+                return SSConstants.Defaults.LOCAL_HOST;
+            }
+        } catch (UnknownHostException e) {
+            return SSConstants.Defaults.LOCAL_HOST;
+        }
+        return address.indexOf(':') >= 0 ? "[" + address + "]" : address;
+    }
+
+    /**
+     * Get request thread pool type
+     *
+     * @return Thread pool type, default if setting is invalid.
+     */
+    public SSLocalServer.ExecutorType getServerExecutor() {
+        final String value = mComponent.getValue(SSConstants.Settings.SERVER_EXECUTOR,
+                SSConstants.Defaults.SERVER_EXECUTOR);
+        try {
+            return SSLocalServer.ExecutorType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return SSLocalServer.ExecutorType.valueOf(SSConstants.Defaults.SERVER_EXECUTOR);
+        }
+    }
+
+    /**
+     * Set request thread pool type
+     *
+     * @param type Thread pool type
+     */
+    public void setServerExecutor(SSLocalServer.ExecutorType type) {
+        mComponent.setValue(SSConstants.Settings.SERVER_EXECUTOR, type.name(), SSConstants.Defaults.SERVER_EXECUTOR);
+    }
+
+    /**
+     * Get number of request threads
+     *
+     * @return Thread count
+     */
+    public int getServerThreads() {
+        return mComponent.getInt(SSConstants.Settings.SERVER_THREADS, SSConstants.Defaults.SERVER_THREADS);
+    }
+
+    /**
+     * Set number of request threads
+     *
+     * @param threads Thread count
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setServerThreads(String threads) throws ConfigurationException {
+        if (SSUtils.isNil(threads)) {
+            throw new ConfigurationException("Request thread count is required.");
+        }
+        int value;
+        try {
+            value = Integer.parseInt(threads.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Request thread count must be a number.");
+        }
+
+        if (value < 1 || value > SSConstants.Defaults.MAX_SERVER_THREADS) {
+            throw new ConfigurationException(String.format("Request thread count must be between 1 and %d.",
+                    SSConstants.Defaults.MAX_SERVER_THREADS));
+        }
+
+        mComponent.setValue(SSConstants.Settings.SERVER_THREADS, value, SSConstants.Defaults.SERVER_THREADS);
+    }
+
+    /**
+     * Get connection backlog
+     *
+     * @return Connections waiting to be accepted, 0 for system default
+     */
+    public int getServerBacklog() {
+        return mComponent.getInt(SSConstants.Settings.SERVER_BACKLOG, SSConstants.Defaults.SERVER_BACKLOG);
+    }
+
+    /**
+     * Set connection backlog
+     *
+     * @param backlog Connections waiting to be accepted, 0 for system default
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setServerBacklog(String backlog) throws ConfigurationException {
+        if (SSUtils.isNil(backlog)) {
+            backlog = "0";
+        }
+        int value;
+        try {
+            value = Integer.parseInt(backlog.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Connection backlog must be a number.");
+        }
+
+        if (value < 0) {
+            throw new ConfigurationException("Connection backlog must not be negative.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.SERVER_BACKLOG, value, SSConstants.Defaults.SERVER_BACKLOG);
+    }
+
+    /**
+     * Get copy buffer size for bodies of unknown length
+     *
+     * @return size in Kb
+     */
+    public int getBufferSize() {
+        return mComponent.getInt(SSConstants.Settings.BUFFER_SIZE, SSConstants.Defaults.BUFFER_SIZE);
+    }
+
+    /**
+     * Set copy buffer size for bodies of unknown length
+     *
+     * @param size size in Kb
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setBufferSize(String size) throws ConfigurationException {
+        if (SSUtils.isNil(size)) {
+            throw new ConfigurationException("Copy buffer size is required.");
+        }
+        int value;
+        try {
+            value = Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Copy buffer size must be a number.");
+        }
+
+        final int min = SSBufferPool.minBufferSize() / 1024;
+        final int max = SSBufferPool.maxBufferSize() / 1024;
+        if (value < min || value > max) {
+            throw new ConfigurationException(String.format("Copy buffer size must be between %d and %d.", min, max));
+        }
+
+        mComponent.setValue(SSConstants.Settings.BUFFER_SIZE, value, SSConstants.Defaults.BUFFER_SIZE);
+    }
+
+    /**
+     * Get seconds an idle browser connection is kept open
+     *
+     * @return timeout in seconds
+     */
+    public int getIdleTimeout() {
+        return mComponent.getInt(SSConstants.Settings.IDLE_TIMEOUT, SSConstants.Defaults.IDLE_TIMEOUT);
+    }
+
+    /**
+     * Set seconds an idle browser connection is kept open
+     *
+     * @param seconds timeout in seconds
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setIdleTimeout(String seconds) throws ConfigurationException {
+        if (SSUtils.isNil(seconds)) {
+            throw new ConfigurationException("Idle connection timeout is required.");
+        }
+        int value;
+        try {
+            value = Integer.parseInt(seconds.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Idle connection timeout must be a number.");
+        }
+
+        if (value <= 0) {
+            throw new ConfigurationException("Idle connection timeout must be greater than zero.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.IDLE_TIMEOUT, value, SSConstants.Defaults.IDLE_TIMEOUT);
+    }
+
+    /**
+     * Get if response data is sent without waiting to fill network packets
+     *
+     * @return true if enabled
+     */
+    public boolean isTcpNoDelay() {
+        return mComponent.getBoolean(SSConstants.Settings.TCP_NODELAY, SSConstants.Defaults.TCP_NODELAY);
+    }
+
+    /**
+     * Set TCP no delay state
+     *
+     * @param noDelay True to send without delay
+     */
+    public void setTcpNoDelay(boolean noDelay) {
+        mComponent.setValue(SSConstants.Settings.TCP_NODELAY, noDelay, SSConstants.Defaults.TCP_NODELAY);
+    }
+
+    /**
+     * Get network emulation profile preset
+     *
+     * @return Profile preset, default if setting is invalid.
+     */
+    public SSNetworkProfile.Preset getNetworkPreset() {
+        final String value = mComponent.getValue(SSConstants.Settings.NETWORK_PROFILE,
+                SSConstants.Defaults.NETWORK_PROFILE);
+        try {
+            return SSNetworkProfile.Preset.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return SSNetworkProfile.Preset.valueOf(SSConstants.Defaults.NETWORK_PROFILE);
+        }
+    }
+
+    /**
+     * Set network emulation profile preset
+     *
+     * @param preset Profile preset
+     */
+    public void setNetworkPreset(SSNetworkProfile.Preset preset) {
+        mComponent.setValue(SSConstants.Settings.NETWORK_PROFILE, preset.name(), SSConstants.Defaults.NETWORK_PROFILE);
+    }
+
+    /**
+     * Get custom network latency
+     *
+     * @return latency in milliseconds
+     */
+    public int getNetworkLatency() {
+        return mComponent.getInt(SSConstants.Settings.NETWORK_LATENCY, SSConstants.Defaults.NETWORK_LATENCY);
+    }
+
+    /**
+     * Set custom network latency
+     *
+     * @param latency latency in milliseconds
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setNetworkLatency(String latency) throws ConfigurationException {
+        mComponent.setValue(SSConstants.Settings.NETWORK_LATENCY, parseNetworkValue(latency, "Network latency"),
+                SSConstants.Defaults.NETWORK_LATENCY);
+    }
+
+    /**
+     * Get custom network download bandwidth
+     *
+     * @return bandwidth in Kb per second, 0 for unlimited
+     */
+    public int getNetworkDownload() {
+        return mComponent.getInt(SSConstants.Settings.NETWORK_DOWNLOAD, SSConstants.Defaults.NETWORK_DOWNLOAD);
+    }
+
+    /**
+     * Set custom network download bandwidth
+     *
+     * @param bandwidth bandwidth in Kb per second, 0 for unlimited
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setNetworkDownload(String bandwidth) throws ConfigurationException {
+        mComponent.setValue(SSConstants.Settings.NETWORK_DOWNLOAD, parseNetworkValue(bandwidth, "Download bandwidth"),
+                SSConstants.Defaults.NETWORK_DOWNLOAD);
+    }
+
+    /**
+     * Get custom network upload bandwidth
+     *
+     * @return bandwidth in Kb per second, 0 for unlimited
+     */
+    public int getNetworkUpload() {
+        return mComponent.getInt(SSConstants.Settings.NETWORK_UPLOAD, SSConstants.Defaults.NETWORK_UPLOAD);
+    }
+
+    /**
+     * Set custom network upload bandwidth
+     *
+     * @param bandwidth bandwidth in Kb per second, 0 for unlimited
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setNetworkUpload(String bandwidth) throws ConfigurationException {
+        mComponent.setValue(SSConstants.Settings.NETWORK_UPLOAD, parseNetworkValue(bandwidth, "Upload bandwidth"),
+                SSConstants.Defaults.NETWORK_UPLOAD);
+    }
+
+    /**
+     * Get network latency jitter
+     *
+     * @return jitter in milliseconds
+     */
+    public int getNetworkJitter() {
+        return mComponent.getInt(SSConstants.Settings.NETWORK_JITTER, SSConstants.Defaults.NETWORK_JITTER);
+    }
+
+    /**
+     * Set network latency jitter
+     *
+     * @param jitter jitter in milliseconds
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setNetworkJitter(String jitter) throws ConfigurationException {
+        mComponent.setValue(SSConstants.Settings.NETWORK_JITTER, parseNetworkValue(jitter, "Network jitter"),
+                SSConstants.Defaults.NETWORK_JITTER);
+    }
+
+    /**
+     * Get network packet loss
+     *
+     * @return loss in percent, 0 if setting is invalid
+     */
+    public double getNetworkLoss() {
+        try {
+            return Double.parseDouble(mComponent.getValue(SSConstants.Settings.NETWORK_LOSS,
+                    SSConstants.Defaults.NETWORK_LOSS));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Set network packet loss
+     *
+     * @param loss loss in percent
+     * @throws ConfigurationException Validation or save error
+     */
+    public void setNetworkLoss(String loss) throws ConfigurationException {
+        if (SSUtils.isNil(loss)) {
+            loss = SSConstants.Defaults.NETWORK_LOSS;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(loss.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Packet loss must be a number.");
+        }
+
+        if (!(value >= 0 && value < 100)) {
+            throw new ConfigurationException("Packet loss must be at least 0 and less than 100 percent.");
+        }
+
+        mComponent.setValue(SSConstants.Settings.NETWORK_LOSS, loss.trim(), SSConstants.Defaults.NETWORK_LOSS);
+    }
+
+    /**
+     * Get network emulation profile from preset and custom values
+     *
+     * @return Emulation profile
+     */
+    public SSNetworkProfile getNetworkProfile() {
+        return SSNetworkProfile.of(getNetworkPreset(), getNetworkLatency(), getNetworkDownload() * 1024,
+                getNetworkUpload() * 1024, getNetworkJitter(), getNetworkLoss());
+    }
+
+    /**
+     * Parse a network emulation value, empty for 0.
+     *
+     * @param text Value text.
+     * @param name Value name, for messages.
+     * @return Value, not negative.
+     * @throws ConfigurationException Validation error
+     */
+    private static int parseNetworkValue(String text, String name) throws ConfigurationException {
+        if (SSUtils.isNil(text)) {
+            return 0;
+        }
+        int value;
+        try {
+            value = Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(name + " must be a number.");
+        }
+
+        if (value < 0 || value > SSConstants.Defaults.MAX_NETWORK_VALUE) {
+            throw new ConfigurationException(String.format("%s must be between 0 and %d.", name,
+                    SSConstants.Defaults.MAX_NETWORK_VALUE));
+        }
+        return value;
+    }
+
+    /**
+     * Get disk cache directory, under IDE system directory.
+     * The directory is specific to the project and web URL, as cached responses depend on origin server.
+     *
+     * @return Disk cache directory path.
+     */
+    public Path getCacheDirectory() {
+        final String origin = Integer.toHexString(getWebURL().toString().hashCode());
+        return Paths.get(PathManager.getSystemPath(), SSConstants.Defaults.DISK_CACHE_DIR,
+                mProject.getLocationHash(), origin);
+    }
 }
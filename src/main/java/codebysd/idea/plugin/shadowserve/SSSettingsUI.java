@@ -22,6 +22,35 @@ public class SSSettingsUI {
     private JTextField mTextLocalRoot;
     private JButton mBtnBrowseLocalRoot;
     private JCheckBox mChbCacheResponses;
+    private JCheckBox mChbCachePersist;
+    private JTextField mTextDiskCacheSize;
+    private JTextField mTextCacheStale;
+    private JTextField mTextCacheStatus;
+    private JTextField mTextCacheEntrySize;
+    private JCheckBox mChbCacheCompress;
+    private JTextField mTextCacheSize;
+    private JTextArea mTextCacheRules;
+    private JCheckBox mChbCacheWarm;
+    private JTextField mTextCacheWarmPaths;
+    private JCheckBox mChbArchiveRecord;
+    private JCheckBox mChbArchiveReplay;
+    private JCheckBox mChbArchiveFallthrough;
+    private JTextField mTextArchiveFile;
+    private JComboBox<String> mComboLogVerbosity;
+    private JCheckBox mChbServerTiming;
+    private JCheckBox mChbTcpNoDelay;
+    private JComboBox<String> mComboServerExecutor;
+    private JTextField mTextServerThreads;
+    private JTextField mTextServerBacklog;
+    private JTextField mTextBindAddress;
+    private JTextField mTextBufferSize;
+    private JTextField mTextIdleTimeout;
+    private JComboBox<String> mComboNetworkProfile;
+    private JTextField mTextNetworkLatency;
+    private JTextField mTextNetworkDownload;
+    private JTextField mTextNetworkUpload;
+    private JTextField mTextNetworkJitter;
+    private JTextField mTextNetworkLoss;
 
     /**
      * Constructor
@@ -35,6 +64,46 @@ public class SSSettingsUI {
 
         // handle browse button click
         mBtnBrowseLocalRoot.addActionListener(e -> this.onBtnBrowseClick());
+
+        // cache options apply only with caching on
+        mChbCacheResponses.addItemListener(e -> {
+            mChbCachePersist.setEnabled(mChbCacheResponses.isSelected());
+            mTextDiskCacheSize.setEnabled(mChbCacheResponses.isSelected() && mChbCachePersist.isSelected());
+            mTextCacheStale.setEnabled(mChbCacheResponses.isSelected());
+            mTextCacheStatus.setEnabled(mChbCacheResponses.isSelected());
+            mTextCacheEntrySize.setEnabled(mChbCacheResponses.isSelected());
+            mChbCacheCompress.setEnabled(mChbCacheResponses.isSelected());
+            mTextCacheSize.setEnabled(mChbCacheResponses.isSelected());
+            mTextCacheRules.setEnabled(mChbCacheResponses.isSelected());
+            mChbCacheWarm.setEnabled(mChbCacheResponses.isSelected());
+            mTextCacheWarmPaths.setEnabled(mChbCacheResponses.isSelected());
+        });
+
+        // disk cache size applies only when persisting
+        mChbCachePersist.addItemListener(e -> mTextDiskCacheSize.setEnabled(
+                mChbCacheResponses.isSelected() && mChbCachePersist.isSelected()));
+
+        // verbosity options, in order of SSUILogger.Verbosity
+        mComboLogVerbosity.addItem(SSBundle.message("opt_log_errors"));
+        mComboLogVerbosity.addItem(SSBundle.message("opt_log_system"));
+        mComboLogVerbosity.addItem(SSBundle.message("opt_log_requests"));
+
+        // executor options, in order of SSLocalServer.ExecutorType
+        mComboServerExecutor.addItem(SSBundle.message("opt_executor_work_stealing"));
+        mComboServerExecutor.addItem(SSBundle.message("opt_executor_fixed"));
+
+        // network profile options, in order of SSNetworkProfile.Preset
+        mComboNetworkProfile.addItem(SSBundle.message("opt_network_off"));
+        mComboNetworkProfile.addItem(SSBundle.message("opt_network_slow_3g"));
+        mComboNetworkProfile.addItem(SSBundle.message("opt_network_fast_3g"));
+        mComboNetworkProfile.addItem(SSBundle.message("opt_network_slow_4g"));
+        mComboNetworkProfile.addItem(SSBundle.message("opt_network_custom"));
+
+        // latency and bandwidth apply only to custom profile, jitter and loss to any profile
+        mComboNetworkProfile.addItemListener(e -> updateNetworkFields());
+
+        // fall through applies only when replaying
+        mChbArchiveReplay.addItemListener(e -> mChbArchiveFallthrough.setEnabled(mChbArchiveReplay.isSelected()));
     }
 
     /**
@@ -55,6 +124,47 @@ public class SSSettingsUI {
         mTextOverlayPath.setText(mSettingsStore.getShadowPath());
         mTextLocalRoot.setText(mSettingsStore.getLocalRoot().getCanonicalPath());
         mChbCacheResponses.setSelected(mSettingsStore.isCacheResponses());
+        mChbCachePersist.setSelected(mSettingsStore.isCachePersist());
+        mChbCachePersist.setEnabled(mChbCacheResponses.isSelected());
+        mTextDiskCacheSize.setText(String.valueOf(mSettingsStore.getDiskCacheSize()));
+        mTextDiskCacheSize.setEnabled(mChbCacheResponses.isSelected() && mChbCachePersist.isSelected());
+        mTextCacheStale.setText(String.valueOf(mSettingsStore.getCacheStaleSeconds()));
+        mTextCacheStale.setEnabled(mChbCacheResponses.isSelected());
+        mTextCacheStatus.setText(mSettingsStore.getCacheStatusCodes());
+        mTextCacheStatus.setEnabled(mChbCacheResponses.isSelected());
+        mTextCacheEntrySize.setText(String.valueOf(mSettingsStore.getCacheEntrySize()));
+        mTextCacheEntrySize.setEnabled(mChbCacheResponses.isSelected());
+        mChbCacheCompress.setSelected(mSettingsStore.isCacheCompress());
+        mChbCacheCompress.setEnabled(mChbCacheResponses.isSelected());
+        mTextCacheSize.setText(String.valueOf(mSettingsStore.getCacheSize()));
+        mTextCacheSize.setEnabled(mChbCacheResponses.isSelected());
+        mTextCacheRules.setText(mSettingsStore.getCacheRules());
+        mTextCacheRules.setEnabled(mChbCacheResponses.isSelected());
+        mChbCacheWarm.setSelected(mSettingsStore.isCacheWarm());
+        mChbCacheWarm.setEnabled(mChbCacheResponses.isSelected());
+        mTextCacheWarmPaths.setText(mSettingsStore.getCacheWarmPaths());
+        mTextCacheWarmPaths.setEnabled(mChbCacheResponses.isSelected());
+        mChbArchiveRecord.setSelected(mSettingsStore.isArchiveRecord());
+        mChbArchiveReplay.setSelected(mSettingsStore.isArchiveReplay());
+        mChbArchiveFallthrough.setSelected(mSettingsStore.isArchiveFallthrough());
+        mChbArchiveFallthrough.setEnabled(mChbArchiveReplay.isSelected());
+        mTextArchiveFile.setText(mSettingsStore.getArchiveFile());
+        mComboLogVerbosity.setSelectedIndex(mSettingsStore.getLogVerbosity().ordinal());
+        mChbServerTiming.setSelected(mSettingsStore.isServerTiming());
+        mChbTcpNoDelay.setSelected(mSettingsStore.isTcpNoDelay());
+        mComboServerExecutor.setSelectedIndex(mSettingsStore.getServerExecutor().ordinal());
+        mTextServerThreads.setText(String.valueOf(mSettingsStore.getServerThreads()));
+        mTextServerBacklog.setText(String.valueOf(mSettingsStore.getServerBacklog()));
+        mTextBindAddress.setText(mSettingsStore.getBindAddress());
+        mTextBufferSize.setText(String.valueOf(mSettingsStore.getBufferSize()));
+        mTextIdleTimeout.setText(String.valueOf(mSettingsStore.getIdleTimeout()));
+        mComboNetworkProfile.setSelectedIndex(mSettingsStore.getNetworkPreset().ordinal());
+        mTextNetworkLatency.setText(String.valueOf(mSettingsStore.getNetworkLatency()));
+        mTextNetworkDownload.setText(String.valueOf(mSettingsStore.getNetworkDownload()));
+        mTextNetworkUpload.setText(String.valueOf(mSettingsStore.getNetworkUpload()));
+        mTextNetworkJitter.setText(String.valueOf(mSettingsStore.getNetworkJitter()));
+        mTextNetworkLoss.setText(String.valueOf(mSettingsStore.getNetworkLoss()));
+        updateNetworkFields();
     }
 
     /**
@@ -68,6 +178,51 @@ public class SSSettingsUI {
         mSettingsStore.setShadowPath(mTextOverlayPath.getText());
         mSettingsStore.setLocalRoot(mTextLocalRoot.getText());
         mSettingsStore.setCacheResponses(mChbCacheResponses.isSelected());
+        mSettingsStore.setCachePersist(mChbCachePersist.isSelected());
+        mSettingsStore.setDiskCacheSize(mTextDiskCacheSize.getText());
+        mSettingsStore.setCacheStaleSeconds(mTextCacheStale.getText());
+        mSettingsStore.setCacheStatusCodes(mTextCacheStatus.getText());
+        mSettingsStore.setCacheEntrySize(mTextCacheEntrySize.getText());
+        mSettingsStore.setCacheCompress(mChbCacheCompress.isSelected());
+        mSettingsStore.setCacheSize(mTextCacheSize.getText());
+        mSettingsStore.setCacheRules(mTextCacheRules.getText());
+        mSettingsStore.setCacheWarm(mChbCacheWarm.isSelected());
+        mSettingsStore.setCacheWarmPaths(mTextCacheWarmPaths.getText());
+        mSettingsStore.setArchiveRecord(mChbArchiveRecord.isSelected());
+        mSettingsStore.setArchiveReplay(mChbArchiveReplay.isSelected());
+        mSettingsStore.setArchiveFallthrough(mChbArchiveFallthrough.isSelected());
+        mSettingsStore.setArchiveFile(mTextArchiveFile.getText());
+        mSettingsStore.setLogVerbosity(SSUILogger.Verbosity.values()[mComboLogVerbosity.getSelectedIndex()]);
+        mSettingsStore.setServerTiming(mChbServerTiming.isSelected());
+        mSettingsStore.setTcpNoDelay(mChbTcpNoDelay.isSelected());
+        mSettingsStore.setServerExecutor(
+                SSLocalServer.ExecutorType.values()[mComboServerExecutor.getSelectedIndex()]);
+        mSettingsStore.setServerThreads(mTextServerThreads.getText());
+        mSettingsStore.setServerBacklog(mTextServerBacklog.getText());
+        mSettingsStore.setBindAddress(mTextBindAddress.getText());
+        mSettingsStore.setBufferSize(mTextBufferSize.getText());
+        mSettingsStore.setIdleTimeout(mTextIdleTimeout.getText());
+        mSettingsStore.setNetworkPreset(
+                SSNetworkProfile.Preset.values()[mComboNetworkProfile.getSelectedIndex()]);
+        mSettingsStore.setNetworkLatency(mTextNetworkLatency.getText());
+        mSettingsStore.setNetworkDownload(mTextNetworkDownload.getText());
+        mSettingsStore.setNetworkUpload(mTextNetworkUpload.getText());
+        mSettingsStore.setNetworkJitter(mTextNetworkJitter.getText());
+        mSettingsStore.setNetworkLoss(mTextNetworkLoss.getText());
+    }
+
+    /**
+     * Enable network emulation fields that apply to the selected profile.
+     */
+    private void updateNetworkFields() {
+        final int selected = mComboNetworkProfile.getSelectedIndex();
+        final boolean custom = selected == SSNetworkProfile.Preset.CUSTOM.ordinal();
+        final boolean on = selected != SSNetworkProfile.Preset.OFF.ordinal();
+        mTextNetworkLatency.setEnabled(custom);
+        mTextNetworkDownload.setEnabled(custom);
+        mTextNetworkUpload.setEnabled(custom);
+        mTextNetworkJitter.setEnabled(on);
+        mTextNetworkLoss.setEnabled(on);
     }
 
     /**
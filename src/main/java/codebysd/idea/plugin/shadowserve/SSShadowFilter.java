@@ -17,6 +17,7 @@ public class SSShadowFilter extends Filter {
     private final String mShadowPath;
     private final VirtualFile mLocalRoot;
     private final String mIndexFileName;
+    private final SSMetrics mMetrics;
     private final SSUILogger mUILogger;
 
     /**
@@ -25,12 +26,15 @@ public class SSShadowFilter extends Filter {
      * @param shadowPath    Web resources path to shadow, i.e. serve from local files.
      * @param localRoot     Local files root directory.
      * @param indexFileName Optional, name of the index file if path resolves to a directory.
+     * @param metrics       Request metrics.
      * @param uiLogger      UI logger.
      */
-    public SSShadowFilter(String shadowPath, VirtualFile localRoot, @Nullable String indexFileName, SSUILogger uiLogger) {
+    public SSShadowFilter(String shadowPath, VirtualFile localRoot, @Nullable String indexFileName, SSMetrics metrics,
+                          SSUILogger uiLogger) {
         mShadowPath = shadowPath;
         mLocalRoot = localRoot;
         mIndexFileName = indexFileName;
+        mMetrics = metrics;
         mUILogger = uiLogger;
         mFileTypeMap = new MimetypesFileTypeMap();
 
@@ -46,16 +50,19 @@ public class SSShadowFilter extends Filter {
     /**
      * Locate a local file for th given path.
      *
-     * @param path path inside local root directory
+     * @param path request path
+     * @param from index in request path where the path inside local root directory starts
      * @return Local file if resolved, or null.
      */
-    private VirtualFile locateFile(String path) {
-        // find relative file
+    private VirtualFile locateFile(String path, int from) {
+        // find relative file, the file system takes a string for anything below root
         VirtualFile file;
-        if (SSUtils.isNil(path) || "/".equals(path) || ".".equals(path)) {
+        final int length = path.length() - from;
+        if (SSUtils.isNil(path, from, path.length())
+                || (length == 1 && (path.charAt(from) == '/' || path.charAt(from) == '.'))) {
             file = mLocalRoot;
         } else {
-            file = mLocalRoot.findFileByRelativePath(path);
+            file = mLocalRoot.findFileByRelativePath(path.substring(from));
         }
 
         // file must exist
@@ -92,11 +99,18 @@ public class SSShadowFilter extends Filter {
             return;
         }
 
-        // sub path
-        final String subPath = path.substring(mShadowPath.length());
-
         // locate file in sub path
-        final VirtualFile file = locateFile(subPath);
+        final SSEvents.ShadowLookup lookup = new SSEvents.ShadowLookup();
+        lookup.begin();
+        final long start = System.nanoTime();
+        final VirtualFile file = locateFile(path, mShadowPath.length());
+        mMetrics.phase(SSMetrics.Phase.SHADOW, System.nanoTime() - start);
+        lookup.end();
+        if (lookup.shouldCommit()) {
+            lookup.path = path;
+            lookup.found = file != null;
+            lookup.commit();
+        }
 
         // file not found
         if (file == null) {
@@ -105,7 +119,10 @@ public class SSShadowFilter extends Filter {
         }
 
         // Log
-        mUILogger.logStdOut("Shadowing\t%s\t⟶\t%s", exchange.getRequestURI().getPath(), file.getCanonicalPath());
+        mMetrics.route(SSMetrics.Route.SHADOWED);
+        if (mUILogger.isRequestLogged()) {
+            mUILogger.logStdOut("Shadowing\t%s\t⟶\t%s", exchange.getRequestURI().getPath(), file.getCanonicalPath());
+        }
 
         // add file specific headers
         exchange.getResponseHeaders().add("Content-Type", mFileTypeMap.getContentType(file.getName()));
@@ -115,11 +132,21 @@ public class SSShadowFilter extends Filter {
         exchange.getResponseHeaders().add("Cache-Control", "no-cache");
 
         // write file content
+        final SSEvents.ShadowServe serve = new SSEvents.ShadowServe();
+        serve.begin();
+        long bytes = 0;
         exchange.sendResponseHeaders(200, 0);
         try (InputStream is = file.getInputStream()) {
-            SSUtils.IOCopy(is, exchange.getResponseBody());
+            bytes = SSUtils.IOCopy(is, exchange.getResponseBody(), file.getLength());
         } finally {
             exchange.close();
+            serve.end();
+            if (serve.shouldCommit()) {
+                serve.path = path;
+                serve.file = file.getPath();
+                serve.bytes = bytes;
+                serve.commit();
+            }
         }
     }
 
@@ -0,0 +1,624 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An exchange that wraps another exchange, delivering the response to the wrapped exchange later, paced as an
+ * emulated network would deliver it.
+ * <p>
+ * Response headers and body written to this exchange are buffered, so the request thread is free once the response
+ * is written. Headers are sent after a first byte delay, then the body in chunks paced by a token bucket of the
+ * download bandwidth. A HTTP/1.1 connection carries one exchange at a time, so the bucket of an exchange shapes its
+ * connection. A lost chunk is sent after a retransmission timeout.
+ * <p>
+ * Body is buffered in pooled buffers up to the buffer limit, the rest spills to a temporary file, so the writing
+ * thread never waits for a throttled client. Delivery steps are timed by a scheduler, while socket writes run on a
+ * sender, so a client that stops reading holds one sender thread and no scheduler thread. While waiting for the
+ * response to be written no task is pending, so throttled connections hold no thread.
+ */
+public class SSShapedExchange extends HttpExchange {
+    private static final int TICKS_PER_SECOND = 100;
+    private final HttpExchange mExchange;
+    private final SSNetworkProfile mProfile;
+    private final ScheduledExecutorService mScheduler;
+    private final Executor mSender;
+    private final long mMaxBuffered;
+    private final int mBurst;
+    private final ArrayDeque<byte[]> mChunks = new ArrayDeque<>();
+    private InputStream mRequestBody;
+    private OutputStream mResponseBody = new BufferStream();
+    private byte[] mScratch;
+    private long mMemoryBytes = 0;
+    private int mChunkOffset = 0;
+    private int mTailLength = 0;
+    private FileChannel mSpill;
+    private long mSpillRead = 0;
+    private long mSpillWrite = 0;
+    private int mResponseCode = -1;
+    private long mResponseLength = 0;
+    private boolean mHeadersSent = false;
+    private boolean mComplete = false;
+    private boolean mDone = false;
+    private boolean mScheduled = true;
+    private boolean mSending = false;
+    private boolean mRetransmit = false;
+    private long mNotBefore;
+    private double mTokens = 0;
+    private long mRefillNanos;
+
+    /**
+     * Constructor. Starts the first byte delay at once.
+     *
+     * @param exchange     Wrapped exchange.
+     * @param profile      Emulated network conditions.
+     * @param scheduler    Scheduler to time delivery steps on.
+     * @param sender       Executor to write to the wrapped exchange on.
+     * @param maxBuffered  Largest number of response bytes buffered in memory, before the rest spills to a file.
+     * @param requestBytes Request body length, 0 if none or unknown.
+     */
+    public SSShapedExchange(HttpExchange exchange, SSNetworkProfile profile, ScheduledExecutorService scheduler,
+                            Executor sender, long maxBuffered, long requestBytes) {
+        mExchange = exchange;
+        mProfile = profile;
+        mScheduler = scheduler;
+        mSender = sender;
+        mMaxBuffered = maxBuffered;
+        mRequestBody = exchange.getRequestBody();
+
+        // a tick of bandwidth per chunk, at least a segment, or a large buffer if unlimited
+        mBurst = profile.getDownloadBytes() > 0
+                ? Math.max(SSNetworkProfile.SEGMENT_SIZE, profile.getDownloadBytes() / TICKS_PER_SECOND)
+                : SSBufferPool.maxBufferSize();
+
+        // first byte delay
+        final long delay = profile.firstByteDelayNanos(requestBytes, ThreadLocalRandom.current());
+        mNotBefore = System.nanoTime() + delay;
+        synchronized (this) {
+            schedule(delay);
+        }
+    }
+
+    /**
+     * Drop the response and close the wrapped exchange, as when the request failed.
+     */
+    public void abort() {
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            finish();
+        }
+        mExchange.close();
+    }
+
+    /**
+     * Run one delivery step on the scheduler: pick headers, a body chunk, or close, and pass it to the sender. Or
+     * schedule the step later, or wait for the response to be written.
+     */
+    private void deliver() {
+        final boolean sendHeaders;
+        final int memoryLength;
+        final int spillLength;
+        final long spillPosition;
+        final boolean close;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+
+            // first byte delay or retransmission timeout
+            final long now = System.nanoTime();
+            if (now < mNotBefore) {
+                schedule(mNotBefore - now);
+                return;
+            }
+
+            final long buffered = mMemoryBytes + mSpillWrite - mSpillRead;
+            if (!mHeadersSent) {
+                // headers once written, or close if response ended without them
+                if (mResponseCode < 0 && !mComplete) {
+                    mScheduled = false;
+                    return;
+                }
+                sendHeaders = mResponseCode >= 0;
+                memoryLength = 0;
+                spillLength = 0;
+                spillPosition = 0;
+                close = !sendHeaders;
+                mRefillNanos = now;
+            } else if (buffered > 0) {
+                // wait for tokens of a segment, unless unlimited
+                final int rate = mProfile.getDownloadBytes();
+                final int needed = (int) Math.min(buffered, SSNetworkProfile.SEGMENT_SIZE);
+                if (rate > 0) {
+                    mTokens = Math.min(mBurst, mTokens + (now - mRefillNanos) * (double) rate / 1e9);
+                    mRefillNanos = now;
+                    if (mTokens < needed) {
+                        schedule((long) ((needed - mTokens) * 1e9 / rate) + 1);
+                        return;
+                    }
+                }
+
+                // chunk as large as tokens and scratch buffer allow, delayed once if lost
+                if (mScratch == null) {
+                    mScratch = SSBufferPool.shared().acquire(mBurst);
+                }
+                final int chunk = (int) Math.min(Math.min(buffered, mScratch.length),
+                        rate > 0 ? (long) mTokens : mBurst);
+                if (!mRetransmit) {
+                    final long loss = mProfile.lossDelayNanos(chunk, ThreadLocalRandom.current());
+                    if (loss > 0) {
+                        mRetransmit = true;
+                        mNotBefore = now + loss;
+                        schedule(loss);
+                        return;
+                    }
+                }
+                mRetransmit = false;
+                if (rate > 0) {
+                    mTokens -= chunk;
+                }
+
+                // buffered bytes come before spilled bytes
+                memoryLength = (int) Math.min(chunk, mMemoryBytes);
+                take(memoryLength);
+                spillLength = chunk - memoryLength;
+                spillPosition = mSpillRead;
+                mSpillRead += spillLength;
+                sendHeaders = false;
+                close = false;
+            } else if (mComplete) {
+                sendHeaders = false;
+                memoryLength = 0;
+                spillLength = 0;
+                spillPosition = 0;
+                close = true;
+            } else {
+                // wait for more body
+                mScheduled = false;
+                return;
+            }
+
+            // step stays scheduled while sending, so no other step runs
+            try {
+                mSender.execute(() -> send(sendHeaders, memoryLength, spillLength, spillPosition, close));
+                mSending = true;
+                return;
+            } catch (RejectedExecutionException e) {
+                // emulation stopped with the server
+                finish();
+            }
+        }
+        mExchange.close();
+    }
+
+    /**
+     * Send a delivery step to the wrapped exchange, then schedule the next step.
+     *
+     * @param sendHeaders   True to send headers.
+     * @param memoryLength  Number of body bytes taken into the scratch buffer.
+     * @param spillLength   Number of body bytes to read from the spill file after them.
+     * @param spillPosition Spill file position to read from.
+     * @param close         True to close the wrapped exchange.
+     */
+    private void send(boolean sendHeaders, int memoryLength, int spillLength, long spillPosition, boolean close) {
+        // the writing thread may add to buffer meanwhile
+        try {
+            if (sendHeaders) {
+                mExchange.sendResponseHeaders(mResponseCode, mResponseLength);
+            }
+            if (spillLength > 0) {
+                readSpill(memoryLength, spillLength, spillPosition);
+            }
+            if (memoryLength + spillLength > 0) {
+                final OutputStream body = mExchange.getResponseBody();
+                body.write(mScratch, 0, memoryLength + spillLength);
+                body.flush();
+            }
+            if (close) {
+                mExchange.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // client gone
+            synchronized (this) {
+                mSending = false;
+                finish();
+            }
+            mExchange.close();
+            return;
+        }
+
+        synchronized (this) {
+            mSending = false;
+            if (sendHeaders) {
+                mHeadersSent = true;
+            }
+            if (close || mDone) {
+                finish();
+                return;
+            }
+
+            // next step at once
+            schedule(0);
+        }
+    }
+
+    /**
+     * Read spilled body bytes into the scratch buffer.
+     *
+     * @param offset   Scratch buffer offset.
+     * @param length   Number of bytes.
+     * @param position Spill file position.
+     * @throws IOException Read error, or spill file closed.
+     */
+    private void readSpill(int offset, int length, long position) throws IOException {
+        final FileChannel spill;
+        synchronized (this) {
+            spill = mSpill;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(mScratch, offset, length);
+        while (buffer.hasRemaining()) {
+            if (spill.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException("Spill file truncated");
+            }
+        }
+    }
+
+    /**
+     * Move bytes from buffered chunks to the scratch buffer, returning drained chunks to the pool. Must hold the
+     * lock.
+     *
+     * @param length Number of bytes.
+     */
+    private void take(int length) {
+        int copied = 0;
+        while (copied < length) {
+            final byte[] first = mChunks.peekFirst();
+            final int end = mChunks.size() == 1 ? mTailLength : first.length;
+            final int count = Math.min(end - mChunkOffset, length - copied);
+            System.arraycopy(first, mChunkOffset, mScratch, copied, count);
+            copied += count;
+            mChunkOffset += count;
+            if (mChunkOffset == end) {
+                SSBufferPool.shared().release(mChunks.pollFirst());
+                mChunkOffset = 0;
+                if (mChunks.isEmpty()) {
+                    mTailLength = 0;
+                }
+            }
+        }
+        mMemoryBytes -= length;
+        SSBufferPool.shared().copied(length);
+    }
+
+    /**
+     * Append bytes to buffered chunks, taking chunks from the pool. Must hold the lock.
+     *
+     * @param b      Bytes.
+     * @param off    Offset in bytes.
+     * @param length Number of bytes.
+     */
+    private void append(byte[] b, int off, int length) {
+        int copied = 0;
+        while (copied < length) {
+            byte[] tail = mChunks.peekLast();
+            if (tail == null || mTailLength == tail.length) {
+                tail = SSBufferPool.shared().acquire(mResponseLength);
+                mChunks.addLast(tail);
+                mTailLength = 0;
+            }
+            final int count = Math.min(tail.length - mTailLength, length - copied);
+            System.arraycopy(b, off + copied, tail, mTailLength, count);
+            copied += count;
+            mTailLength += count;
+        }
+        mMemoryBytes += length;
+    }
+
+    /**
+     * Schedule a delivery step. Must hold the lock.
+     *
+     * @param delayNanos Delay until the step.
+     */
+    private void schedule(long delayNanos) {
+        mScheduled = true;
+        try {
+            mScheduler.schedule(this::deliver, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // emulation stopped with the server
+            finish();
+        }
+    }
+
+    /**
+     * Schedule a delivery step at once, unless one is pending. Must hold the lock.
+     */
+    private void wake() {
+        if (!mScheduled && !mDone) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * End delivery, dropping buffered and spilled bytes. Buffers go back to the pool once no step is sending.
+     * Must hold the lock.
+     */
+    private void finish() {
+        mDone = true;
+        for (byte[] chunk : mChunks) {
+            SSBufferPool.shared().release(chunk);
+        }
+        mChunks.clear();
+        mMemoryBytes = 0;
+        if (mScratch != null && !mSending) {
+            SSBufferPool.shared().release(mScratch);
+            mScratch = null;
+        }
+        if (mSpill != null) {
+            try {
+                mSpill.close();
+            } catch (IOException e) {
+                // deleted on close, nothing more to do
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Headers are sent to the wrapped exchange after the first byte delay.
+     */
+    @Override
+    public synchronized void sendResponseHeaders(int rCode, long responseLength) {
+        mResponseCode = rCode;
+        mResponseLength = responseLength;
+        wake();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The wrapped exchange is closed once the response is delivered.
+     */
+    @Override
+    public synchronized void close() {
+        mComplete = true;
+        wake();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Headers getRequestHeaders() {
+        return mExchange.getRequestHeaders();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Headers getResponseHeaders() {
+        return mExchange.getResponseHeaders();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URI getRequestURI() {
+        return mExchange.getRequestURI();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRequestMethod() {
+        return mExchange.getRequestMethod();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpContext getHttpContext() {
+        return mExchange.getHttpContext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getRequestBody() {
+        return mRequestBody;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns the buffering stream, or the stream wrapping it.
+     */
+    @Override
+    public OutputStream getResponseBody() {
+        return mResponseBody;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return mExchange.getRemoteAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return mExchange.getLocalAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProtocol() {
+        return mExchange.getProtocol();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(String name) {
+        return mExchange.getAttribute(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttribute(String name, Object value) {
+        mExchange.setAttribute(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The response stream given must write to the current response stream.
+     */
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            mRequestBody = i;
+        }
+        if (o != null) {
+            mResponseBody = o;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return mExchange.getPrincipal();
+    }
+
+    /**
+     * Buffers response body for delivery, spilling to a temporary file over the buffer limit. Written by one thread
+     * at a time.
+     */
+    private class BufferStream extends OutputStream {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len <= 0) {
+                return;
+            }
+            final FileChannel spill;
+            final long position;
+            final int memoryLength;
+            synchronized (SSShapedExchange.this) {
+                if (mDone) {
+                    throw new IOException("Connection closed");
+                }
+
+                // into memory while room and nothing spilled is pending, keeping order
+                memoryLength = mSpillWrite == mSpillRead
+                        ? (int) Math.min(len, Math.max(0, mMaxBuffered - mMemoryBytes)) : 0;
+                append(b, off, memoryLength);
+                if (memoryLength == len) {
+                    wake();
+                    return;
+                }
+
+                // rest to spill file
+                if (mSpill == null) {
+                    mSpill = openSpill();
+                }
+                spill = mSpill;
+                position = mSpillWrite;
+            }
+
+            // write spill file outside of lock, delivery reads only up to the published end
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off + memoryLength, len - memoryLength);
+            try {
+                while (buffer.hasRemaining()) {
+                    spill.write(buffer, position + buffer.position() - off - memoryLength);
+                }
+            } catch (IOException e) {
+                synchronized (SSShapedExchange.this) {
+                    if (mDone) {
+                        throw new IOException("Connection closed", e);
+                    }
+                }
+                throw e;
+            }
+
+            synchronized (SSShapedExchange.this) {
+                if (mDone) {
+                    throw new IOException("Connection closed");
+                }
+                mSpillWrite += len - memoryLength;
+                wake();
+            }
+        }
+
+        /**
+         * Open a spill file, deleted once closed.
+         *
+         * @return File channel.
+         * @throws IOException File create error.
+         */
+        private FileChannel openSpill() throws IOException {
+            return FileChannel.open(Files.createTempFile(SSConstants.Defaults.NETWORK_SPILL_PREFIX, ".tmp"),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        /**
+         * {@inheritDoc}
+         * Ends the response, as closing the exchange does.
+         */
+        @Override
+        public void close() {
+            SSShapedExchange.this.close();
+        }
+    }
+}
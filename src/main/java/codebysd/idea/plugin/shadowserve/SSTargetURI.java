@@ -0,0 +1,63 @@
+package codebysd.idea.plugin.shadowserve;
+
+import java.net.URI;
+
+/**
+ * Template for rewriting request URIs to the resource server, prepared once from the resource server URI.
+ * <p>
+ * A rewritten URI has scheme, host and port of the resource server, its path joined with the request path as
+ * {@link SSUtils#pathJoin(String...)} joins them, and query and fragment of the request. Paths and query are used
+ * in their raw, encoded form, so encoded characters like "%2F" reach the resource server unchanged. A rewrite builds
+ * one string, sized up front.
+ */
+public class SSTargetURI {
+    private final String mOrigin;
+    private final String mBasePath;
+
+    /**
+     * Constructor
+     *
+     * @param webURI Resource server URI.
+     */
+    public SSTargetURI(URI webURI) {
+        final StringBuilder origin = new StringBuilder();
+        origin.append(webURI.getScheme()).append("://").append(webURI.getHost());
+        if (webURI.getPort() != -1) {
+            origin.append(':').append(webURI.getPort());
+        }
+        mOrigin = origin.toString();
+        mBasePath = webURI.getRawPath() != null ? SSUtils.pathJoin(webURI.getRawPath()) : "";
+    }
+
+    /**
+     * Rewrite a request URI to the resource server.
+     *
+     * @param requestURI Request URI, usually only path and query.
+     * @return Resource server URI.
+     */
+    public String rewrite(URI requestURI) {
+        final String path = requestURI.getRawPath();
+        final String query = requestURI.getRawQuery();
+        final String fragment = requestURI.getRawFragment();
+        final int pathLength = path != null ? path.length() : 0;
+        final StringBuilder target = new StringBuilder(mOrigin.length() + mBasePath.length() + pathLength + 1
+                + (query != null ? query.length() + 1 : 0) + (fragment != null ? fragment.length() + 1 : 0));
+
+        // origin, then joined path
+        target.append(mOrigin);
+        final int start = target.length();
+        target.append(mBasePath);
+        if (path != null) {
+            SSUtils.appendPath(target, start, path, 0, pathLength);
+        }
+
+        // query and fragment as is
+        if (query != null) {
+            target.append('?').append(query);
+        }
+        if (fragment != null) {
+            target.append('#').append(fragment);
+        }
+        return target.toString();
+    }
+}
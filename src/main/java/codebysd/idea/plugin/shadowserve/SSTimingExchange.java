@@ -0,0 +1,175 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * An exchange that wraps another exchange, adding a Server-Timing header with the phases recorded for the request
+ * when response headers are sent. All else is passed to the wrapped exchange.
+ * <p>
+ * Only phases before the response headers can be reported, so body transfer time is not in the header.
+ */
+public class SSTimingExchange extends HttpExchange {
+    private final HttpExchange mExchange;
+    private final SSMetrics mMetrics;
+    private final long mStartNanos;
+
+    /**
+     * Constructor
+     *
+     * @param exchange   Wrapped exchange.
+     * @param metrics    Request metrics, holding phases of the request on current thread.
+     * @param startNanos Time request started, from {@link System#nanoTime()}.
+     */
+    public SSTimingExchange(HttpExchange exchange, SSMetrics metrics, long startNanos) {
+        mExchange = exchange;
+        mMetrics = metrics;
+        mStartNanos = startNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Adds Server-Timing header first.
+     */
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        mExchange.getResponseHeaders().add("Server-Timing", mMetrics.serverTiming(System.nanoTime() - mStartNanos));
+        mExchange.sendResponseHeaders(rCode, responseLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Headers getRequestHeaders() {
+        return mExchange.getRequestHeaders();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Headers getResponseHeaders() {
+        return mExchange.getResponseHeaders();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URI getRequestURI() {
+        return mExchange.getRequestURI();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRequestMethod() {
+        return mExchange.getRequestMethod();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpContext getHttpContext() {
+        return mExchange.getHttpContext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        mExchange.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getRequestBody() {
+        return mExchange.getRequestBody();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OutputStream getResponseBody() {
+        return mExchange.getResponseBody();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return mExchange.getRemoteAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getResponseCode() {
+        return mExchange.getResponseCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return mExchange.getLocalAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProtocol() {
+        return mExchange.getProtocol();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(String name) {
+        return mExchange.getAttribute(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttribute(String name, Object value) {
+        mExchange.setAttribute(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        mExchange.setStreams(i, o);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return mExchange.getPrincipal();
+    }
+}
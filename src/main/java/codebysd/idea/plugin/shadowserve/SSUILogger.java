@@ -9,6 +9,24 @@ import java.util.IllegalFormatException;
  * Also, provide methods to print logs to UI.
  */
 public interface SSUILogger {
+    /**
+     * Console verbosity levels.
+     */
+    enum Verbosity {
+        /**
+         * Only errors.
+         */
+        ERRORS,
+        /**
+         * Errors and system messages, like server start and cache statistics.
+         */
+        SYSTEM,
+        /**
+         * All messages, including a line per request.
+         */
+        REQUESTS
+    }
+
     /**
      * A safe version of {@link String#format(String, Object...)}.
      * In case of formatting error, the un-formatted message is returned.
@@ -25,6 +43,16 @@ public interface SSUILogger {
         }
     }
 
+    /**
+     * Check if per request messages are logged. Request handlers check this before building a message, so the
+     * request path does no logging work when they are off.
+     *
+     * @return True if {@link #logStdOut(String, Object...)} messages are logged.
+     */
+    default boolean isRequestLogged() {
+        return true;
+    }
+
     /**
      * Get UI console.
      *
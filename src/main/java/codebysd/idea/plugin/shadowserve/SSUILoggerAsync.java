@@ -0,0 +1,245 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.intellij.execution.ui.ExecutionConsole;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous {@link SSUILogger}, keeping formatting and console appends off the request path.
+ * <p>
+ * Messages are written as fixed shape records (level, message, arguments) into a lock free ring buffer, claimed
+ * with a compare and set on a sequence counter. A background thread formats them, and appends consecutive
+ * messages of the same kind to the wrapped logger as one batch, at a fixed interval. When the buffer is full, per
+ * request messages are dropped and counted, and the count is logged with the next batch. System messages and
+ * errors are never dropped, they are logged directly if the buffer is full.
+ * <p>
+ * Per request messages are logged only with {@link Verbosity#REQUESTS}, and system messages only with
+ * {@link Verbosity#SYSTEM} or higher. Errors are always logged.
+ */
+public class SSUILoggerAsync implements SSUILogger, Closeable {
+    private static final byte LEVEL_SYSTEM = 0;
+    private static final byte LEVEL_STDOUT = 1;
+    private static final byte LEVEL_CRASH = 2;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final SSUILogger mDelegate;
+    private final Verbosity mVerbosity;
+    private final int mMask;
+    private final byte[] mLevels;
+    private final String[] mMessages;
+    private final Object[][] mArgs;
+    private final Exception[] mErrors;
+    private final AtomicLongArray mPublished;
+    private final AtomicLong mHead = new AtomicLong();
+    private final LongAdder mDropped = new LongAdder();
+    private final Thread mThread;
+    private volatile long mTail = 0;
+    private volatile boolean mClosed = false;
+
+    /**
+     * Constructor. Starts the background thread.
+     *
+     * @param delegate  Logger appending to console.
+     * @param verbosity Messages to log.
+     * @param capacity  Buffer size, rounded up to a power of two.
+     */
+    public SSUILoggerAsync(SSUILogger delegate, Verbosity verbosity, int capacity) {
+        mDelegate = delegate;
+        mVerbosity = verbosity;
+
+        // power of two slots, so sequence maps to slot with a mask
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mMask = size - 1;
+        mLevels = new byte[size];
+        mMessages = new String[size];
+        mArgs = new Object[size][];
+        mErrors = new Exception[size];
+        mPublished = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mPublished.set(i, -1);
+        }
+
+        mThread = new Thread(this::run, SSConstants.Plugin.ID + " console log");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Get number of per request messages dropped because the buffer was full.
+     *
+     * @return Dropped message count.
+     */
+    public long getDroppedCount() {
+        return mDropped.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExecutionConsole getExecutionConsole() {
+        return mDelegate.getExecutionConsole();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRequestLogged() {
+        return mVerbosity == Verbosity.REQUESTS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void logSystem(String msg, Object... args) {
+        if (mVerbosity != Verbosity.ERRORS && !offer(LEVEL_SYSTEM, msg, args, null)) {
+            mDelegate.logSystem(msg, args);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void logStdOut(String msg, Object... args) {
+        if (mVerbosity == Verbosity.REQUESTS && !offer(LEVEL_STDOUT, msg, args, null)) {
+            mDropped.increment();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void logCrash(Exception e, String msg, Object... args) {
+        if (!offer(LEVEL_CRASH, msg, args, e)) {
+            mDelegate.logCrash(e, msg, args);
+        }
+    }
+
+    /**
+     * Stop background thread, after logging buffered messages.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write a record to the buffer.
+     *
+     * @param level Record level.
+     * @param msg   Message format.
+     * @param args  Format arguments.
+     * @param error Exception, for errors.
+     * @return True if written, false if buffer is full or logger closed.
+     */
+    private boolean offer(byte level, String msg, Object[] args, Exception error) {
+        // claim a sequence, if its slot is free
+        long sequence;
+        do {
+            sequence = mHead.get();
+            if (mClosed || sequence - mTail > mMask) {
+                return false;
+            }
+        } while (!mHead.compareAndSet(sequence, sequence + 1));
+
+        // fill slot, then publish it to the reader
+        final int slot = (int) sequence & mMask;
+        mLevels[slot] = level;
+        mMessages[slot] = msg;
+        mArgs[slot] = args;
+        mErrors[slot] = error;
+        mPublished.lazySet(slot, sequence);
+        return true;
+    }
+
+    /**
+     * Background thread, draining the buffer at a fixed interval until closed.
+     */
+    private void run() {
+        final StringBuilder batch = new StringBuilder();
+        while (!mClosed) {
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+            drain(batch);
+        }
+        drain(batch);
+    }
+
+    /**
+     * Log published records, in batches of consecutive records of the same level.
+     *
+     * @param batch Reusable text buffer.
+     */
+    private void drain(StringBuilder batch) {
+        // report drops since last drain first
+        final long dropped = mDropped.sumThenReset();
+        if (dropped > 0) {
+            mDelegate.logSystem("Console log:\t%d messages dropped", dropped);
+        }
+
+        byte batchLevel = LEVEL_SYSTEM;
+        long tail = mTail;
+        while (mPublished.get((int) tail & mMask) == tail) {
+            final int slot = (int) tail & mMask;
+            final byte level = mLevels[slot];
+            final String msg = mMessages[slot];
+            final Object[] args = mArgs[slot];
+            final Exception error = mErrors[slot];
+
+            // release slot to writers
+            mMessages[slot] = null;
+            mArgs[slot] = null;
+            mErrors[slot] = null;
+            mTail = ++tail;
+
+            // level changed, log batch so far
+            if (level != batchLevel || level == LEVEL_CRASH) {
+                flush(batch, batchLevel);
+                batchLevel = level;
+            }
+
+            // errors are logged one by one, with their exception
+            if (level == LEVEL_CRASH) {
+                mDelegate.logCrash(error, msg, args);
+            } else {
+                if (batch.length() > 0) {
+                    batch.append(System.lineSeparator());
+                }
+                batch.append(formatSafe(msg, args));
+            }
+        }
+        flush(batch, batchLevel);
+    }
+
+    /**
+     * Append batched text to the wrapped logger, and clear it.
+     *
+     * @param batch Batched lines.
+     * @param level Level of batched lines.
+     */
+    private void flush(StringBuilder batch, byte level) {
+        if (batch.length() == 0) {
+            return;
+        }
+        if (level == LEVEL_STDOUT) {
+            mDelegate.logStdOut("%s", batch);
+        } else {
+            mDelegate.logSystem("%s", batch);
+        }
+        batch.setLength(0);
+    }
+}
@@ -8,12 +8,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * Utility functions.
@@ -30,6 +29,23 @@ public class SSUtils {
         return val == null || val.isEmpty() || val.isBlank();
     }
 
+    /**
+     * Check if a char range is empty or blank, without extracting it.
+     *
+     * @param chars Chars.
+     * @param from  Range start index.
+     * @param to    Range end index, exclusive.
+     * @return True if nil
+     */
+    public static boolean isNil(CharSequence chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Join two or more URI path segments, with forward slash as separator.
      *
@@ -40,11 +56,57 @@ public class SSUtils {
         if (parts == null) {
             return "";
         }
-        return Arrays.stream(parts)
-                .filter(s -> !SSUtils.isNil(s))
-                .collect(Collectors.joining("/"))
-                .replaceAll("\\\\", "/")
-                .replaceAll("/{2,}", "/");
+        int length = 0;
+        for (String part : parts) {
+            length += part != null ? part.length() + 1 : 0;
+        }
+        final StringBuilder path = new StringBuilder(length);
+        for (String part : parts) {
+            if (part != null) {
+                appendPath(path, 0, part, 0, part.length());
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * Append a URI path segment to a path being built, as {@link #pathJoin(String...)} joins segments: a forward
+     * slash separates it from earlier segments, backslashes become forward slashes and repeated slashes collapse.
+     * Works on a char range in place, without intermediate strings.
+     *
+     * @param path  Builder holding the path from start index.
+     * @param start Index in builder where the path starts, chars before it are left alone.
+     * @param part  Chars holding the segment.
+     * @param from  Segment start index in chars.
+     * @param to    Segment end index in chars, exclusive.
+     */
+    public static void appendPath(StringBuilder path, int start, CharSequence part, int from, int to) {
+        // nil segments are skipped
+        if (isNil(part, from, to)) {
+            return;
+        }
+
+        if (path.length() > start) {
+            appendPathChar(path, start, '/');
+        }
+        for (int i = from; i < to; i++) {
+            appendPathChar(path, start, part.charAt(i));
+        }
+    }
+
+    /**
+     * Append a char to a path being built, converting backslash to forward slash and skipping repeated slashes.
+     *
+     * @param path  Builder holding the path from start index.
+     * @param start Index in builder where the path starts.
+     * @param c     Char to append.
+     */
+    private static void appendPathChar(StringBuilder path, int start, char c) {
+        final char ch = c == '\\' ? '/' : c;
+        if (ch == '/' && path.length() > start && path.charAt(path.length() - 1) == '/') {
+            return;
+        }
+        path.append(ch);
     }
 
     /**
@@ -66,24 +128,70 @@ public class SSUtils {
     }
 
     /**
-     * Copy data from input stream to output stream
+     * Copy data from input stream to output stream.
+     * Output is flushed whenever no more input is available yet, so data is passed on as it arrives.
      *
      * @param from Source stream
      * @param to   Target stream
+     * @return Number of bytes copied.
+     * @throws IOException Read/Write error
+     */
+    public static long IOCopy(InputStream from, OutputStream to) throws IOException {
+        return IOCopy(from, to, -1);
+    }
+
+    /**
+     * Copy data from input stream to output stream, through a pooled buffer sized for the expected length.
+     * Output is flushed whenever no more input is available yet, so data is passed on as it arrives.
+     *
+     * @param from           Source stream
+     * @param to             Target stream
+     * @param expectedLength Expected number of bytes, like a Content-Length, or 0 or less if unknown.
+     * @return Number of bytes copied.
      * @throws IOException Read/Write error
      */
-    public static void IOCopy(InputStream from, OutputStream to) throws IOException {
+    public static long IOCopy(InputStream from, OutputStream to, long expectedLength) throws IOException {
+        final SSBufferPool pool = SSBufferPool.shared();
+        final byte[] buff = pool.acquire(expectedLength);
         int len;
-        byte[] buff = new byte[4096];
-        do {
-            if (Thread.interrupted()) {
-                throw new IOException("Thread interrupted");
-            }
-            len = from.read(buff);
-            if (len > 0) {
-                to.write(buff, 0, len);
-            }
-        } while (len > 0);
+        long total = 0;
+        try {
+            do {
+                if (Thread.interrupted()) {
+                    throw new IOException("Thread interrupted");
+                }
+                len = from.read(buff);
+                if (len > 0) {
+                    to.write(buff, 0, len);
+                    total += len;
+                    if (from.available() == 0) {
+                        to.flush();
+                    }
+                }
+            } while (len > 0);
+        } finally {
+            pool.release(buff);
+            pool.copied(total);
+        }
+        return total;
+    }
+
+    /**
+     * Get body length from a Content-Length header.
+     *
+     * @param headers HTTP headers.
+     * @return Body length, or -1 if header is missing or invalid.
+     */
+    public static long getContentLength(Map<String, List<String>> headers) {
+        final List<String> values = headers.get("Content-Length");
+        if (values == null || values.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(values.get(0).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     /**
@@ -125,4 +233,37 @@ public class SSUtils {
                 .filter(e -> e.getValue() != null && !e.getValue().isEmpty())
                 .forEach(e -> dest.accept(e.getKey(), e.getValue()));
     }
+
+    /**
+     * Parse a list of HTTP status codes, like "200, 203, 300-301".
+     *
+     * @param codes Comma separated status codes or ranges.
+     * @return Set of status codes.
+     * @throws IllegalArgumentException If a code is not a valid status code.
+     */
+    public static BitSet parseStatusCodes(String codes) {
+        final BitSet set = new BitSet(600);
+        if (isNil(codes)) {
+            return set;
+        }
+        for (String part : codes.split(",")) {
+            if (isNil(part)) {
+                continue;
+            }
+
+            // single code or range
+            final String[] range = part.trim().split("\\s*-\\s*", 2);
+            try {
+                final int from = Integer.parseInt(range[0]);
+                final int to = range.length > 1 ? Integer.parseInt(range[1]) : from;
+                if (from < 100 || to > 599 || from > to) {
+                    throw new IllegalArgumentException("Invalid status code: " + part.trim());
+                }
+                set.set(from, to + 1);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid status code: " + part.trim());
+            }
+        }
+        return set;
+    }
 }
@@ -2,30 +2,61 @@ package codebysd.idea.plugin.shadowserve;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URL;
 
 /**
  * Handles web requests to resource server.
  */
 public class SSWebHandler implements HttpHandler {
     private final URI mWebURI;
+    private final SSTargetURI mTargetURI;
+    private final SSMetrics mMetrics;
     private final SSUILogger mUILogger;
+    private final int mBufferSize;
 
     /**
      * Constructor
      *
      * @param webURI   Resource server URI
+     * @param metrics  Request metrics.
      * @param uiLogger UI logger.
      */
-    public SSWebHandler(URI webURI, SSUILogger uiLogger) {
+    public SSWebHandler(URI webURI, SSMetrics metrics, SSUILogger uiLogger) {
+        this(webURI, SSConstants.Defaults.BUFFER_SIZE * 1024, metrics, uiLogger);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param webURI     Resource server URI
+     * @param bufferSize Copy buffer size for bodies of unknown length, in bytes.
+     * @param metrics    Request metrics.
+     * @param uiLogger   UI logger.
+     */
+    public SSWebHandler(URI webURI, int bufferSize, SSMetrics metrics, SSUILogger uiLogger) {
         mWebURI = webURI;
+        mTargetURI = new SSTargetURI(webURI);
+        mBufferSize = bufferSize;
+        mMetrics = metrics;
         mUILogger = uiLogger;
     }
 
+    /**
+     * Get expected length to size a copy buffer for, the configured size if length is unknown.
+     *
+     * @param length Body length, or 0 or less if unknown.
+     * @return Expected length.
+     */
+    private long expectedLength(long length) {
+        return length > 0 ? length : mBufferSize;
+    }
+
     /**
      * Get host header for forwarded web request
      *
@@ -50,18 +81,22 @@ public class SSWebHandler implements HttpHandler {
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         // modify request URI
-        final URI uri = SSUtils.editURI(exchange.getRequestURI(), ub -> {
-            ub.setScheme(mWebURI.getScheme());
-            ub.setHost(mWebURI.getHost());
-            ub.setPort(mWebURI.getPort());
-            ub.setPath(SSUtils.pathJoin(mWebURI.getPath(), exchange.getRequestURI().getPath()));
-        });
+        final String target = mTargetURI.rewrite(exchange.getRequestURI());
 
         // log
-        mUILogger.logStdOut("Forwarding\t%s\t⟶\t%s", exchange.getRequestURI().getPath(), uri.toString());
+        mMetrics.route(SSMetrics.Route.PROXIED);
+        if (mUILogger.isRequestLogged()) {
+            mUILogger.logStdOut("Forwarding\t%s\t⟶\t%s", exchange.getRequestURI().getPath(), target);
+        }
 
         // Create an HTTP connection
-        final HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        final SSEvents.UpstreamConnect connectEvent = new SSEvents.UpstreamConnect();
+        connectEvent.begin();
+        final long start = System.nanoTime();
+        final HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+        mMetrics.upstreamStarted();
+        InputStream resStr = null;
+        boolean failed = true;
 
         try {
             // Do not follow redirects, return 302 responses as well.
@@ -74,34 +109,101 @@ public class SSWebHandler implements HttpHandler {
             // override host
             connection.setRequestProperty("Host", getHostHeader());
 
+            // request body if any, must be known before connecting
+            final boolean hasBody = "POST".equalsIgnoreCase(exchange.getRequestMethod());
+            connection.setDoOutput(hasBody);
+
+            // connect, a kept alive connection may be reused
+            connection.connect();
+            final long connected = System.nanoTime();
+            mMetrics.phase(SSMetrics.Phase.CONNECT, connected - start);
+            connectEvent.end();
+            if (connectEvent.shouldCommit()) {
+                connectEvent.url = target;
+                connectEvent.commit();
+            }
+            final SSEvents.UpstreamResponse responseEvent = new SSEvents.UpstreamResponse();
+            responseEvent.begin();
+
             // write request body if any
-            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                connection.setDoOutput(true);
-                SSUtils.IOCopy(exchange.getRequestBody(), connection.getOutputStream());
+            if (hasBody) {
+                SSUtils.IOCopy(exchange.getRequestBody(), connection.getOutputStream(),
+                        expectedLength(SSUtils.getContentLength(exchange.getRequestHeaders())));
             }
 
             // get response code (do request)
             int code = connection.getResponseCode();
+            final long responded = System.nanoTime();
+            mMetrics.phase(SSMetrics.Phase.TTFB, responded - connected);
+            mMetrics.upstream(responded - start);
+            responseEvent.end();
+            if (responseEvent.shouldCommit()) {
+                responseEvent.url = target;
+                responseEvent.status = code;
+                responseEvent.commit();
+            }
 
             // copy headers
             SSUtils.copyResponseHeaders(connection.getHeaderFields(), exchange.getResponseHeaders()::put);
 
-            // write response body
-            exchange.sendResponseHeaders(code, connection.getContentLengthLong());
+            // send headers, with chunked body (length 0) if length is unknown, or no body (length -1)
+            final long length = connection.getContentLengthLong();
+            final boolean noBody = length == 0 || code == 204 || code == 304
+                    || "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+            exchange.sendResponseHeaders(code, noBody ? -1 : Math.max(length, 0));
 
             // get response body
-            InputStream resStr = connection.getErrorStream();
+            resStr = connection.getErrorStream();
             if (resStr == null) {
                 resStr = connection.getInputStream();
             }
 
             // copy response data if any
-            if (resStr != null) {
-                SSUtils.IOCopy(resStr, exchange.getResponseBody());
+            if (resStr != null && !noBody) {
+                final SSEvents.UpstreamTransfer transferEvent = new SSEvents.UpstreamTransfer();
+                transferEvent.begin();
+                final long bytes = SSUtils.IOCopy(resStr, exchange.getResponseBody(), expectedLength(length));
+                transferEvent.end();
+                if (transferEvent.shouldCommit()) {
+                    transferEvent.url = target;
+                    transferEvent.bytes = bytes;
+                    transferEvent.commit();
+                }
             }
+            failed = false;
         } finally {
-            // close resources
-            exchange.close();
+            // close resources, keeping upstream connection alive if response was read
+            try {
+                exchange.close();
+            } finally {
+                release(connection, resStr, failed);
+                mMetrics.upstreamFinished(failed);
+            }
+        }
+    }
+
+    /**
+     * Release an upstream connection. After a complete exchange, the response body is drained and closed, which
+     * returns the connection to the keep-alive cache. A connection left in an unknown state is disconnected.
+     *
+     * @param connection Upstream connection.
+     * @param body       Response body stream, if opened.
+     * @param failed     True if the exchange did not complete.
+     */
+    private static void release(HttpURLConnection connection, @Nullable InputStream body, boolean failed) {
+        if (failed) {
+            connection.disconnect();
+            return;
+        }
+        if (body == null) {
+            return;
+        }
+        try (InputStream in = body) {
+            final byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        } catch (IOException e) {
             connection.disconnect();
         }
     }
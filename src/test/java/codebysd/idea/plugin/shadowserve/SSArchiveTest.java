@@ -0,0 +1,137 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests HAR import and export of {@link SSArchive}.
+ */
+public class SSArchiveTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void offsetTimestampsAreImported() throws IOException {
+        final Path har = har(
+                entry("/a", "2019-11-26T10:15:05.620+01:00", "body-a"),
+                entry("/b", "2019-11-26T09:15:05.620Z", "body-b"),
+                entry("/c", "2019-11-26T04:15:05-05:00", "body-c"));
+
+        try (SSArchive archive = new SSArchive(mFolder.getRoot().toPath().resolve("a.ssa"))) {
+            assertEquals(3, archive.importHar(har));
+            assertBody(archive, "/a", "body-a");
+            assertBody(archive, "/b", "body-b");
+            assertBody(archive, "/c", "body-c");
+
+            // times kept, as UTC instants
+            final JsonArray entries = export(archive);
+            assertEquals("2019-11-26T09:15:05.620Z", startedDateTime(entries, "/a"));
+            assertEquals("2019-11-26T09:15:05.620Z", startedDateTime(entries, "/b"));
+            assertEquals("2019-11-26T09:15:05Z", startedDateTime(entries, "/c"));
+        }
+    }
+
+    @Test
+    public void invalidTimestampKeepsEntry() throws IOException {
+        final Path har = har(entry("/a", "yesterday", "body-a"));
+
+        try (SSArchive archive = new SSArchive(mFolder.getRoot().toPath().resolve("a.ssa"))) {
+            assertEquals(1, archive.importHar(har));
+            assertBody(archive, "/a", "body-a");
+            assertEquals("1970-01-01T00:00:00Z", startedDateTime(export(archive), "/a"));
+        }
+    }
+
+    @Test
+    public void malformedEntriesAreSkipped() throws IOException {
+        final JsonObject noStatus = entry("/b", "2019-11-26T09:15:05Z", "body-b");
+        noStatus.getAsJsonObject("response").remove("status");
+        final Path har = har(entry("/a", "2019-11-26T09:15:05Z", "body-a"), noStatus);
+
+        try (SSArchive archive = new SSArchive(mFolder.getRoot().toPath().resolve("a.ssa"))) {
+            assertEquals(1, archive.importHar(har));
+            assertBody(archive, "/a", "body-a");
+            assertNull(archive.find(SSArchive.key("GET", URI.create("/b"), new byte[0])));
+        }
+    }
+
+    private Path har(JsonObject... entries) throws IOException {
+        final JsonArray array = new JsonArray();
+        for (JsonObject entry : entries) {
+            array.add(entry);
+        }
+        final JsonObject log = new JsonObject();
+        log.addProperty("version", "1.2");
+        log.add("entries", array);
+        final JsonObject root = new JsonObject();
+        root.add("log", log);
+
+        final Path har = mFolder.getRoot().toPath().resolve("in.har");
+        Files.write(har, root.toString().getBytes(StandardCharsets.UTF_8));
+        return har;
+    }
+
+    private static JsonObject entry(String path, String startedDateTime, String body) {
+        final JsonObject request = new JsonObject();
+        request.addProperty("method", "GET");
+        request.addProperty("url", "http://example.com" + path);
+        request.add("headers", new JsonArray());
+
+        final JsonObject content = new JsonObject();
+        content.addProperty("size", body.length());
+        content.addProperty("mimeType", "text/plain");
+        content.addProperty("text", body);
+
+        final JsonObject response = new JsonObject();
+        response.addProperty("status", 200);
+        response.add("headers", new JsonArray());
+        response.add("content", content);
+
+        final JsonObject entry = new JsonObject();
+        entry.addProperty("startedDateTime", startedDateTime);
+        entry.addProperty("time", 12);
+        entry.add("request", request);
+        entry.add("response", response);
+        return entry;
+    }
+
+    private JsonArray export(SSArchive archive) throws IOException {
+        final Path out = mFolder.getRoot().toPath().resolve("out.har");
+        archive.exportHar(out);
+        final String text = new String(Files.readAllBytes(out), StandardCharsets.UTF_8);
+        return new Gson().fromJson(text, JsonObject.class).getAsJsonObject("log").getAsJsonArray("entries");
+    }
+
+    private static String startedDateTime(JsonArray entries, String path) {
+        for (int i = 0; i < entries.size(); i++) {
+            final JsonObject entry = entries.get(i).getAsJsonObject();
+            if (entry.getAsJsonObject("request").get("url").getAsString().endsWith(path)) {
+                return entry.get("startedDateTime").getAsString();
+            }
+        }
+        throw new AssertionError("Entry not found: " + path);
+    }
+
+    private static void assertBody(SSArchive archive, String path, String body) throws IOException {
+        final SSArchive.Exchange exchange = archive.find(SSArchive.key("GET", URI.create(path), new byte[0]));
+        assertNotNull(path, exchange);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exchange.writeResponseBody(out);
+        assertEquals(body, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,108 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests block and chunk allocation of {@link SSBodyStore}.
+ */
+public class SSBodyStoreTest {
+    private static final int BLOCK_SIZE = 8 * 1024;
+
+    @Test
+    public void smallBodiesTakeChunks() {
+        final SSBodyStore store = new SSBodyStore(1 << 20);
+        assertEquals(256, store.store(new byte[1]).storedSize());
+        assertEquals(512, store.store(new byte[500]).storedSize());
+        assertEquals(2048, store.store(new byte[2000]).storedSize());
+        assertEquals(BLOCK_SIZE, store.store(new byte[5000]).storedSize());
+        assertEquals(BLOCK_SIZE, store.store(new byte[BLOCK_SIZE]).storedSize());
+        assertEquals(BLOCK_SIZE + 256, store.store(new byte[BLOCK_SIZE + 10]).storedSize());
+        assertEquals(0, store.store(new byte[0]).storedSize());
+    }
+
+    @Test
+    public void bodiesReadBackIntact() throws IOException {
+        final SSBodyStore store = new SSBodyStore(16 << 20);
+        final Random random = new Random(1);
+        final List<byte[]> data = new ArrayList<>();
+        final List<SSBody> bodies = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final byte[] bytes = new byte[random.nextInt(i % 10 == 0 ? 40000 : 3000)];
+            random.nextBytes(bytes);
+            data.add(bytes);
+            bodies.add(store.store(bytes));
+        }
+
+        for (int i = 0; i < bodies.size(); i++) {
+            final SSBody body = bodies.get(i);
+            assertNotNull(body);
+            assertArrayEquals(data.get(i), body.toByteArray());
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            body.writeTo(out);
+            assertArrayEquals(data.get(i), out.toByteArray());
+
+            final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            try (InputStream in = body.openStream()) {
+                final byte[] buffer = new byte[1000];
+                int count;
+                while ((count = in.read(buffer)) >= 0) {
+                    streamed.write(buffer, 0, count);
+                }
+            }
+            assertArrayEquals(data.get(i), streamed.toByteArray());
+        }
+    }
+
+    @Test
+    public void freedChunksReturnBlocks() {
+        final SSBodyStore store = new SSBodyStore(1 << 20);
+
+        // fill with small bodies, then free them all
+        final List<SSBody> bodies = new ArrayList<>();
+        SSBody body;
+        while ((body = store.store(new byte[300])) != null) {
+            bodies.add(body);
+        }
+        assertTrue(bodies.size() > (1 << 20) / 512);
+        bodies.forEach(SSBody::close);
+        assertEquals(0, store.getUsedBytes());
+
+        // blocks of the freed chunks serve large bodies
+        final SSBody large = store.store(new byte[(1 << 20) - 2 * BLOCK_SIZE]);
+        assertNotNull(large);
+        assertNull(store.store(new byte[4 * BLOCK_SIZE]));
+        large.close();
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void bodyIsFreedByLastReference() {
+        final SSBodyStore store = new SSBodyStore(1 << 20);
+        final SSBody body = store.store(new byte[100]);
+        body.retain();
+        body.close();
+        assertEquals(256, store.getUsedBytes());
+        body.close();
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void capacityHasBoundedSlack() {
+        assertEquals(125L << 20, SSBodyStore.capacityFor(100L << 20));
+        assertEquals((1L << 30) + (64L << 20), SSBodyStore.capacityFor(1L << 30));
+    }
+}
@@ -0,0 +1,61 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests Cache-Control parsing and HTTP value helpers of {@link SSCacheControl}.
+ */
+public class SSCacheControlTest {
+
+    @Test
+    public void directivesAreParsedAcrossValues() {
+        final SSCacheControl cc = SSCacheControl.parse(Arrays.asList(
+                "Public, MAX-AGE=\"60\"", "no-cache=\"Set-Cookie\", max-age=5,, "));
+        assertTrue(cc.has("public"));
+        assertTrue(cc.has("no-cache"));
+        assertFalse(cc.has("private"));
+
+        // first occurrence wins, quotes removed
+        assertEquals(60, cc.getSeconds("max-age"));
+        assertEquals(-1, cc.getSeconds("s-maxage"));
+        assertEquals(-1, cc.getSeconds("public"));
+    }
+
+    @Test
+    public void deltaSecondsAreParsed() {
+        assertEquals(0, SSCacheControl.parseSeconds("0"));
+        assertEquals(86400, SSCacheControl.parseSeconds(" 86400 "));
+        assertEquals(Integer.MAX_VALUE, SSCacheControl.parseSeconds("99999999999999999999"));
+        assertEquals(-1, SSCacheControl.parseSeconds("-5x"));
+        assertEquals(-1, SSCacheControl.parseSeconds("soon"));
+        assertEquals(-1, SSCacheControl.parseSeconds(""));
+        assertEquals(-1, SSCacheControl.parseSeconds(null));
+    }
+
+    @Test
+    public void httpDatesAreParsed() {
+        assertEquals(784111777000L, SSCacheControl.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1, SSCacheControl.parseDate("0"));
+        assertEquals(-1, SSCacheControl.parseDate(null));
+    }
+
+    @Test
+    public void pragmaNoCacheAppliesWithoutCacheControl() {
+        final Headers pragma = new Headers();
+        pragma.add("Pragma", "no-cache");
+        assertTrue(SSCacheControl.parseRequest(pragma).has("no-cache"));
+
+        final Headers both = new Headers();
+        both.add("Pragma", "no-cache");
+        both.add("Cache-Control", "max-age=10");
+        assertFalse(SSCacheControl.parseRequest(both).has("no-cache"));
+        assertEquals(10, SSCacheControl.parseRequest(both).getSeconds("max-age"));
+    }
+}
@@ -0,0 +1,95 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests primary and variant key normalization of {@link SSCacheKey}.
+ */
+public class SSCacheKeyTest {
+
+    @Test
+    public void primaryKeySortsQueryAndDropsEmptyParameters() {
+        assertEquals("GET /a?a=2&b=1", key("get", "/a?b=1&a=2"));
+        assertEquals("GET /a?a=2&b=1", key("GET", "/a?&b=1&&a=2&"));
+        assertEquals("GET /a", key("GET", "/a?"));
+        assertEquals("GET /a", key("GET", "/a?&&"));
+        assertEquals("GET /", key("GET", ""));
+        assertEquals("GET /", key("GET", "?"));
+
+        // encoding kept, repeated parameters kept
+        assertEquals("GET /a%20b?q=%2F&q=x", key("GET", "/a%20b?q=x&q=%2F"));
+        assertNotEquals(key("GET", "/a?q=1"), key("HEAD", "/a?q=1"));
+    }
+
+    @Test
+    public void variantKeyNormalizesNegotiationHeaders() {
+        final SSCacheKey.Variants variants = SSCacheKey.Variants.create(
+                new TreeSet<>(Arrays.asList("accept-encoding", "x-client")));
+        final String primary = key("GET", "/a");
+
+        final Headers first = new Headers();
+        first.add("Accept-Encoding", "GZIP, br");
+        first.add("X-Client", "a b");
+        final Headers second = new Headers();
+        second.add("accept-encoding", "br,gzip");
+        second.add("x-client", "ab");
+        final Headers other = new Headers();
+        other.add("Accept-Encoding", "gzip");
+
+        final String key = SSCacheKey.variant(primary, variants, first);
+        assertEquals(key, SSCacheKey.variant(primary, variants, second));
+        assertNotEquals(key, SSCacheKey.variant(primary, variants, other));
+        assertTrue(key.startsWith(SSCacheKey.variantPrefix(primary)));
+
+        // a replaced marker never selects variants of the old one
+        final SSCacheKey.Variants replaced = SSCacheKey.Variants.create(variants.getNames());
+        assertNotEquals(key, SSCacheKey.variant(primary, replaced, first));
+    }
+
+    @Test
+    public void headerValuesAreNormalized() {
+        assertEquals("br,gzip", SSCacheKey.normalize("accept-encoding", Arrays.asList("GZIP, br", "gzip")));
+        assertEquals("A,b", SSCacheKey.normalize("x-list", Arrays.asList("A, b")));
+        assertEquals("", SSCacheKey.normalize("accept", null));
+        assertEquals("", SSCacheKey.normalize("accept", Collections.singletonList(" , ")));
+    }
+
+    @Test
+    public void variantsMarkerSurvivesBytes() {
+        final SSCacheKey.Variants variants = SSCacheKey.Variants.create(
+                new TreeSet<>(Arrays.asList("accept-language", "accept-encoding")));
+        final SSCacheKey.Variants read = SSCacheKey.Variants.fromBytes(variants.toBytes());
+        assertEquals(variants.getNames(), read.getNames());
+        final Headers request = new Headers();
+        request.add("Accept-Language", "de");
+        assertEquals(SSCacheKey.variant("GET /a", variants, request), SSCacheKey.variant("GET /a", read, request));
+
+        // other heads are not markers
+        assertNull(SSCacheKey.Variants.fromBytes(new byte[0]));
+        assertNull(SSCacheKey.Variants.fromBytes(new byte[]{1, 2, 3, 4, 5}));
+    }
+
+    @Test
+    public void unsafeMethodsAreRecognized() {
+        assertTrue(SSCacheKey.isSafeMethod("get"));
+        assertTrue(SSCacheKey.isSafeMethod("OPTIONS"));
+        assertFalse(SSCacheKey.isSafeMethod("POST"));
+        assertFalse(SSCacheKey.isSafeMethod("delete"));
+    }
+
+    private static String key(String method, String uri) {
+        return SSCacheKey.primary(method, URI.create(uri));
+    }
+}
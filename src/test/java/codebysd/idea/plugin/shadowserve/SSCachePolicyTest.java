@@ -0,0 +1,112 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests rule parsing, glob matching and rule selection of {@link SSCachePolicy}.
+ */
+public class SSCachePolicyTest {
+
+    @Test
+    public void rulesAreParsed() {
+        final List<SSCachePolicy.Rule> rules = SSCachePolicy.parseRules(
+                "# comment\r\n\r\n  path /api/** never  \nTYPE image/* TTL 3600\npath *.js always\npath *.css always 60");
+        assertEquals(4, rules.size());
+        assertEquals(SSCachePolicy.Action.NEVER, rules.get(0).getAction());
+        assertEquals(SSCachePolicy.Action.TTL, rules.get(1).getAction());
+        assertEquals(3_600_000, rules.get(1).getTtlMillis());
+        assertEquals(365L * 24 * 60 * 60 * 1000, rules.get(2).getTtlMillis());
+        assertEquals(60_000, rules.get(3).getTtlMillis());
+        assertTrue(SSCachePolicy.parseRules(null).isEmpty());
+        assertTrue(SSCachePolicy.parseRules(" \n# only comments").isEmpty());
+    }
+
+    @Test
+    public void invalidRulesAreRejectedWithLine() {
+        for (String rule : Arrays.asList("path /a", "path /a never 5 6", "file /a never", "path /a sometimes",
+                "path /a ttl", "path /a never 5", "path /a ttl -3", "path /a ttl soon", "path ~[ never",
+                "path /[z-a].js never")) {
+            try {
+                SSCachePolicy.parseRules("# first\n" + rule);
+                fail("Not rejected: " + rule);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+            }
+        }
+    }
+
+    @Test
+    public void firstMatchingRuleApplies() {
+        final SSCachePolicy policy = policy(
+                "path /api/** never",
+                "path *.[0-9a-f]*.js always",
+                "type image/* ttl 3600",
+                "path ~^/re/.*\\.txt$ ttl 100",
+                "path /docs/*.html never");
+
+        // path rules before the first type rule decide requests
+        assertEquals(SSCachePolicy.Action.NEVER, policy.forRequest("/api/x/y").getAction());
+        assertNull(policy.forRequest("/api"));
+        assertEquals(SSCachePolicy.Action.ALWAYS, policy.forRequest("/x/app.1a2b3c.js").getAction());
+        assertNull(policy.forRequest("/app.js"));
+        assertNull(policy.forRequest("/docs/a.html"));
+
+        // all rules decide responses, media type without parameters
+        assertEquals(SSCachePolicy.Action.TTL, policy.forResponse("/app.js", "Image/PNG; q=1").getAction());
+        assertEquals(100_000, policy.forResponse("/re/a/b.txt", "text/plain").getTtlMillis());
+        assertEquals(SSCachePolicy.Action.NEVER, policy.forResponse("/docs/a.html", null).getAction());
+        assertNull(policy.forResponse("/docs/x/a.html", "text/html"));
+    }
+
+    @Test
+    public void globsMatchWithinAndAcrossSegments() {
+        assertGlob("/app/main.js", "/app/main.js", "/app/main.js", "/app/main.jsx", "/app/main");
+        assertGlob("/app/**", "/app/", "/app/a/b.js", "/ap", "/other/app/x");
+        assertGlob("*.css", "site.css", ".css", "a/site.css", "site.cssx");
+        assertGlob("**.css", "a/b/site.css", "site.css", "site.less", "a.css/x");
+        assertGlob("/app/*.js", "/app/a.js", "/app/.js", "/app/x/a.js", "/app/a.jsx");
+        assertGlob("/a?c", "/abc", "/a.c", "/a/c", "/abbc");
+        assertGlob("/v[0-9]/*", "/v1/x", "/v9/", "/va/x", "/v1/x/y");
+        assertGlob("/v[!0-9]/x", "/va/x", "/v_/x", "/v1/x", "/vab/x");
+        assertGlob("/a.b+c(d)", "/a.b+c(d)", "/a.b+c(d)", "/axb+c(d)", "/a.bbc(d)");
+        assertGlob("/[x", "/[x", "/[x", "/x", "/[xx");
+    }
+
+    @Test
+    public void globPrefixEndsAtFirstWildcard() {
+        assertEquals("/app/", SSCachePolicy.globPrefix("/app/**"));
+        assertEquals("/app/main.js", SSCachePolicy.globPrefix("/app/main.js"));
+        assertEquals("", SSCachePolicy.globPrefix("*.css"));
+        assertEquals("/v", SSCachePolicy.globPrefix("/v[0-9]/*"));
+        assertEquals("/a", SSCachePolicy.globPrefix("/a?c"));
+
+        // unclosed bracket is a literal
+        assertEquals("/[x/", SSCachePolicy.globPrefix("/[x/*"));
+    }
+
+    private static SSCachePolicy policy(String... rules) {
+        return new SSCachePolicy(1 << 20, 1 << 20, SSUtils.parseStatusCodes("200"),
+                SSCachePolicy.parseRules(String.join("\n", rules)));
+    }
+
+    /**
+     * Assert a glob matches the first two inputs, and not the last two.
+     */
+    private static void assertGlob(String glob, String match1, String match2, String miss1, String miss2) {
+        final Predicate<String> matcher = SSCachePolicy.compileGlob(glob);
+        assertTrue(glob + " ~ " + match1, matcher.test(match1));
+        assertTrue(glob + " ~ " + match2, matcher.test(match2));
+        assertFalse(glob + " !~ " + miss1, matcher.test(miss1));
+        assertFalse(glob + " !~ " + miss2, matcher.test(miss2));
+    }
+}
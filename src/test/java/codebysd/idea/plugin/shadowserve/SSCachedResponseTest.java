@@ -0,0 +1,137 @@
+package codebysd.idea.plugin.shadowserve;
+
+import com.sun.net.httpserver.Headers;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests freshness lifetime, age and staleness of {@link SSCachedResponse}.
+ */
+public class SSCachedResponseTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final SSCacheControl NO_DIRECTIVES = SSCacheControl.parse(null);
+
+    @Test
+    public void maxAgeTakesPrecedenceOverExpires() {
+        final SSCachedResponse response = response(200, NOW, NOW,
+                "Date", date(NOW), "Cache-Control", "max-age=60", "Expires", date(NOW + HOUR));
+        assertEquals(60_000, response.getFreshnessLifetime());
+    }
+
+    @Test
+    public void expiresIsRelativeToDate() {
+        // origin clock an hour behind, lifetime still two hours
+        final SSCachedResponse response = response(200, NOW, NOW,
+                "Date", date(NOW - HOUR), "Expires", date(NOW + HOUR));
+        assertEquals(2 * HOUR, response.getFreshnessLifetime());
+
+        final SSCachedResponse invalid = response(200, NOW, NOW, "Date", date(NOW), "Expires", "0");
+        assertEquals(0, invalid.getFreshnessLifetime());
+    }
+
+    @Test
+    public void heuristicIsTenthOfLastModifiedAge() {
+        final SSCachedResponse response = response(200, NOW, NOW,
+                "Date", date(NOW), "Last-Modified", date(NOW - 10 * HOUR));
+        assertEquals(HOUR, response.getFreshnessLifetime());
+
+        // capped at a day
+        final SSCachedResponse old = response(200, NOW, NOW,
+                "Date", date(NOW), "Last-Modified", date(NOW - 1000 * HOUR));
+        assertEquals(24 * HOUR, old.getFreshnessLifetime());
+
+        // only for statuses cacheable by default
+        final SSCachedResponse created = response(201, NOW, NOW,
+                "Date", date(NOW), "Last-Modified", date(NOW - 10 * HOUR));
+        assertEquals(0, created.getFreshnessLifetime());
+    }
+
+    @Test
+    public void policyLifetimeOverridesHeaders() {
+        final SSCachedResponse response = response(200, NOW, NOW, "Cache-Control", "no-cache, max-age=0")
+                .withFreshnessLifetime(HOUR);
+        assertEquals(HOUR, response.getFreshnessLifetime());
+        assertTrue(response.isFresh(NOW + HOUR - 1000, NO_DIRECTIVES));
+    }
+
+    @Test
+    public void currentAgeCountsAgeHeaderDelayAndResidentTime() {
+        // 2 seconds on the way, 30 seconds in upstream caches, 10 seconds here
+        final SSCachedResponse response = response(200, NOW - 2000, NOW, "Date", date(NOW), "Age", "30");
+        assertEquals(42_000, response.getCurrentAge(NOW + 10_000));
+
+        // apparent age from an origin clock behind ours
+        final SSCachedResponse skewed = response(200, NOW, NOW, "Date", date(NOW - 50_000));
+        assertEquals(50_000, skewed.getCurrentAge(NOW));
+    }
+
+    @Test
+    public void refreshRestartsAge() {
+        final SSCachedResponse response = response(200, NOW, NOW, "Date", date(NOW), "Age", "30",
+                "Cache-Control", "max-age=60");
+        final Headers notModified = new Headers();
+        notModified.add("Date", date(NOW + HOUR));
+        notModified.add("Cache-Control", "max-age=120");
+        final SSCachedResponse refreshed = response.refresh(notModified, NOW + HOUR, NOW + HOUR);
+        assertEquals(0, refreshed.getCurrentAge(NOW + HOUR));
+        assertEquals(120_000, refreshed.getFreshnessLifetime());
+    }
+
+    @Test
+    public void freshnessHonoursRequestDirectives() {
+        final SSCachedResponse response = response(200, NOW, NOW, "Date", date(NOW), "Cache-Control", "max-age=100");
+        final long now = NOW + 50_000;
+        assertTrue(response.isFresh(now, NO_DIRECTIVES));
+        assertFalse(response.isFresh(NOW + 100_000, NO_DIRECTIVES));
+        assertFalse(response.isFresh(now, request("no-cache")));
+        assertFalse(response.isFresh(now, request("max-age=10")));
+        assertTrue(response.isFresh(now, request("max-age=60")));
+        assertFalse(response.isFresh(now, request("min-fresh=60")));
+        assertTrue(response.isFresh(now, request("min-fresh=40")));
+
+        final SSCachedResponse noCache = response(200, NOW, NOW, "Cache-Control", "no-cache, max-age=100");
+        assertFalse(noCache.isFresh(NOW, NO_DIRECTIVES));
+    }
+
+    @Test
+    public void staleWindowFollowsDirectiveOrDefault() {
+        final SSCachedResponse response = response(200, NOW, NOW,
+                "Date", date(NOW), "Cache-Control", "max-age=10, stale-while-revalidate=20");
+        assertTrue(response.isStaleUsable(NOW + 25_000, NO_DIRECTIVES, 0));
+        assertFalse(response.isStaleUsable(NOW + 31_000, NO_DIRECTIVES, 600));
+
+        final SSCachedResponse plain = response(200, NOW, NOW, "Date", date(NOW), "Cache-Control", "max-age=10");
+        assertTrue(plain.isStaleUsable(NOW + 25_000, NO_DIRECTIVES, 60));
+        assertFalse(plain.isStaleUsable(NOW + 25_000, NO_DIRECTIVES, 0));
+        assertFalse(plain.isStaleUsable(NOW + 25_000, request("max-age=60"), 60));
+
+        final SSCachedResponse strict = response(200, NOW, NOW,
+                "Date", date(NOW), "Cache-Control", "max-age=10, must-revalidate");
+        assertFalse(strict.isStaleUsable(NOW + 11_000, NO_DIRECTIVES, 60));
+    }
+
+    private static SSCachedResponse response(int status, long requestTime, long responseTime, String... headers) {
+        final Headers responseHeaders = new Headers();
+        for (int i = 0; i < headers.length; i += 2) {
+            responseHeaders.add(headers[i], headers[i + 1]);
+        }
+        return new SSCachedResponse(status, responseHeaders, Collections.emptyMap(), requestTime, responseTime);
+    }
+
+    private static SSCacheControl request(String cacheControl) {
+        return SSCacheControl.parse(Collections.singletonList(cacheControl));
+    }
+
+    private static String date(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+}
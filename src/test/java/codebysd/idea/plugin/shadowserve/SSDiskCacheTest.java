@@ -0,0 +1,270 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests recovery, torn record handling and maintenance of {@link SSDiskCache}.
+ */
+public class SSDiskCacheTest {
+    private static final long MAX_BYTES = 16 * 4096;
+    private static final int SEGMENT_SIZE = 4096;
+    private static final String INDEX_FILE = "cache.idx";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        try (SSDiskCache cache = open(dir)) {
+            cache.put("GET /a", bytes("head-a"), bytes("body-a"));
+            cache.put("GET /b", bytes("head-b"), bytes("body-b"));
+            cache.put("GET /c", bytes("head-c"), bytes("body-c"));
+            cache.update("GET /a", bytes("head-a2"));
+            cache.remove("GET /b");
+        }
+
+        try (SSDiskCache cache = open(dir)) {
+            assertEquals(2, cache.getEntryCount());
+            assertEntry(cache, "GET /a", "head-a2", "body-a");
+            assertNull(cache.get("GET /b"));
+            assertEntry(cache, "GET /c", "head-c", "body-c");
+        }
+    }
+
+    @Test
+    public void recordsAfterCheckpointAreRecovered() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        final byte[] staleIndex;
+        try (SSDiskCache cache = open(dir)) {
+            cache.put("GET /a", bytes("head-a"), bytes("body-a"));
+            cache.put("GET /b", bytes("head-b"), bytes("body-b"));
+            cache.flush();
+            staleIndex = Files.readAllBytes(dir.resolve(INDEX_FILE));
+
+            // written after the checkpoint
+            cache.put("GET /c", bytes("head-c"), bytes("body-c"));
+            cache.update("GET /a", bytes("head-a2"));
+            cache.remove("GET /b");
+        }
+
+        // as if the process died before the next checkpoint
+        Files.write(dir.resolve(INDEX_FILE), staleIndex);
+
+        try (SSDiskCache cache = open(dir)) {
+            assertEquals(2, cache.getEntryCount());
+            assertEntry(cache, "GET /a", "head-a2", "body-a");
+            assertNull(cache.get("GET /b"));
+            assertEntry(cache, "GET /c", "head-c", "body-c");
+        }
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        try (SSDiskCache cache = open(dir)) {
+            cache.put("GET /a", bytes("head-a"), bytes("body-a"));
+            cache.put("GET /b", bytes("head-b"), bytes("body-b"));
+        }
+
+        // last record torn, and no checkpoint covering it
+        Files.delete(dir.resolve(INDEX_FILE));
+        corrupt(firstSegment(dir), bytes("body-b"));
+
+        try (SSDiskCache cache = open(dir)) {
+            assertEquals(1, cache.getEntryCount());
+            assertEntry(cache, "GET /a", "head-a", "body-a");
+            assertNull(cache.get("GET /b"));
+
+            // torn record is overwritten by the next one
+            cache.put("GET /c", bytes("head-c"), bytes("body-c"));
+        }
+
+        Files.delete(dir.resolve(INDEX_FILE));
+        try (SSDiskCache cache = open(dir)) {
+            assertEquals(2, cache.getEntryCount());
+            assertEntry(cache, "GET /a", "head-a", "body-a");
+            assertEntry(cache, "GET /c", "head-c", "body-c");
+        }
+    }
+
+    @Test
+    public void corruptIndexFallsBackToScan() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        try (SSDiskCache cache = open(dir)) {
+            cache.put("GET /a", bytes("head-a"), bytes("body-a"));
+            cache.put("GET /b", bytes("head-b"), bytes("body-b"));
+            cache.remove("GET /a");
+        }
+
+        final byte[] index = Files.readAllBytes(dir.resolve(INDEX_FILE));
+        index[index.length / 2] ^= 0x5a;
+        Files.write(dir.resolve(INDEX_FILE), index);
+
+        try (SSDiskCache cache = open(dir)) {
+            assertEquals(1, cache.getEntryCount());
+            assertNull(cache.get("GET /a"));
+            assertEntry(cache, "GET /b", "head-b", "body-b");
+        }
+    }
+
+    @Test
+    public void garbageIsCompactedInBackground() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        final byte[] body = new byte[500];
+        Arrays.fill(body, (byte) 'x');
+        try (SSDiskCache cache = open(dir)) {
+            // a live entry in the first segment, then many overwrites of another key, flushed after pending
+            // maintenance so compaction keeps up and the budget never drops the live entry
+            cache.put("GET /keep", bytes("head"), body);
+            for (int i = 0; i < 200; i++) {
+                cache.put("GET /churn", bytes("head-" + i), body);
+                cache.flush();
+            }
+            assertTrue(segmentCount(dir) < MAX_BYTES / SEGMENT_SIZE);
+            assertArrayEquals(body, cache.get("GET /keep").getBody().toByteArray());
+            assertEntry(cache, "GET /churn", "head-199", new String(body, StandardCharsets.UTF_8));
+        }
+
+        try (SSDiskCache cache = open(dir)) {
+            assertEquals(2, cache.getEntryCount());
+            assertArrayEquals(body, cache.get("GET /keep").getBody().toByteArray());
+        }
+    }
+
+    @Test
+    public void tombstoneOutlivesCompactionOfItsSegment() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        final byte[] body = new byte[500];
+        final Path oldestSegment;
+        final Path tombstoneSegment;
+        try (SSDiskCache cache = open(dir)) {
+            // removed entry in the first segment, which stays mostly live and is not compacted
+            cache.put("GET /gone", bytes("head"), body);
+            oldestSegment = firstSegment(dir);
+            for (int i = 0; segmentCount(dir) < 2; i++) {
+                cache.put("GET /keep-" + i, bytes("head"), body);
+            }
+            tombstoneSegment = lastSegment(dir);
+            cache.remove("GET /gone");
+
+            // overwrites make the tombstone's segment mostly garbage, so it gets compacted
+            for (int i = 0; i < 20; i++) {
+                cache.put("GET /churn", bytes("head-" + i), body);
+                cache.flush();
+            }
+            assertFalse(Files.exists(tombstoneSegment));
+            assertTrue(Files.exists(oldestSegment));
+        }
+
+        // recover by scan, as after a crash between dropping a segment and the next checkpoint
+        Files.delete(dir.resolve(INDEX_FILE));
+        try (SSDiskCache cache = open(dir)) {
+            assertNull(cache.get("GET /gone"));
+            assertNotNull(cache.get("GET /keep-0"));
+            assertEntry(cache, "GET /churn", "head-19", new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void oldestSegmentsAreDroppedOverBudget() throws IOException {
+        final Path dir = mFolder.getRoot().toPath();
+        final byte[] body = new byte[1000];
+        try (SSDiskCache cache = open(dir)) {
+            for (int i = 0; i < 100; i++) {
+                cache.put("GET /" + i, bytes("head"), body);
+            }
+            cache.flush();
+            assertTrue(segmentCount(dir) <= MAX_BYTES / SEGMENT_SIZE);
+            assertNull(cache.get("GET /0"));
+            assertNotNull(cache.get("GET /99"));
+        }
+    }
+
+    @Test
+    public void closedCacheRejectsWrites() throws IOException {
+        final SSDiskCache cache = open(mFolder.getRoot().toPath());
+        cache.close();
+        assertFalse(cache.put("GET /a", bytes("head"), bytes("body")));
+        assertNull(cache.get("GET /a"));
+        cache.flush();
+    }
+
+    private static SSDiskCache open(Path dir) throws IOException {
+        return new SSDiskCache(dir, MAX_BYTES, SEGMENT_SIZE);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertEntry(SSDiskCache cache, String key, String head, String body) {
+        final SSCache.Value value = cache.get(key);
+        assertNotNull(key, value);
+        assertArrayEquals(bytes(head), value.getHead());
+        assertArrayEquals(bytes(body), value.getBody().toByteArray());
+    }
+
+    private static Path firstSegment(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "seg-*.dat")) {
+            return stream.iterator().next();
+        }
+    }
+
+    private static Path lastSegment(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "seg-*.dat")) {
+            Path last = null;
+            for (Path segment : stream) {
+                if (last == null || segment.getFileName().toString().compareTo(last.getFileName().toString()) > 0) {
+                    last = segment;
+                }
+            }
+            return last;
+        }
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "seg-*.dat")) {
+            long count = 0;
+            for (Path ignored : stream) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Flip a byte of the first occurrence of given bytes in a file, as a partly written record would leave it.
+     */
+    private static void corrupt(Path file, byte[] content) throws IOException {
+        final byte[] data = Files.readAllBytes(file);
+        for (int i = 0; i + content.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + content.length), content)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(new byte[]{(byte) (data[i] ^ 0x5a)}), i);
+                }
+                return;
+            }
+        }
+        throw new AssertionError("Content not found");
+    }
+}
@@ -0,0 +1,115 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests bucket bounds, percentiles and bound counts of {@link SSHistogram}.
+ */
+public class SSHistogramTest {
+    private static final long HIGHEST_TRACKABLE = (1L << 36) - 1;
+
+    @Test
+    public void smallValuesAreExact() {
+        final SSHistogram histogram = new SSHistogram();
+        for (long v = 0; v < 32; v++) {
+            assertEquals(v, bucketHighest(histogram, v));
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinASixteenthAndContiguous() {
+        final SSHistogram histogram = new SSHistogram();
+        final Random random = new Random(1);
+        for (int bits = 1; bits <= 36; bits++) {
+            // edges of each power of two, and random values of that magnitude
+            final long top = (1L << bits) - 1;
+            assertBucket(histogram, top);
+            assertBucket(histogram, top >> 1);
+            assertBucket(histogram, (top >> 1) + 1);
+            for (int i = 0; i < 100; i++) {
+                assertBucket(histogram, random.nextLong() & top);
+            }
+        }
+    }
+
+    @Test
+    public void valuesAreClampedToTrackableRange() {
+        final SSHistogram histogram = new SSHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        final SSHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(HIGHEST_TRACKABLE, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAt(50));
+        assertEquals(HIGHEST_TRACKABLE, snapshot.getValueAt(100));
+        assertEquals(HIGHEST_TRACKABLE, bucketHighest(histogram, HIGHEST_TRACKABLE));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        final SSHistogram histogram = new SSHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v);
+        }
+        final SSHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500, snapshot.getSum());
+        assertEquals(500.5, snapshot.getMean(), 0);
+        assertEquals(1, snapshot.getValueAt(0));
+        assertEquals(1000, snapshot.getValueAt(100));
+        for (int p = 1; p < 100; p++) {
+            final long value = snapshot.getValueAt(p);
+            assertTrue(p + "% at " + value, value >= p * 10 && value - p * 10 < Math.max(1, p * 10 / 16));
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.snapshot().getValueAt(99));
+        assertEquals(0, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void boundCountsTakeWholeBuckets() {
+        final SSHistogram histogram = new SSHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(100);
+        histogram.record(1000);
+
+        // 1000 is in bucket 992 to 1023, counted only with all values
+        final long[] counts = new long[4];
+        histogram.countAtOrBelow(new long[]{10, 50, 1000}, counts);
+        assertArrayEquals(new long[]{1, 2, 3, 4}, counts);
+
+        histogram.countAtOrBelow(new long[]{5, 1023}, counts);
+        assertArrayEquals(new long[]{0, 4, 4, 4}, counts);
+    }
+
+    /**
+     * Assert the bucket of a value ends within a sixteenth above it, and the next value starts another bucket.
+     */
+    private static void assertBucket(SSHistogram histogram, long value) {
+        final long highest = bucketHighest(histogram, value);
+        assertTrue(value + " in bucket up to " + highest, highest >= value);
+        assertTrue(value + " in bucket up to " + highest, value < 32 ? highest == value : highest - value < value / 16);
+        if (highest < HIGHEST_TRACKABLE) {
+            assertTrue(value + " bucket up to " + highest, bucketHighest(histogram, highest + 1) > highest);
+        }
+    }
+
+    /**
+     * Get highest value of the bucket holding a value, as reported by a percentile.
+     */
+    private static long bucketHighest(SSHistogram histogram, long value) {
+        histogram.reset();
+        histogram.record(value);
+        histogram.record(HIGHEST_TRACKABLE);
+        return histogram.snapshot().getValueAt(50);
+    }
+}
@@ -0,0 +1,36 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests request URI rewriting of {@link SSTargetURI}.
+ */
+public class SSTargetURITest {
+
+    @Test
+    public void requestIsRewrittenToResourceServer() {
+        final SSTargetURI target = new SSTargetURI(URI.create("https://example.com:8443/base/"));
+        assertEquals("https://example.com:8443/base/a/b.js?v=1", target.rewrite(URI.create("/a/b.js?v=1")));
+        assertEquals("https://example.com:8443/base/a/b#top", target.rewrite(URI.create("/a//b#top")));
+        assertEquals("https://example.com:8443/base/", target.rewrite(URI.create("")));
+        assertEquals("https://example.com:8443/base/?q", target.rewrite(URI.create("?q")));
+    }
+
+    @Test
+    public void serverWithoutPathOrPort() {
+        final SSTargetURI target = new SSTargetURI(URI.create("http://example.com"));
+        assertEquals("http://example.com/a", target.rewrite(URI.create("/a")));
+        assertEquals("http://example.com", target.rewrite(URI.create("")));
+    }
+
+    @Test
+    public void encodedPathAndQueryAreKept() {
+        final SSTargetURI target = new SSTargetURI(URI.create("http://example.com/api%20v1"));
+        assertEquals("http://example.com/api%20v1/a%2Fb/c%20d?x=%26&y=%2F#f%20g",
+                target.rewrite(URI.create("/a%2Fb/c%20d?x=%26&y=%2F#f%20g")));
+    }
+}
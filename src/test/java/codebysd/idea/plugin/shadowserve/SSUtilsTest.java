@@ -0,0 +1,78 @@
+package codebysd.idea.plugin.shadowserve;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests path joining of {@link SSUtils}.
+ */
+public class SSUtilsTest {
+
+    @Test
+    public void pathsAreJoined() {
+        assertEquals("/app/main.js", SSUtils.pathJoin("/app", "main.js"));
+        assertEquals("/app/main.js", SSUtils.pathJoin("/app/", "/main.js"));
+        assertEquals("/a/b/c/", SSUtils.pathJoin("\\a\\\\b", "", null, " ", "c//"));
+        assertEquals("/", SSUtils.pathJoin("/", "/"));
+        assertEquals("", SSUtils.pathJoin());
+        assertEquals("", SSUtils.pathJoin((String[]) null));
+
+        // blank parts skipped, inner spaces kept
+        assertEquals("a b/ c", SSUtils.pathJoin("a b", "\t", " c"));
+    }
+
+    @Test
+    public void pathIsAppendedAfterStart() {
+        final StringBuilder path = new StringBuilder("http://host//");
+        final int start = path.length();
+        SSUtils.appendPath(path, start, "x/a\\\\b/y", 1, 7);
+        SSUtils.appendPath(path, start, "  ", 0, 2);
+        SSUtils.appendPath(path, start, "//c", 0, 3);
+        assertEquals("http://host///a/b/c", path.toString());
+    }
+
+    @Test
+    public void nilRangesAreFound() {
+        assertTrue(SSUtils.isNil("a  b", 1, 3));
+        assertTrue(SSUtils.isNil("ab", 1, 1));
+        assertFalse(SSUtils.isNil(" \tb", 0, 3));
+    }
+
+    @Test
+    public void joinMatchesStreamAndRegexJoin() {
+        final Random random = new Random(1);
+        final char[] chars = {'a', 'b', '/', '\\', ' ', '\t', '.', '%'};
+        for (int i = 0; i < 200_000; i++) {
+            final String[] parts = new String[random.nextInt(4)];
+            for (int p = 0; p < parts.length; p++) {
+                if (random.nextInt(8) == 0) {
+                    continue;
+                }
+                final char[] part = new char[random.nextInt(6)];
+                for (int c = 0; c < part.length; c++) {
+                    part[c] = chars[random.nextInt(chars.length)];
+                }
+                parts[p] = new String(part);
+            }
+            assertEquals(Arrays.toString(parts), regexJoin(parts), SSUtils.pathJoin(parts));
+        }
+    }
+
+    /**
+     * Join path segments the way {@link SSUtils#pathJoin(String...)} used to, with streams and regexes.
+     */
+    private static String regexJoin(String... parts) {
+        return Arrays.stream(parts)
+                .filter(s -> !SSUtils.isNil(s))
+                .collect(Collectors.joining("/"))
+                .replaceAll("\\\\", "/")
+                .replaceAll("/{2,}", "/");
+    }
+}